@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.tomcat.bench.RequestCorpus;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Maps the host names and URIs of all the recorded requests with a varying
+ * number of hosts and contexts per host. Every host has the contexts that
+ * the recorded requests were sent to plus generated contexts up to the
+ * requested number. Requests are spread across the hosts. The layouts go up
+ * to 10000 hosts and to 50000 contexts in total. Each layout is mapped with
+ * and without the mapping result cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapperBenchmark {
+
+    private static final String DEFAULT_HOST = "www.example.com";
+
+    private static final String[] CONTEXTS = new String[] {
+            "", "/shop", "/account", "/api", "/docs" };
+
+    private static final String[] WRAPPERS = new String[] {
+            "/", "*.jsp", "/v1/*", "/v2/*", "/status", "/search", "/cart" };
+
+    // Limits the number of hosts each recorded request is sent to
+    private static final int MAX_HOSTS_PER_REQUEST = 16;
+
+    /**
+     * The number of hosts and the number of contexts per host.
+     */
+    @Param({"1x5", "100x100", "10000x5", "1x50000"})
+    public String layout;
+
+    /**
+     * The maximum number of cached mapping results. Zero disables the cache.
+     */
+    @Param({"0", "10000"})
+    public int mappingCacheSize;
+
+    private int hosts;
+    private int contexts;
+
+    private Mapper mapper;
+
+    private byte[][] hostNames;
+    private byte[][] uris;
+    private int next;
+
+    private final MessageBytes host = MessageBytes.newInstance();
+    private final MessageBytes uri = MessageBytes.newInstance();
+    private final MappingData mappingData = new MappingData();
+
+
+    @Setup
+    public void setup() throws IOException {
+        int x = layout.indexOf('x');
+        hosts = Integer.parseInt(layout.substring(0, x));
+        contexts = Integer.parseInt(layout.substring(x + 1));
+
+        List<String> names = new ArrayList<>();
+        names.add(DEFAULT_HOST);
+        for (int i = 1; i < hosts; i++) {
+            names.add("host" + i + ".example.com");
+        }
+
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < contexts; i++) {
+            if (i < CONTEXTS.length) {
+                paths.add(CONTEXTS[i]);
+            } else {
+                paths.add("/app" + i);
+            }
+        }
+
+        // The mapper only holds on to the container objects so they are
+        // shared to keep the larger layouts within a reasonable heap
+        List<Context> contextObjects = new ArrayList<>();
+        for (String path : paths) {
+            Context c = new StandardContext();
+            c.setName(path);
+            contextObjects.add(c);
+        }
+        List<Wrapper> wrapperObjects = new ArrayList<>();
+        for (String pattern : WRAPPERS) {
+            Wrapper w = new StandardWrapper();
+            w.setName(pattern);
+            wrapperObjects.add(w);
+        }
+
+        mapper = new Mapper();
+        mapper.setDefaultHostName(DEFAULT_HOST);
+        mapper.setMappingCacheSize(mappingCacheSize);
+        for (String name : names) {
+            Host h = new StandardHost();
+            h.setName(name);
+            mapper.addHost(name, new String[0], h);
+            for (int i = 0; i < paths.size(); i++) {
+                String path = paths.get(i);
+                mapper.addContextVersion(name, h, path, "0",
+                        contextObjects.get(i), new String[0], null);
+                for (int j = 0; j < WRAPPERS.length; j++) {
+                    mapper.addWrapper(name, path, "0", WRAPPERS[j],
+                            wrapperObjects.get(j), false, false);
+                }
+            }
+        }
+
+        List<byte[]> requestHosts = new ArrayList<>();
+        List<byte[]> requestUris = new ArrayList<>();
+        int hostsPerRequest = Math.min(hosts, MAX_HOSTS_PER_REQUEST);
+        for (String corpus : new String[] {RequestCorpus.SMALL_GET,
+                RequestCorpus.BIG_COOKIE, RequestCorpus.LONG_QUERY}) {
+            for (RequestCorpus.Entry entry :
+                    RequestCorpus.load(corpus).getEntries()) {
+                for (int i = 0; i < hostsPerRequest; i++) {
+                    String name;
+                    if (i == 0) {
+                        // As recorded. Unknown hosts use the default host.
+                        name = entry.getHeaderValues("Host").get(0);
+                    } else {
+                        name = names.get(i * hosts / hostsPerRequest);
+                    }
+                    requestHosts.add(
+                            name.getBytes(StandardCharsets.ISO_8859_1));
+                    requestUris.add(entry.getUri().getBytes(
+                            StandardCharsets.ISO_8859_1));
+                }
+            }
+        }
+        hostNames = requestHosts.toArray(new byte[requestHosts.size()][]);
+        uris = requestUris.toArray(new byte[requestUris.size()][]);
+    }
+
+
+    @Benchmark
+    public MappingData map() throws Exception {
+        int i = next;
+        next = (next + 1) % uris.length;
+
+        host.setBytes(hostNames[i], 0, hostNames[i].length);
+        uri.setBytes(uris[i], 0, uris[i].length);
+        mappingData.recycle();
+        mapper.map(host, uri, null, mappingData);
+        return mappingData;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.bench.RequestCorpus;
+
+/**
+ * Parses the request line and headers of recorded requests. The requests are
+ * copied directly into the input buffer so the socket is never read.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InternalNioInputBufferBenchmark {
+
+    // Matches the default maxHttpHeaderSize of the HTTP connectors
+    private static final int HEADER_BUFFER_SIZE = 8 * 1024;
+
+    @Param({RequestCorpus.SMALL_GET, RequestCorpus.BIG_COOKIE,
+            RequestCorpus.LONG_QUERY})
+    public String corpus;
+
+    private byte[][] requests;
+    private int next;
+
+    private Request request;
+    private InternalNioInputBuffer inputBuffer;
+
+
+    @Setup
+    public void setup() throws IOException {
+        RequestCorpus requestCorpus = RequestCorpus.load(corpus);
+        requests = new byte[requestCorpus.size()][];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = requestCorpus.get(i).getBytes();
+        }
+
+        request = new Request();
+        inputBuffer = new InternalNioInputBuffer(request, HEADER_BUFFER_SIZE);
+        // Normally sized by init() from the socket's read buffer size
+        inputBuffer.buf = new byte[Math.max(requestCorpus.getMaxRequestLength(),
+                HEADER_BUFFER_SIZE)];
+    }
+
+
+    @Benchmark
+    public Request parseRequest() throws IOException {
+        byte[] bytes = requests[next];
+        next = (next + 1) % requests.length;
+
+        inputBuffer.recycle();
+        System.arraycopy(bytes, 0, inputBuffer.buf, 0, bytes.length);
+        inputBuffer.lastValid = bytes.length;
+
+        if (!inputBuffer.parseRequestLine(true) ||
+                !inputBuffer.parseHeaders()) {
+            throw new IllegalStateException("Incomplete request");
+        }
+        return request;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of recorded HTTP requests used to drive the benchmarks.
+ * <p>
+ * Each corpus is a text file in this package named <code>[name].txt</code>.
+ * Lines starting with <code>#</code> are ignored and requests are separated
+ * by one or more blank lines. Requests do not have bodies. Line ends are
+ * converted to CRLF when the corpus is loaded so the files may be edited with
+ * any editor.
+ */
+public class RequestCorpus {
+
+    public static final String SMALL_GET = "small-get";
+    public static final String BIG_COOKIE = "big-cookie";
+    public static final String LONG_QUERY = "long-query";
+
+    private static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+    private static final byte[] CRLF = new byte[] {'\r', '\n'};
+
+
+    private final String name;
+    private final List<Entry> entries;
+
+
+    private RequestCorpus(String name, List<Entry> entries) {
+        this.name = name;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+
+    /**
+     * Load the named corpus.
+     *
+     * @param name  The name of the corpus, e.g. {@link #SMALL_GET}
+     * @return The requests in the corpus
+     * @throws IOException If the corpus cannot be found or read
+     */
+    public static RequestCorpus load(String name) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (InputStream is =
+                RequestCorpus.class.getResourceAsStream(name + ".txt")) {
+            if (is == null) {
+                throw new IOException("Unknown request corpus [" + name + "]");
+            }
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(is, CHARSET));
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                if (line.length() == 0) {
+                    if (lines.size() > 0) {
+                        entries.add(new Entry(lines));
+                        lines.clear();
+                    }
+                } else {
+                    lines.add(line);
+                }
+            }
+            if (lines.size() > 0) {
+                entries.add(new Entry(lines));
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new IOException("Empty request corpus [" + name + "]");
+        }
+        return new RequestCorpus(name, entries);
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    public int size() {
+        return entries.size();
+    }
+
+
+    public Entry get(int index) {
+        return entries.get(index);
+    }
+
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+
+    /**
+     * @return The length in bytes of the largest request in the corpus
+     */
+    public int getMaxRequestLength() {
+        int max = 0;
+        for (Entry entry : entries) {
+            max = Math.max(max, entry.getBytes().length);
+        }
+        return max;
+    }
+
+
+    /**
+     * A single recorded request.
+     */
+    public static class Entry {
+
+        private final byte[] bytes;
+        private final String method;
+        private final String uri;
+        private final String queryString;
+        private final String protocol;
+        private final List<String[]> headers = new ArrayList<>();
+
+        Entry(List<String> lines) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            for (String line : lines) {
+                baos.write(line.getBytes(CHARSET));
+                baos.write(CRLF);
+            }
+            baos.write(CRLF);
+            bytes = baos.toByteArray();
+
+            String[] requestLine = lines.get(0).split(" ");
+            if (requestLine.length != 3) {
+                throw new IOException(
+                        "Invalid request line [" + lines.get(0) + "]");
+            }
+            method = requestLine[0];
+            int q = requestLine[1].indexOf('?');
+            if (q == -1) {
+                uri = requestLine[1];
+                queryString = null;
+            } else {
+                uri = requestLine[1].substring(0, q);
+                queryString = requestLine[1].substring(q + 1);
+            }
+            protocol = requestLine[2];
+
+            for (int i = 1; i < lines.size(); i++) {
+                String line = lines.get(i);
+                int colon = line.indexOf(':');
+                if (colon == -1) {
+                    throw new IOException("Invalid header [" + line + "]");
+                }
+                headers.add(new String[] {line.substring(0, colon),
+                        line.substring(colon + 1).trim()});
+            }
+        }
+
+        /**
+         * @return The request as it would be read from the network
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return The undecoded request URI without the query string
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return The undecoded query string or <code>null</code> if there
+         *         is none
+         */
+        public String getQueryString() {
+            return queryString;
+        }
+
+        public String getProtocol() {
+            return protocol;
+        }
+
+        /**
+         * @return The headers in the order they were sent as an array of
+         *         {name, value} pairs
+         */
+        public List<String[]> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * @param name  The header name, matched case insensitively
+         * @return The values of all the headers with the given name
+         */
+        public List<String> getHeaderValues(String name) {
+            List<String> values = new ArrayList<>();
+            for (String[] header : headers) {
+                if (header[0].equalsIgnoreCase(name)) {
+                    values.add(header[1]);
+                }
+            }
+            return values;
+        }
+    }
+}
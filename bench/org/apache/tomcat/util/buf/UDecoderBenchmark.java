@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.tomcat.bench.RequestCorpus;
+
+/**
+ * URL decodes the request URI and, where present, the query string of the
+ * recorded requests. Decoding happens in place so the undecoded bytes are
+ * copied into a scratch buffer first.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UDecoderBenchmark {
+
+    @Param({RequestCorpus.SMALL_GET, RequestCorpus.BIG_COOKIE,
+            RequestCorpus.LONG_QUERY})
+    public String corpus;
+
+    private byte[][] uris;
+    private byte[][] queries;
+    private int next;
+
+    private final UDecoder decoder = new UDecoder();
+    private final ByteChunk chunk = new ByteChunk();
+    private byte[] scratch;
+
+
+    @Setup
+    public void setup() throws IOException {
+        RequestCorpus requestCorpus = RequestCorpus.load(corpus);
+        uris = new byte[requestCorpus.size()][];
+        queries = new byte[requestCorpus.size()][];
+        for (int i = 0; i < uris.length; i++) {
+            RequestCorpus.Entry entry = requestCorpus.get(i);
+            uris[i] = entry.getUri().getBytes(StandardCharsets.ISO_8859_1);
+            if (entry.getQueryString() != null) {
+                queries[i] = entry.getQueryString().getBytes(
+                        StandardCharsets.ISO_8859_1);
+            }
+        }
+        scratch = new byte[requestCorpus.getMaxRequestLength()];
+    }
+
+
+    @Benchmark
+    public int decode() throws IOException {
+        int i = next;
+        next = (next + 1) % uris.length;
+
+        int result = decode(uris[i], false);
+        if (queries[i] != null) {
+            result += decode(queries[i], true);
+        }
+        return result;
+    }
+
+
+    private int decode(byte[] bytes, boolean query) throws IOException {
+        System.arraycopy(bytes, 0, scratch, 0, bytes.length);
+        chunk.setBytes(scratch, 0, bytes.length);
+        decoder.convert(chunk, query);
+        return chunk.getLength();
+    }
+}
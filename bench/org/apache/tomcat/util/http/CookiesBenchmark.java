@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.apache.tomcat.bench.RequestCorpus;
+
+/**
+ * Parses the Cookie headers of the recorded requests that have any.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CookiesBenchmark {
+
+    @Param({RequestCorpus.SMALL_GET, RequestCorpus.BIG_COOKIE})
+    public String corpus;
+
+    private Cookies[] cookies;
+    private int next;
+
+
+    @Setup
+    public void setup() throws IOException {
+        RequestCorpus requestCorpus = RequestCorpus.load(corpus);
+        List<Cookies> result = new ArrayList<>();
+        for (RequestCorpus.Entry entry : requestCorpus.getEntries()) {
+            List<String> values = entry.getHeaderValues("Cookie");
+            if (values.isEmpty()) {
+                continue;
+            }
+            MimeHeaders headers = new MimeHeaders();
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+                headers.addValue("Cookie").setBytes(bytes, 0, bytes.length);
+            }
+            result.add(new Cookies(headers));
+        }
+        if (result.isEmpty()) {
+            throw new IllegalStateException(
+                    "No requests with cookies in [" + corpus + "]");
+        }
+        cookies = result.toArray(new Cookies[result.size()]);
+    }
+
+
+    @Benchmark
+    public void parse(Blackhole bh) {
+        Cookies c = cookies[next];
+        next = (next + 1) % cookies.length;
+
+        c.recycle();
+        int count = c.getCookieCount();
+        for (int i = 0; i < count; i++) {
+            bh.consume(c.getCookie(i).getValue());
+        }
+    }
+}
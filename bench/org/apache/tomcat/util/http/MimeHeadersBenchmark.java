@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.apache.tomcat.bench.RequestCorpus;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Looks up the headers that the HTTP connectors and a typical application
+ * read while processing a request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MimeHeadersBenchmark {
+
+    private static final String[] LOOKUPS = new String[] {
+            "host", "expect", "connection", "user-agent", "transfer-encoding",
+            "content-length", "accept-encoding", "content-type", "cookie",
+            "if-modified-since", "if-none-match", "authorization" };
+
+    @Param({RequestCorpus.SMALL_GET, RequestCorpus.BIG_COOKIE,
+            RequestCorpus.LONG_QUERY})
+    public String corpus;
+
+    private MimeHeaders[] headers;
+    private int next;
+
+
+    @Setup
+    public void setup() throws IOException {
+        RequestCorpus requestCorpus = RequestCorpus.load(corpus);
+        headers = new MimeHeaders[requestCorpus.size()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = new MimeHeaders();
+            // Names and values are added as bytes, as the input buffers do
+            for (String[] header : requestCorpus.get(i).getHeaders()) {
+                byte[] name = header[0].getBytes(StandardCharsets.ISO_8859_1);
+                byte[] value = header[1].getBytes(StandardCharsets.ISO_8859_1);
+                headers[i].addValue(name, 0, name.length).setBytes(
+                        value, 0, value.length);
+            }
+        }
+    }
+
+
+    @Benchmark
+    public void getValue(Blackhole bh) {
+        MimeHeaders mimeHeaders = headers[next];
+        next = (next + 1) % headers.length;
+
+        for (String name : LOOKUPS) {
+            bh.consume(mimeHeaders.getValue(name));
+        }
+    }
+
+
+    @Benchmark
+    public void findAllValues(Blackhole bh) {
+        MimeHeaders mimeHeaders = headers[next];
+        next = (next + 1) % headers.length;
+
+        for (String name : LOOKUPS) {
+            int pos = mimeHeaders.findHeader(name, 0);
+            while (pos >= 0) {
+                MessageBytes value = mimeHeaders.getValue(pos);
+                bh.consume(value);
+                pos = mimeHeaders.findHeader(name, pos + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.apache.tomcat.bench.RequestCorpus;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.buf.UDecoder;
+
+/**
+ * Decodes the query strings of the recorded requests, either reading every
+ * parameter or looking up a single parameter as many applications do. Both
+ * are measured with the parameters decoded eagerly and lazily.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParametersBenchmark {
+
+    @Param({RequestCorpus.SMALL_GET, RequestCorpus.LONG_QUERY})
+    public String corpus;
+
+    @Param({"false", "true"})
+    public boolean lazy;
+
+    private MessageBytes[] queries;
+    private int next;
+
+    private final Parameters parameters = new Parameters();
+
+
+    @Setup
+    public void setup() throws IOException {
+        RequestCorpus requestCorpus = RequestCorpus.load(corpus);
+        List<MessageBytes> result = new ArrayList<>();
+        for (RequestCorpus.Entry entry : requestCorpus.getEntries()) {
+            MessageBytes query = MessageBytes.newInstance();
+            // Requests without a query string are included since they are
+            // part of the workload too
+            if (entry.getQueryString() != null) {
+                byte[] bytes = entry.getQueryString().getBytes(
+                        StandardCharsets.ISO_8859_1);
+                query.setBytes(bytes, 0, bytes.length);
+            }
+            result.add(query);
+        }
+        queries = result.toArray(new MessageBytes[result.size()]);
+        parameters.setURLDecoder(new UDecoder());
+        parameters.setQueryStringEncoding("UTF-8");
+        parameters.setLazy(lazy);
+    }
+
+
+    private Parameters nextParameters() {
+        MessageBytes query = queries[next];
+        next = (next + 1) % queries.length;
+
+        parameters.recycle();
+        parameters.setQuery(query);
+        return parameters;
+    }
+
+
+    @Benchmark
+    public void getAllParameters(Blackhole bh) {
+        Parameters p = nextParameters();
+        Enumeration<String> names = p.getParameterNames();
+        while (names.hasMoreElements()) {
+            bh.consume(p.getParameterValues(names.nextElement()));
+        }
+    }
+
+
+    @Benchmark
+    public String getParameter() {
+        return nextParameters().getParameter("q");
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.catalina;
 
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 
 /**
  * Represents a file or directory within a web application. It borrows heavily
@@ -113,6 +114,30 @@ public interface WebResource {
      */
     byte[] getContent();
 
+    /**
+     * Obtain the binary content of this resource as a read-only
+     * {@link ByteBuffer} without copying it into a byte array. This is only
+     * possible for some resources, such as cached resources with memory mapped
+     * content.
+     *
+     * @return  A new buffer (with independent position and limit) positioned
+     *          at the start of the content or <code>null</code> if the content
+     *          is not available in this form. A buffer that is returned must
+     *          be passed to {@link #releaseContentBuffer(ByteBuffer)} once it
+     *          is no longer used.
+     */
+    ByteBuffer getContentBuffer();
+
+    /**
+     * Signal that a buffer obtained from {@link #getContentBuffer()} is no
+     * longer used. Memory mapped content is only unmapped once all the buffers
+     * obtained for it have been released. The buffer must not be used after it
+     * has been released.
+     *
+     * @param buffer    The buffer to release
+     */
+    void releaseContentBuffer(ByteBuffer buffer);
+
     /**
      * The time the file was created. If not available, the result of
      * {@link #getLastModified()} will be returned.
@@ -95,6 +95,24 @@ public interface WebResourceRoot extends Lifecycle {
      */
     WebResource getResource(String path);
 
+    /**
+     * Obtain a representation of the resource at the given path that has been
+     * compressed with the given content encoding. Compressed representations
+     * are only available if caching is enabled since they are created once and
+     * then held in the cache.
+     *
+     * @param path      The path for the resource of interest relative to the
+     *                  root of the web application. It must start with '/'.
+     * @param encoding  The content encoding to use. Currently only
+     *                  <code>gzip</code> is supported.
+     *
+     * @return  The compressed representation of the resource or
+     *          <code>null</code> if compressed representations are not
+     *          supported for the given encoding. The returned resource will not
+     *          exist if the resource could not usefully be compressed.
+     */
+    WebResource getCompressedResource(String path, String encoding);
+
     /**
      * Obtain the object(s) that represent the resource at the given path. Note
      * that the resource at that path may not exist. If the path does not
@@ -302,6 +320,25 @@ public interface WebResourceRoot extends Lifecycle {
      */
     long getCacheMaxObjectSize();
 
+    /**
+     * Set the maximum permitted size for memory mapped content in the cache.
+     * Resources larger than the maximum object size that are backed by a file
+     * will have their content memory mapped rather than held on the heap
+     * provided that the total size of the mapped content does not exceed this
+     * value.
+     *
+     * @param cacheMappedMaxSize    Maximum size for memory mapped content in
+     *                              kilobytes. Zero disables memory mapping.
+     */
+    void setCacheMappedMaxSize(long cacheMappedMaxSize);
+
+    /**
+     * Get the maximum permitted size for memory mapped content in the cache.
+     *
+     * @return  Maximum size for memory mapped content in kilobytes
+     */
+    long getCacheMappedMaxSize();
+
     /**
      * This method will be invoked by the context on a periodic basis and allows
      * the implementation a method that executes periodic tasks, such as purging
@@ -171,6 +171,12 @@ public class Connector extends LifecycleMBeanBase  {
      */
     protected int maxParameterCount = 10000;
 
+    /**
+     * Should the request parameters be decoded lazily, each one the first
+     * time it is looked up?
+     */
+    protected boolean lazyParameterDecoding = false;
+
     /**
      * Maximum size of a POST which will be automatically parsed by the
      * container. 2MB by default.
@@ -417,6 +423,27 @@ public class Connector extends LifecycleMBeanBase  {
     }
 
 
+    /**
+     * Return <code>true</code> if the request parameters are decoded lazily,
+     * each one the first time it is looked up.
+     */
+    public boolean getLazyParameterDecoding() {
+        return lazyParameterDecoding;
+    }
+
+
+    /**
+     * Set whether the request parameters are decoded lazily, each one the
+     * first time it is looked up, rather than all of them the first time any
+     * of them is looked up.
+     *
+     * @param lazyParameterDecoding The new setting
+     */
+    public void setLazyParameterDecoding(boolean lazyParameterDecoding) {
+        this.lazyParameterDecoding = lazyParameterDecoding;
+    }
+
+
     /**
      * Return the maximum size of a POST which will be automatically
      * parsed by the container.
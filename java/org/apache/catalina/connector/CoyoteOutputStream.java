@@ -17,6 +17,7 @@
 package org.apache.catalina.connector;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
@@ -93,6 +94,18 @@ public class CoyoteOutputStream
     }
 
 
+    /**
+     * Write the remaining content of the provided buffer without first copying
+     * it into a byte array.
+     *
+     * @param from  The buffer containing the content to write
+     */
+    public void write(ByteBuffer from)
+        throws IOException {
+        ob.write(from);
+    }
+
+
     /**
      * Will send the buffer to the client.
      */
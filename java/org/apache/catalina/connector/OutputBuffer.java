@@ -19,6 +19,7 @@ package org.apache.catalina.connector;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -413,6 +414,37 @@ public class OutputBuffer extends Writer
     }
 
 
+    /**
+     * Write the remaining content of the provided buffer to the response. The
+     * content is copied directly into the response buffer.
+     *
+     * @param from  The buffer containing the content to write
+     *
+     * @throws IOException An underlying IOException occurred
+     */
+    public void write(ByteBuffer from) throws IOException {
+
+        if (suspended) {
+            return;
+        }
+
+        if (closed) {
+            return;
+        }
+
+        int len = from.remaining();
+        bb.append(from);
+        bytesWritten += len;
+
+        // if called from within flush(), then immediately flush
+        // remaining bytes
+        if (doFlush) {
+            bb.flushBuffer();
+        }
+
+    }
+
+
     public void writeByte(int b)
         throws IOException {
 
@@ -655,6 +655,12 @@ public class StandardContext extends ContainerBase
     protected int cacheObjectMaxSize = 512; // 512K
 
 
+    /**
+     * Cache max size for memory mapped content in KB.
+     */
+    protected int cacheMappedMaxSize = 0; // Disabled
+
+
     /**
      * Cache TTL in ms.
      */
@@ -1142,6 +1148,22 @@ public class StandardContext extends ContainerBase
     }
 
 
+    /**
+     * Return the maximum size of memory mapped content in the cache in KB.
+     */
+    public int getCacheMappedMaxSize() {
+        return cacheMappedMaxSize;
+    }
+
+
+    /**
+     * Set the maximum size of memory mapped content in the cache in KB.
+     */
+    public void setCacheMappedMaxSize(int cacheMappedMaxSize) {
+        this.cacheMappedMaxSize = cacheMappedMaxSize;
+    }
+
+
     /**
      * Add a ServletContainerInitializer instance to this web application.
      *
@@ -4777,6 +4799,7 @@ public class StandardContext extends ContainerBase
         resources.setCacheTtl(getCacheTTL());
         resources.setCacheMaxSize(getCacheMaxSize());
         resources.setCacheMaxObjectSize(getCacheObjectMaxSize());
+        resources.setCacheMappedMaxSize(getCacheMappedMaxSize());
 
         resources.start();
 
@@ -117,6 +117,29 @@ public class StandardService extends LifecycleMBeanBase implements Service {
     }
 
 
+    /**
+     * Return the maximum number of request mapping results cached by the
+     * mapper of this Service.
+     */
+    public int getMappingCacheSize() {
+        return mapper.getMappingCacheSize();
+    }
+
+
+    /**
+     * Set the maximum number of request mapping results cached by the mapper
+     * of this Service. Zero or less disables the cache.
+     *
+     * @param mappingCacheSize The new maximum number of cached results
+     */
+    public void setMappingCacheSize(int mappingCacheSize) {
+        int oldMappingCacheSize = mapper.getMappingCacheSize();
+        mapper.setMappingCacheSize(mappingCacheSize);
+        support.firePropertyChange("mappingCacheSize",
+                oldMappingCacheSize, mappingCacheSize);
+    }
+
+
     /**
      * Return the <code>Container</code> that handles requests for all
      * <code>Connectors</code> associated with this Service.
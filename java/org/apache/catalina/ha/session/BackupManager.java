@@ -29,6 +29,7 @@ import org.apache.catalina.ha.CatalinaCluster;
 import org.apache.catalina.ha.ClusterManager;
 import org.apache.catalina.ha.ClusterMessage;
 import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapEntry;
 import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapOwner;
 import org.apache.catalina.tribes.tipis.LazyReplicatedMap;
 import org.apache.juli.logging.Log;
@@ -119,9 +120,27 @@ public class BackupManager extends ClusterManagerBase
                 session.setPrimarySession(true);
                 session.endAccess();
             }
+            // Sessions that become primary here, for example when the
+            // primary node fails, did not arrive through add()
+            scheduleExpiration(session);
         }
     }
 
+    @Override
+    protected boolean isActiveSession(Session session) {
+        if (!(sessions instanceof LazyReplicatedMap)) {
+            return super.isActiveSession(session);
+        }
+        String id = session.getIdInternal();
+        if (id == null) {
+            return false;
+        }
+        // Don't use get() as that makes this node the primary for the session
+        MapEntry<String,Session> entry =
+                ((LazyReplicatedMap<String,Session>)sessions).getInternal(id);
+        return entry != null && entry.isPrimary() && entry.getValue() == session;
+    }
+
     @Override
     public Session createEmptySession() {
         return new DeltaSession(this);
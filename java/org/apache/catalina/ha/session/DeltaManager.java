@@ -1116,20 +1116,8 @@ public class DeltaManager extends ClusterManagerBase{
     public synchronized void resetStatistics() {
         processingTime = 0 ;
         expiredSessions.set(0);
-        synchronized (sessionCreationTiming) {
-            sessionCreationTiming.clear();
-            while (sessionCreationTiming.size() <
-                    ManagerBase.TIMING_STATS_CACHE_SIZE) {
-                sessionCreationTiming.add(null);
-            }
-        }
-        synchronized (sessionExpirationTiming) {
-            sessionExpirationTiming.clear();
-            while (sessionExpirationTiming.size() <
-                    ManagerBase.TIMING_STATS_CACHE_SIZE) {
-                sessionExpirationTiming.add(null);
-            }
-        }
+        sessionCreationTiming.clear();
+        sessionExpirationTiming.clear();
         rejectedSessions = 0 ;
         sessionReplaceCounter = 0 ;
         counterNoStateTransfered = 0 ;
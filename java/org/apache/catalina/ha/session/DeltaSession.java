@@ -300,6 +300,9 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
     public void setMaxInactiveInterval(int interval, boolean addDeltaRequest) {
         super.maxInactiveInterval = interval;
+        if (manager instanceof ManagerBase) {
+            ((ManagerBase) manager).rescheduleExpiration(this);
+        }
         if (addDeltaRequest && (deltaRequest != null)) {
             try {
                 lock();
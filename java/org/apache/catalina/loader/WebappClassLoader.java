@@ -41,16 +41,19 @@ import java.security.Policy;
 import java.security.PrivilegedAction;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
@@ -128,9 +131,15 @@ public class WebappClassLoader
 
     private static final String JVN_THREAD_GROUP_SYSTEM = "system";
 
+    private static final int[] NO_JARS = new int[0];
+
     static {
         JVM_THREAD_GROUP_NAMES.add(JVN_THREAD_GROUP_SYSTEM);
         JVM_THREAD_GROUP_NAMES.add("RMI Runtime");
+
+        // Classes are loaded under a lock per class name rather than a lock on
+        // the class loader
+        ClassLoader.registerAsParallelCapable();
     }
 
     protected class PrivilegedFindResourceByName
@@ -264,21 +273,29 @@ public class WebappClassLoader
      * The cache of ResourceEntry for classes and resources we have loaded,
      * keyed by resource name.
      */
-    protected final HashMap<String, ResourceEntry> resourceEntries = new HashMap<>();
+    protected final ConcurrentMap<String, ResourceEntry> resourceEntries =
+            new ConcurrentHashMap<>();
 
 
     /**
-     * The list of not found resources.
+     * The list of not found resources. The list is cleared if it grows beyond
+     * {@link #NOT_FOUND_RESOURCES_MAX}.
      */
-    protected final HashMap<String, String> notFoundResources =
-        new LinkedHashMap<String, String>() {
-        private static final long serialVersionUID = 1L;
-        @Override
-        protected boolean removeEldestEntry(
-                Map.Entry<String, String> eldest) {
-            return size() > 1000;
-        }
-    };
+    protected final Map<String, String> notFoundResources =
+            new ConcurrentHashMap<>();
+
+    private static final int NOT_FOUND_RESOURCES_MAX = 1000;
+
+
+    /**
+     * Index of the packages that have at least one entry in the JARs in
+     * {@link #jarFiles}. Each package path (the entry name up to the last
+     * <code>/</code>) is mapped to the positions in {@link #jarFiles} of the
+     * JARs that contain it. This allows requests for resources that are not
+     * in any JAR to be answered without searching or opening the JARs.
+     */
+    private final Map<String, int[]> jarPackageIndex =
+            new ConcurrentHashMap<>();
 
 
     /**
@@ -830,6 +847,66 @@ public class WebappClassLoader
         }
         result4[jarRealFiles.length] = file;
         jarRealFiles = result4;
+
+        indexJar(jarFile, jarFiles.length - 1);
+    }
+
+
+    /**
+     * Add the packages found in the given JAR to the package index.
+     *
+     * @param jarFile   The JAR to index
+     * @param position  The position of the JAR in {@link #jarFiles}
+     */
+    private void indexJar(JarFile jarFile, int position) {
+        Set<String> packages = new HashSet<>();
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            packages.add(getPackagePath(entries.nextElement().getName()));
+        }
+        for (String packagePath : packages) {
+            int[] current = jarPackageIndex.get(packagePath);
+            int[] result;
+            if (current == null) {
+                result = new int[] { position };
+            } else {
+                result = Arrays.copyOf(current, current.length + 1);
+                result[current.length] = position;
+            }
+            jarPackageIndex.put(packagePath, result);
+        }
+    }
+
+
+    /**
+     * Identify the JARs that could contain the resource with the given path.
+     *
+     * @param path  The path of the resource within a JAR
+     * @return The positions in {@link #jarFiles} of the JARs, in search order
+     */
+    private int[] getCandidateJars(String path) {
+        int[] result = jarPackageIndex.get(getPackagePath(path));
+        if (result == null) {
+            return NO_JARS;
+        }
+        return result;
+    }
+
+
+    /*
+     * The package path for a JAR entry name. A trailing '/' is ignored since
+     * JarFile.getJarEntry() will find a directory with or without it.
+     */
+    private static String getPackagePath(String name) {
+        int end = name.length();
+        if (end > 0 && name.charAt(end - 1) == '/') {
+            end--;
+        }
+        int pos = name.lastIndexOf('/', end - 1);
+        if (pos == -1) {
+            return "";
+        }
+        return name.substring(0, pos);
     }
 
 
@@ -1083,7 +1160,7 @@ public class WebappClassLoader
 
         LinkedHashSet<URL> result = new LinkedHashSet<>();
 
-        int jarFilesLength = jarFiles.length;
+        int[] candidateJars = getCandidateJars(name);
 
         if (repository != null) {
             // Looking at the repository
@@ -1095,18 +1172,20 @@ public class WebappClassLoader
             }
         }
 
-        // Looking at the JAR files
-        synchronized (jarFiles) {
-            if (openJARs()) {
-                for (int i = 0; i < jarFilesLength; i++) {
-                    JarEntry jarEntry = jarFiles[i].getJarEntry(name);
-                    if (jarEntry != null) {
-                        try {
-                            String jarFakeUrl = getURI(jarRealFiles[i]).toString();
-                            jarFakeUrl = "jar:" + jarFakeUrl + "!/" + name;
-                            result.add(new URL(jarFakeUrl));
-                        } catch (MalformedURLException e) {
-                            // Ignore
+        // Looking at the JAR files that may contain the resource
+        if (candidateJars.length > 0) {
+            synchronized (jarFiles) {
+                if (openJARs()) {
+                    for (int i : candidateJars) {
+                        JarEntry jarEntry = jarFiles[i].getJarEntry(name);
+                        if (jarEntry != null) {
+                            try {
+                                String jarFakeUrl = getURI(jarRealFiles[i]).toString();
+                                jarFakeUrl = "jar:" + jarFakeUrl + "!/" + name;
+                                result.add(new URL(jarFakeUrl));
+                            } catch (MalformedURLException e) {
+                                // Ignore
+                            }
                         }
                     }
                 }
@@ -1339,84 +1418,48 @@ public class WebappClassLoader
      * @exception ClassNotFoundException if the class was not found
      */
     @Override
-    public synchronized Class<?> loadClass(String name, boolean resolve)
+    public Class<?> loadClass(String name, boolean resolve)
         throws ClassNotFoundException {
 
-        if (log.isDebugEnabled())
-            log.debug("loadClass(" + name + ", " + resolve + ")");
-        Class<?> clazz = null;
-
-        // Log access to stopped classloader
-        if (!started) {
-            try {
-                throw new IllegalStateException();
-            } catch (IllegalStateException e) {
-                log.info(sm.getString("webappClassLoader.stopped", name), e);
-            }
-        }
-
-        // (0) Check our previously loaded local class cache
-        clazz = findLoadedClass0(name);
-        if (clazz != null) {
+        synchronized (getClassLoadingLock(name)) {
             if (log.isDebugEnabled())
-                log.debug("  Returning class from cache");
-            if (resolve)
-                resolveClass(clazz);
-            return (clazz);
-        }
+                log.debug("loadClass(" + name + ", " + resolve + ")");
+            Class<?> clazz = null;
 
-        // (0.1) Check our previously loaded class cache
-        clazz = findLoadedClass(name);
-        if (clazz != null) {
-            if (log.isDebugEnabled())
-                log.debug("  Returning class from cache");
-            if (resolve)
-                resolveClass(clazz);
-            return (clazz);
-        }
+            // Log access to stopped classloader
+            if (!started) {
+                try {
+                    throw new IllegalStateException();
+                } catch (IllegalStateException e) {
+                    log.info(sm.getString("webappClassLoader.stopped", name), e);
+                }
+            }
 
-        // (0.2) Try loading the class with the system class loader, to prevent
-        //       the webapp from overriding J2SE classes
-        try {
-            clazz = system.loadClass(name);
+            // (0) Check our previously loaded local class cache
+            clazz = findLoadedClass0(name);
             if (clazz != null) {
+                if (log.isDebugEnabled())
+                    log.debug("  Returning class from cache");
                 if (resolve)
                     resolveClass(clazz);
                 return (clazz);
             }
-        } catch (ClassNotFoundException e) {
-            // Ignore
-        }
 
-        // (0.5) Permission to access this class when using a SecurityManager
-        if (securityManager != null) {
-            int i = name.lastIndexOf('.');
-            if (i >= 0) {
-                try {
-                    securityManager.checkPackageAccess(name.substring(0,i));
-                } catch (SecurityException se) {
-                    String error = "Security Violation, attempt to use " +
-                        "Restricted Class: " + name;
-                    log.info(error, se);
-                    throw new ClassNotFoundException(error, se);
-                }
+            // (0.1) Check our previously loaded class cache
+            clazz = findLoadedClass(name);
+            if (clazz != null) {
+                if (log.isDebugEnabled())
+                    log.debug("  Returning class from cache");
+                if (resolve)
+                    resolveClass(clazz);
+                return (clazz);
             }
-        }
-
-        boolean delegateLoad = delegate || filter(name);
 
-        // (1) Delegate to our parent if requested
-        if (delegateLoad) {
-            if (log.isDebugEnabled())
-                log.debug("  Delegating to parent classloader1 " + parent);
-            ClassLoader loader = parent;
-            if (loader == null)
-                loader = system;
+            // (0.2) Try loading the class with the system class loader, to prevent
+            //       the webapp from overriding J2SE classes
             try {
-                clazz = Class.forName(name, false, loader);
+                clazz = system.loadClass(name);
                 if (clazz != null) {
-                    if (log.isDebugEnabled())
-                        log.debug("  Loading class from parent");
                     if (resolve)
                         resolveClass(clazz);
                     return (clazz);
@@ -1424,36 +1467,53 @@ public class WebappClassLoader
             } catch (ClassNotFoundException e) {
                 // Ignore
             }
-        }
 
-        // (2) Search local repositories
-        if (log.isDebugEnabled())
-            log.debug("  Searching local repositories");
-        try {
-            clazz = findClass(name);
-            if (clazz != null) {
+            // (0.5) Permission to access this class when using a SecurityManager
+            if (securityManager != null) {
+                int i = name.lastIndexOf('.');
+                if (i >= 0) {
+                    try {
+                        securityManager.checkPackageAccess(name.substring(0,i));
+                    } catch (SecurityException se) {
+                        String error = "Security Violation, attempt to use " +
+                            "Restricted Class: " + name;
+                        log.info(error, se);
+                        throw new ClassNotFoundException(error, se);
+                    }
+                }
+            }
+
+            boolean delegateLoad = delegate || filter(name);
+
+            // (1) Delegate to our parent if requested
+            if (delegateLoad) {
                 if (log.isDebugEnabled())
-                    log.debug("  Loading class from local repository");
-                if (resolve)
-                    resolveClass(clazz);
-                return (clazz);
+                    log.debug("  Delegating to parent classloader1 " + parent);
+                ClassLoader loader = parent;
+                if (loader == null)
+                    loader = system;
+                try {
+                    clazz = Class.forName(name, false, loader);
+                    if (clazz != null) {
+                        if (log.isDebugEnabled())
+                            log.debug("  Loading class from parent");
+                        if (resolve)
+                            resolveClass(clazz);
+                        return (clazz);
+                    }
+                } catch (ClassNotFoundException e) {
+                    // Ignore
+                }
             }
-        } catch (ClassNotFoundException e) {
-            // Ignore
-        }
 
-        // (3) Delegate to parent unconditionally
-        if (!delegateLoad) {
+            // (2) Search local repositories
             if (log.isDebugEnabled())
-                log.debug("  Delegating to parent classloader at end: " + parent);
-            ClassLoader loader = parent;
-            if (loader == null)
-                loader = system;
+                log.debug("  Searching local repositories");
             try {
-                clazz = Class.forName(name, false, loader);
+                clazz = findClass(name);
                 if (clazz != null) {
                     if (log.isDebugEnabled())
-                        log.debug("  Loading class from parent");
+                        log.debug("  Loading class from local repository");
                     if (resolve)
                         resolveClass(clazz);
                     return (clazz);
@@ -1461,9 +1521,30 @@ public class WebappClassLoader
             } catch (ClassNotFoundException e) {
                 // Ignore
             }
-        }
 
-        throw new ClassNotFoundException(name);
+            // (3) Delegate to parent unconditionally
+            if (!delegateLoad) {
+                if (log.isDebugEnabled())
+                    log.debug("  Delegating to parent classloader at end: " + parent);
+                ClassLoader loader = parent;
+                if (loader == null)
+                    loader = system;
+                try {
+                    clazz = Class.forName(name, false, loader);
+                    if (clazz != null) {
+                        if (log.isDebugEnabled())
+                            log.debug("  Loading class from parent");
+                        if (resolve)
+                            resolveClass(clazz);
+                        return (clazz);
+                    }
+                } catch (ClassNotFoundException e) {
+                    // Ignore
+                }
+            }
+
+            throw new ClassNotFoundException(name);
+        }
 
     }
 
@@ -1658,6 +1739,7 @@ public class WebappClassLoader
 
         notFoundResources.clear();
         resourceEntries.clear();
+        jarPackageIndex.clear();
         resources = null;
         repository = null;
         repositoryURLs = null;
@@ -1830,7 +1912,7 @@ public class WebappClassLoader
     private final void clearReferencesStaticFinal() {
 
         Collection<ResourceEntry> values =
-            ((HashMap<String,ResourceEntry>) resourceEntries.clone()).values();
+            new ArrayList<>(resourceEntries.values());
         Iterator<ResourceEntry> loadedClasses = values.iterator();
         //
         // walk through all loaded class to trigger initialization for
@@ -2579,7 +2661,7 @@ public class WebappClassLoader
         if (clazz != null)
             return clazz;
 
-        synchronized (this) {
+        synchronized (getClassLoadingLock(name)) {
             clazz = entry.loadedClass;
             if (clazz != null)
                 return clazz;
@@ -2695,8 +2777,6 @@ public class WebappClassLoader
         InputStream binaryStream = null;
         boolean isClassResource = path.endsWith(".class");
 
-        int jarFilesLength = jarFiles.length;
-
         WebResource resource = null;
 
         boolean fileNeedConvert = false;
@@ -2757,16 +2837,27 @@ public class WebappClassLoader
         if ((entry == null) && (notFoundResources.containsKey(name)))
             return null;
 
+        // Only the JARs that contain the package of the resource need to be
+        // searched
+        int[] candidateJars = NO_JARS;
+        if (entry == null) {
+            candidateJars = getCandidateJars(path);
+            if (candidateJars.length == 0) {
+                return null;
+            }
+        }
+
         JarEntry jarEntry = null;
 
         synchronized (jarFiles) {
 
             try {
-                if (!openJARs()) {
+                if (candidateJars.length > 0 && !openJARs()) {
                     return null;
                 }
-                for (int i = 0; (entry == null) && (i < jarFilesLength); i++) {
+                for (int j = 0; (entry == null) && (j < candidateJars.length); j++) {
 
+                    int i = candidateJars[j];
                     jarEntry = jarFiles[i].getJarEntry(path);
 
                     if (jarEntry != null) {
@@ -2864,9 +2955,10 @@ public class WebappClassLoader
                 }
 
                 if (entry == null) {
-                    synchronized (notFoundResources) {
-                        notFoundResources.put(name, name);
+                    if (notFoundResources.size() >= NOT_FOUND_RESOURCES_MAX) {
+                        notFoundResources.clear();
                     }
+                    notFoundResources.put(name, name);
                     return null;
                 }
 
@@ -2931,17 +3023,12 @@ public class WebappClassLoader
             }
         }
 
-        // Add the entry in the local resource repository
-        synchronized (resourceEntries) {
-            // Ensures that all the threads which may be in a race to load
-            // a particular class all end up with the same ResourceEntry
-            // instance
-            ResourceEntry entry2 = resourceEntries.get(name);
-            if (entry2 == null) {
-                resourceEntries.put(name, entry);
-            } else {
-                entry = entry2;
-            }
+        // Add the entry in the local resource repository. Ensures that all the
+        // threads which may be in a race to load a particular class all end up
+        // with the same ResourceEntry instance
+        ResourceEntry entry2 = resourceEntries.putIfAbsent(name, entry);
+        if (entry2 != null) {
+            entry = entry2;
         }
 
         return entry;
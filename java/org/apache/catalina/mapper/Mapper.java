@@ -16,6 +16,8 @@
  */
 package org.apache.catalina.mapper;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -48,9 +50,19 @@ public final class Mapper {
 
 
     /**
-     * Array containing the virtual hosts definitions.
+     * Array containing the virtual hosts definitions, sorted by name.
      */
-    protected MappedHost[] hosts = new MappedHost[0];
+    protected volatile MappedHost[] hosts = new MappedHost[0];
+
+
+    /**
+     * Open addressed hash table of the virtual hosts (including aliases)
+     * keyed by the lower case host name. It is an immutable snapshot of
+     * {@link #hosts} that is rebuilt and replaced as a whole every time the
+     * hosts change, so requests are mapped without locking or searching the
+     * sorted array.
+     */
+    private volatile MappedHost[] hostIndex = new MappedHost[2];
 
 
     /**
@@ -67,6 +79,24 @@ public final class Mapper {
             new ConcurrentHashMap<>();
 
 
+    /**
+     * The maximum number of cached mapping results. Zero or less disables the
+     * cache.
+     */
+    private int mappingCacheSize = 0;
+
+
+    /**
+     * The results of previous calls to
+     * {@link #map(MessageBytes, MessageBytes, String, MappingData)} or
+     * <code>null</code> if the cache is disabled. The cache is replaced as a
+     * whole every time the mapper is updated so a result computed from the
+     * previous state is never visible once the update is complete.
+     */
+    private volatile ConcurrentHashMap<MappingKey, CachedMapping> mappingCache =
+            null;
+
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -76,8 +106,35 @@ public final class Mapper {
      */
     public void setDefaultHostName(String defaultHostName) {
         this.defaultHostName = defaultHostName;
+        invalidateMappingCache();
     }
 
+
+    /**
+     * Set the maximum number of mapping results cached by the mapper. Results
+     * are keyed by host name, URI and requested context version. They are
+     * discarded every time the mapper is updated and after the cache TTL of
+     * the static resources of the mapped context since the welcome file and
+     * directory rules depend on those resources. If caching of the resources
+     * is disabled, results for that context are not cached.
+     *
+     * @param mappingCacheSize The maximum number of cached results. Zero or
+     *                         less disables the cache.
+     */
+    public void setMappingCacheSize(int mappingCacheSize) {
+        this.mappingCacheSize = mappingCacheSize;
+        invalidateMappingCache();
+    }
+
+
+    /**
+     * @return the maximum number of mapping results cached by the mapper
+     */
+    public int getMappingCacheSize() {
+        return mappingCacheSize;
+    }
+
+
     /**
      * Add a new host to the mapper.
      *
@@ -94,6 +151,7 @@ public final class Mapper {
         newHost.object = host;
         if (insertMap(hosts, newHosts, newHost)) {
             hosts = newHosts;
+            addToHostIndex(newHost);
         }
         for (int i = 0; i < aliases.length; i++) {
             newHosts = new MappedHost[hosts.length + 1];
@@ -103,8 +161,10 @@ public final class Mapper {
             newHost.object = host;
             if (insertMap(hosts, newHosts, newHost)) {
                 hosts = newHosts;
+                addToHostIndex(newHost);
             }
         }
+        invalidateMappingCache();
     }
 
 
@@ -133,6 +193,8 @@ public final class Mapper {
                 }
             }
         }
+        updateHostIndex();
+        invalidateMappingCache();
     }
 
     /**
@@ -156,6 +218,8 @@ public final class Mapper {
         newHost.object = realHost.object;
         if (insertMap(hosts, newHosts, newHost)) {
             hosts = newHosts;
+            addToHostIndex(newHost);
+            invalidateMappingCache();
         }
     }
 
@@ -172,6 +236,8 @@ public final class Mapper {
         MappedHost[] newHosts = new MappedHost[hosts.length - 1];
         if (removeMap(hosts, newHosts, alias)) {
             hosts = newHosts;
+            updateHostIndex();
+            invalidateMappingCache();
         }
 
     }
@@ -204,25 +270,16 @@ public final class Mapper {
         }
         MappedHost mappedHost = hosts[pos];
         if (mappedHost.name.equals(hostName)) {
-            int slashCount = slashCount(path);
-            synchronized (mappedHost) {
-                MappedContext[] contexts = mappedHost.contextList.contexts;
-                // Update nesting
-                if (slashCount > mappedHost.contextList.nesting) {
-                    mappedHost.contextList.nesting = slashCount;
+            // The context list is shared with the aliases of the host
+            ContextList contextList = mappedHost.contextList;
+            synchronized (contextList) {
+                MappedContext mappedContext = contextList.find(path);
+                boolean newContext = false;
+                if (mappedContext == null) {
+                    mappedContext = new MappedContext();
+                    mappedContext.name = path;
+                    newContext = true;
                 }
-                int pos2 = find(contexts, path);
-                if (pos2 < 0 || !path.equals(contexts[pos2].name)) {
-                    MappedContext newContext = new MappedContext();
-                    newContext.name = path;
-                    MappedContext[] newContexts = new MappedContext[contexts.length + 1];
-                    if (insertMap(contexts, newContexts, newContext)) {
-                        mappedHost.contextList.contexts = newContexts;
-                    }
-                    pos2 = find(newContexts, path);
-                }
-
-                MappedContext mappedContext = mappedHost.contextList.contexts[pos2];
 
                 ContextVersion[] contextVersions = mappedContext.versions;
                 ContextVersion[] newContextVersions =
@@ -238,7 +295,12 @@ public final class Mapper {
                     contextObjectToContextVersionMap.put(
                             context, newContextVersion);
                 }
+                if (newContext) {
+                    // Only publish the context once it has a version
+                    contextList.add(mappedContext);
+                }
             }
+            invalidateMappingCache();
         }
 
     }
@@ -264,17 +326,12 @@ public final class Mapper {
         }
         MappedHost host = hosts[pos];
         if (host.name.equals(hostName)) {
-            synchronized (host) {
-                MappedContext[] contexts = host.contextList.contexts;
-                if (contexts.length == 0 ){
-                    return;
-                }
-
-                int pos2 = find(contexts, path);
-                if (pos2 < 0 || !path.equals(contexts[pos2].name)) {
+            ContextList contextList = host.contextList;
+            synchronized (contextList) {
+                MappedContext context = contextList.find(path);
+                if (context == null) {
                     return;
                 }
-                MappedContext context = contexts[pos2];
 
                 ContextVersion[] contextVersions = context.versions;
                 ContextVersion[] newContextVersions =
@@ -284,21 +341,11 @@ public final class Mapper {
 
                     if (context.versions.length == 0) {
                         // Remove the context
-                        MappedContext[] newContexts = new MappedContext[contexts.length -1];
-                        if (removeMap(contexts, newContexts, path)) {
-                            host.contextList.contexts = newContexts;
-                            // Recalculate nesting
-                            host.contextList.nesting = 0;
-                            for (int i = 0; i < newContexts.length; i++) {
-                                int slashCount = slashCount(newContexts[i].name);
-                                if (slashCount > host.contextList.nesting) {
-                                    host.contextList.nesting = slashCount;
-                                }
-                            }
-                        }
+                        contextList.remove(path);
                     }
                 }
             }
+            invalidateMappingCache();
         }
     }
 
@@ -306,34 +353,11 @@ public final class Mapper {
     public void addWrapper(String hostName, String contextPath, String version,
                            String path, Wrapper wrapper, boolean jspWildCard,
                            boolean resourceOnly) {
-        MappedHost[] hosts = this.hosts;
-        int pos = find(hosts, hostName);
-        if (pos < 0) {
-            return;
-        }
-        MappedHost host = hosts[pos];
-        if (host.name.equals(hostName)) {
-            MappedContext[] contexts = host.contextList.contexts;
-            int pos2 = find(contexts, contextPath);
-            if (pos2 < 0) {
-                log.error("No context found: " + contextPath );
-                return;
-            }
-            MappedContext context = contexts[pos2];
-            if (context.name.equals(contextPath)) {
-                ContextVersion[] contextVersions = context.versions;
-                int pos3 = find(contextVersions, version);
-                if( pos3<0 ) {
-                    log.error("No context version found: " + contextPath + " " +
-                            version);
-                    return;
-                }
-                ContextVersion contextVersion = contextVersions[pos3];
-                if (contextVersion.name.equals(version)) {
-                    addWrapper(contextVersion, path, wrapper, jspWildCard,
-                            resourceOnly);
-                }
-            }
+        ContextVersion contextVersion =
+                findContextVersion(hostName, contextPath, version, false);
+        if (contextVersion != null) {
+            addWrapper(contextVersion, path, wrapper, jspWildCard,
+                    resourceOnly);
         }
     }
 
@@ -400,6 +424,7 @@ public final class Mapper {
                 }
             }
         }
+        invalidateMappingCache();
     }
 
 
@@ -412,30 +437,10 @@ public final class Mapper {
      */
     public void removeWrapper
         (String hostName, String contextPath, String version, String path) {
-        MappedHost[] hosts = this.hosts;
-        int pos = find(hosts, hostName);
-        if (pos < 0) {
-            return;
-        }
-        MappedHost host = hosts[pos];
-        if (host.name.equals(hostName)) {
-            MappedContext[] contexts = host.contextList.contexts;
-            int pos2 = find(contexts, contextPath);
-            if (pos2 < 0) {
-                return;
-            }
-            MappedContext context = contexts[pos2];
-            if (context.name.equals(contextPath)) {
-                ContextVersion[] contextVersions = context.versions;
-                int pos3 = find(contextVersions, version);
-                if( pos3<0 ) {
-                    return;
-                }
-                ContextVersion contextVersion = contextVersions[pos3];
-                if (contextVersion.name.equals(version)) {
-                    removeWrapper(contextVersion, path);
-                }
-            }
+        ContextVersion contextVersion =
+                findContextVersion(hostName, contextPath, version, true);
+        if (contextVersion != null) {
+            removeWrapper(contextVersion, path);
         }
     }
 
@@ -495,6 +500,7 @@ public final class Mapper {
                 }
             }
         }
+        invalidateMappingCache();
     }
 
 
@@ -507,39 +513,18 @@ public final class Mapper {
      */
     public void addWelcomeFile(String hostName, String contextPath,
             String version, String welcomeFile) {
-        MappedHost[] hosts = this.hosts;
-        int pos = find(hosts, hostName);
-        if (pos < 0) {
+        ContextVersion contextVersion =
+                findContextVersion(hostName, contextPath, version, false);
+        if (contextVersion == null) {
             return;
         }
-        MappedHost host = hosts[pos];
-        if (host.name.equals(hostName)) {
-            MappedContext[] contexts = host.contextList.contexts;
-            int pos2 = find(contexts, contextPath);
-            if (pos2 < 0) {
-                log.error("No context found: " + contextPath );
-                return;
-            }
-            MappedContext context = contexts[pos2];
-            if (context.name.equals(contextPath)) {
-                ContextVersion[] contextVersions = context.versions;
-                int pos3 = find(contextVersions, version);
-                if( pos3<0 ) {
-                    log.error("No context version found: " + contextPath + " " +
-                            version);
-                    return;
-                }
-                ContextVersion contextVersion = contextVersions[pos3];
-                if (contextVersion.name.equals(version)) {
-                    int len = contextVersion.welcomeResources.length + 1;
-                    String[] newWelcomeResources = new String[len];
-                    System.arraycopy(contextVersion.welcomeResources, 0,
-                            newWelcomeResources, 0, len - 1);
-                    newWelcomeResources[len - 1] = welcomeFile;
-                    contextVersion.welcomeResources = newWelcomeResources;
-                }
-            }
-        }
+        int len = contextVersion.welcomeResources.length + 1;
+        String[] newWelcomeResources = new String[len];
+        System.arraycopy(contextVersion.welcomeResources, 0,
+                newWelcomeResources, 0, len - 1);
+        newWelcomeResources[len - 1] = welcomeFile;
+        contextVersion.welcomeResources = newWelcomeResources;
+        invalidateMappingCache();
     }
 
 
@@ -552,50 +537,29 @@ public final class Mapper {
      */
     public void removeWelcomeFile(String hostName, String contextPath,
             String version, String welcomeFile) {
-        MappedHost[] hosts = this.hosts;
-        int pos = find(hosts, hostName);
-        if (pos < 0) {
+        ContextVersion contextVersion =
+                findContextVersion(hostName, contextPath, version, false);
+        if (contextVersion == null) {
             return;
         }
-        MappedHost host = hosts[pos];
-        if (host.name.equals(hostName)) {
-            MappedContext[] contexts = host.contextList.contexts;
-            int pos2 = find(contexts, contextPath);
-            if (pos2 < 0) {
-                log.error("No context found: " + contextPath );
-                return;
+        int match = -1;
+        for (int i = 0; i < contextVersion.welcomeResources.length; i++) {
+            if (welcomeFile.equals(contextVersion.welcomeResources[i])) {
+                match = i;
+                break;
             }
-            MappedContext context = contexts[pos2];
-            if (context.name.equals(contextPath)) {
-                ContextVersion[] contextVersions = context.versions;
-                int pos3 = find(contextVersions, version);
-                if( pos3<0 ) {
-                    log.error("No context version found: " + contextPath + " " +
-                            version);
-                    return;
-                }
-                ContextVersion contextVersion = contextVersions[pos3];
-                if (contextVersion.name.equals(version)) {
-                    int match = -1;
-                    for (int i = 0; i < contextVersion.welcomeResources.length; i++) {
-                        if (welcomeFile.equals(contextVersion.welcomeResources[i])) {
-                            match = i;
-                            break;
-                        }
-                    }
-                    if (match > -1) {
-                        int len = contextVersion.welcomeResources.length - 1;
-                        String[] newWelcomeResources = new String[len];
-                        System.arraycopy(contextVersion.welcomeResources, 0,
-                                newWelcomeResources, 0, match);
-                        if (match < len) {
-                            System.arraycopy(contextVersion.welcomeResources, match + 1,
-                                    newWelcomeResources, match, len - match);
-                        }
-                        contextVersion.welcomeResources = newWelcomeResources;
-                    }
-                }
+        }
+        if (match > -1) {
+            int len = contextVersion.welcomeResources.length - 1;
+            String[] newWelcomeResources = new String[len];
+            System.arraycopy(contextVersion.welcomeResources, 0,
+                    newWelcomeResources, 0, match);
+            if (match < len) {
+                System.arraycopy(contextVersion.welcomeResources, match + 1,
+                        newWelcomeResources, match, len - match);
             }
+            contextVersion.welcomeResources = newWelcomeResources;
+            invalidateMappingCache();
         }
     }
 
@@ -608,34 +572,50 @@ public final class Mapper {
      */
     public void clearWelcomeFiles(String hostName, String contextPath,
             String version) {
+        ContextVersion contextVersion =
+                findContextVersion(hostName, contextPath, version, false);
+        if (contextVersion != null) {
+            contextVersion.welcomeResources = new String[0];
+            invalidateMappingCache();
+        }
+    }
+
+
+    /**
+     * Find a context version.
+     *
+     * @param hostName      Virtual host name
+     * @param contextPath   Context path
+     * @param version       Context version
+     * @param silent        Should a missing context or version be ignored
+     *                      rather than logged?
+     * @return the context version or <code>null</code> if there is no such
+     *         context version
+     */
+    private ContextVersion findContextVersion(String hostName,
+            String contextPath, String version, boolean silent) {
         MappedHost[] hosts = this.hosts;
         int pos = find(hosts, hostName);
-        if (pos < 0) {
-            return;
+        if (pos < 0 || !hosts[pos].name.equals(hostName)) {
+            return null;
         }
-        MappedHost host = hosts[pos];
-        if (host.name.equals(hostName)) {
-            MappedContext[] contexts = host.contextList.contexts;
-            int pos2 = find(contexts, contextPath);
-            if (pos2 < 0) {
+        MappedContext context = hosts[pos].contextList.find(contextPath);
+        if (context == null) {
+            if (!silent) {
                 log.error("No context found: " + contextPath );
-                return;
             }
-            MappedContext context = contexts[pos2];
-            if (context.name.equals(contextPath)) {
-                ContextVersion[] contextVersions = context.versions;
-                int pos3 = find(contextVersions, version);
-                if( pos3<0 ) {
-                    log.error("No context version found: " + contextPath + " " +
-                            version);
-                    return;
-                }
-                ContextVersion contextVersion = contextVersions[pos3];
-                if (contextVersion.name.equals(version)) {
-                    contextVersion.welcomeResources = new String[0];
-                }
+            return null;
+        }
+        ContextVersion[] contextVersions = context.versions;
+        int pos2 = find(contextVersions, version);
+        if (pos2 < 0 || !contextVersions[pos2].name.equals(version)) {
+            if (!silent) {
+                log.error("No context version found: " + contextPath + " " +
+                        version);
             }
+            return null;
         }
+        return contextVersions[pos2];
     }
 
 
@@ -656,9 +636,28 @@ public final class Mapper {
         }
         host.toChars();
         uri.toChars();
+
+        ConcurrentHashMap<MappingKey, CachedMapping> cache = mappingCache;
+        if (cache == null || mappingData.host != null) {
+            internalMap(host.getCharChunk(), uri.getCharChunk(), version,
+                    mappingData);
+            return;
+        }
+
+        MappingKey key = new MappingKey(host.getCharChunk(),
+                uri.getCharChunk(), version);
+        CachedMapping cached = cache.get(key);
+        if (cached != null) {
+            if (cached.expires > System.currentTimeMillis()) {
+                cached.apply(mappingData);
+                return;
+            }
+            cache.remove(key, cached);
+        }
+
         internalMap(host.getCharChunk(), uri.getCharChunk(), version,
                 mappingData);
-
+        addToMappingCache(cache, key, mappingData);
     }
 
 
@@ -687,6 +686,152 @@ public final class Mapper {
     // -------------------------------------------------------- Private Methods
 
 
+    /**
+     * Discard all the cached mapping results. Must be called once an update
+     * of the mapper is complete.
+     */
+    private void invalidateMappingCache() {
+        if (mappingCacheSize > 0) {
+            mappingCache = new ConcurrentHashMap<>();
+        } else {
+            mappingCache = null;
+        }
+    }
+
+
+    /**
+     * Add the result of a mapping operation to the given cache.
+     */
+    private void addToMappingCache(
+            ConcurrentHashMap<MappingKey, CachedMapping> cache,
+            MappingKey key, MappingData mappingData) {
+        long expires = Long.MAX_VALUE;
+        if (mappingData.context != null) {
+            ContextVersion contextVersion =
+                    contextObjectToContextVersionMap.get(mappingData.context);
+            if (contextVersion == null) {
+                return;
+            }
+            WebResourceRoot resources = contextVersion.resources;
+            if (resources != null) {
+                if (!resources.isCachingAllowed()) {
+                    return;
+                }
+                expires = System.currentTimeMillis() + resources.getCacheTtl();
+            }
+        }
+        if (cache.size() >= mappingCacheSize) {
+            // Make room by evicting an arbitrary entry
+            Iterator<MappingKey> keys = cache.keySet().iterator();
+            if (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        cache.put(key.copy(), new CachedMapping(mappingData, expires));
+    }
+
+
+    /**
+     * Add a host that has just been added to the hosts to the host index.
+     * Must be called with the mapper locked.
+     */
+    private void addToHostIndex(MappedHost mappedHost) {
+        MappedHost[] index = hostIndex;
+        if (hosts.length * 2 > index.length) {
+            updateHostIndex();
+            return;
+        }
+        // Publish an updated copy
+        MappedHost[] newIndex = index.clone();
+        int mask = newIndex.length - 1;
+        int slot = hashIgnoreCase(mappedHost.name) & mask;
+        while (newIndex[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        newIndex[slot] = mappedHost;
+        hostIndex = newIndex;
+    }
+
+
+    /**
+     * Rebuild the host index from the current hosts. Must be called with the
+     * mapper locked after hosts are removed.
+     */
+    private void updateHostIndex() {
+        MappedHost[] hosts = this.hosts;
+        int size = 2;
+        while (size < hosts.length * 2) {
+            size <<= 1;
+        }
+        MappedHost[] newIndex = new MappedHost[size];
+        int mask = size - 1;
+        for (MappedHost mappedHost : hosts) {
+            int slot = hashIgnoreCase(mappedHost.name) & mask;
+            while (newIndex[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            newIndex[slot] = mappedHost;
+        }
+        hostIndex = newIndex;
+    }
+
+
+    /**
+     * Find a host, ignoring case.
+     */
+    private MappedHost findHost(CharChunk name) {
+        MappedHost[] index = hostIndex;
+        int mask = index.length - 1;
+        char[] c = name.getBuffer();
+        int hash = 0;
+        for (int i = name.getStart(); i < name.getEnd(); i++) {
+            hash = 31 * hash + Ascii.toLower(c[i]);
+        }
+        int slot = spread(hash) & mask;
+        MappedHost mappedHost;
+        while ((mappedHost = index[slot]) != null) {
+            if (name.equalsIgnoreCase(mappedHost.name)) {
+                return mappedHost;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+
+    /**
+     * Find a host with exactly the given name.
+     */
+    private MappedHost findHost(String name) {
+        MappedHost[] index = hostIndex;
+        int mask = index.length - 1;
+        int slot = hashIgnoreCase(name) & mask;
+        MappedHost mappedHost;
+        while ((mappedHost = index[slot]) != null) {
+            if (name.equals(mappedHost.name)) {
+                return mappedHost;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+
+    private static int hashIgnoreCase(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + Ascii.toLower(name.charAt(i));
+        }
+        return spread(hash);
+    }
+
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+
     /**
      * Map the specified URI.
      */
@@ -695,77 +840,33 @@ public final class Mapper {
 
         uri.setLimit(-1);
 
-        MappedContext[] contexts = null;
+        ContextList contextList = null;
         MappedContext context = null;
         ContextVersion contextVersion = null;
 
-        int nesting = 0;
-
         // Virtual host mapping
         if (mappingData.host == null) {
-            MappedHost[] hosts = this.hosts;
-            int pos = findIgnoreCase(hosts, host);
-            if ((pos != -1) && (host.equalsIgnoreCase(hosts[pos].name))) {
-                mappingData.host = hosts[pos].object;
-                contexts = hosts[pos].contextList.contexts;
-                nesting = hosts[pos].contextList.nesting;
-            } else {
+            MappedHost mappedHost = findHost(host);
+            if (mappedHost == null) {
                 if (defaultHostName == null) {
                     return;
                 }
-                pos = find(hosts, defaultHostName);
-                if ((pos != -1) && (defaultHostName.equals(hosts[pos].name))) {
-                    mappingData.host = hosts[pos].object;
-                    contexts = hosts[pos].contextList.contexts;
-                    nesting = hosts[pos].contextList.nesting;
-                } else {
+                mappedHost = findHost(defaultHostName);
+                if (mappedHost == null) {
                     return;
                 }
             }
+            mappingData.host = mappedHost.object;
+            contextList = mappedHost.contextList;
         }
 
         // Context mapping
-        if (mappingData.context == null && contexts != null) {
-            int pos = find(contexts, uri);
-            if (pos == -1) {
+        if (mappingData.context == null && contextList != null) {
+            context = contextList.map(uri);
+            if (context == null) {
                 return;
             }
-
-            int lastSlash = -1;
-            int uriEnd = uri.getEnd();
-            int length = -1;
-            boolean found = false;
-            while (pos >= 0) {
-                if (uri.startsWith(contexts[pos].name)) {
-                    length = contexts[pos].name.length();
-                    if (uri.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (uri.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(uri, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(uri);
-                }
-                uri.setEnd(lastSlash);
-                pos = find(contexts, uri);
-            }
-            uri.setEnd(uriEnd);
-
-            if (!found) {
-                if (contexts[0].name.equals("")) {
-                    context = contexts[0];
-                }
-            } else {
-                context = contexts[pos];
-            }
-            if (context != null) {
-                mappingData.contextPath.setString(context.name);
-            }
+            mappingData.contextPath.setString(context.name);
         }
 
         if (context != null) {
@@ -1177,62 +1278,6 @@ public final class Mapper {
 
     }
 
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int findIgnoreCase(MapElement<T>[] map, CharChunk name) {
-        return findIgnoreCase(map, name, name.getStart(), name.getEnd());
-    }
-
-
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int findIgnoreCase(MapElement<T>[] map, CharChunk name,
-                                  int start, int end) {
-
-        int a = 0;
-        int b = map.length - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-        if (compareIgnoreCase(name, start, end, map[0].name) < 0 ) {
-            return -1;
-        }
-        if (b == 0) {
-            return 0;
-        }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) / 2;
-            int result = compareIgnoreCase(name, start, end, map[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compareIgnoreCase(name, start, end, map[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
-            }
-        }
-
-    }
-
-
     /**
      * Find a map element given its name in a sorted array of map elements.
      * This will return the index for the closest inferior or equal item in the
@@ -1309,36 +1354,6 @@ public final class Mapper {
     }
 
 
-    /**
-     * Compare given char chunk with String ignoring case.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
-     */
-    private static final int compareIgnoreCase(CharChunk name, int start, int end,
-                                     String compareTo) {
-        int result = 0;
-        char[] c = name.getBuffer();
-        int len = compareTo.length();
-        if ((end - start) < len) {
-            len = end - start;
-        }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (Ascii.toLower(c[i + start]) > Ascii.toLower(compareTo.charAt(i))) {
-                result = 1;
-            } else if (Ascii.toLower(c[i + start]) < Ascii.toLower(compareTo.charAt(i))) {
-                result = -1;
-            }
-        }
-        if (result == 0) {
-            if (compareTo.length() > (end - start)) {
-                result = -1;
-            } else if (compareTo.length() < (end - start)) {
-                result = 1;
-            }
-        }
-        return result;
-    }
-
-
     /**
      * Find the position of the last slash in the given char chunk.
      */
@@ -1455,11 +1470,205 @@ public final class Mapper {
     // ------------------------------------------------ ContextList Inner Class
 
 
+    /**
+     * The contexts of a host, shared by the host and its aliases. The
+     * contexts are held in an immutable trie of the segments of their path
+     * that is replaced as a whole when a context is added or removed, so
+     * requests are mapped against a consistent snapshot without locking.
+     * Changes must be made with the list locked.
+     */
     protected static final class ContextList {
 
-        public MappedContext[] contexts = new MappedContext[0];
-        public int nesting = 0;
+        private volatile ContextNode root = ContextNode.EMPTY;
+
+        /**
+         * Find the context with the given path.
+         */
+        public MappedContext find(String path) {
+            ContextNode node = root;
+            String[] segments = segments(path);
+            for (int i = 0; node != null && i < segments.length; i++) {
+                node = node.getChild(segments[i]);
+            }
+            return node == null ? null : node.context;
+        }
+
+        /**
+         * Find the context with the longest path that matches the start of
+         * the URI, up to a '/' or the end of the URI.
+         */
+        public MappedContext map(CharChunk uri) {
+            ContextNode node = root;
+            MappedContext context = node.context;
+            char[] c = uri.getBuffer();
+            int end = uri.getEnd();
+            int pos = uri.getStart();
+            while (pos < end && c[pos] == '/' && node.size > 0) {
+                int segmentStart = pos + 1;
+                pos = segmentStart;
+                while (pos < end && c[pos] != '/') {
+                    pos++;
+                }
+                node = node.getChild(c, segmentStart, pos);
+                if (node == null) {
+                    break;
+                }
+                if (node.context != null) {
+                    context = node.context;
+                }
+            }
+            return context;
+        }
+
+        public void add(MappedContext context) {
+            root = root.with(segments(context.name), 0, context);
+        }
+
+        public void remove(String path) {
+            root = root.with(segments(path), 0, null);
+        }
+
+        private static String[] segments(String path) {
+            if (path.length() == 0) {
+                return new String[0];
+            }
+            // Context paths start with '/'
+            return path.substring(1).split("/", -1);
+        }
+    }
+
+
+    /**
+     * An immutable node of the context trie. The children are held in an
+     * open addressed hash table keyed by path segment.
+     */
+    protected static final class ContextNode {
+
+        static final ContextNode EMPTY =
+                new ContextNode(null, new String[1], new ContextNode[1], 0);
+
+        final MappedContext context;
+        final String[] segments;
+        final ContextNode[] children;
+        final int size;
+
+        private ContextNode(MappedContext context, String[] segments,
+                ContextNode[] children, int size) {
+            this.context = context;
+            this.segments = segments;
+            this.children = children;
+            this.size = size;
+        }
+
+        ContextNode getChild(String segment) {
+            int mask = segments.length - 1;
+            int slot = spread(segment.hashCode()) & mask;
+            String s;
+            while ((s = segments[slot]) != null) {
+                if (s.equals(segment)) {
+                    return children[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        ContextNode getChild(char[] c, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + c[i];
+            }
+            int mask = segments.length - 1;
+            int slot = spread(hash) & mask;
+            int len = end - start;
+            String s;
+            while ((s = segments[slot]) != null) {
+                if (s.length() == len && regionMatches(s, c, start)) {
+                    return children[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * Return a copy of this node with the context of the given path
+         * below it set, or removed if the context is <code>null</code>.
+         * Nodes left without context or children are dropped.
+         */
+        ContextNode with(String[] path, int index, MappedContext newContext) {
+            if (index == path.length) {
+                return new ContextNode(newContext, segments, children, size);
+            }
+            String segment = path[index];
+            ContextNode child = getChild(segment);
+            if (child == null) {
+                if (newContext == null) {
+                    return this;
+                }
+                child = EMPTY;
+            }
+            ContextNode newChild = child.with(path, index + 1, newContext);
+            if (newChild.context == null && newChild.size == 0) {
+                newChild = null;
+            }
+
+            // Copy the table, replacing or removing the child
+            String[] newSegments;
+            ContextNode[] newChildren;
+            int newSize = size;
+            if (newChild != null &&
+                    (child != EMPTY || (size + 1) * 2 <= segments.length)) {
+                // Same table size, update the copy in place
+                newSegments = segments.clone();
+                newChildren = children.clone();
+                if (child == EMPTY) {
+                    newSize++;
+                }
+                put(newSegments, newChildren, segment, newChild);
+            } else {
+                if (newChild == null) {
+                    newSize--;
+                } else {
+                    newSize++;
+                }
+                int tableSize = 2;
+                while (tableSize < newSize * 2) {
+                    tableSize <<= 1;
+                }
+                newSegments = new String[tableSize];
+                newChildren = new ContextNode[tableSize];
+                for (int i = 0; i < segments.length; i++) {
+                    if (segments[i] != null && !segments[i].equals(segment)) {
+                        put(newSegments, newChildren, segments[i], children[i]);
+                    }
+                }
+                if (newChild != null) {
+                    put(newSegments, newChildren, segment, newChild);
+                }
+            }
+            return new ContextNode(context, newSegments, newChildren, newSize);
+        }
 
+        private static void put(String[] segments, ContextNode[] children,
+                String segment, ContextNode child) {
+            int mask = segments.length - 1;
+            int slot = spread(segment.hashCode()) & mask;
+            while (segments[slot] != null && !segments[slot].equals(segment)) {
+                slot = (slot + 1) & mask;
+            }
+            segments[slot] = segment;
+            children[slot] = child;
+        }
+
+        private static boolean regionMatches(String s, char[] c, int start) {
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) != c[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
 
@@ -1493,4 +1702,165 @@ public final class Mapper {
         public boolean jspWildCard = false;
         public boolean resourceOnly = false;
     }
+
+
+    // ------------------------------------------------- MappingKey Inner Class
+
+
+    /**
+     * The key of a cached mapping result. Keys used for lookups refer to the
+     * buffers of the request while the keys held by the cache own a copy.
+     */
+    private static final class MappingKey {
+
+        private final char[] host;
+        private final int hostStart;
+        private final int hostEnd;
+        private final char[] uri;
+        private final int uriStart;
+        private final int uriEnd;
+        private final String version;
+        private final int hash;
+
+        public MappingKey(CharChunk host, CharChunk uri, String version) {
+            this(host.getBuffer(), host.getStart(), host.getEnd(),
+                    uri.getBuffer(), uri.getStart(), uri.getEnd(), version);
+        }
+
+        private MappingKey(char[] host, int hostStart, int hostEnd,
+                char[] uri, int uriStart, int uriEnd, String version) {
+            this.host = host;
+            this.hostStart = hostStart;
+            this.hostEnd = hostEnd;
+            this.uri = uri;
+            this.uriStart = uriStart;
+            this.uriEnd = uriEnd;
+            this.version = version;
+            int h = 0;
+            for (int i = hostStart; i < hostEnd; i++) {
+                h = 31 * h + host[i];
+            }
+            for (int i = uriStart; i < uriEnd; i++) {
+                h = 31 * h + uri[i];
+            }
+            if (version != null) {
+                h = 31 * h + version.hashCode();
+            }
+            this.hash = h;
+        }
+
+        public MappingKey copy() {
+            return new MappingKey(
+                    Arrays.copyOfRange(host, hostStart, hostEnd), 0,
+                    hostEnd - hostStart,
+                    Arrays.copyOfRange(uri, uriStart, uriEnd), 0,
+                    uriEnd - uriStart, version);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof MappingKey)) {
+                return false;
+            }
+            MappingKey other = (MappingKey) obj;
+            if (hash != other.hash) {
+                return false;
+            }
+            if (version == null ? other.version != null :
+                    !version.equals(other.version)) {
+                return false;
+            }
+            return regionEquals(host, hostStart, hostEnd,
+                    other.host, other.hostStart, other.hostEnd) &&
+                    regionEquals(uri, uriStart, uriEnd,
+                            other.uri, other.uriStart, other.uriEnd);
+        }
+
+        private static boolean regionEquals(char[] a, int aStart, int aEnd,
+                char[] b, int bStart, int bEnd) {
+            if (aEnd - aStart != bEnd - bStart) {
+                return false;
+            }
+            for (int i = aStart, j = bStart; i < aEnd; i++, j++) {
+                if (a[i] != b[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    // ---------------------------------------------- CachedMapping Inner Class
+
+
+    /**
+     * An immutable copy of the result of a mapping operation. The paths are
+     * held as strings since the mapping data usually refers to the buffer of
+     * the URI of the request that was mapped.
+     */
+    private static final class CachedMapping {
+
+        private final long expires;
+        private final Host host;
+        private final Context context;
+        private final Context[] contexts;
+        private final Wrapper wrapper;
+        private final boolean jspWildCard;
+        private final String contextPath;
+        private final String requestPath;
+        private final String wrapperPath;
+        private final String pathInfo;
+        private final String redirectPath;
+
+        public CachedMapping(MappingData mappingData, long expires) {
+            this.expires = expires;
+            host = mappingData.host;
+            context = mappingData.context;
+            contexts = mappingData.contexts;
+            wrapper = mappingData.wrapper;
+            jspWildCard = mappingData.jspWildCard;
+            contextPath = toString(mappingData.contextPath);
+            requestPath = toString(mappingData.requestPath);
+            wrapperPath = toString(mappingData.wrapperPath);
+            pathInfo = toString(mappingData.pathInfo);
+            redirectPath = toString(mappingData.redirectPath);
+        }
+
+        public void apply(MappingData mappingData) {
+            mappingData.host = host;
+            mappingData.context = context;
+            mappingData.contexts = contexts;
+            mappingData.wrapper = wrapper;
+            mappingData.jspWildCard = jspWildCard;
+            apply(contextPath, mappingData.contextPath);
+            apply(requestPath, mappingData.requestPath);
+            apply(wrapperPath, mappingData.wrapperPath);
+            apply(pathInfo, mappingData.pathInfo);
+            apply(redirectPath, mappingData.redirectPath);
+        }
+
+        private static String toString(MessageBytes mb) {
+            if (mb.isNull()) {
+                return null;
+            }
+            return mb.toString();
+        }
+
+        private static void apply(String value, MessageBytes mb) {
+            if (value == null) {
+                mb.recycle();
+            } else {
+                mb.setString(value);
+            }
+        }
+    }
 }
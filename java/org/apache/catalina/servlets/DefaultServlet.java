@@ -31,7 +31,9 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 
@@ -55,6 +57,7 @@ import javax.xml.transform.stream.StreamSource;
 import org.apache.catalina.Globals;
 import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.connector.CoyoteOutputStream;
 import org.apache.catalina.connector.RequestFacade;
 import org.apache.catalina.connector.ResponseFacade;
 import org.apache.catalina.util.ServerInfo;
@@ -198,6 +201,25 @@ public class DefaultServlet
      */
     protected boolean useAcceptRanges = true;
 
+    /**
+     * Should a precompressed (<code>.gz</code>) sibling of a resource be
+     * served to clients that accept the gzip content encoding?
+     */
+    protected boolean precompressed = false;
+
+    /**
+     * Should resources be compressed with the gzip content encoding and the
+     * compressed representation held in the web resources cache?
+     */
+    protected boolean cacheCompressed = false;
+
+    /**
+     * The MIME types for which a compressed representation will be cached.
+     */
+    protected String[] compressableMimeTypes =
+        { "text/html", "text/xml", "text/plain", "text/css",
+          "text/javascript", "application/javascript" };
+
     /**
      * Full range marker.
      */
@@ -291,6 +313,20 @@ public class DefaultServlet
         if (getServletConfig().getInitParameter("useAcceptRanges") != null)
             useAcceptRanges = Boolean.parseBoolean(getServletConfig().getInitParameter("useAcceptRanges"));
 
+        precompressed = Boolean.parseBoolean(getServletConfig().getInitParameter("precompressed"));
+
+        cacheCompressed = Boolean.parseBoolean(getServletConfig().getInitParameter("cacheCompressed"));
+
+        if (getServletConfig().getInitParameter("compressableMimeType") != null) {
+            ArrayList<String> mimeTypes = new ArrayList<>();
+            StringTokenizer st = new StringTokenizer(
+                    getServletConfig().getInitParameter("compressableMimeType"), ",");
+            while (st.hasMoreTokens()) {
+                mimeTypes.add(st.nextToken().trim());
+            }
+            compressableMimeTypes = mimeTypes.toArray(new String[mimeTypes.size()]);
+        }
+
         // Sanity check on the specified buffer sizes
         if (input < 256)
             input = 256;
@@ -731,12 +767,33 @@ public class DefaultServlet
         boolean isError =
             response.getStatus() >= HttpServletResponse.SC_BAD_REQUEST;
 
+        boolean included = (request.getAttribute(
+                RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
+
+        // Find content type.
+        String contentType = resource.getMimeType();
+        if (contentType == null) {
+            contentType = getServletContext().getMimeType(resource.getName());
+            resource.setMimeType(contentType);
+        }
+
+        // Switch to a compressed representation if there is one and the
+        // client accepts it. The content type remains that of the original
+        // resource. Headers can't be set for included resources.
+        String contentEncoding = null;
+        if (resource.isFile() && !included && !isError) {
+            WebResource compressedResource = getCompressedResource(
+                    request, response, path, contentType);
+            if (compressedResource != null) {
+                resource = compressedResource;
+                contentEncoding = "gzip";
+            }
+        }
+
         // Check if the conditions specified in the optional If headers are
         // satisfied.
         if (resource.isFile()) {
             // Checking If headers
-            boolean included = (request.getAttribute(
-                    RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
             if (!included && !isError &&
                     !checkIfHeaders(request, response, resource)) {
                 return;
@@ -744,13 +801,6 @@ public class DefaultServlet
 
         }
 
-        // Find content type.
-        String contentType = resource.getMimeType();
-        if (contentType == null) {
-            contentType = getServletContext().getMimeType(resource.getName());
-            resource.setMimeType(contentType);
-        }
-
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -779,6 +829,10 @@ public class DefaultServlet
                 // Last-Modified header
                 response.setHeader("Last-Modified",
                         resource.getLastModifiedHttp());
+
+                if (contentEncoding != null) {
+                    response.setHeader("Content-Encoding", contentEncoding);
+                }
             }
 
             // Get content length
@@ -947,6 +1001,107 @@ public class DefaultServlet
     }
 
 
+    /**
+     * Find a compressed representation of the requested resource. Whenever
+     * a compressed representation is, or may be, available for the resource a
+     * <code>Vary</code> header is added to the response so that caches do not
+     * serve the compressed representation to clients that do not accept it.
+     *
+     * @param request The servlet request we are processing
+     * @param response The servlet response we are creating
+     * @param path The path of the requested resource
+     * @param contentType The content type of the requested resource
+     * @return the gzip compressed representation of the resource or
+     *         <code>null</code> if there is no such representation or the
+     *         client does not accept it
+     */
+    protected WebResource getCompressedResource(HttpServletRequest request,
+            HttpServletResponse response, String path, String contentType) {
+
+        if (precompressed) {
+            WebResource gzipResource = resources.getResource(path + ".gz");
+            if (gzipResource.exists() && gzipResource.isFile()) {
+                response.addHeader("Vary", "accept-encoding");
+                if (acceptsGzip(request)) {
+                    return gzipResource;
+                }
+                return null;
+            }
+        }
+
+        if (cacheCompressed && isCompressable(contentType)) {
+            response.addHeader("Vary", "accept-encoding");
+            if (acceptsGzip(request)) {
+                WebResource compressedResource =
+                        resources.getCompressedResource(path, "gzip");
+                if (compressedResource != null && compressedResource.exists()) {
+                    return compressedResource;
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Check if the client accepts the gzip content encoding. Encodings that
+     * are explicitly refused with a quality value of zero are not accepted.
+     *
+     * @param request The servlet request we are processing
+     * @return <code>true</code> if the response may be gzip encoded
+     */
+    protected boolean acceptsGzip(HttpServletRequest request) {
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers.hasMoreElements()) {
+            StringTokenizer st = new StringTokenizer(headers.nextElement(), ",");
+            while (st.hasMoreTokens()) {
+                String coding = st.nextToken();
+                String quality = null;
+                int semicolon = coding.indexOf(';');
+                if (semicolon > -1) {
+                    quality = coding.substring(semicolon + 1).trim();
+                    coding = coding.substring(0, semicolon);
+                }
+                coding = coding.trim();
+                if (!"gzip".equalsIgnoreCase(coding) &&
+                        !"x-gzip".equalsIgnoreCase(coding) &&
+                        !"*".equals(coding)) {
+                    continue;
+                }
+                if (quality != null && quality.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(quality.substring(2)) == 0) {
+                            continue;
+                        }
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Should a compressed representation be cached for resources of the given
+     * content type?
+     */
+    private boolean isCompressable(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        for (String compressableMimeType : compressableMimeTypes) {
+            if (contentType.startsWith(compressableMimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     /**
      * Parse the content-range header.
      *
@@ -1731,6 +1886,18 @@ public class DefaultServlet
         // Optimization: If the binary content has already been loaded, send
         // it directly
         if (resource.isFile()) {
+            ByteBuffer content = resource.getContentBuffer();
+            if (content != null) {
+                try {
+                    exception = copyRange(content, ostream, 0,
+                            content.limit() - 1);
+                } finally {
+                    resource.releaseContentBuffer(content);
+                }
+                if (exception != null)
+                    throw exception;
+                return;
+            }
             byte buffer[] = resource.getContent();
             if (buffer != null) {
                 ostream.write(buffer, 0, buffer.length);
@@ -1815,13 +1982,22 @@ public class DefaultServlet
 
         IOException exception = null;
 
-        InputStream resourceInputStream = resource.getInputStream();
-        InputStream istream =
-            new BufferedInputStream(resourceInputStream, input);
-        exception = copyRange(istream, ostream, range.start, range.end);
+        ByteBuffer content = resource.getContentBuffer();
+        if (content != null) {
+            try {
+                exception = copyRange(content, ostream, range.start, range.end);
+            } finally {
+                resource.releaseContentBuffer(content);
+            }
+        } else {
+            InputStream resourceInputStream = resource.getInputStream();
+            InputStream istream =
+                new BufferedInputStream(resourceInputStream, input);
+            exception = copyRange(istream, ostream, range.start, range.end);
 
-        // Clean up the input stream
-        istream.close();
+            // Clean up the input stream
+            istream.close();
+        }
 
         // Rethrow any exception that has occurred
         if (exception != null)
@@ -1848,30 +2024,41 @@ public class DefaultServlet
 
         IOException exception = null;
 
-        while ( (exception == null) && (ranges.hasNext()) ) {
-
-            InputStream resourceInputStream = resource.getInputStream();
-            InputStream istream =
-                new BufferedInputStream(resourceInputStream, input);
-
-            Range currentRange = ranges.next();
+        ByteBuffer content = resource.getContentBuffer();
 
-            // Writing MIME header.
-            ostream.println();
-            ostream.println("--" + mimeSeparation);
-            if (contentType != null)
-                ostream.println("Content-Type: " + contentType);
-            ostream.println("Content-Range: bytes " + currentRange.start
-                           + "-" + currentRange.end + "/"
-                           + currentRange.length);
-            ostream.println();
+        try {
+            while ( (exception == null) && (ranges.hasNext()) ) {
+
+                Range currentRange = ranges.next();
+
+                // Writing MIME header.
+                ostream.println();
+                ostream.println("--" + mimeSeparation);
+                if (contentType != null)
+                    ostream.println("Content-Type: " + contentType);
+                ostream.println("Content-Range: bytes " + currentRange.start
+                               + "-" + currentRange.end + "/"
+                               + currentRange.length);
+                ostream.println();
+
+                // Printing content
+                if (content != null) {
+                    exception = copyRange(content, ostream, currentRange.start,
+                                          currentRange.end);
+                } else {
+                    InputStream resourceInputStream = resource.getInputStream();
+                    InputStream istream =
+                        new BufferedInputStream(resourceInputStream, input);
 
-            // Printing content
-            exception = copyRange(istream, ostream, currentRange.start,
-                                  currentRange.end);
+                    exception = copyRange(istream, ostream, currentRange.start,
+                                          currentRange.end);
 
-            istream.close();
+                    istream.close();
+                }
 
+            }
+        } finally {
+            resource.releaseContentBuffer(content);
         }
 
         ostream.println();
@@ -2006,6 +2193,47 @@ public class DefaultServlet
     }
 
 
+    /**
+     * Copy the specified range of the content buffer to the specified output
+     * stream. If the output stream is provided by the connector the content is
+     * written without first being copied into a byte array.
+     *
+     * @param content The buffer to read from
+     * @param ostream The output stream to write to
+     * @param start Start of the range which will be copied
+     * @param end End of the range which will be copied
+     * @return Exception which occurred during processing
+     */
+    protected IOException copyRange(ByteBuffer content,
+                                  ServletOutputStream ostream,
+                                  long start, long end) {
+
+        if (debug > 10)
+            log("Serving bytes:" + start + "-" + end);
+
+        content.limit((int) end + 1);
+        content.position((int) start);
+
+        try {
+            if (ostream instanceof CoyoteOutputStream) {
+                ((CoyoteOutputStream) ostream).write(content);
+            } else {
+                byte buffer[] = new byte[Math.min(input, content.remaining())];
+                while (content.hasRemaining()) {
+                    int len = Math.min(buffer.length, content.remaining());
+                    content.get(buffer, 0, len);
+                    ostream.write(buffer, 0, len);
+                }
+            }
+        } catch (IOException e) {
+            return e;
+        }
+
+        return null;
+
+    }
+
+
     // ------------------------------------------------------ Range Inner Class
 
 
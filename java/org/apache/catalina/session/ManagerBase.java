@@ -21,17 +21,22 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Deque;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.catalina.Container;
 import org.apache.catalina.Context;
@@ -131,16 +136,31 @@ public abstract class ManagerBase extends LifecycleMBeanBase
      * The longest time (in seconds) that an expired session had been alive.
      */
     protected volatile int sessionMaxAliveTime;
-    private final Object sessionMaxAliveTimeUpdateLock = new Object();
 
 
     protected static final int TIMING_STATS_CACHE_SIZE = 100;
 
+    private final SessionTimingBuffer creationTimings =
+            new SessionTimingBuffer(TIMING_STATS_CACHE_SIZE);
+
+    private final SessionTimingBuffer expirationTimings =
+            new SessionTimingBuffer(TIMING_STATS_CACHE_SIZE);
+
+    /**
+     * The most recent session creation timings. Timings added are kept in a
+     * fixed size buffer that discards the oldest entries itself so there is
+     * no need to remove entries or to synchronize on the deque.
+     */
     protected final Deque<SessionTiming> sessionCreationTiming =
-            new LinkedList<>();
+            creationTimings;
 
+    /**
+     * The most recent session expiration timings. Timings added are kept in a
+     * fixed size buffer that discards the oldest entries itself so there is
+     * no need to remove entries or to synchronize on the deque.
+     */
     protected final Deque<SessionTiming> sessionExpirationTiming =
-            new LinkedList<>();
+            expirationTimings;
 
     /**
      * Number of sessions that have expired.
@@ -154,13 +174,19 @@ public abstract class ManagerBase extends LifecycleMBeanBase
      */
     protected Map<String, Session> sessions = new ConcurrentHashMap<>();
 
+    /**
+     * The active Sessions for this Manager, grouped by the time at which they
+     * need to be checked for expiration. Sessions are added to and removed
+     * from this index by {@link #add(Session)} and {@link #remove(Session)}.
+     */
+    protected final SessionExpirationIndex expirationIndex =
+            new SessionExpirationIndex();
+
     // Number of sessions created by this manager
-    protected long sessionCounter=0;
+    protected volatile long sessionCounter=0;
 
     protected volatile int maxActive=0;
 
-    private final Object maxActiveUpdateLock = new Object();
-
     /**
      * The maximum number of active Sessions allowed, or -1 for no limit.
      */
@@ -169,7 +195,19 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     /**
      * Number of session creations that failed due to maxActiveSessions.
      */
-    protected int rejectedSessions = 0;
+    protected volatile int rejectedSessions = 0;
+
+    private static final AtomicLongFieldUpdater<ManagerBase> sessionCounterUpdater =
+            AtomicLongFieldUpdater.newUpdater(ManagerBase.class, "sessionCounter");
+
+    private static final AtomicIntegerFieldUpdater<ManagerBase> maxActiveUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(ManagerBase.class, "maxActive");
+
+    private static final AtomicIntegerFieldUpdater<ManagerBase> rejectedSessionsUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(ManagerBase.class, "rejectedSessions");
+
+    private static final AtomicIntegerFieldUpdater<ManagerBase> sessionMaxAliveTimeUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(ManagerBase.class, "sessionMaxAliveTime");
 
     // number of duplicated session ids - anything >0 means we have problems
     protected volatile int duplicates=0;
@@ -512,16 +550,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
 
         if(log.isDebugEnabled())
-            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (sessions[i]!=null && !sessions[i].isValid()) {
-                expireHere++;
-            }
-        }
+            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + getActiveSessions());
+        int expireHere = expireDueSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
@@ -537,17 +569,84 @@ public abstract class ManagerBase extends LifecycleMBeanBase
         setDistributable(getContext().getDistributable());
     }
 
-    @Override
-    protected void startInternal() throws LifecycleException {
+    /**
+     * Check the sessions that are due to be checked for expiration at the given
+     * time and expire those that are no longer valid. Sessions that are still
+     * valid are scheduled to be checked again when they are next due to
+     * expire.
+     *
+     * @param timeNow   The current time
+     * @return The number of sessions that expired
+     */
+    protected int expireDueSessions(long timeNow) {
+        int expireHere = 0;
+        for (Session session : expirationIndex.pollDue(timeNow)) {
+            if (!session.isValid()) {
+                expireHere++;
+            } else if (isActiveSession(session)) {
+                scheduleExpiration(session);
+            }
+        }
+        return expireHere;
+    }
 
-        // Ensure caches for timing stats are the right size by filling with
-        // nulls.
-        while (sessionCreationTiming.size() < TIMING_STATS_CACHE_SIZE) {
-            sessionCreationTiming.add(null);
+
+    /**
+     * Schedule the given session to be checked for expiration at the time it
+     * is next due to expire. This must be called if a change to the session
+     * may have made it due to expire earlier, such as a reduction in its
+     * maximum inactive interval. Accessing the session does not require this
+     * method to be called. Sessions that are not active in this manager are
+     * ignored.
+     *
+     * @param session   The session that has changed
+     */
+    public void rescheduleExpiration(Session session) {
+        if (isActiveSession(session)) {
+            scheduleExpiration(session);
         }
-        while (sessionExpirationTiming.size() < TIMING_STATS_CACHE_SIZE) {
-            sessionExpirationTiming.add(null);
+    }
+
+
+    /**
+     * Is the given session one of the active sessions of this manager? This
+     * is called from the expiration check and when a session is changed by
+     * replication so, unlike {@link #findSession(String)}, it must not have
+     * any side effects.
+     *
+     * @param session   The session to check
+     * @return <code>true</code> if the session is active in this manager
+     */
+    protected boolean isActiveSession(Session session) {
+        String id = session.getIdInternal();
+        return id != null && sessions.get(id) == session;
+    }
+
+
+    /**
+     * File the session in the expiration index at the earliest time it may
+     * expire based on its last access time and maximum inactive interval.
+     * Sessions are filed by {@link #add(Session)}. Managers that make
+     * sessions active by other means must call this method for them.
+     *
+     * @param session   The session to file
+     */
+    protected void scheduleExpiration(Session session) {
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval <= 0) {
+            // Never expires
+            expirationIndex.remove(session);
+            return;
         }
+        long lastAccessed = Math.min(session.getLastAccessedTimeInternal(),
+                session.getThisAccessedTimeInternal());
+        expirationIndex.schedule(session,
+                lastAccessed + maxInactiveInterval * 1000L);
+    }
+
+
+    @Override
+    protected void startInternal() throws LifecycleException {
 
         sessionIdGenerator = new SessionIdGenerator();
         sessionIdGenerator.setJvmRoute(getJvmRoute());
@@ -579,12 +678,12 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     public void add(Session session) {
 
         sessions.put(session.getIdInternal(), session);
+        scheduleExpiration(session);
         int size = getActiveSessions();
-        if( size > maxActive ) {
-            synchronized(maxActiveUpdateLock) {
-                if( size > maxActive ) {
-                    maxActive = size;
-                }
+        int max;
+        while (size > (max = maxActive)) {
+            if (maxActiveUpdater.compareAndSet(this, max, size)) {
+                break;
             }
         }
     }
@@ -621,7 +720,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase
 
         if ((maxActiveSessions >= 0) &&
                 (getActiveSessions() >= maxActiveSessions)) {
-            rejectedSessions++;
+            rejectedSessionsUpdater.incrementAndGet(this);
             throw new TooManyActiveSessionsException(
                     sm.getString("managerBase.createSession.ise"),
                     maxActiveSessions);
@@ -640,13 +739,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase
             id = generateSessionId();
         }
         session.setId(id);
-        sessionCounter++;
+        sessionCounterUpdater.incrementAndGet(this);
 
         SessionTiming timing = new SessionTiming(session.getCreationTime(), 0);
-        synchronized (sessionCreationTiming) {
-            sessionCreationTiming.add(timing);
-            sessionCreationTiming.poll();
-        }
+        creationTimings.add(timing);
         return (session);
 
     }
@@ -724,15 +820,13 @@ public abstract class ManagerBase extends LifecycleMBeanBase
             updateSessionMaxAliveTime(timeAlive);
             expiredSessions.incrementAndGet();
             SessionTiming timing = new SessionTiming(timeNow, timeAlive);
-            synchronized (sessionExpirationTiming) {
-                sessionExpirationTiming.add(timing);
-                sessionExpirationTiming.poll();
-            }
+            expirationTimings.add(timing);
         }
 
         if (session.getIdInternal() != null) {
             sessions.remove(session.getIdInternal());
         }
+        expirationIndex.remove(session);
     }
 
 
@@ -888,9 +982,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase
 
     @Override
     public void setMaxActive(int maxActive) {
-        synchronized (maxActiveUpdateLock) {
-            this.maxActive = maxActive;
-        }
+        this.maxActive = maxActive;
     }
 
 
@@ -944,9 +1036,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase
      */
     @Override
     public void setSessionMaxAliveTime(int sessionMaxAliveTime) {
-        synchronized (sessionMaxAliveTimeUpdateLock) {
-            this.sessionMaxAliveTime = sessionMaxAliveTime;
-        }
+        this.sessionMaxAliveTime = sessionMaxAliveTime;
     }
 
 
@@ -958,11 +1048,11 @@ public abstract class ManagerBase extends LifecycleMBeanBase
      *                          sessionMaxAliveTime value.
      */
     public void updateSessionMaxAliveTime(int sessionAliveTime) {
-        if (sessionAliveTime > this.sessionMaxAliveTime) {
-            synchronized (sessionMaxAliveTimeUpdateLock) {
-                if (sessionAliveTime > this.sessionMaxAliveTime) {
-                    this.sessionMaxAliveTime = sessionAliveTime;
-                }
+        int max;
+        while (sessionAliveTime > (max = this.sessionMaxAliveTime)) {
+            if (sessionMaxAliveTimeUpdater.compareAndSet(
+                    this, max, sessionAliveTime)) {
+                break;
             }
         }
     }
@@ -978,10 +1068,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     @Override
     public int getSessionAverageAliveTime() {
         // Copy current stats
-        List<SessionTiming> copy = new ArrayList<>();
-        synchronized (sessionExpirationTiming) {
-            copy.addAll(sessionExpirationTiming);
-        }
+        List<SessionTiming> copy = expirationTimings.toList();
 
         // Init
         int counter = 0;
@@ -1014,10 +1101,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     public int getSessionCreateRate() {
         long now = System.currentTimeMillis();
         // Copy current stats
-        List<SessionTiming> copy = new ArrayList<>();
-        synchronized (sessionCreationTiming) {
-            copy.addAll(sessionCreationTiming);
-        }
+        List<SessionTiming> copy = creationTimings.toList();
 
         // Init
         long oldest = now;
@@ -1057,10 +1141,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     public int getSessionExpireRate() {
         long now = System.currentTimeMillis();
         // Copy current stats
-        List<SessionTiming> copy = new ArrayList<>();
-        synchronized (sessionExpirationTiming) {
-            copy.addAll(sessionExpirationTiming);
-        }
+        List<SessionTiming> copy = expirationTimings.toList();
 
         // Init
         long oldest = now;
@@ -1292,6 +1373,201 @@ public abstract class ManagerBase extends LifecycleMBeanBase
 
     // ----------------------------------------------------------- Inner classes
 
+    /**
+     * Holds the most recent timing information. Older entries are overwritten
+     * by newer ones without the need for any locking.
+     * <p>
+     * The buffer is exposed to sub-classes as a {@link Deque} that always
+     * holds {@link #TIMING_STATS_CACHE_SIZE} entries, padded with
+     * <code>null</code>s, from the oldest to the most recent. Adding an entry
+     * at either end records it as the most recent one. Since the oldest entry
+     * is discarded at the same time, polling returns <code>null</code> and
+     * removes nothing. Entries can't be removed individually.
+     */
+    private static final class SessionTimingBuffer
+            extends AbstractCollection<SessionTiming>
+            implements Deque<SessionTiming> {
+
+        private final AtomicReferenceArray<SessionTiming> timings;
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        public SessionTimingBuffer(int size) {
+            timings = new AtomicReferenceArray<>(size);
+        }
+
+        @Override
+        public boolean add(SessionTiming timing) {
+            int index = (next.getAndIncrement() & Integer.MAX_VALUE) %
+                    timings.length();
+            timings.set(index, timing);
+            return true;
+        }
+
+        /**
+         * @return a copy of the current timing information
+         */
+        public List<SessionTiming> toList() {
+            List<SessionTiming> result = new ArrayList<>(timings.length());
+            for (int i = 0; i < timings.length(); i++) {
+                SessionTiming timing = timings.get(i);
+                if (timing != null) {
+                    result.add(timing);
+                }
+            }
+            return result;
+        }
+
+        /*
+         * All the entries, including empty ones, from the oldest to the most
+         * recent.
+         */
+        private List<SessionTiming> snapshot() {
+            int size = timings.length();
+            int start = (next.get() & Integer.MAX_VALUE) % size;
+            List<SessionTiming> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(timings.get((start + i) % size));
+            }
+            return result;
+        }
+
+        @Override
+        public void clear() {
+            for (int i = 0; i < timings.length(); i++) {
+                timings.set(i, null);
+            }
+        }
+
+        @Override
+        public int size() {
+            return timings.length();
+        }
+
+        @Override
+        public Iterator<SessionTiming> iterator() {
+            return Collections.unmodifiableList(snapshot()).iterator();
+        }
+
+        @Override
+        public Iterator<SessionTiming> descendingIterator() {
+            List<SessionTiming> result = snapshot();
+            Collections.reverse(result);
+            return Collections.unmodifiableList(result).iterator();
+        }
+
+        @Override
+        public void addFirst(SessionTiming timing) {
+            add(timing);
+        }
+
+        @Override
+        public void addLast(SessionTiming timing) {
+            add(timing);
+        }
+
+        @Override
+        public void push(SessionTiming timing) {
+            add(timing);
+        }
+
+        @Override
+        public boolean offer(SessionTiming timing) {
+            return add(timing);
+        }
+
+        @Override
+        public boolean offerFirst(SessionTiming timing) {
+            return add(timing);
+        }
+
+        @Override
+        public boolean offerLast(SessionTiming timing) {
+            return add(timing);
+        }
+
+        @Override
+        public SessionTiming poll() {
+            return null;
+        }
+
+        @Override
+        public SessionTiming pollFirst() {
+            return null;
+        }
+
+        @Override
+        public SessionTiming pollLast() {
+            return null;
+        }
+
+        @Override
+        public SessionTiming peek() {
+            return peekFirst();
+        }
+
+        @Override
+        public SessionTiming peekFirst() {
+            return snapshot().get(0);
+        }
+
+        @Override
+        public SessionTiming peekLast() {
+            List<SessionTiming> result = snapshot();
+            return result.get(result.size() - 1);
+        }
+
+        @Override
+        public SessionTiming element() {
+            return getFirst();
+        }
+
+        @Override
+        public SessionTiming getFirst() {
+            return peekFirst();
+        }
+
+        @Override
+        public SessionTiming getLast() {
+            return peekLast();
+        }
+
+        @Override
+        public SessionTiming remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SessionTiming removeFirst() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SessionTiming removeLast() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SessionTiming pop() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeFirstOccurrence(Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeLastOccurrence(Object o) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+
     protected static final class SessionTiming {
         private final long timestamp;
         private final int duration;
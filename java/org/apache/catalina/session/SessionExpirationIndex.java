@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.catalina.Session;
+
+/**
+ * Groups sessions into buckets by the time at which they are next due to be
+ * checked for expiration so that the background expiration check only needs to
+ * look at sessions that may have expired rather than every session.
+ * <p>
+ * The time a session is filed under must never be later than the time the
+ * session will actually expire. Session access only ever makes the expiration
+ * time later so sessions are not moved when they are accessed. Instead, a
+ * session that is still valid when its bucket becomes due is simply filed
+ * again under its new expiration time. A session that is accessed regularly is
+ * therefore looked at roughly once per maximum inactive interval.
+ * <p>
+ * This class is thread safe. A session may briefly appear in more than one
+ * bucket when it is filed concurrently by several threads. Only the bucket
+ * recorded for the session is honoured and any other entries are discarded
+ * when their bucket becomes due.
+ */
+public class SessionExpirationIndex {
+
+    private final long tickMillis;
+
+    private final ConcurrentNavigableMap<Long,Set<Session>> buckets =
+            new ConcurrentSkipListMap<>();
+
+    private final ConcurrentMap<Session,Long> ticks = new ConcurrentHashMap<>();
+
+
+    /**
+     * Create an index that groups sessions by the second in which they are
+     * due to expire.
+     */
+    public SessionExpirationIndex() {
+        this(1000);
+    }
+
+
+    /**
+     * Create an index with the given bucket size.
+     *
+     * @param tickMillis    The period of time, in milliseconds, covered by
+     *                      each bucket
+     */
+    public SessionExpirationIndex(long tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+
+    /**
+     * File the session so it is returned by {@link #pollDue(long)} once the
+     * given time has passed. Any previous entry for the session is replaced.
+     *
+     * @param session       The session to file
+     * @param expiryTime    The earliest time at which the session may expire
+     */
+    public void schedule(Session session, long expiryTime) {
+        // Never file a session in a bucket that may already have been polled
+        long tick = Math.max(expiryTime / tickMillis,
+                System.currentTimeMillis() / tickMillis + 1);
+        Long key = Long.valueOf(tick);
+
+        Long oldKey = ticks.put(session, key);
+        if (key.equals(oldKey)) {
+            return;
+        }
+        if (oldKey != null) {
+            Set<Session> oldBucket = buckets.get(oldKey);
+            if (oldBucket != null) {
+                oldBucket.remove(session);
+            }
+        }
+
+        while (true) {
+            Set<Session> bucket = buckets.get(key);
+            if (bucket == null) {
+                Set<Session> newBucket = Collections.newSetFromMap(
+                        new ConcurrentHashMap<Session,Boolean>());
+                bucket = buckets.putIfAbsent(key, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+            bucket.add(session);
+            // If the bucket was removed by pollDue() whilst the session was
+            // being added, add the session again to a new bucket
+            if (buckets.get(key) == bucket) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Remove the session from the index.
+     *
+     * @param session   The session to remove
+     */
+    public void remove(Session session) {
+        Long key = ticks.remove(session);
+        if (key != null) {
+            Set<Session> bucket = buckets.get(key);
+            if (bucket != null) {
+                bucket.remove(session);
+            }
+        }
+    }
+
+
+    /**
+     * Remove and return all the sessions that are due to be checked for
+     * expiration at the given time. The caller is responsible for filing any
+     * returned session that has not expired again.
+     *
+     * @param timeNow   The current time
+     * @return The sessions that may have expired
+     */
+    public List<Session> pollDue(long timeNow) {
+        List<Session> result = new ArrayList<>();
+        Iterator<Map.Entry<Long,Set<Session>>> iter =
+                buckets.headMap(Long.valueOf(timeNow / tickMillis), true)
+                .entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Long,Set<Session>> entry = iter.next();
+            Long key = entry.getKey();
+            if (!buckets.remove(key, entry.getValue())) {
+                continue;
+            }
+            for (Session session : entry.getValue()) {
+                // Skip entries left over from a session being re-filed
+                if (ticks.remove(session, key)) {
+                    result.add(session);
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The number of sessions in the index.
+     */
+    public int size() {
+        return ticks.size();
+    }
+
+
+    /**
+     * Remove all sessions from the index.
+     */
+    public void clear() {
+        ticks.clear();
+        buckets.clear();
+    }
+}
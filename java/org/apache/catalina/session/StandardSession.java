@@ -532,6 +532,10 @@ public class StandardSession implements HttpSession, Session, Serializable {
     @Override
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval = interval;
+        if (manager instanceof ManagerBase) {
+            // A shorter interval may mean the session expires sooner
+            ((ManagerBase) manager).rescheduleExpiration(this);
+        }
     }
 
 
@@ -44,6 +44,8 @@ public final class Constants {
             "org.apache.catalina.startup.ContextConfig.jarsToSkip";
     public static final String TLD_JARS_TO_SKIP =
             "org.apache.catalina.startup.TldConfig.jarsToSkip";
+    public static final String ANNOTATION_SCAN_INDEX =
+            "org.apache.catalina.startup.ContextConfig.annotationScanIndex";
 
     /**
      * A dummy value used to suppress loading the default web.xml file.
@@ -41,6 +41,7 @@ import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletContainerInitializer;
@@ -84,6 +85,7 @@ import org.apache.tomcat.util.digester.RuleSet;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.scan.Jar;
 import org.apache.tomcat.util.scan.JarFactory;
+import org.apache.tomcat.util.threads.ParallelTaskRunner;
 import org.apache.tomcat.util.xml.ContextEjb;
 import org.apache.tomcat.util.xml.ContextEnvironment;
 import org.apache.tomcat.util.xml.ContextLocalEjb;
@@ -103,6 +105,7 @@ import org.apache.tomcat.util.xml.ServletDef;
 import org.apache.tomcat.util.xml.WebXml;
 import org.apache.tomcat.util.xml.parser.WebXmlParser;
 import org.apache.tomcat.util.xml.parser.XmlErrorHandler;
+import org.apache.tomcat.util.xml.processor.AnnotationScanIndex;
 import org.apache.tomcat.util.xml.processor.AnnotationsProcessor;
 import org.apache.tomcat.util.xml.processor.IHandlesTypesProcessor;
 import org.apache.tomcat.util.xml.scanner.FragmentJarScanner;
@@ -124,6 +127,25 @@ public class ContextConfig implements LifecycleListener, IHandlesTypesProcessor
     private static final String SCI_LOCATION =
         "META-INF/services/javax.servlet.ServletContainerInitializer";
 
+    private static final String ANNOTATION_SCAN_INDEX_FILE =
+        "annotationScanIndex.dat";
+
+    /**
+     * The number of classes from /WEB-INF/classes that are parsed concurrently
+     * before their annotations are processed. Limits the number of parsed
+     * classes held in memory at any one time.
+     */
+    private static final int CLASS_BATCH_SIZE = 512;
+
+    /**
+     * Should the annotated classes found in each JAR be recorded in the work
+     * directory so unchanged JARs do not have to be fully scanned again when
+     * the web application is next started?
+     */
+    private static final boolean USE_ANNOTATION_SCAN_INDEX =
+        Boolean.valueOf(System.getProperty(Constants.ANNOTATION_SCAN_INDEX,
+                "true")).booleanValue();
+
 
     /**
      * The string resources for this package.
@@ -1175,17 +1197,25 @@ public class ContextConfig implements LifecycleListener, IHandlesTypesProcessor
                 WebResource[] webResources =
                         context.getResources().listResources("/WEB-INF/classes");
 
-                for (WebResource webResource : webResources) {
-                    processAnnotationsWebResource(webResource, webXml,
-                            webXml.isMetadataComplete());
-                }
+                processAnnotationsWebResources(webResources, webXml,
+                        webXml.isMetadataComplete());
             }
 
             // Step 5. Process JARs for annotations - only need to process
             // those fragments we are going to use
             if (ok) {
+                // The index only records classes with annotations so it can't
+                // be used if sub-types of a class or interface are required
+                AnnotationScanIndex index = null;
+                if (!handlesTypesNonAnnotations) {
+                    index = getAnnotationScanIndex();
+                }
                 AnnotationsProcessor.processAnnotations(
-                        orderedFragments, this, webXml.isMetadataComplete());
+                        orderedFragments, this, webXml.isMetadataComplete(),
+                        getScanExecutor(), getScanParallelism(), index);
+                if (index != null) {
+                    index.save();
+                }
             }
 
             // Cache, if used, is no longer required so clear it
@@ -1416,42 +1446,49 @@ public class ContextConfig implements LifecycleListener, IHandlesTypesProcessor
     protected void processServletContainerInitializers(
             Set<WebXml> fragments) {
 
-        for (WebXml fragment : fragments) {
-            URL url = fragment.getURL();
-            Jar jar = null;
-            InputStream is = null;
-            ServletContainerInitializer sci = null;
-            try {
-                if ("jar".equals(url.getProtocol())) {
-                    jar = JarFactory.newInstance(url);
-                    is = jar.getInputStream(SCI_LOCATION);
-                } else if ("file".equals(url.getProtocol())) {
-                    String path = url.getPath();
-                    File file = new File(path, SCI_LOCATION);
-                    if (file.exists()) {
-                        is = new FileInputStream(file);
+        // Opening the JARs is the expensive part so look for the SCI class
+        // names concurrently. The SCIs are then created in fragment order.
+        final WebXml[] orderedFragments =
+                fragments.toArray(new WebXml[fragments.size()]);
+        final String[] sciClassNames = new String[orderedFragments.length];
+        final boolean[] failed = new boolean[orderedFragments.length];
+
+        List<Runnable> tasks = new ArrayList<>(orderedFragments.length);
+        for (int i = 0; i < orderedFragments.length; i++) {
+            final int index = i;
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sciClassNames[index] = getServletContainerInitializerClassName(
+                                orderedFragments[index].getURL());
+                    } catch (IOException ioe) {
+                        failed[index] = true;
                     }
                 }
-                if (is != null) {
-                    sci = getServletContainerInitializer(is);
+            });
+        }
+        if (!runScanTasks(tasks)) {
+            return;
+        }
+
+        for (int i = 0; i < orderedFragments.length; i++) {
+            URL url = orderedFragments[i].getURL();
+            ServletContainerInitializer sci = null;
+            boolean sciFailed = failed[i];
+            if (!sciFailed && sciClassNames[i] != null) {
+                try {
+                    sci = getServletContainerInitializer(sciClassNames[i]);
+                } catch (IOException ioe) {
+                    sciFailed = true;
                 }
-            } catch (IOException ioe) {
+            }
+            if (sciFailed) {
                 log.error(sm.getString(
                         "contextConfig.servletContainerInitializerFail", url,
                         context.getName()));
                 ok = false;
                 return;
-            } finally {
-                if (is != null) {
-                    try {
-                        is.close();
-                    } catch (IOException e) {
-                        // Ignore
-                    }
-                }
-                if (jar != null) {
-                    jar.close();
-                }
             }
 
             if (sci == null) {
@@ -1503,6 +1540,60 @@ public class ContextConfig implements LifecycleListener, IHandlesTypesProcessor
      */
     protected ServletContainerInitializer getServletContainerInitializer(
             InputStream is) throws IOException {
+        return getServletContainerInitializer(
+                getServletContainerInitializerClassName(is));
+    }
+
+
+    /**
+     * Extract the name of the ServletContainerInitializer, if any, defined by
+     * the JAR or directory with the given URL.
+     *
+     * @param url   The JAR or directory to search
+     * @return      The class name or <code>null</code> if none is defined
+     * @throws IOException
+     */
+    protected String getServletContainerInitializerClassName(URL url)
+            throws IOException {
+
+        Jar jar = null;
+        InputStream is = null;
+        try {
+            if ("jar".equals(url.getProtocol())) {
+                jar = JarFactory.newInstance(url);
+                is = jar.getInputStream(SCI_LOCATION);
+            } else if ("file".equals(url.getProtocol())) {
+                String path = url.getPath();
+                File file = new File(path, SCI_LOCATION);
+                if (file.exists()) {
+                    is = new FileInputStream(file);
+                }
+            }
+            return getServletContainerInitializerClassName(is);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            if (jar != null) {
+                jar.close();
+            }
+        }
+    }
+
+
+    /**
+     * Extract the name of the ServletContainerInitializer.
+     *
+     * @param is    The resource where the name is defined
+     * @return      The class name or <code>null</code> if none is defined
+     * @throws IOException
+     */
+    protected String getServletContainerInitializerClassName(InputStream is)
+            throws IOException {
 
         String className = null;
 
@@ -1521,6 +1612,20 @@ public class ContextConfig implements LifecycleListener, IHandlesTypesProcessor
             }
         }
 
+        return className;
+    }
+
+
+    /**
+     * Create the ServletContainerInitializer with the given name.
+     *
+     * @param className The name of the ServletContainerInitializer class
+     * @return      The new ServletContainerInitializer
+     * @throws IOException
+     */
+    protected ServletContainerInitializer getServletContainerInitializer(
+            String className) throws IOException {
+
         ServletContainerInitializer sci = null;
         try {
             Class<?> clazz = Class.forName(className,true,
@@ -1727,6 +1832,158 @@ public class ContextConfig implements LifecycleListener, IHandlesTypesProcessor
 
 
 
+    /**
+     * Process the given web resources (and any resources they contain) for
+     * annotations. Class files are parsed concurrently, using the start/stop
+     * executor of the Host, but their annotations are processed in the order
+     * the classes were found so the result does not depend on the number of
+     * threads used.
+     */
+    protected void processAnnotationsWebResources(WebResource[] webResources,
+            WebXml fragment, boolean handlesTypesOnly) {
+
+        List<WebResource> classResources = new ArrayList<>();
+        for (WebResource webResource : webResources) {
+            findClassResources(webResource, classResources);
+        }
+
+        for (int start = 0; start < classResources.size();
+                start += CLASS_BATCH_SIZE) {
+            final List<WebResource> batch = classResources.subList(start,
+                    Math.min(start + CLASS_BATCH_SIZE, classResources.size()));
+            final JavaClass[] classes = new JavaClass[batch.size()];
+
+            List<Runnable> tasks = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                final int index = i;
+                tasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        classes[index] = parseClass(batch.get(index));
+                    }
+                });
+            }
+            if (!runScanTasks(tasks)) {
+                return;
+            }
+
+            for (JavaClass clazz : classes) {
+                if (clazz != null) {
+                    AnnotationsProcessor.processAnnotationsClass(
+                            clazz, fragment, this, handlesTypesOnly);
+                }
+            }
+        }
+    }
+
+
+    private void findClassResources(WebResource webResource,
+            List<WebResource> classResources) {
+        if (webResource.isDirectory()) {
+            WebResource[] webResources =
+                    webResource.getWebResourceRoot().listResources(
+                            webResource.getWebappPath());
+            for (WebResource r : webResources) {
+                findClassResources(r, classResources);
+            }
+        } else if (webResource.isFile() &&
+                webResource.getName().endsWith(".class")) {
+            classResources.add(webResource);
+        }
+    }
+
+
+    private JavaClass parseClass(WebResource webResource) {
+        try (InputStream is = webResource.getInputStream()) {
+            return new ClassParser(is, null).parse();
+        } catch (IOException | ClassFormatException e) {
+            log.error(sm.getString("contextConfig.inputStreamWebResource",
+                    webResource.getWebappPath()),e);
+        }
+        return null;
+    }
+
+
+    /*
+     * Runs the given scanning tasks, using the start/stop executor of the Host
+     * if there is one. Returns false if the tasks did not complete.
+     */
+    private boolean runScanTasks(List<Runnable> tasks) {
+        try {
+            ParallelTaskRunner.run(getScanExecutor(), getScanParallelism(),
+                    tasks);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error(sm.getString("contextConfig.scanInterrupted",
+                    context.getName()), e);
+            ok = false;
+            return false;
+        }
+    }
+
+
+    /**
+     * Obtain the executor used to scan the web application in parallel. The
+     * start/stop executor of the Host is used since the threads are only
+     * required while web applications are starting.
+     *
+     * @return the executor or <code>null</code> if scanning should only use
+     *         the current thread
+     */
+    protected ExecutorService getScanExecutor() {
+        Container parent = context.getParent();
+        if (parent instanceof Host) {
+            return ((Host) parent).getStartStopExecutor();
+        }
+        return null;
+    }
+
+
+    /**
+     * @return the maximum number of threads that will be used to scan the web
+     *         application. This is the same as the number of start/stop
+     *         threads configured for the Host.
+     */
+    protected int getScanParallelism() {
+        Container parent = context.getParent();
+        if (parent == null) {
+            return 1;
+        }
+        int result = parent.getStartStopThreads();
+        if (result > 0) {
+            return result;
+        }
+        // Zero and negative values are relative to the number of processors
+        result = Runtime.getRuntime().availableProcessors() + result;
+        if (result < 1) {
+            result = 1;
+        }
+        return result;
+    }
+
+
+    /**
+     * Obtain the index of annotated classes in JARs for this web application.
+     * The index is stored in the work directory of the web application.
+     *
+     * @return the index or <code>null</code> if the index is disabled or there
+     *         is no work directory
+     */
+    protected AnnotationScanIndex getAnnotationScanIndex() {
+        if (!USE_ANNOTATION_SCAN_INDEX) {
+            return null;
+        }
+        Object workDir = context.getServletContext().getAttribute(
+                ServletContext.TEMPDIR);
+        if (!(workDir instanceof File) || !((File) workDir).isDirectory()) {
+            return null;
+        }
+        return new AnnotationScanIndex(
+                new File((File) workDir, ANNOTATION_SCAN_INDEX_FILE));
+    }
+
+
     protected void processAnnotationsWebResource(WebResource webResource,
             WebXml fragment, boolean handlesTypesOnly) {
 
@@ -1766,8 +2023,12 @@ public class ContextConfig implements LifecycleListener, IHandlesTypesProcessor
      * For classes packaged with the web application, the class and each
      * super class needs to be checked for a match with {@link HandlesTypes} or
      * for an annotation that matches {@link HandlesTypes}.
+     * <p>
+     * Classes may be scanned concurrently. The checks share the cache of super
+     * types so only one class is checked at a time.
      * @param javaClass
      */
+    @Override
     public void checkHandlesTypes(JavaClass javaClass) {
 
         // Skip this if we can
@@ -1775,6 +2036,14 @@ public class ContextConfig implements LifecycleListener, IHandlesTypesProcessor
             return;
         }
 
+        synchronized (javaClassCache) {
+            checkHandlesTypesInternal(javaClass);
+        }
+    }
+
+
+    private void checkHandlesTypesInternal(JavaClass javaClass) {
+
         if ((javaClass.getAccessFlags() &
                 org.apache.tomcat.util.bcel.Constants.ACC_ANNOTATION) > 0) {
             // Skip annotations.
@@ -25,8 +25,14 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -36,6 +42,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -53,7 +61,11 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.collections.MpscRingBuffer;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.http.MimeHeaders;
 
 
 /**
@@ -307,6 +319,10 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             private long previousSeconds = Long.MIN_VALUE;
             /* Value of CLF format retrieved in most recent invocation */
             private String previousFormat = "";
+            /* Second used to retrieve bytes in most recent invocation */
+            private long previousBytesSeconds = Long.MIN_VALUE;
+            /* ISO-8859-1 bytes retrieved in most recent invocation */
+            private byte[] previousBytes = null;
 
             /* First second contained in cache */
             private long first = Long.MIN_VALUE;
@@ -420,6 +436,16 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 cache[index] = previousFormat;
                 return previousFormat;
             }
+
+            private byte[] getFormatBytesInternal(long time) {
+                long seconds = time / 1000;
+                if (seconds != previousBytesSeconds) {
+                    previousBytes = getFormatInternal(time).getBytes(
+                            B2CConverter.ISO_8859_1);
+                    previousBytesSeconds = seconds;
+                }
+                return previousBytes;
+            }
         }
 
         /* Number of cached entries */
@@ -467,6 +493,14 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             return cLFCache.getFormatInternal(time);
         }
 
+        /**
+         * Get the CLF format as ISO-8859-1 bytes. The same array is returned
+         * for every call within the same second and must not be modified.
+         */
+        public byte[] getFormatBytes(long time) {
+            return cLFCache.getFormatBytesInternal(time);
+        }
+
         public String getFormat(String format, Locale loc, long time) {
             return getCache(format, loc).getFormatInternal(time);
         }
@@ -564,6 +598,21 @@ public class AccessLogValve extends ValveBase implements AccessLog {
      */
     protected AccessLogElement[] logElements = null;
 
+    /**
+     * The log elements compiled into a plan that generates the log message as
+     * bytes or <code>null</code> if the log file does not use ISO-8859-1, one
+     * of the elements can only generate characters or a sub-class overrides
+     * {@link #log(CharArrayWriter)}.
+     */
+    protected volatile ByteAccessLogElement[] byteLogElements = null;
+
+    /**
+     * Does a sub-class override {@link #log(CharArrayWriter)}? If so, every
+     * log message must be passed to it so neither the byte plan nor direct
+     * queueing to the background writer may be used.
+     */
+    private final boolean logMethodOverridden = isLogMethodOverridden();
+
     /**
      * @see #setRequestAttributesEnabled(boolean)
      */
@@ -576,6 +625,18 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     private SynchronizedStack<CharArrayWriter> charArrayWriters =
             new SynchronizedStack<>();
 
+    /**
+     * Buffer pool used for log message generation when the log elements have
+     * been compiled to generate bytes.
+     */
+    private SynchronizedStack<ByteChunk> byteChunks = new SynchronizedStack<>();
+
+    /**
+     * Buffer for log messages generated as bytes that are written directly to
+     * the log file. Created when first required.
+     */
+    private ByteBuffer outputBuffer = null;
+
     /**
      * Log message buffers are usually recycled and re-used. To prevent
      * excessive memory usage, if a buffer grows beyond this size it will be
@@ -584,6 +645,83 @@ public class AccessLogValve extends ValveBase implements AccessLog {
      */
     private int maxLogMessageBufferSize = 256;
 
+    /**
+     * Should log messages be handed to a background thread to be written
+     * rather than being written by the thread that processed the request?
+     */
+    private boolean asyncWrite = false;
+
+    /**
+     * The maximum number of log messages that may be waiting to be written
+     * when asynchronous writing is enabled.
+     */
+    private int queueSize = 8192;
+
+    /**
+     * What to do with a log message when asynchronous writing is enabled and
+     * the queue is full.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * The number of log messages that have been discarded because the queue
+     * was full.
+     */
+    private final AtomicLong droppedLines = new AtomicLong(0);
+
+    /**
+     * The number of discarded log messages at the time they were last
+     * reported.
+     */
+    private long droppedLinesReported = 0;
+
+    /**
+     * The background writer, if asynchronous writing is enabled and this
+     * valve has been started.
+     */
+    private volatile AsyncLogWriter asyncLogWriter = null;
+
+    /**
+     * The channel for the current log file, used by the background writer.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * The character set used by the current log file.
+     */
+    private Charset charset = null;
+
+    /**
+     * The possible actions when the asynchronous write queue is full.
+     */
+    private static enum OverflowPolicy {
+        BLOCK, DROP, COUNT
+    }
+
+    /**
+     * The size of the buffer the background writer collects log messages in
+     * before writing them to the log file.
+     */
+    private static final int ASYNC_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * How long a thread waits before trying again to add a log message to a
+     * full queue when the overflow policy is to block.
+     */
+    private static final long ASYNC_BLOCK_NANOS = 100 * 1000;
+
+    /**
+     * The size of the buffer log messages generated as bytes are collected in
+     * before being written to the log file.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 128000;
+
+    /**
+     * The line separator as ISO-8859-1 bytes.
+     */
+    private static final byte[] LINE_SEPARATOR =
+            System.lineSeparator().getBytes(B2CConverter.ISO_8859_1);
+
     // ------------------------------------------------------------- Properties
 
     public int getMaxLogMessageBufferSize() {
@@ -594,6 +732,92 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         this.maxLogMessageBufferSize = maxLogMessageBufferSize;
     }
 
+    /**
+     * Are log messages written by a background thread?
+     */
+    public boolean getAsyncWrite() {
+        return asyncWrite;
+    }
+
+    /**
+     * Set whether log messages are written by a background thread. Changes
+     * take effect the next time the valve is started.
+     *
+     * @param asyncWrite <code>true</code> to write log messages from a
+     *                   background thread
+     */
+    public void setAsyncWrite(boolean asyncWrite) {
+        this.asyncWrite = asyncWrite;
+    }
+
+    /**
+     * Return the maximum number of log messages that may be waiting to be
+     * written when asynchronous writing is enabled.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Set the maximum number of log messages that may be waiting to be
+     * written when asynchronous writing is enabled. Changes take effect the
+     * next time the valve is started.
+     *
+     * @param queueSize The new queue size. It is rounded up to the next power
+     *                  of two.
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Return what happens to a log message when asynchronous writing is
+     * enabled and the queue is full.
+     */
+    public String getOverflowPolicy() {
+        return overflowPolicy.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Set what happens to a log message when asynchronous writing is enabled
+     * and the queue is full.
+     *
+     * @param overflowPolicy <code>block</code> to wait for space in the queue,
+     *                       <code>drop</code> to discard the message or
+     *                       <code>count</code> to discard the message and
+     *                       periodically log how many messages were discarded
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            if (policy.name().equalsIgnoreCase(overflowPolicy)) {
+                this.overflowPolicy = policy;
+                return;
+            }
+        }
+        log.error(sm.getString("accessLogValve.invalidOverflowPolicy",
+                overflowPolicy));
+    }
+
+    /**
+     * Return the number of log messages waiting to be written by the
+     * background writer.
+     */
+    public int getQueueDepth() {
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+        if (asyncLogWriter == null) {
+            return 0;
+        }
+        return asyncLogWriter.queue.size();
+    }
+
+    /**
+     * Return the number of log messages that have been discarded because the
+     * asynchronous write queue was full.
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -667,6 +891,7 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             this.pattern = pattern;
         }
         logElements = createLogElements();
+        byteLogElements = compileLogElements();
     }
 
 
@@ -897,7 +1122,21 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     public synchronized void backgroundProcess() {
         if (getState().isAvailable() && getEnabled() && writer != null &&
                 buffered) {
-            writer.flush();
+            AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+            if (asyncLogWriter == null) {
+                flushOutputBuffer();
+                writer.flush();
+            } else {
+                asyncLogWriter.requestFlush();
+            }
+        }
+        if (overflowPolicy == OverflowPolicy.COUNT) {
+            long dropped = droppedLines.get();
+            if (dropped != droppedLinesReported) {
+                log.warn(sm.getString("accessLogValve.linesDropped",
+                        Long.valueOf(dropped - droppedLinesReported)));
+                droppedLinesReported = dropped;
+            }
         }
     }
 
@@ -936,6 +1175,29 @@ public class AccessLogValve extends ValveBase implements AccessLog {
          */
         long start = request.getCoyoteRequest().getStartTime();
         Date date = getDate(start + time);
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+
+        ByteAccessLogElement[] byteLogElements = this.byteLogElements;
+        if (byteLogElements != null) {
+            ByteChunk result = byteChunks.pop();
+            if (result == null) {
+                result = new ByteChunk(128);
+            }
+
+            for (int i = 0; i < byteLogElements.length; i++) {
+                byteLogElements[i].addElement(
+                        result, date, request, response, time);
+            }
+
+            // The background writer recycles the buffer once written
+            if (asyncLogWriter == null) {
+                log(result);
+                recycle(result);
+            } else if (!enqueue(asyncLogWriter, result)) {
+                recycle(result);
+            }
+            return;
+        }
 
         CharArrayWriter result = charArrayWriters.pop();
         if (result == null) {
@@ -946,11 +1208,99 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             logElements[i].addElement(result, date, request, response, time);
         }
 
-        log(result);
+        // The background writer recycles the buffer once written
+        if (asyncLogWriter == null || logMethodOverridden) {
+            log(result);
+            recycle(result);
+        } else if (!enqueue(asyncLogWriter, result)) {
+            recycle(result);
+        }
+    }
+
+
+    /**
+     * Return a log message buffer to the pool if it has not grown too large.
+     */
+    private void recycle(CharArrayWriter buffer) {
+        if (buffer.size() <= maxLogMessageBufferSize) {
+            buffer.reset();
+            charArrayWriters.push(buffer);
+        }
+    }
+
+
+    /**
+     * Return a log message buffer to the pool if it has not grown too large.
+     */
+    private void recycle(ByteChunk buffer) {
+        if (buffer.getLength() <= maxLogMessageBufferSize) {
+            buffer.recycle();
+            byteChunks.push(buffer);
+        }
+    }
+
+
+    /**
+     * Hand a log message to the background writer, applying the overflow
+     * policy if the queue is full.
+     *
+     * @return <code>true</code> if the message was queued or
+     *         <code>false</code> if it was discarded, in which case the
+     *         caller remains responsible for the buffer
+     */
+    private boolean enqueue(AsyncLogWriter asyncLogWriter, Object message) {
+        if (asyncLogWriter.offer(message)) {
+            return true;
+        }
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            // Messages are only dropped if the writer is stopping
+            while (asyncLogWriter.isRunning()) {
+                LockSupport.parkNanos(ASYNC_BLOCK_NANOS);
+                if (asyncLogWriter.offer(message)) {
+                    return true;
+                }
+            }
+        }
+        droppedLines.incrementAndGet();
+        return false;
+    }
+
+
+    /**
+     * Compile the log elements into a plan that generates the log message as
+     * bytes. Empty constant text is dropped from the plan.
+     *
+     * @return The plan or <code>null</code> if the log file does not use
+     *         ISO-8859-1 or any element is unable to generate bytes
+     */
+    private ByteAccessLogElement[] compileLogElements() {
+        AccessLogElement[] logElements = this.logElements;
+        if (logElements == null || logMethodOverridden ||
+                !B2CConverter.ISO_8859_1.equals(charset)) {
+            return null;
+        }
+        List<ByteAccessLogElement> plan = new ArrayList<>(logElements.length);
+        for (AccessLogElement element : logElements) {
+            if (!(element instanceof ByteAccessLogElement)) {
+                return null;
+            }
+            if (element instanceof StringElement &&
+                    ((StringElement) element).bytes.length == 0) {
+                continue;
+            }
+            plan.add((ByteAccessLogElement) element);
+        }
+        return plan.toArray(new ByteAccessLogElement[plan.size()]);
+    }
+
 
-        if (result.size() <= maxLogMessageBufferSize) {
-            result.reset();
-            charArrayWriters.push(result);
+    private boolean isLogMethodOverridden() {
+        try {
+            return getClass().getMethod("log", CharArrayWriter.class)
+                    .getDeclaringClass() != AccessLogValve.class;
+        } catch (NoSuchMethodException e) {
+            // Can't happen
+            return false;
         }
     }
 
@@ -998,9 +1348,11 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         if (writer == null) {
             return;
         }
+        flushOutputBuffer();
         writer.flush();
         writer.close();
         writer = null;
+        channel = null;
         dateStamp = "";
         currentLogFile = null;
     }
@@ -1008,11 +1360,131 @@ public class AccessLogValve extends ValveBase implements AccessLog {
 
     /**
      * Log the specified message to the log file, switching files if the date
-     * has changed since the previous log call.
+     * has changed since the previous log call. Messages for requests may be
+     * generated and written as bytes without calling this method.
+     * Sub-classes that override this method receive every message as
+     * characters instead.
      *
      * @param message Message to be logged
      */
     public void log(CharArrayWriter message) {
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+        if (asyncLogWriter != null) {
+            // The caller keeps ownership of the message so queue a copy
+            CharArrayWriter copy = charArrayWriters.pop();
+            if (copy == null) {
+                copy = new CharArrayWriter(message.size());
+            }
+            try {
+                message.writeTo(copy);
+            } catch (IOException ioe) {
+                // Can't happen - CharArrayWriter does not throw IOException
+            }
+            if (!enqueue(asyncLogWriter, copy)) {
+                recycle(copy);
+            }
+            return;
+        }
+
+        checkLogFile();
+
+        // Log this message
+        try {
+            synchronized(this) {
+                if (writer != null) {
+                    // Keep the messages in order
+                    flushOutputBuffer();
+                    message.writeTo(writer);
+                    writer.println("");
+                    if (!buffered) {
+                        writer.flush();
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString(
+                    "accessLogValve.writeFail", message.toString()), ioe);
+        }
+    }
+
+
+    /**
+     * Log the specified message, generated as ISO-8859-1 bytes, to the log
+     * file, switching files if the date has changed since the previous log
+     * call.
+     *
+     * @param message Message to be logged
+     */
+    private void log(ByteChunk message) {
+        checkLogFile();
+
+        synchronized(this) {
+            if (writer == null) {
+                return;
+            }
+            if (outputBuffer == null) {
+                outputBuffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+            }
+            int length = message.getLength();
+            if (outputBuffer.remaining() < length + LINE_SEPARATOR.length) {
+                flushOutputBuffer();
+            }
+            if (outputBuffer.remaining() < length + LINE_SEPARATOR.length) {
+                // Too big to buffer
+                writeBytes(ByteBuffer.wrap(
+                        message.getBuffer(), message.getStart(), length));
+                writeBytes(ByteBuffer.wrap(LINE_SEPARATOR));
+            } else {
+                outputBuffer.put(
+                        message.getBuffer(), message.getStart(), length);
+                outputBuffer.put(LINE_SEPARATOR);
+            }
+            if (!buffered) {
+                flushOutputBuffer();
+            }
+        }
+    }
+
+
+    /**
+     * Write any log messages waiting in the output buffer to the log file.
+     * Must be called by a thread that holds the lock on this valve.
+     */
+    private void flushOutputBuffer() {
+        if (outputBuffer != null && outputBuffer.position() > 0) {
+            outputBuffer.flip();
+            writeBytes(outputBuffer);
+            outputBuffer.clear();
+        }
+    }
+
+
+    /**
+     * Write the bytes to the current log file after anything written to the
+     * log file via {@link #writer}. Must be called by a thread that holds the
+     * lock on this valve.
+     */
+    private void writeBytes(ByteBuffer bytes) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.flush();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString("accessLogValve.writeBytesFail",
+                    Integer.valueOf(bytes.remaining())), ioe);
+        }
+    }
+
+
+    /**
+     * Switch log files if the date has changed since the last check or if
+     * something external has removed the current log file.
+     */
+    private void checkLogFile() {
         if (rotatable) {
             // Only do a logfile switch check once a second, max.
             long systime = System.currentTimeMillis();
@@ -1055,22 +1527,6 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 }
             }
         }
-
-        // Log this message
-        try {
-            synchronized(this) {
-                if (writer != null) {
-                    message.writeTo(writer);
-                    writer.println("");
-                    if (!buffered) {
-                        writer.flush();
-                    }
-                }
-            }
-        } catch (IOException ioe) {
-            log.warn(sm.getString(
-                    "accessLogValve.writeFail", message.toString()), ioe);
-        }
     }
 
 
@@ -1101,7 +1557,7 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             log.error(sm.getString("accessLogValve.openDirFail", parent));
         }
 
-        Charset charset = null;
+        charset = null;
         if (encoding != null) {
             try {
                 charset = B2CConverter.getCharset(encoding);
@@ -1115,13 +1571,16 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         }
 
         try {
+            FileOutputStream fos = new FileOutputStream(pathname, true);
             writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(pathname, true), charset), 128000),
-                    false);
+                    fos, charset), 128000), false);
+            channel = fos.getChannel();
+            byteLogElements = compileLogElements();
 
             currentLogFile = pathname;
         } catch (IOException e) {
             writer = null;
+            channel = null;
             currentLogFile = null;
             log.error(sm.getString("accessLogValve.openFail", pathname), e);
         }
@@ -1224,6 +1683,13 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         dateStamp = fileDateFormatter.format(new Date(System.currentTimeMillis()));
         open();
 
+        droppedLines.set(0);
+        droppedLinesReported = 0;
+        if (asyncWrite) {
+            asyncLogWriter = new AsyncLogWriter();
+            asyncLogWriter.start();
+        }
+
         setState(LifecycleState.STARTING);
     }
 
@@ -1239,45 +1705,340 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     protected synchronized void stopInternal() throws LifecycleException {
 
         setState(LifecycleState.STOPPING);
+        stopAsyncLogWriter();
         close();
     }
 
-    /**
-     * AccessLogElement writes the partial message into the buffer.
-     */
-    protected interface AccessLogElement {
-        public void addElement(CharArrayWriter buf, Date date, Request request,
-                Response response, long time);
-
-    }
 
     /**
-     * write thread name - %I
+     * Stop the background writer, if any, once it has written all the log
+     * messages that are waiting in the queue. Must be called by a thread that
+     * holds the lock on this valve.
      */
-    protected static class ThreadNameElement implements AccessLogElement {
-        @Override
-        public void addElement(CharArrayWriter buf, Date date, Request request,
-                Response response, long time) {
-            RequestInfo info = request.getCoyoteRequest().getRequestProcessor();
-            if(info != null) {
-                buf.append(info.getWorkerThreadName());
-            } else {
-                buf.append("-");
+    private void stopAsyncLogWriter() {
+        AsyncLogWriter asyncLogWriter = this.asyncLogWriter;
+        if (asyncLogWriter == null) {
+            return;
+        }
+        asyncLogWriter.stop();
+        // The writer needs the lock on this valve to write to the log file so
+        // wait() rather than join() to release the lock whilst waiting
+        while (asyncLogWriter.isAlive()) {
+            try {
+                wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
+        this.asyncLogWriter = null;
     }
 
+
     /**
-     * write local IP address - %A
+     * Writes log messages queued by request processing threads to the log
+     * file. Messages are encoded, or copied if they were generated as bytes,
+     * into a single buffer that is written to the log file when it is full,
+     * when the queue is empty and logging is not buffered, when a flush is
+     * requested by {@link #backgroundProcess()} and at least once a second so
+     * log file rotation happens at the same point it would for messages
+     * written directly.
      */
-    protected static class LocalAddrElement implements AccessLogElement {
+    private class AsyncLogWriter implements Runnable {
 
-        private static final String LOCAL_ADDR_VALUE;
+        private final MpscRingBuffer<Object> queue =
+                new MpscRingBuffer<>(queueSize);
+        private final ByteBuffer buffer =
+                ByteBuffer.allocateDirect(ASYNC_BUFFER_SIZE);
+        private final CharsetEncoder encoder;
+        private final char[] lineSeparator =
+                System.lineSeparator().toCharArray();
+        private final Thread thread;
 
-        static {
-            String init;
-            try {
-                init = InetAddress.getLocalHost().getHostAddress();
+        private volatile boolean running = true;
+        private volatile boolean waiting = false;
+        private volatile boolean flushRequested = false;
+        private long lastWrite = System.currentTimeMillis();
+
+        /**
+         * Passes the content of a log message to the encoder without having to
+         * copy it out of the message buffer first.
+         */
+        private final Writer encodingWriter = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                encode(CharBuffer.wrap(cbuf, off, len));
+            }
+            @Override
+            public void flush() {
+                // NO-OP
+            }
+            @Override
+            public void close() {
+                // NO-OP
+            }
+        };
+
+        private AsyncLogWriter() {
+            Charset charset = AccessLogValve.this.charset;
+            if (charset == null) {
+                charset = B2CConverter.ISO_8859_1;
+            }
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            thread = new Thread(this,
+                    "AccessLogWriter[" + getContainer().getName() + "]");
+            thread.setDaemon(true);
+            thread.setContextClassLoader(AccessLogValve.class.getClassLoader());
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        private boolean isRunning() {
+            return running;
+        }
+
+        private boolean isAlive() {
+            return thread.isAlive();
+        }
+
+        private boolean offer(Object message) {
+            if (!queue.offer(message)) {
+                return false;
+            }
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        private void requestFlush() {
+            flushRequested = true;
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running || !queue.isEmpty()) {
+                    Object message = queue.poll();
+                    if (message != null) {
+                        append(message);
+                        continue;
+                    }
+                    if (!buffered || flushRequested) {
+                        flushRequested = false;
+                        write();
+                    }
+                    waiting = true;
+                    // Check again after setting the flag so a message that
+                    // was queued without waking this thread is not missed
+                    if (running && queue.isEmpty() && !flushRequested) {
+                        LockSupport.parkNanos(this, 1000 * 1000 * 1000);
+                    }
+                    waiting = false;
+                }
+                write();
+            } finally {
+                synchronized (AccessLogValve.this) {
+                    AccessLogValve.this.notifyAll();
+                }
+            }
+        }
+
+        private void append(Object message) {
+            long now = System.currentTimeMillis();
+            if (now - lastWrite > 1000) {
+                write();
+            }
+            if (message instanceof ByteChunk) {
+                ByteChunk bytes = (ByteChunk) message;
+                put(bytes.getBuffer(), bytes.getStart(), bytes.getLength());
+                put(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+                recycle(bytes);
+            } else {
+                CharArrayWriter chars = (CharArrayWriter) message;
+                try {
+                    chars.writeTo(encodingWriter);
+                } catch (IOException ioe) {
+                    // Can't happen - the encoding writer does not throw
+                }
+                encode(CharBuffer.wrap(lineSeparator));
+                recycle(chars);
+            }
+        }
+
+        private void put(byte[] src, int off, int len) {
+            while (len > buffer.remaining()) {
+                int n = buffer.remaining();
+                buffer.put(src, off, n);
+                off += n;
+                len -= n;
+                write();
+            }
+            buffer.put(src, off, len);
+        }
+
+        private void encode(CharBuffer in) {
+            while (encoder.encode(in, buffer, false).isOverflow()) {
+                write();
+            }
+        }
+
+        private void write() {
+            lastWrite = System.currentTimeMillis();
+            buffer.flip();
+            synchronized (AccessLogValve.this) {
+                if (buffer.hasRemaining()) {
+                    writeBytes(buffer);
+                }
+                checkLogFile();
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * AccessLogElement writes the partial message into the buffer.
+     */
+    protected interface AccessLogElement {
+        public void addElement(CharArrayWriter buf, Date date, Request request,
+                Response response, long time);
+
+    }
+
+    /**
+     * ByteAccessLogElement can also write the partial message directly as
+     * ISO-8859-1 bytes, taking them from the request where possible rather
+     * than converting them to a String first.
+     */
+    protected interface ByteAccessLogElement extends AccessLogElement {
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time);
+
+    }
+
+    /*
+     * Helpers for ByteAccessLogElement. The buffers never have a limit so the
+     * IOException declared by ByteChunk.append() can't happen.
+     */
+
+    private static void appendBytes(ByteChunk buf, byte[] bytes) {
+        try {
+            buf.append(bytes, 0, bytes.length);
+        } catch (IOException ioe) {
+            // Can't happen
+        }
+    }
+
+    private static void appendChar(ByteChunk buf, char c) {
+        try {
+            buf.append(c > 0xFF ? (byte) '?' : (byte) c);
+        } catch (IOException ioe) {
+            // Can't happen
+        }
+    }
+
+    /**
+     * Append the String as ISO-8859-1, replacing any character that can't be
+     * represented with '?' as the encoder used for the log file would do.
+     */
+    private static void appendString(ByteChunk buf, String s) {
+        if (s == null) {
+            s = "null";
+        }
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < len &&
+                    Character.isLowSurrogate(s.charAt(i + 1))) {
+                // One replacement for the pair
+                i++;
+            }
+            appendChar(buf, c);
+        }
+    }
+
+    private static void appendMessageBytes(ByteChunk buf, MessageBytes mb) {
+        if (mb.getType() == MessageBytes.T_BYTES) {
+            ByteChunk bc = mb.getByteChunk();
+            if (B2CConverter.ISO_8859_1.equals(bc.getCharset())) {
+                try {
+                    buf.append(bc);
+                } catch (IOException ioe) {
+                    // Can't happen
+                }
+                return;
+            }
+        }
+        appendString(buf, mb.toString());
+    }
+
+    private static void appendLong(ByteChunk buf, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                appendString(buf, Long.toString(value));
+                return;
+            }
+            appendChar(buf, '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            appendChar(buf, (char) ('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * write thread name - %I
+     */
+    protected static class ThreadNameElement implements ByteAccessLogElement {
+        @Override
+        public void addElement(CharArrayWriter buf, Date date, Request request,
+                Response response, long time) {
+            RequestInfo info = request.getCoyoteRequest().getRequestProcessor();
+            if(info != null) {
+                buf.append(info.getWorkerThreadName());
+            } else {
+                buf.append("-");
+            }
+        }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            RequestInfo info = request.getCoyoteRequest().getRequestProcessor();
+            if(info != null) {
+                appendString(buf, info.getWorkerThreadName());
+            } else {
+                appendChar(buf, '-');
+            }
+        }
+    }
+
+    /**
+     * write local IP address - %A
+     */
+    protected static class LocalAddrElement implements ByteAccessLogElement {
+
+        private static final String LOCAL_ADDR_VALUE;
+
+        static {
+            String init;
+            try {
+                init = InetAddress.getLocalHost().getHostAddress();
             } catch (Throwable e) {
                 ExceptionUtils.handleThrowable(e);
                 init = "127.0.0.1";
@@ -1290,12 +2051,18 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 Response response, long time) {
             buf.append(LOCAL_ADDR_VALUE);
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            appendString(buf, LOCAL_ADDR_VALUE);
+        }
     }
 
     /**
      * write remote IP address - %a
      */
-    protected class RemoteAddrElement implements AccessLogElement {
+    protected class RemoteAddrElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1310,12 +2077,27 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append(request.getRemoteAddr());
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (requestAttributesEnabled) {
+                Object addr = request.getAttribute(REMOTE_ADDR_ATTRIBUTE);
+                if (addr == null) {
+                    appendString(buf, request.getRemoteAddr());
+                } else {
+                    appendString(buf, addr.toString());
+                }
+            } else {
+                appendString(buf, request.getRemoteAddr());
+            }
+        }
     }
 
     /**
      * write remote host name - %h
      */
-    protected class HostElement implements AccessLogElement {
+    protected class HostElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1334,23 +2116,48 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             }
             buf.append(value);
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            String value = null;
+            if (requestAttributesEnabled) {
+                Object host = request.getAttribute(REMOTE_HOST_ATTRIBUTE);
+                if (host != null) {
+                    value = host.toString();
+                }
+            }
+            if (value == null || value.length() == 0) {
+                value = request.getRemoteHost();
+            }
+            if (value == null || value.length() == 0) {
+                value = "-";
+            }
+            appendString(buf, value);
+        }
     }
 
     /**
      * write remote logical username from identd (always returns '-') - %l
      */
-    protected static class LogicalUserNameElement implements AccessLogElement {
+    protected static class LogicalUserNameElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
             buf.append('-');
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            appendChar(buf, '-');
+        }
     }
 
     /**
      * write request protocol - %H
      */
-    protected class ProtocolElement implements AccessLogElement {
+    protected class ProtocolElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1365,12 +2172,28 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append(request.getProtocol());
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (requestAttributesEnabled) {
+                Object proto = request.getAttribute(PROTOCOL_ATTRIBUTE);
+                if (proto == null) {
+                    appendMessageBytes(buf,
+                            request.getCoyoteRequest().protocol());
+                } else {
+                    appendString(buf, proto.toString());
+                }
+            } else {
+                appendMessageBytes(buf, request.getCoyoteRequest().protocol());
+            }
+        }
     }
 
     /**
      * write remote user that was authenticated (if any), else '-' - %u
      */
-    protected static class UserElement implements AccessLogElement {
+    protected static class UserElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1385,12 +2208,26 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            String value = null;
+            if (request != null) {
+                value = request.getRemoteUser();
+            }
+            if (value != null) {
+                appendString(buf, value);
+            } else {
+                appendChar(buf, '-');
+            }
+        }
     }
 
     /**
      * write date and time, in configurable format (default CLF) - %t or %t{format}
      */
-    protected class DateAndTimeElement implements AccessLogElement {
+    protected class DateAndTimeElement implements ByteAccessLogElement {
 
         /**
          * Format prefix specifying request start time
@@ -1558,12 +2395,69 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 break;
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            long timestamp = date.getTime();
+            if (usesBegin) {
+                timestamp -= time;
+            }
+            switch (type) {
+            case CLF:
+                appendBytes(buf, localDateCache.get().getFormatBytes(timestamp));
+                break;
+            case SEC:
+                appendLong(buf, timestamp / 1000);
+                break;
+            case MSEC:
+                appendLong(buf, timestamp);
+                break;
+            case MSEC_FRAC:
+                appendMsecFraction(buf, timestamp % 1000);
+                break;
+            case SDF:
+                String temp = localDateCache.get().getFormat(format, locale, timestamp);
+                if (usesMsecs) {
+                    // Replace the placeholders whilst copying rather than
+                    // creating new Strings
+                    long frac = timestamp % 1000;
+                    int len = temp.length();
+                    int i = 0;
+                    while (i < len) {
+                        if (temp.startsWith(trippleMsecPattern, i)) {
+                            appendMsecFraction(buf, frac);
+                            i += trippleMsecPattern.length();
+                        } else if (temp.startsWith(msecPattern, i)) {
+                            appendLong(buf, frac);
+                            i += msecPattern.length();
+                        } else {
+                            appendChar(buf, temp.charAt(i));
+                            i++;
+                        }
+                    }
+                } else {
+                    appendString(buf, temp);
+                }
+                break;
+            }
+        }
+
+        private void appendMsecFraction(ByteChunk buf, long frac) {
+            if (frac < 100) {
+                appendChar(buf, '0');
+                if (frac < 10) {
+                    appendChar(buf, '0');
+                }
+            }
+            appendLong(buf, frac);
+        }
     }
 
     /**
      * write first line of the request (method and request URI) - %r
      */
-    protected static class RequestElement implements AccessLogElement {
+    protected static class RequestElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1587,12 +2481,38 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (request != null) {
+                org.apache.coyote.Request coyoteRequest =
+                        request.getCoyoteRequest();
+                if (coyoteRequest.method().getType() == MessageBytes.T_NULL) {
+                    // No method means no request line
+                    appendChar(buf, '-');
+                } else {
+                    appendMessageBytes(buf, coyoteRequest.method());
+                    appendChar(buf, ' ');
+                    appendMessageBytes(buf, coyoteRequest.requestURI());
+                    if (coyoteRequest.queryString().getType() !=
+                            MessageBytes.T_NULL) {
+                        appendChar(buf, '?');
+                        appendMessageBytes(buf, coyoteRequest.queryString());
+                    }
+                    appendChar(buf, ' ');
+                    appendMessageBytes(buf, coyoteRequest.protocol());
+                }
+            } else {
+                appendChar(buf, '-');
+            }
+        }
     }
 
     /**
      * write HTTP status code of the response - %s
      */
-    protected static class HttpStatusCodeElement implements AccessLogElement {
+    protected static class HttpStatusCodeElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1610,12 +2530,22 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (response != null) {
+                appendLong(buf, response.getStatus());
+            } else {
+                appendChar(buf, '-');
+            }
+        }
     }
 
     /**
      * write local port on which this request was received - %p
      */
-    protected class LocalPortElement implements AccessLogElement {
+    protected class LocalPortElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1630,12 +2560,27 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append(Integer.toString(request.getServerPort()));
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (requestAttributesEnabled) {
+                Object port = request.getAttribute(SERVER_PORT_ATTRIBUTE);
+                if (port == null) {
+                    appendLong(buf, request.getServerPort());
+                } else {
+                    appendString(buf, port.toString());
+                }
+            } else {
+                appendLong(buf, request.getServerPort());
+            }
+        }
     }
 
     /**
      * write bytes sent, excluding HTTP headers - %b, %B
      */
-    protected static class ByteSentElement implements AccessLogElement {
+    protected static class ByteSentElement implements ByteAccessLogElement {
         private final boolean conversion;
 
         /**
@@ -1648,6 +2593,15 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            long length = getLength(request, response);
+            if (length <= 0 && conversion) {
+                buf.append('-');
+            } else {
+                buf.append(Long.toString(length));
+            }
+        }
+
+        private long getLength(Request request, Response response) {
             // Don't need to flush since trigger for log message is after the
             // response has been committed
             long length = response.getBytesWritten(false);
@@ -1665,10 +2619,17 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                     }
                 }
             }
+            return length;
+        }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            long length = getLength(request, response);
             if (length <= 0 && conversion) {
-                buf.append('-');
+                appendChar(buf, '-');
             } else {
-                buf.append(Long.toString(length));
+                appendLong(buf, length);
             }
         }
     }
@@ -1676,7 +2637,7 @@ public class AccessLogValve extends ValveBase implements AccessLog {
     /**
      * write request method (GET, POST, etc.) - %m
      */
-    protected static class MethodElement implements AccessLogElement {
+    protected static class MethodElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1684,12 +2645,20 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append(request.getMethod());
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (request != null) {
+                appendMessageBytes(buf, request.getCoyoteRequest().method());
+            }
+        }
     }
 
     /**
      * write time taken to process the request - %D, %T
      */
-    protected static class ElapsedTimeElement implements AccessLogElement {
+    protected static class ElapsedTimeElement implements ByteAccessLogElement {
         private final boolean millis;
 
         /**
@@ -1716,12 +2685,29 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append(Long.toString(remains % 10));
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (millis) {
+                appendLong(buf, time);
+            } else {
+                // second
+                appendLong(buf, time / 1000);
+                appendChar(buf, '.');
+                int remains = (int) (time % 1000);
+                appendChar(buf, (char) ('0' + remains / 100));
+                remains = remains % 100;
+                appendChar(buf, (char) ('0' + remains / 10));
+                appendChar(buf, (char) ('0' + remains % 10));
+            }
+        }
     }
 
     /**
      * write Query string (prepended with a '?' if it exists) - %q
      */
-    protected static class QueryElement implements AccessLogElement {
+    protected static class QueryElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1734,12 +2720,24 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append(query);
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (request != null) {
+                MessageBytes query = request.getCoyoteRequest().queryString();
+                if (query.getType() != MessageBytes.T_NULL) {
+                    appendChar(buf, '?');
+                    appendMessageBytes(buf, query);
+                }
+            }
+        }
     }
 
     /**
      * write user session ID - %S
      */
-    protected static class SessionIdElement implements AccessLogElement {
+    protected static class SessionIdElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1754,12 +2752,26 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 }
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            Session session = null;
+            if (request != null) {
+                session = request.getSessionInternal(false);
+            }
+            if (session == null) {
+                appendChar(buf, '-');
+            } else {
+                appendString(buf, session.getIdInternal());
+            }
+        }
     }
 
     /**
      * write requested URL path - %U
      */
-    protected static class RequestURIElement implements AccessLogElement {
+    protected static class RequestURIElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1769,27 +2781,45 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (request != null) {
+                appendMessageBytes(buf, request.getCoyoteRequest().requestURI());
+            } else {
+                appendChar(buf, '-');
+            }
+        }
     }
 
     /**
      * write local server name - %v
      */
-    protected static class LocalServerNameElement implements AccessLogElement {
+    protected static class LocalServerNameElement implements ByteAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
             buf.append(request.getServerName());
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            appendMessageBytes(buf, request.getCoyoteRequest().serverName());
+        }
     }
 
     /**
      * write any string
      */
-    protected static class StringElement implements AccessLogElement {
+    protected static class StringElement implements ByteAccessLogElement {
         private final String str;
+        private final byte[] bytes;
 
         public StringElement(String str) {
             this.str = str;
+            this.bytes = str.getBytes(B2CConverter.ISO_8859_1);
         }
 
         @Override
@@ -1797,12 +2827,18 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 Response response, long time) {
             buf.append(str);
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            appendBytes(buf, bytes);
+        }
     }
 
     /**
      * write incoming headers - %{xxx}i
      */
-    protected static class HeaderElement implements AccessLogElement {
+    protected static class HeaderElement implements ByteAccessLogElement {
         private final String header;
 
         public HeaderElement(String header) {
@@ -1822,12 +2858,31 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             }
             buf.append('-');
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            // Read the values in place rather than via an Enumeration of Strings
+            MimeHeaders headers = request.getCoyoteRequest().getMimeHeaders();
+            int pos = headers.findHeader(header, 0);
+            if (pos < 0) {
+                appendChar(buf, '-');
+                return;
+            }
+            appendMessageBytes(buf, headers.getValue(pos));
+            pos = headers.findHeader(header, pos + 1);
+            while (pos >= 0) {
+                appendChar(buf, ',');
+                appendMessageBytes(buf, headers.getValue(pos));
+                pos = headers.findHeader(header, pos + 1);
+            }
+        }
     }
 
     /**
      * write a specific cookie - %{xxx}c
      */
-    protected static class CookieElement implements AccessLogElement {
+    protected static class CookieElement implements ByteAccessLogElement {
         private final String header;
 
         public CookieElement(String header) {
@@ -1837,6 +2892,10 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            buf.append(getValue(request));
+        }
+
+        private String getValue(Request request) {
             String value = "-";
             Cookie[] c = request.getCookies();
             if (c != null) {
@@ -1847,14 +2906,20 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                     }
                 }
             }
-            buf.append(value);
+            return value;
+        }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            appendString(buf, getValue(request));
         }
     }
 
     /**
      * write a specific response header - %{xxx}o
      */
-    protected static class ResponseHeaderElement implements AccessLogElement {
+    protected static class ResponseHeaderElement implements ByteAccessLogElement {
         private final String header;
 
         public ResponseHeaderElement(String header) {
@@ -1876,12 +2941,29 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             }
             buf.append('-');
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            if (null != response) {
+                Iterator<String> iter = response.getHeaders(header).iterator();
+                if (iter.hasNext()) {
+                    appendString(buf, iter.next());
+                    while (iter.hasNext()) {
+                        appendChar(buf, ',');
+                        appendString(buf, iter.next());
+                    }
+                    return;
+                }
+            }
+            appendChar(buf, '-');
+        }
     }
 
     /**
      * write an attribute in the ServletRequest - %{xxx}r
      */
-    protected static class RequestAttributeElement implements AccessLogElement {
+    protected static class RequestAttributeElement implements ByteAccessLogElement {
         private final String header;
 
         public RequestAttributeElement(String header) {
@@ -1891,12 +2973,7 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
-            Object value = null;
-            if (request != null) {
-                value = request.getAttribute(header);
-            } else {
-                value = "??";
-            }
+            Object value = getValue(request);
             if (value != null) {
                 if (value instanceof String) {
                     buf.append((String) value);
@@ -1907,12 +2984,33 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            Object value = getValue(request);
+            if (value != null) {
+                appendString(buf, value.toString());
+            } else {
+                appendChar(buf, '-');
+            }
+        }
+
+        private Object getValue(Request request) {
+            Object value = null;
+            if (request != null) {
+                value = request.getAttribute(header);
+            } else {
+                value = "??";
+            }
+            return value;
+        }
     }
 
     /**
      * write an attribute in the HttpSession - %{xxx}s
      */
-    protected static class SessionAttributeElement implements AccessLogElement {
+    protected static class SessionAttributeElement implements ByteAccessLogElement {
         private final String header;
 
         public SessionAttributeElement(String header) {
@@ -1922,15 +3020,7 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
-            Object value = null;
-            if (null != request) {
-                HttpSession sess = request.getSession(false);
-                if (null != sess) {
-                    value = sess.getAttribute(header);
-                }
-            } else {
-                value = "??";
-            }
+            Object value = getValue(request);
             if (value != null) {
                 if (value instanceof String) {
                     buf.append((String) value);
@@ -1941,6 +3031,30 @@ public class AccessLogValve extends ValveBase implements AccessLog {
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addElement(ByteChunk buf, Date date, Request request,
+                Response response, long time) {
+            Object value = getValue(request);
+            if (value != null) {
+                appendString(buf, value.toString());
+            } else {
+                appendChar(buf, '-');
+            }
+        }
+
+        private Object getValue(Request request) {
+            Object value = null;
+            if (null != request) {
+                HttpSession sess = request.getSession(false);
+                if (null != sess) {
+                    value = sess.getAttribute(header);
+                }
+            } else {
+                value = "??";
+            }
+            return value;
+        }
     }
 
 
@@ -18,6 +18,7 @@ package org.apache.catalina.webresources;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
 import org.apache.catalina.WebResource;
@@ -130,5 +131,17 @@ public abstract class AbstractResource implements WebResource {
     }
 
 
+    @Override
+    public ByteBuffer getContentBuffer() {
+        return null;
+    }
+
+
+    @Override
+    public void releaseContentBuffer(ByteBuffer buffer) {
+        // NO-OP
+    }
+
+
     protected abstract Log getLog();
 }
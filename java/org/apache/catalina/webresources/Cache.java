@@ -16,18 +16,42 @@
  */
 package org.apache.catalina.webresources;
 
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.catalina.WebResource;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.res.StringManager;
 
+/**
+ * Cache of {@link CachedResource}s for a {@link StandardRoot}.
+ * <p>
+ * Recency is tracked incrementally with a segmented LRU (new entries enter a
+ * probationary segment and are promoted to a protected segment when they are
+ * accessed again). To limit contention the LRU is split into a number of
+ * stripes selected by the hash of the resource path. Eviction always removes
+ * the head of a stripe so no sorting is ever required.
+ * <p>
+ * When the cache is full, a new entry is only admitted if the
+ * {@link FrequencySketch} indicates that it has been requested more often than
+ * the entry that would have to be evicted to make room for it (TinyLFU). This
+ * prevents a scan of rarely used resources from flushing the popular resources
+ * out of the cache.
+ * <p>
+ * Optionally, file based resources that are too large to be held on the heap
+ * may have their content memory mapped. Mapped content is limited by a
+ * separate budget. When that budget is exceeded, mapped content is evicted in
+ * approximately least recently used order using the CLOCK algorithm so that
+ * cache hits do not need to take a lock. Content is unmapped once it has been
+ * evicted and is no longer in use.
+ */
 public class Cache {
 
     private static final Log log = LogFactory.getLog(Cache.class);
@@ -36,73 +60,135 @@ public class Cache {
 
     // Estimate (on high side to be safe) of average size excluding content
     // based on profiler data.
-    private static final long CACHE_ENTRY_SIZE = 500;
+    static final long CACHE_ENTRY_SIZE = 500;
+
+    // Estimate of the average size of an entry including content. Only used
+    // to size the frequency sketch.
+    private static final long AVERAGE_ENTRY_SIZE = 2048;
 
-    private static final long TARGET_FREE_PERCENT_GET = 5;
     private static final long TARGET_FREE_PERCENT_BACKGROUND = 10;
+    private static final long PROTECTED_PERCENT = 80;
+
+    private static final int STRIPE_COUNT = 16;
+    private static final int STRIPE_MASK = STRIPE_COUNT - 1;
+
+    static final int QUEUE_NONE = 0;
+    static final int QUEUE_PROBATION = 1;
+    static final int QUEUE_PROTECTED = 2;
+    static final int QUEUE_REMOVED = 3;
 
     private final StandardRoot root;
     private final AtomicLong size = new AtomicLong(0);
+    private final AtomicLong mappedSize = new AtomicLong(0);
+
+    private final AtomicLong lookupCount = new AtomicLong(0);
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+    private final AtomicLong admissionRejectedCount = new AtomicLong(0);
 
     private long ttl = 5000;
     private long maxSize = 10 * 1024 * 1024;
     private long maxObjectSize = maxSize / 20;
+    private long mappedMaxSize = 0;
 
     private ConcurrentMap<String,CachedResource> resourceCache =
             new ConcurrentHashMap<>();
 
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+    // Insertion ordered. Only used for entries with mapped content. The
+    // thread that removes an entry from this set releases its mapping.
+    private final LinkedHashSet<CachedResource> mappedEntries =
+            new LinkedHashSet<>();
+
+    private volatile FrequencySketch sketch =
+            new FrequencySketch(maxSize / AVERAGE_ENTRY_SIZE);
+
     public Cache(StandardRoot root) {
         this.root = root;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
     }
 
     protected WebResource getResource(String path) {
+        return getResource(path, null);
+    }
+
+    /**
+     * Obtain the representation of the resource at the given path compressed
+     * with the given content encoding. The compressed representation is cached
+     * independently of the resource itself.
+     */
+    protected WebResource getCompressedResource(String path, String encoding) {
+        return getResource(path, encoding);
+    }
+
+    /**
+     * Builds the key for a cache entry. Compressed representations are held
+     * under the path of the resource plus the content encoding. Paths never
+     * contain a NUL character so the keys can not clash with another path.
+     */
+    static String getCacheKey(String path, String encoding) {
+        if (encoding == null) {
+            return path;
+        }
+        return path + '\u0000' + encoding;
+    }
+
+    private WebResource getResource(String path, String encoding) {
 
         // TODO Should some resources be excluded from caching?
 
-        CachedResource cacheEntry = resourceCache.get(path);
+        String key = getCacheKey(path, encoding);
+
+        lookupCount.incrementAndGet();
+        // Record the request even if the resource is not (yet) cached so
+        // popular resources are admitted once they earn it
+        FrequencySketch sketch = this.sketch;
+        sketch.increment(key.hashCode());
+
+        CachedResource cacheEntry = resourceCache.get(key);
 
         if (cacheEntry != null && !cacheEntry.validate()) {
-            removeCacheEntry(path, true);
+            removeCacheEntry(cacheEntry);
             cacheEntry = null;
         }
 
         if (cacheEntry == null) {
-            CachedResource newCacheEntry = new CachedResource(root, path, ttl);
+            CachedResource newCacheEntry =
+                    new CachedResource(root, path, encoding, ttl);
             // Concurrent callers will end up with the same CachedResource
             // instance
-            cacheEntry = resourceCache.putIfAbsent(path, newCacheEntry);
+            cacheEntry = resourceCache.putIfAbsent(key, newCacheEntry);
 
             if (cacheEntry == null) {
                 // newCacheEntry was inserted into the cache - validate it
                 cacheEntry = newCacheEntry;
                 cacheEntry.validate();
-                if (newCacheEntry.getContentLength() > getMaxObjectSize()) {
+                long contentLength = newCacheEntry.getContentLength();
+                if (contentLength > maxObjectSize &&
+                        (contentLength > mappedMaxSize ||
+                                !newCacheEntry.mapContent())) {
                     // Cache size has not been updated at this point
-                    removeCacheEntry(path, false);
+                    resourceCache.remove(key, newCacheEntry);
                     return newCacheEntry;
                 }
 
-                // Assume that the cache entry will include the content.
-                // This isn't always the case but it makes tracking the
-                // current cache size easier.
-                long delta = CACHE_ENTRY_SIZE;
-                delta += cacheEntry.getContentLength();
-                size.addAndGet(delta);
-
-                if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize =
-                            maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(
-                            targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path, true);
-                        log.warn(sm.getString("cache.addFail"));
+                size.addAndGet(newCacheEntry.getSize());
+                stripeFor(key).add(newCacheEntry);
+                if (newCacheEntry.isContentMapped()) {
+                    addMappedEntry(newCacheEntry);
+                }
+
+                if (size.get() > maxSize &&
+                        !makeSpace(sketch, newCacheEntry)) {
+                    // The entry was not popular enough to displace the
+                    // current entries (or there was insufficient space)
+                    removeCacheEntry(newCacheEntry);
+                    admissionRejectedCount.incrementAndGet();
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("cache.addFail", path));
                     }
                 }
             } else {
@@ -110,24 +196,25 @@ public class Cache {
                 // Make sure it is validated
                 cacheEntry.validate();
             }
+        } else {
+            hitCount.incrementAndGet();
+            stripeFor(key).recordAccess(cacheEntry, getProtectedMaxSize());
+            // Avoid writing to the shared entry if it is already marked
+            if (cacheEntry.isContentMapped() && !cacheEntry.mappedReferenced) {
+                cacheEntry.mappedReferenced = true;
+            }
         }
 
         return cacheEntry;
     }
 
     protected void backgroundProcess() {
-        // Create an ordered set of all cached resources with the least recently
-        // used first. This is a background process so we can afford to take the
-        // time to order the elements first
-        TreeSet<CachedResource> orderedResources =
-                new TreeSet<>(new EvictionOrder());
-        orderedResources.addAll(resourceCache.values());
-
-        Iterator<CachedResource> iter = orderedResources.iterator();
-
+        // Entries are removed from the head of each stripe (least recently
+        // used first) so this is proportional to the number of entries evicted
+        // rather than the number of entries in the cache.
         long targetSize =
                 maxSize * (100 - TARGET_FREE_PERCENT_BACKGROUND) / 100;
-        long newSize = evict(targetSize, iter);
+        long newSize = evict(targetSize);
 
         if (newSize > targetSize) {
             log.info(sm.getString("cache.backgroundEvictFail",
@@ -137,22 +224,63 @@ public class Cache {
         }
     }
 
-    private long evict(long targetSize, Iterator<CachedResource> iter) {
+    /*
+     * Evict entries that are less frequently used than the candidate until
+     * there is space for the candidate. Returns false if the candidate should
+     * not be admitted.
+     */
+    private boolean makeSpace(FrequencySketch sketch, CachedResource candidate) {
+        int candidateFrequency =
+                sketch.frequency(candidate.getCacheKey().hashCode());
+
+        int index = stripeIndex(candidate.getCacheKey());
+        int emptyStripes = 0;
+
+        while (size.get() > maxSize && emptyStripes < STRIPE_COUNT) {
+            CachedResource victim =
+                    stripes[index & STRIPE_MASK].peekVictim(candidate);
+            if (victim == null) {
+                emptyStripes++;
+                index++;
+                continue;
+            }
+            emptyStripes = 0;
 
-        long now = System.currentTimeMillis();
+            int victimFrequency =
+                    sketch.frequency(victim.getCacheKey().hashCode());
+            if (candidateFrequency <= victimFrequency) {
+                return false;
+            }
 
-        long newSize = size.get();
+            if (removeCacheEntry(victim)) {
+                evictionCount.incrementAndGet();
+            }
+            // Spread the evictions across the stripes
+            index++;
+        }
+
+        return size.get() <= maxSize;
+    }
 
-        while (newSize > targetSize && iter.hasNext()) {
-            CachedResource resource = iter.next();
+    private long evict(long targetSize) {
 
-            // Don't expire anything that has been checked within the TTL
-            if (resource.getNextCheck() > now) {
+        long newSize = size.get();
+        int index = 0;
+        int emptyStripes = 0;
+
+        while (newSize > targetSize && emptyStripes < STRIPE_COUNT) {
+            CachedResource victim =
+                    stripes[index & STRIPE_MASK].peekVictim(null);
+            index++;
+            if (victim == null) {
+                emptyStripes++;
                 continue;
             }
+            emptyStripes = 0;
 
-            // Remove the entry from the cache
-            removeCacheEntry(resource.getWebappPath(), true);
+            if (removeCacheEntry(victim)) {
+                evictionCount.incrementAndGet();
+            }
 
             newSize = size.get();
         }
@@ -160,15 +288,106 @@ public class Cache {
         return newSize;
     }
 
-    private void removeCacheEntry(String path, boolean updateSize) {
-        // With concurrent calls for the same path, the entry is only removed
-        // once and the cache size is only updated (if required) once.
-        CachedResource cachedResource = resourceCache.remove(path);
-        if (cachedResource != null && updateSize) {
-            long delta =
-                    0 - CACHE_ENTRY_SIZE - cachedResource.getContentLength();
-            size.addAndGet(delta);
+    private void addMappedEntry(CachedResource cachedResource) {
+        List<CachedResource> victims = null;
+        synchronized (mappedEntries) {
+            if (resourceCache.get(cachedResource.getCacheKey()) !=
+                    cachedResource) {
+                // Removed from the cache before it could be added
+                cachedResource.releaseMappedContent();
+                return;
+            }
+            mappedEntries.add(cachedResource);
+
+            long excess = mappedSize.addAndGet(
+                    cachedResource.getContentLength()) - mappedMaxSize;
+            if (excess > 0) {
+                victims = new ArrayList<>();
+                // Entries that have been used since the last pass are moved to
+                // the back of the queue. The second pass finds victims if all
+                // the entries had been used.
+                List<CachedResource> referenced = new ArrayList<>();
+                for (int pass = 0; pass < 2 && excess > 0; pass++) {
+                    Iterator<CachedResource> iter = mappedEntries.iterator();
+                    while (excess > 0 && iter.hasNext()) {
+                        CachedResource victim = iter.next();
+                        if (victim == cachedResource) {
+                            continue;
+                        }
+                        iter.remove();
+                        if (victim.mappedReferenced) {
+                            victim.mappedReferenced = false;
+                            referenced.add(victim);
+                        } else {
+                            victims.add(victim);
+                            excess -= victim.getContentLength();
+                        }
+                    }
+                    mappedEntries.addAll(referenced);
+                    referenced.clear();
+                }
+            }
+        }
+
+        // Remove outside of the lock since removal needs to obtain it
+        if (victims != null) {
+            for (CachedResource victim : victims) {
+                if (removeCacheEntry(victim)) {
+                    evictionCount.incrementAndGet();
+                }
+                releaseMappedEntry(victim);
+            }
+        }
+    }
+
+    private void releaseMappedEntry(CachedResource cachedResource) {
+        mappedSize.addAndGet(0 - cachedResource.getContentLength());
+        cachedResource.releaseMappedContent();
+    }
+
+    private boolean removeCacheEntry(CachedResource cachedResource) {
+        // With concurrent calls for the same entry, the entry is only removed
+        // once and the cache size is only updated once.
+        boolean removed = resourceCache.remove(
+                cachedResource.getCacheKey(), cachedResource);
+        if (removed) {
+            size.addAndGet(0 - cachedResource.getSize());
         }
+        stripeFor(cachedResource.getCacheKey()).remove(cachedResource);
+        if (cachedResource.isContentMapped()) {
+            boolean mapped;
+            synchronized (mappedEntries) {
+                mapped = mappedEntries.remove(cachedResource);
+            }
+            if (mapped) {
+                releaseMappedEntry(cachedResource);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all entries from the cache. Memory mapped content is unmapped
+     * once it is no longer in use.
+     */
+    protected void clear() {
+        for (CachedResource cachedResource : resourceCache.values()) {
+            removeCacheEntry(cachedResource);
+        }
+    }
+
+    private Stripe stripeFor(String path) {
+        return stripes[stripeIndex(path)];
+    }
+
+    private static int stripeIndex(String path) {
+        int h = path.hashCode();
+        h ^= (h >>> 16);
+        return h & STRIPE_MASK;
+    }
+
+    private long getProtectedMaxSize() {
+        return maxSize * PROTECTED_PERCENT / 100 / STRIPE_COUNT;
     }
 
     public long getTtl() {
@@ -187,6 +406,7 @@ public class Cache {
     public void setMaxSize(long maxSize) {
         // Internally bytes, externally kilobytes
         this.maxSize = maxSize * 1024;
+        this.sketch = new FrequencySketch(this.maxSize / AVERAGE_ENTRY_SIZE);
     }
 
 
@@ -200,22 +420,174 @@ public class Cache {
         return maxObjectSize / 1024;
     }
 
-    private static class EvictionOrder implements Comparator<CachedResource> {
+    public long getMappedMaxSize() {
+        // Internally bytes, externally kilobytes
+        return mappedMaxSize / 1024;
+    }
+
+    public void setMappedMaxSize(long mappedMaxSize) {
+        // Internally bytes, externally kilobytes
+        this.mappedMaxSize = mappedMaxSize * 1024;
+    }
 
-        @Override
-        public int compare(CachedResource cr1, CachedResource cr2) {
-            long nc1 = cr1.getNextCheck();
-            long nc2 = cr2.getNextCheck();
+    /**
+     * @return The current size of the memory mapped content in kilobytes
+     */
+    public long getMappedSize() {
+        return mappedSize.get() / 1024;
+    }
 
-            // Oldest resource should be first (so iterator goes from oldest to
-            // youngest.
-            if (nc1 == nc2) {
-                return 0;
-            } else if (nc1 > nc2) {
-                return -1;
+    /**
+     * @return The current estimated size of the cache in kilobytes
+     */
+    public long getSize() {
+        return size.get() / 1024;
+    }
+
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getAdmissionRejectedCount() {
+        return admissionRejectedCount.get();
+    }
+
+
+    /*
+     * A segmented LRU for a subset of the cache entries. The entries are
+     * linked directly (via fields in CachedResource) to avoid allocating nodes.
+     */
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AccessQueue probation = new AccessQueue();
+        private final AccessQueue protectedQueue = new AccessQueue();
+        private long protectedSize = 0;
+
+        private void add(CachedResource cachedResource) {
+            lock.lock();
+            try {
+                // Removed before it could be added
+                if (cachedResource.queue == QUEUE_NONE) {
+                    probation.addLast(cachedResource);
+                    cachedResource.queue = QUEUE_PROBATION;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void recordAccess(CachedResource cachedResource,
+                long protectedMaxSize) {
+            // Re-ordering is an optimisation. Skip it rather than block the
+            // request thread if the stripe is busy.
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                if (cachedResource.queue == QUEUE_PROBATION) {
+                    probation.remove(cachedResource);
+                    protectedQueue.addLast(cachedResource);
+                    cachedResource.queue = QUEUE_PROTECTED;
+                    protectedSize += cachedResource.getSize();
+                    // Demote the least recently used protected entries
+                    CachedResource first = protectedQueue.first();
+                    while (protectedSize > protectedMaxSize &&
+                            first != cachedResource) {
+                        protectedQueue.remove(first);
+                        protectedSize -= first.getSize();
+                        probation.addLast(first);
+                        first.queue = QUEUE_PROBATION;
+                        first = protectedQueue.first();
+                    }
+                } else if (cachedResource.queue == QUEUE_PROTECTED) {
+                    protectedQueue.remove(cachedResource);
+                    protectedQueue.addLast(cachedResource);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private CachedResource peekVictim(CachedResource exclude) {
+            lock.lock();
+            try {
+                CachedResource victim = probation.first();
+                if (victim != null && victim == exclude) {
+                    victim = victim.nextInQueue;
+                }
+                if (victim == null) {
+                    victim = protectedQueue.first();
+                }
+                return victim;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void remove(CachedResource cachedResource) {
+            lock.lock();
+            try {
+                if (cachedResource.queue == QUEUE_PROBATION) {
+                    probation.remove(cachedResource);
+                } else if (cachedResource.queue == QUEUE_PROTECTED) {
+                    protectedQueue.remove(cachedResource);
+                    protectedSize -= cachedResource.getSize();
+                }
+                cachedResource.queue = QUEUE_REMOVED;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    /*
+     * Intrusive doubly linked list. Not thread safe.
+     */
+    private static final class AccessQueue {
+
+        private CachedResource head;
+        private CachedResource tail;
+
+        private CachedResource first() {
+            return head;
+        }
+
+        private void addLast(CachedResource cachedResource) {
+            cachedResource.previousInQueue = tail;
+            cachedResource.nextInQueue = null;
+            if (tail == null) {
+                head = cachedResource;
+            } else {
+                tail.nextInQueue = cachedResource;
+            }
+            tail = cachedResource;
+        }
+
+        private void remove(CachedResource cachedResource) {
+            CachedResource previous = cachedResource.previousInQueue;
+            CachedResource next = cachedResource.nextInQueue;
+            if (previous == null) {
+                head = next;
+            } else {
+                previous.nextInQueue = next;
+            }
+            if (next == null) {
+                tail = previous;
             } else {
-                return 1;
+                next.previousInQueue = previous;
             }
+            cachedResource.previousInQueue = null;
+            cachedResource.nextInQueue = null;
         }
     }
 }
@@ -17,11 +17,23 @@
 package org.apache.catalina.webresources;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+import org.apache.tomcat.util.res.StringManager;
 
 /**
  * This class is designed to wrap a 'raw' WebResource and providing caching for
@@ -30,8 +42,14 @@ import org.apache.catalina.WebResourceRoot;
  */
 public class CachedResource implements WebResource {
 
+    private static final Log log = LogFactory.getLog(CachedResource.class);
+    protected static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
     private final StandardRoot root;
     private final String webAppPath;
+    private final String encoding;
+    private final String cacheKey;
     private final long ttl;
 
     private volatile WebResource webResource;
@@ -44,11 +62,40 @@ public class CachedResource implements WebResource {
     private volatile Boolean cachedIsDirectory = null;
     private volatile Boolean cachedExists = null;
     private volatile Long cachedContentLength = null;
+    private volatile MappedContent mappedContent = null;
+
+    // Eviction queue membership. Only accessed by Cache whilst holding the
+    // lock for the stripe that owns this entry.
+    int queue = Cache.QUEUE_NONE;
+    CachedResource previousInQueue;
+    CachedResource nextInQueue;
+
+    // Set when mapped content is used and cleared by Cache when it looks for
+    // mapped content to evict
+    volatile boolean mappedReferenced = false;
 
 
     public CachedResource(StandardRoot root, String path, long ttl) {
+        this(root, path, null, ttl);
+    }
+
+    /**
+     * Create a cache entry for a representation of the resource at the given
+     * path.
+     *
+     * @param root      The root this entry is cached for
+     * @param path      The path of the resource
+     * @param encoding  The content encoding of the representation or
+     *                  <code>null</code> for the resource itself
+     * @param ttl       The time (in milliseconds) between checks that the
+     *                  resource has not been modified
+     */
+    public CachedResource(StandardRoot root, String path, String encoding,
+            long ttl) {
         this.root = root;
         this.webAppPath = path;
+        this.encoding = encoding;
+        this.cacheKey = Cache.getCacheKey(path, encoding);
         this.ttl = ttl;
     }
 
@@ -58,7 +105,12 @@ public class CachedResource implements WebResource {
         if (webResource == null) {
             synchronized (this) {
                 if (webResource == null) {
-                    webResource = root.getResourceInternal(webAppPath);
+                    if (encoding == null) {
+                        webResource = root.getResourceInternal(webAppPath);
+                    } else {
+                        webResource = root.getCompressedResourceInternal(
+                                webAppPath, encoding);
+                    }
                     getLastModified();
                     getContentLength();
                     nextCheck = ttl + now;
@@ -77,6 +129,10 @@ public class CachedResource implements WebResource {
                 webResource.getContentLength() != getContentLength()) {
             return false;
         }
+        if (webResource instanceof CompressedResource &&
+                ((CompressedResource) webResource).isStale()) {
+            return false;
+        }
 
         nextCheck = ttl + now;
         return true;
@@ -86,6 +142,74 @@ public class CachedResource implements WebResource {
         return nextCheck;
     }
 
+    /**
+     * The key under which this entry is held by the {@link Cache}.
+     */
+    String getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * The size of this entry for the purposes of cache size accounting. This
+     * assumes that the cache entry will include the content. This isn't
+     * always the case but it makes tracking the current cache size easier.
+     */
+    protected long getSize() {
+        if (isContentMapped()) {
+            // Mapped content is accounted for separately
+            return Cache.CACHE_ENTRY_SIZE;
+        }
+        return Cache.CACHE_ENTRY_SIZE + getContentLength();
+    }
+
+    /**
+     * Map the content of the underlying file into memory (outside of the Java
+     * heap) so it can be served without being read into a byte array. Only
+     * resources that are backed by a file may be mapped.
+     *
+     * @return <code>true</code> if the content was mapped
+     */
+    protected boolean mapContent() {
+        if (!(webResource instanceof FileResource)) {
+            return false;
+        }
+        long contentLength = getContentLength();
+        if (contentLength <= 0 || contentLength > Integer.MAX_VALUE) {
+            return false;
+        }
+        FileResource fileResource = (FileResource) webResource;
+        try (FileChannel channel = FileChannel.open(
+                fileResource.getResourceInternal().toPath(),
+                StandardOpenOption.READ)) {
+            mappedContent = new MappedContent(
+                    channel.map(MapMode.READ_ONLY, 0, contentLength));
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("cachedResource.mapFail",
+                        webAppPath), e);
+            }
+            return false;
+        }
+    }
+
+    protected boolean isContentMapped() {
+        return mappedContent != null;
+    }
+
+    /**
+     * Release the mapping of the content once this entry has been removed from
+     * the cache. The content is unmapped as soon as no buffers obtained from
+     * {@link #getContentBuffer()} or streams obtained from
+     * {@link #getInputStream()} are in use.
+     */
+    protected void releaseMappedContent() {
+        MappedContent mappedContent = this.mappedContent;
+        if (mappedContent != null) {
+            mappedContent.close();
+        }
+    }
+
     @Override
     public long getLastModified() {
         Long cachedLastModified = this.cachedLastModified;
@@ -189,6 +313,15 @@ public class CachedResource implements WebResource {
 
     @Override
     public InputStream getInputStream() {
+        MappedContent mappedContent = this.mappedContent;
+        if (mappedContent != null) {
+            ByteBuffer buffer = mappedContent.acquire();
+            if (buffer != null) {
+                return new MappedContentInputStream(buffer, mappedContent);
+            }
+            // Released since the entry has been removed from the cache
+            return webResource.getInputStream();
+        }
         byte[] content = cachedContent;
         if (content == null) {
             // Can't cache InputStreams
@@ -197,8 +330,30 @@ public class CachedResource implements WebResource {
         return new ByteArrayInputStream(content);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Memory mapped content is too large to be held on the heap by the cache
+     * so each call returns a new copy of it. Callers should use
+     * {@link #getContentBuffer()} where possible.
+     */
     @Override
     public byte[] getContent() {
+        MappedContent mappedContent = this.mappedContent;
+        if (mappedContent != null) {
+            ByteBuffer buffer = mappedContent.acquire();
+            if (buffer == null) {
+                // Released since the entry has been removed from the cache
+                return webResource.getContent();
+            }
+            try {
+                byte[] result = new byte[buffer.remaining()];
+                buffer.get(result);
+                return result;
+            } finally {
+                mappedContent.release();
+            }
+        }
         byte[] cachedContent = this.cachedContent;
         if (cachedContent == null) {
             cachedContent = webResource.getContent();
@@ -207,6 +362,33 @@ public class CachedResource implements WebResource {
         return cachedContent;
     }
 
+    @Override
+    public ByteBuffer getContentBuffer() {
+        MappedContent mappedContent = this.mappedContent;
+        if (mappedContent == null) {
+            // Resources that hold their content on the heap (e.g. compressed
+            // resources) may expose it directly
+            return webResource.getContentBuffer();
+        }
+        // Null if released since the entry has been removed from the cache
+        return mappedContent.acquire();
+    }
+
+    @Override
+    public void releaseContentBuffer(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        // Only file resources are mapped and they never provide a buffer
+        // themselves so any buffer is from the mapped content
+        MappedContent mappedContent = this.mappedContent;
+        if (mappedContent == null) {
+            webResource.releaseContentBuffer(buffer);
+        } else {
+            mappedContent.release();
+        }
+    }
+
     @Override
     public long getCreation() {
         return webResource.getCreation();
@@ -221,4 +403,120 @@ public class CachedResource implements WebResource {
     public WebResourceRoot getWebResourceRoot() {
         return webResource.getWebResourceRoot();
     }
+
+
+    /*
+     * Memory mapped content that is unmapped once the cache entry has been
+     * closed and all the buffers obtained from it have been released rather
+     * than when it is garbage collected. Unmapping content that is still in
+     * use would crash the JVM.
+     */
+    private static final class MappedContent {
+
+        private final MappedByteBuffer mapping;
+        private final ByteBuffer content;
+        // One reference for the cache entry plus one per buffer in use
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private MappedContent(MappedByteBuffer mapping) {
+            this.mapping = mapping;
+            this.content = mapping.asReadOnlyBuffer();
+        }
+
+        private ByteBuffer acquire() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return null;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return content.duplicate();
+                }
+            }
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                ByteBufferUtils.cleanDirectBuffer(mapping);
+            }
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                release();
+            }
+        }
+    }
+
+
+    private static class MappedContentInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+        private final MappedContent mappedContent;
+        private boolean closed = false;
+
+        public MappedContentInputStream(ByteBuffer buffer,
+                MappedContent mappedContent) {
+            this.buffer = buffer;
+            this.mappedContent = mappedContent;
+        }
+
+        @Override
+        public void close() {
+            // The buffer is not used after close so it is safe to let the
+            // content be unmapped. A stream that is never closed keeps the
+            // content mapped until it is garbage collected.
+            if (!closed) {
+                closed = true;
+                mappedContent.release();
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException(sm.getString("cachedResource.streamClosed"));
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            ensureOpen();
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            ensureOpen();
+            if (n <= 0) {
+                return 0;
+            }
+            int skipped = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            ensureOpen();
+            return buffer.remaining();
+        }
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Represents the content of a file resource compressed with a content
+ * encoding. The content is compressed once, when this object is created, so
+ * that it may be cached and served many times.
+ * <p>
+ * If the source resource is not a file, is larger than the configured limit or
+ * does not get any smaller when compressed, the compressed resource will not
+ * exist. Such instances are still worth caching since they avoid repeated
+ * attempts to compress the same content.
+ */
+public class CompressedResource extends AbstractResource {
+
+    private static final Log log = LogFactory.getLog(CompressedResource.class);
+
+    public static final String ENCODING_GZIP = "gzip";
+
+    private final WebResource source;
+    private final String encoding;
+    private final long sourceLastModified;
+    private final long sourceContentLength;
+    private final byte[] content;
+
+
+    public CompressedResource(WebResourceRoot root, WebResource source,
+            String encoding, long maxSourceLength) {
+        super(root, source.getWebappPath());
+        this.source = source;
+        this.encoding = encoding;
+        this.sourceLastModified = source.getLastModified();
+        this.sourceContentLength = source.getContentLength();
+
+        if (ENCODING_GZIP.equals(encoding) && source.isFile() &&
+                sourceContentLength > 0 &&
+                sourceContentLength <= maxSourceLength) {
+            content = compress();
+        } else {
+            content = null;
+        }
+    }
+
+
+    private byte[] compress() {
+        byte[] sourceContent = source.getContent();
+        if (sourceContent == null) {
+            return null;
+        }
+        ByteArrayOutputStream baos =
+                new ByteArrayOutputStream(sourceContent.length / 2);
+        try (GZIPOutputStream gzos = new GZIPOutputStream(baos)) {
+            gzos.write(sourceContent);
+        } catch (IOException ioe) {
+            log.warn(sm.getString("compressedResource.compressFail",
+                    getWebappPath(), encoding), ioe);
+            return null;
+        }
+        if (baos.size() >= sourceContent.length) {
+            // Compression does not help
+            return null;
+        }
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * @return the content encoding used to compress the source resource
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+
+    /**
+     * Has the source resource been modified since this compressed
+     * representation was created?
+     */
+    protected boolean isStale() {
+        return source.getLastModified() != sourceLastModified ||
+                source.getContentLength() != sourceContentLength;
+    }
+
+
+    @Override
+    public long getLastModified() {
+        return sourceLastModified;
+    }
+
+    @Override
+    public boolean exists() {
+        return content != null;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+
+    @Override
+    public boolean isFile() {
+        return content != null;
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return source.getName();
+    }
+
+    @Override
+    public long getContentLength() {
+        if (content == null) {
+            return 0;
+        }
+        return content.length;
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        // There is no file that contains the compressed content
+        return null;
+    }
+
+    @Override
+    public boolean canRead() {
+        return content != null;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        if (content == null) {
+            return null;
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public ByteBuffer getContentBuffer() {
+        if (content == null) {
+            return null;
+        }
+        return ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    @Override
+    public long getCreation() {
+        return source.getCreation();
+    }
+
+    @Override
+    public URL getURL() {
+        return null;
+    }
+
+    @Override
+    protected Log getLog() {
+        return log;
+    }
+}
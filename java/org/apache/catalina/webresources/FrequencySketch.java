@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A probabilistic, fixed size estimate of how often a key has been requested
+ * (a count-min sketch with four bit counters). This is the frequency filter
+ * used by the TinyLFU admission policy in {@link Cache}: a new entry is only
+ * admitted to a full cache if it has been requested more often than the entry
+ * it would displace.
+ * <p>
+ * Counters saturate at 15. Once the number of recorded increments reaches ten
+ * times the expected number of entries all counters are halved so that the
+ * sketch reflects recent rather than historic popularity.
+ * <p>
+ * All operations are lock-free. Updates are made with CAS operations on the
+ * individual table slots and the aging process is performed by whichever
+ * thread triggers it. Concurrent updates during aging may be lost, which is
+ * acceptable given the approximate nature of the sketch.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = new long[] {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 24;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger(0);
+
+
+    /**
+     * Create a sketch sized for the given number of entries.
+     *
+     * @param expectedEntries   The expected maximum number of entries that
+     *                          will be tracked
+     */
+    public FrequencySketch(long expectedEntries) {
+        int size = 16;
+        while (size < expectedEntries && size < MAXIMUM_TABLE_SIZE) {
+            size <<= 1;
+        }
+        table = new AtomicLongArray(size);
+        tableMask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+
+    /**
+     * Returns the estimated number of times the key with the given hash code
+     * has been requested, up to a maximum of 15.
+     *
+     * @param hashCode  The hash code of the key
+     * @return The estimated frequency
+     */
+    public int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            int count = (int) ((table.get(index) >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+
+    /**
+     * Records a request for the key with the given hash code.
+     *
+     * @param hashCode  The hash code of the key
+     */
+    public void increment(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            added |= incrementAt(index, start + i);
+        }
+
+        // Exactly one thread will see the transition to the sample size
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        while (true) {
+            long current = table.get(index);
+            if ((current & mask) == mask) {
+                // Counter is saturated
+                return false;
+            }
+            if (table.compareAndSet(index, current, current + (1L << offset))) {
+                return true;
+            }
+        }
+    }
+
+
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            while (true) {
+                long current = table.get(i);
+                if (table.compareAndSet(
+                        i, current, (current >>> 1) & RESET_MASK)) {
+                    break;
+                }
+            }
+        }
+        additions.addAndGet(0 - (sampleSize >>> 1));
+    }
+
+
+    private int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+
+    private static int spread(int hashCode) {
+        int x = hashCode;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -183,6 +183,24 @@ public class StandardRoot extends LifecycleMBeanBase
         return new EmptyResource(this, path);
     }
 
+    @Override
+    public WebResource getCompressedResource(String path, String encoding) {
+        if (isCachingAllowed() &&
+                CompressedResource.ENCODING_GZIP.equals(encoding)) {
+            return cache.getCompressedResource(path, encoding);
+        } else {
+            return null;
+        }
+    }
+
+    protected WebResource getCompressedResourceInternal(String path,
+            String encoding) {
+        WebResource source = getResourceInternal(path);
+        // Only compress resources that the cache is able to hold
+        return new CompressedResource(this, source, encoding,
+                cache.getMaxObjectSize() * 1024);
+    }
+
     @Override
     public WebResource[] getResources(String path) {
         checkState();
@@ -340,6 +358,62 @@ public class StandardRoot extends LifecycleMBeanBase
         return cache.getMaxObjectSize();
     }
 
+    @Override
+    public void setCacheMappedMaxSize(long cacheMappedMaxSize) {
+        cache.setMappedMaxSize(cacheMappedMaxSize);
+    }
+
+    @Override
+    public long getCacheMappedMaxSize() {
+        return cache.getMappedMaxSize();
+    }
+
+    /**
+     * @return The current size of the memory mapped content in the cache in
+     *         kilobytes
+     */
+    public long getCacheMappedSize() {
+        return cache.getMappedSize();
+    }
+
+    /**
+     * @return The current estimated size of the cache in kilobytes
+     */
+    public long getCacheSize() {
+        return cache.getSize();
+    }
+
+    /**
+     * @return The number of lookups made against the cache
+     */
+    public long getCacheLookupCount() {
+        return cache.getLookupCount();
+    }
+
+    /**
+     * @return The number of lookups that were satisfied by a valid cache entry
+     */
+    public long getCacheHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return The number of entries removed from the cache to make space for
+     *         new entries
+     */
+    public long getCacheEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /**
+     * @return The number of resources that were not added to the cache because
+     *         they were used less frequently than the entries they would have
+     *         displaced
+     */
+    public long getCacheAdmissionRejectedCount() {
+        return cache.getAdmissionRejectedCount();
+    }
+
     @Override
     public Context getContext() {
         return context;
@@ -455,6 +529,8 @@ public class StandardRoot extends LifecycleMBeanBase
         mainResources.clear();
         jarResources.clear();
 
+        cache.clear();
+
         setState(LifecycleState.STOPPING);
     }
 
@@ -319,6 +319,16 @@ public abstract class AbstractInputBuffer<S> implements InputBuffer{
     }
 
 
+    /**
+     * Has data for a subsequent (pipelined) request already been read into the
+     * buffer? This is only meaningful once {@link #nextRequest()} has been
+     * called.
+     */
+    public boolean hasPipelinedData() {
+        return lastValid > pos;
+    }
+
+
     /**
      * Available bytes in the buffers (note that due to encoding, this may not
      * correspond).
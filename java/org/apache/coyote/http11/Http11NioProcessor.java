@@ -39,6 +39,7 @@ import org.apache.tomcat.util.net.NioEndpoint;
 import org.apache.tomcat.util.net.NioEndpoint.KeyAttachment;
 import org.apache.tomcat.util.net.SSLSupport;
 import org.apache.tomcat.util.net.SecureNioChannel;
+import org.apache.tomcat.util.net.SendfileState;
 import org.apache.tomcat.util.net.SocketStatus;
 import org.apache.tomcat.util.net.SocketWrapper;
 
@@ -362,13 +363,31 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
         // Do sendfile as needed: add socket to sendfile and end
         if (sendfileData != null && !error) {
             ((KeyAttachment) socketWrapper).setSendfileData(sendfileData);
-            sendfileData.keepAlive = keepAlive;
+            // If the file can't be sent in one go, this processor is released
+            // and the Poller completes the sendfile. Any pipelined request
+            // held in the input buffer would be lost at that point so only
+            // keep the connection alive if there isn't one.
+            sendfileData.keepAlive = keepAlive && !inputBuffer.hasPipelinedData();
             SelectionKey key = socketWrapper.getSocket().getIOChannel().keyFor(
                     socketWrapper.getSocket().getPoller().getSelector());
             //do the first write on this thread, might as well
-            openSocket = socketWrapper.getSocket().getPoller().processSendfile(key,
-                    (KeyAttachment) socketWrapper, true);
-            return true;
+            SendfileState state = socketWrapper.getSocket().getPoller().processSendfile(
+                    key, (KeyAttachment) socketWrapper, true);
+            sendfileData = null;
+            switch (state) {
+                case DONE:
+                    // Continue with the keep-alive loop on this thread
+                    return false;
+                case PENDING:
+                    // The Poller will re-register the socket for the next
+                    // request (or close it) once the file has been sent
+                    sendfileInProgress = true;
+                    return true;
+                case ERROR:
+                default:
+                    error = true;
+                    return true;
+            }
         }
         return false;
     }
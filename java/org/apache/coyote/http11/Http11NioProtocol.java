@@ -106,6 +106,30 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         return ((NioEndpoint)endpoint).getSelectorTimeout();
     }
 
+    public void setReusePort(boolean reusePort) {
+        ((NioEndpoint)endpoint).setReusePort(reusePort);
+    }
+
+    public boolean getReusePort() {
+        return ((NioEndpoint)endpoint).getReusePort();
+    }
+
+    public void setHandshakeTaskThreads(int handshakeTaskThreads) {
+        ((NioEndpoint)endpoint).setHandshakeTaskThreads(handshakeTaskThreads);
+    }
+
+    public int getHandshakeTaskThreads() {
+        return ((NioEndpoint)endpoint).getHandshakeTaskThreads();
+    }
+
+    public void setHandshakeTaskQueueSize(int handshakeTaskQueueSize) {
+        ((NioEndpoint)endpoint).setHandshakeTaskQueueSize(handshakeTaskQueueSize);
+    }
+
+    public int getHandshakeTaskQueueSize() {
+        return ((NioEndpoint)endpoint).getHandshakeTaskQueueSize();
+    }
+
     public void setAcceptorThreadPriority(int threadPriority) {
         ((NioEndpoint)endpoint).setAcceptorThreadPriority(threadPriority);
     }
@@ -240,7 +264,12 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
             processor.recycle(isSocketClosing);
             recycledProcessors.push(processor);
             if (addToPoller) {
-                socket.getSocket().getPoller().add(socket.getSocket());
+                NioChannel channel = socket.getSocket();
+                if (channel instanceof SecureNioChannel) {
+                    // Idle until the next request arrives
+                    ((SecureNioChannel) channel).releaseNetBuffers();
+                }
+                channel.getPoller().add(channel);
             }
         }
 
@@ -91,6 +91,57 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
         HEADER_SKIPLINE
     }
 
+    /**
+     * The first four bytes of the most common methods and protocols, used to
+     * recognise them with a fixed width comparison.
+     */
+    private static final int GET_SP_WORD = toWord("GET ");
+    private static final int POST_WORD = toWord("POST");
+    private static final int HTTP_WORD = toWord("HTTP");
+    private static final int VERSION_11_WORD = toWord("/1.1");
+    private static final int VERSION_10_WORD = toWord("/1.0");
+
+    /**
+     * Well known header names, in lower case and indexed by length. The name
+     * of a header that matches one of them is set to the String constant,
+     * which avoids the conversion of the bytes when the name is used.
+     */
+    private static final String[][] KNOWN_HEADER_NAMES;
+    private static final byte[][][] KNOWN_HEADER_NAME_BYTES;
+
+    static {
+        String[] names = new String[] {
+                "accept", "accept-charset", "accept-encoding",
+                "accept-language", "authorization", "cache-control",
+                "connection", "content-length", "content-type", "cookie",
+                "expect", "host", "if-modified-since", "if-none-match",
+                "keep-alive", "origin", "pragma", "range", "referer", "te",
+                "transfer-encoding", "upgrade", "user-agent",
+                "x-forwarded-for", "x-requested-with" };
+        int maxLength = 0;
+        for (String name : names) {
+            maxLength = Math.max(maxLength, name.length());
+        }
+        KNOWN_HEADER_NAMES = new String[maxLength + 1][];
+        KNOWN_HEADER_NAME_BYTES = new byte[maxLength + 1][][];
+        for (String name : names) {
+            int len = name.length();
+            String[] sameLength = KNOWN_HEADER_NAMES[len];
+            int count = sameLength == null ? 0 : sameLength.length;
+            String[] newNames = new String[count + 1];
+            byte[][] newBytes = new byte[count + 1][];
+            if (count > 0) {
+                System.arraycopy(sameLength, 0, newNames, 0, count);
+                System.arraycopy(KNOWN_HEADER_NAME_BYTES[len], 0, newBytes, 0,
+                        count);
+            }
+            newNames[count] = name;
+            newBytes[count] = name.getBytes(DEFAULT_CHARSET);
+            KNOWN_HEADER_NAMES[len] = newNames;
+            KNOWN_HEADER_NAME_BYTES[len] = newBytes;
+        }
+    }
+
     // ----------------------------------------------------------- Constructors
 
 
@@ -306,7 +357,7 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
             // Reading the method name
             // Method name is always US-ASCII
             //
-            boolean space = false;
+            boolean space = parseKnownMethod();
             while (!space) {
                 // Read new bytes if needed
                 if (pos >= lastValid) {
@@ -358,20 +409,32 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
                     if (!fill(true,false)) //request line parsing
                         return false;
                 }
-                if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
-                    space = true;
-                    end = pos;
-                } else if ((buf[pos] == Constants.CR)
-                           || (buf[pos] == Constants.LF)) {
-                    // HTTP/0.9 style request
-                    parsingRequestLineEol = true;
-                    space = true;
-                    end = pos;
-                } else if ((buf[pos] == Constants.QUESTION)
-                           && (parsingRequestLineQPos == -1)) {
-                    parsingRequestLineQPos = pos;
+                // Scan the bytes already read. Most bytes of the URI are
+                // above SP and are skipped with a single comparison.
+                while (pos < lastValid) {
+                    byte chr = buf[pos];
+                    if (chr > Constants.SP && chr != Constants.QUESTION) {
+                        pos++;
+                        continue;
+                    }
+                    if (chr == Constants.SP || chr == Constants.HT) {
+                        space = true;
+                        end = pos;
+                    } else if ((chr == Constants.CR)
+                               || (chr == Constants.LF)) {
+                        // HTTP/0.9 style request
+                        parsingRequestLineEol = true;
+                        space = true;
+                        end = pos;
+                    } else if ((chr == Constants.QUESTION)
+                               && (parsingRequestLineQPos == -1)) {
+                        parsingRequestLineQPos = pos;
+                    }
+                    pos++;
+                    if (space) {
+                        break;
+                    }
                 }
-                pos++;
             }
             request.unparsedURI().setBytes(buf, parsingRequestLineStart, end - parsingRequestLineStart);
             if (parsingRequestLineQPos >= 0) {
@@ -409,6 +472,12 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
             // Reading the protocol
             // Protocol is always US-ASCII
             //
+            if (!parsingRequestLineEol && parseKnownProtocol()) {
+                parsingRequestLine = false;
+                parsingRequestLinePhase = 0;
+                parsingRequestLineStart = 0;
+                return true;
+            }
             while (!parsingRequestLineEol) {
                 // Read new bytes if needed
                 if (pos >= lastValid) {
@@ -440,6 +509,99 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
         throw new IllegalStateException("Invalid request line parse phase:"+parsingRequestLinePhase);
     }
 
+    /**
+     * Read the method if it is GET or POST followed by a single SP and
+     * completely available in the buffer.
+     *
+     * @return <code>true</code> if the method and the following SP were read
+     */
+    private boolean parseKnownMethod() {
+        if (pos != parsingRequestLineStart || lastValid - pos < 5) {
+            return false;
+        }
+        int word = getWord(buf, pos);
+        if (word == GET_SP_WORD) {
+            request.method().setString(Constants.GET);
+            pos += 4;
+            return true;
+        } else if (word == POST_WORD && buf[pos + 4] == Constants.SP) {
+            request.method().setString(Constants.POST);
+            pos += 5;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the protocol and the end of the request line if the protocol is
+     * HTTP/1.1 or HTTP/1.0 and the line is completely available in the
+     * buffer.
+     *
+     * @return <code>true</code> if the protocol and the end of line were read
+     */
+    private boolean parseKnownProtocol() {
+        int start = pos;
+        if (start != parsingRequestLineStart || lastValid - start < 9 ||
+                getWord(buf, start) != HTTP_WORD) {
+            return false;
+        }
+        String protocol;
+        int version = getWord(buf, start + 4);
+        if (version == VERSION_11_WORD) {
+            protocol = Constants.HTTP_11;
+        } else if (version == VERSION_10_WORD) {
+            protocol = Constants.HTTP_10;
+        } else {
+            return false;
+        }
+        if (buf[start + 8] == Constants.LF) {
+            pos = start + 9;
+        } else if (buf[start + 8] == Constants.CR && lastValid - start > 9 &&
+                buf[start + 9] == Constants.LF) {
+            pos = start + 10;
+        } else {
+            return false;
+        }
+        request.protocol().setString(protocol);
+        return true;
+    }
+
+    private static int getWord(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xFF) << 16) |
+                ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static int toWord(String s) {
+        return getWord(s.getBytes(DEFAULT_CHARSET), 0);
+    }
+
+    /**
+     * Add a header, using the String constant for the name if it is a well
+     * known header name.
+     *
+     * @param start Start of the lower case name in the buffer
+     * @param len   Length of the name
+     * @return the value of the header
+     */
+    private MessageBytes addHeader(int start, int len) {
+        if (len < KNOWN_HEADER_NAMES.length) {
+            byte[][] candidates = KNOWN_HEADER_NAME_BYTES[len];
+            if (candidates != null) {
+                for (int i = 0; i < candidates.length; i++) {
+                    byte[] candidate = candidates[i];
+                    int j = 0;
+                    while (j < len && candidate[j] == buf[start + j]) {
+                        j++;
+                    }
+                    if (j == len) {
+                        return headers.addValue(KNOWN_HEADER_NAMES[len][i]);
+                    }
+                }
+            }
+        }
+        return headers.addValue(buf, start, len);
+    }
+
     private void expand(int newsize) {
         if ( newsize > buf.length ) {
             if (parsingHeader) {
@@ -602,7 +764,7 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
             chr = buf[pos];
             if (chr == Constants.COLON) {
                 headerParsePos = HeaderParsePosition.HEADER_VALUE_START;
-                headerData.headerValue = headers.addValue(buf, headerData.start, pos - headerData.start);
+                headerData.headerValue = addHeader(headerData.start, pos - headerData.start);
                 pos++;
                 // Mark the current buffer position
                 headerData.start = pos;
@@ -670,21 +832,33 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
                         }
                     }
 
-                    chr = buf[pos];
-                    if (chr == Constants.CR) {
-                        // Skip
-                    } else if (chr == Constants.LF) {
-                        eol = true;
-                    } else if (chr == Constants.SP || chr == Constants.HT) {
-                        buf[headerData.realPos] = chr;
-                        headerData.realPos++;
-                    } else {
-                        buf[headerData.realPos] = chr;
-                        headerData.realPos++;
-                        headerData.lastSignificantChar = headerData.realPos;
+                    // Scan the bytes already read. Most bytes of the value
+                    // are above SP and are significant.
+                    int realPos = headerData.realPos;
+                    while (pos < lastValid) {
+                        chr = buf[pos];
+                        if (chr > Constants.SP) {
+                            buf[realPos] = chr;
+                            realPos++;
+                            headerData.lastSignificantChar = realPos;
+                        } else if (chr == Constants.CR) {
+                            // Skip
+                        } else if (chr == Constants.LF) {
+                            eol = true;
+                        } else if (chr == Constants.SP || chr == Constants.HT) {
+                            buf[realPos] = chr;
+                            realPos++;
+                        } else {
+                            buf[realPos] = chr;
+                            realPos++;
+                            headerData.lastSignificantChar = realPos;
+                        }
+                        pos++;
+                        if (eol) {
+                            break;
+                        }
                     }
-
-                    pos++;
+                    headerData.realPos = realPos;
                 }
 
                 // Ignore whitespaces at the end of the line
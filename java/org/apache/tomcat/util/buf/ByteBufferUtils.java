@@ -0,0 +1,114 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+public class ByteBufferUtils {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+    private static final Log log = LogFactory.getLog(ByteBufferUtils.class);
+
+    private static final Object unsafe;
+    private static final Method invokeCleanerMethod;
+    private static final Method cleanerMethod;
+    private static final Method cleanMethod;
+
+    static {
+        ByteBuffer tempBuffer = ByteBuffer.allocateDirect(0);
+        Object unsafeLocal = null;
+        Method invokeCleanerMethodLocal = null;
+        Method cleanerMethodLocal = null;
+        Method cleanMethodLocal = null;
+        try {
+            // Java 9 onwards
+            Class<?> clazz = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = clazz.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeLocal = theUnsafe.get(null);
+            invokeCleanerMethodLocal =
+                    clazz.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleanerMethodLocal.invoke(unsafeLocal, tempBuffer);
+        } catch (Throwable t) {
+            unsafeLocal = null;
+            invokeCleanerMethodLocal = null;
+            try {
+                // Java 7 and 8
+                cleanerMethodLocal = tempBuffer.getClass().getMethod("cleaner");
+                cleanerMethodLocal.setAccessible(true);
+                Object cleaner = cleanerMethodLocal.invoke(tempBuffer);
+                cleanMethodLocal = cleaner.getClass().getMethod("clean");
+                cleanMethodLocal.setAccessible(true);
+                cleanMethodLocal.invoke(cleaner);
+            } catch (Throwable t2) {
+                log.warn(sm.getString("byteBufferUtils.cleaner"), t2);
+                cleanerMethodLocal = null;
+                cleanMethodLocal = null;
+            }
+        }
+        unsafe = unsafeLocal;
+        invokeCleanerMethod = invokeCleanerMethodLocal;
+        cleanerMethod = cleanerMethodLocal;
+        cleanMethod = cleanMethodLocal;
+    }
+
+    private ByteBufferUtils() {
+        // Hide the default constructor since this is a utility class.
+    }
+
+
+    /**
+     * Release the native memory, or the file mapping, of a direct buffer
+     * immediately rather than when the buffer is garbage collected. The
+     * buffer, and any buffer created from it, must not be used afterwards
+     * since doing so may crash the JVM. If the buffer can't be released this
+     * way it is left to the garbage collector.
+     *
+     * @param buf   The direct buffer to release. This must be the buffer that
+     *              was allocated or mapped, not a duplicate, slice or view of
+     *              it.
+     */
+    public static void cleanDirectBuffer(ByteBuffer buf) {
+        if (invokeCleanerMethod != null) {
+            try {
+                invokeCleanerMethod.invoke(unsafe, buf);
+            } catch (Throwable t) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("byteBufferUtils.cleaner"), t);
+                }
+            }
+        } else if (cleanMethod != null) {
+            try {
+                Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null) {
+                    cleanMethod.invoke(cleaner);
+                }
+            } catch (Throwable t) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("byteBufferUtils.cleaner"), t);
+                }
+            }
+        }
+    }
+}
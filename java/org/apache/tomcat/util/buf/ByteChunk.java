@@ -343,6 +343,44 @@ public final class ByteChunk implements Cloneable, Serializable {
     }
 
 
+    /**
+     * Add data to the buffer. The data is copied directly from the source
+     * buffer into this chunk, flushing to the sink as required, so no
+     * intermediate byte array is needed. The position of the source buffer is
+     * advanced by the number of bytes added.
+     *
+     * @param from  The buffer containing the data to add
+     * @throws IOException Writing overflow data to the output channel failed
+     */
+    public void append(ByteBuffer from)
+        throws IOException
+    {
+        int len = from.remaining();
+
+        // will grow, up to limit
+        makeSpace(len);
+
+        // if we don't have limit: makeSpace can grow as it wants
+        if (limit < 0) {
+            // assert: makeSpace made enough space
+            from.get(buff, end, len);
+            end += len;
+            return;
+        }
+
+        while (from.hasRemaining()) {
+            int avail = limit - end;
+            if (avail <= 0) {
+                flushBuffer();
+                avail = limit - end;
+            }
+            int n = Math.min(avail, from.remaining());
+            from.get(buff, end, n);
+            end += n;
+        }
+    }
+
+
     // -------------------- Removing data from the buffer --------------------
 
     public int substract()
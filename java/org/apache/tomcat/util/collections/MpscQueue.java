@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free linked queue that supports any number of producer
+ * threads but only a single consumer thread. A producer appends a node with a
+ * single atomic exchange of the tail and then links it to its predecessor, so
+ * producers never retry and the consumer never uses an atomic operation. Unlike
+ * {@link MpscRingBuffer} an element can always be added but each addition
+ * creates a node.
+ * <p>
+ * An element is only visible to the consumer once its producer has linked it,
+ * so {@link #poll()} may briefly return <code>null</code> while an addition is
+ * in progress. Callers that need to know when an element is available must be
+ * notified by the producer once {@link #offer(Object)} has returned.
+ * <p>
+ * Calls to {@link #poll()} and {@link #isEmpty()} must not be made
+ * concurrently.
+ *
+ * @param <T> The type of element held in the queue
+ */
+public class MpscQueue<T> {
+
+    private final AtomicReference<Node<T>> tail;
+    private Node<T> head;
+
+
+    public MpscQueue() {
+        Node<T> stub = new Node<>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+
+    /**
+     * Add an element to the tail of the queue. May be called concurrently by
+     * many threads.
+     *
+     * @param t The element to add. Must not be <code>null</code>.
+     */
+    public void offer(T t) {
+        if (t == null) {
+            throw new NullPointerException();
+        }
+        Node<T> node = new Node<>(t);
+        Node<T> previous = tail.getAndSet(node);
+        // Publish the element to the consumer
+        previous.next = node;
+    }
+
+
+    /**
+     * Remove the element at the head of the queue. Must only be called by
+     * the consumer thread.
+     *
+     * @return The element or <code>null</code> if the queue is empty
+     */
+    public T poll() {
+        Node<T> next = head.next;
+        if (next == null) {
+            // Empty or the producer has yet to link the element
+            return null;
+        }
+        T result = next.value;
+        // The node becomes the new stub
+        next.value = null;
+        head = next;
+        return result;
+    }
+
+
+    /**
+     * @return <code>true</code> if the queue appears to be empty. Must only be
+     *         called by the consumer thread.
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+
+    private static final class Node<T> {
+        private T value;
+        private volatile Node<T> next;
+
+        private Node(T value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue that supports any number of producer threads but
+ * only a single consumer thread. Each slot carries a sequence number that
+ * tells producers when the slot is free and tells the consumer when the
+ * element in the slot has been published, so neither side ever needs to take
+ * a lock and no objects are created once the queue has been constructed.
+ * <p>
+ * Calls to {@link #poll()} must not be made concurrently.
+ *
+ * @param <T> The type of element held in the queue
+ */
+public class MpscRingBuffer<T> {
+
+    private final int mask;
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong(0);
+    private volatile long head = 0;
+
+
+    /**
+     * Create a queue that can hold at least the given number of elements.
+     *
+     * @param capacity  The minimum capacity. This is rounded up to the next
+     *                  power of two.
+     */
+    public MpscRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        elements = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+
+    /**
+     * Add an element to the tail of the queue. May be called concurrently by
+     * many threads.
+     *
+     * @param t The element to add. Must not be <code>null</code>.
+     * @return <code>true</code> if the element was added or
+     *         <code>false</code> if the queue was full
+     */
+    public boolean offer(T t) {
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The consumer has not yet freed this slot
+                return false;
+            } else {
+                // Another producer claimed this slot
+                pos = tail.get();
+            }
+        }
+        elements[index] = t;
+        // Publish the element to the consumer
+        sequences.set(index, pos + 1);
+        return true;
+    }
+
+
+    /**
+     * Remove the element at the head of the queue. Must only be called by
+     * the consumer thread.
+     *
+     * @return The element or <code>null</code> if the queue is empty
+     */
+    public T poll() {
+        long pos = head;
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            // Empty or the producer has yet to publish the element
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T result = (T) elements[index];
+        elements[index] = null;
+        // Free the slot for the producer that will wrap around to it
+        sequences.set(index, pos + mask + 1);
+        head = pos + 1;
+        return result;
+    }
+
+
+    /**
+     * @return The approximate number of elements in the queue. The value is
+     *         exact if no other threads are modifying the queue.
+     */
+    public int size() {
+        long size = tail.get() - head;
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, mask + 1);
+    }
+
+
+    /**
+     * @return <code>true</code> if the queue appears to be empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+
+    /**
+     * @return The maximum number of elements the queue can hold
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
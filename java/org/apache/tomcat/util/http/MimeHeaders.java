@@ -18,8 +18,12 @@ package org.apache.tomcat.util.http;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
+import org.apache.tomcat.util.buf.Ascii;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -51,15 +55,14 @@ import org.apache.tomcat.util.res.StringManager;
 /* Headers are first parsed and stored in the order they are
    received. This is based on the fact that most servlets will not
    directly access all headers, and most headers are single-valued.
-   ( the alternative - a hash or similar data structure - will add
-   an overhead that is not needed in most cases )
+   The headers are hashed by name the first time a header is requested,
+   and the headers added after that are hashed by the next request, so
+   the look ups don't scan all the headers.
 
    Apache seems to be using a similar method for storing and manipulating
    headers.
 
    Future enhancements:
-   - hash the headers the first time a header is requested ( i.e. if the
-   servlet needs direct access to headers).
    - scan "common" values ( length, cookies, etc ) during the parse
    ( addHeader hook )
 
@@ -115,6 +118,32 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * Open addressed index of the header fields by the case insensitive hash
+     * of their name. A slot holds 1 + the position of the first field with a
+     * given name or 0 if it is free. The fields are indexed in order, the
+     * first time a header is looked up after they were added, so headers
+     * that are never looked up cost nothing. Removing a field drops the
+     * index.
+     */
+    private int[] index = new int[DEFAULT_HEADER_SIZE * 2];
+
+    /**
+     * The hash of the name of each indexed field.
+     */
+    private int[] hashes = new int[DEFAULT_HEADER_SIZE];
+
+    /**
+     * The position of the next field with the same name as each indexed
+     * field, or -1.
+     */
+    private int[] nextSameName = new int[DEFAULT_HEADER_SIZE];
+
+    /**
+     * The number of fields in the index.
+     */
+    private int indexed;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -151,6 +180,7 @@ public class MimeHeaders {
             headers[i].recycle();
         }
         count = 0;
+        clearIndex();
     }
 
     /**
@@ -202,15 +232,9 @@ public class MimeHeaders {
     /** Find the index of a header with the given name.
      */
     public int findHeader( String name, int starting ) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
-        for (int i = starting; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
+        // Fields with the same name are chained in order
+        for (int i = findFirst(name); i >= 0; i = nextSameName[i]) {
+            if (i >= starting) {
                 return i;
             }
         }
@@ -289,7 +313,12 @@ public class MimeHeaders {
         if this .
     */
     public MessageBytes setValue( String name ) {
-        for ( int i = 0; i < count; i++ ) {
+        int first = findFirst(name);
+        if (first >= 0 && nextSameName[first] < 0) {
+            // The most common case: a single existing field
+            return headers[first].getValue();
+        }
+        for ( int i = first < 0 ? count : first; i < count; i++ ) {
             if(headers[i].getName().equalsIgnoreCase(name)) {
                 for ( int j=i+1; j < count; j++ ) {
                     if(headers[j].getName().equalsIgnoreCase(name)) {
@@ -311,12 +340,8 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        int i = findFirst(name);
+        return i >= 0 ? headers[i].getValue() : null;
     }
 
     /**
@@ -325,17 +350,14 @@ public class MimeHeaders {
      * unique then an {@link IllegalArgumentException} is thrown.
      */
     public MessageBytes getUniqueValue(String name) {
-        MessageBytes result = null;
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                if (result == null) {
-                    result = headers[i].getValue();
-                } else {
-                    throw new IllegalArgumentException();
-                }
-            }
+        int i = findFirst(name);
+        if (i < 0) {
+            return null;
+        }
+        if (nextSameName[i] >= 0) {
+            throw new IllegalArgumentException();
         }
-        return result;
+        return headers[i].getValue();
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -355,7 +377,11 @@ public class MimeHeaders {
         // XXX
         // warning: rather sticky code; heavily tuned
 
-        for (int i = 0; i < count; i++) {
+        int first = findFirst(name);
+        if (first < 0) {
+            return;
+        }
+        for (int i = first; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 removeHeader(i--);
             }
@@ -373,6 +399,168 @@ public class MimeHeaders {
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+        // The positions of the fields have changed
+        clearIndex();
+    }
+
+    // -------------------- Index --------------------
+
+    private void clearIndex() {
+        if (indexed > 0) {
+            Arrays.fill(index, 0);
+            indexed = 0;
+        }
+    }
+
+    /**
+     * Find the position of the first field with the given name.
+     */
+    private int findFirst(String name) {
+        if (count == 0) {
+            return -1;
+        }
+        if (indexed < count) {
+            updateIndex();
+        }
+        int hash = hash(name);
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        int entry;
+        while ((entry = index[slot]) != 0) {
+            int i = entry - 1;
+            if (hashes[i] == hash &&
+                    headers[i].getName().equalsIgnoreCase(name)) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Add the fields added since the last look up to the index.
+     */
+    private void updateIndex() {
+        if (hashes.length < count) {
+            int size = headers.length;
+            hashes = Arrays.copyOf(hashes, size);
+            nextSameName = Arrays.copyOf(nextSameName, size);
+        }
+        if (index.length < count * 2) {
+            // Keep the load factor at or below 0.5
+            int size = index.length;
+            while (size < count * 2) {
+                size <<= 1;
+            }
+            index = new int[size];
+            indexed = 0;
+        }
+        int mask = index.length - 1;
+        for (int i = indexed; i < count; i++) {
+            MessageBytes name = headers[i].getName();
+            int hash = hash(name);
+            hashes[i] = hash;
+            nextSameName[i] = -1;
+            int slot = hash & mask;
+            int entry;
+            while ((entry = index[slot]) != 0) {
+                int first = entry - 1;
+                if (hashes[first] == hash &&
+                        equalsIgnoreCase(headers[first].getName(), name)) {
+                    int last = first;
+                    while (nextSameName[last] >= 0) {
+                        last = nextSameName[last];
+                    }
+                    nextSameName[last] = i;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (entry == 0) {
+                index[slot] = i + 1;
+            }
+        }
+        indexed = count;
+    }
+
+    private static boolean equalsIgnoreCase(MessageBytes a, MessageBytes b) {
+        if (b.getType() == MessageBytes.T_STR) {
+            return a.equalsIgnoreCase(b.getString());
+        } else if (a.getType() == MessageBytes.T_STR) {
+            return b.equalsIgnoreCase(a.getString());
+        } else if (a.getType() == MessageBytes.T_BYTES &&
+                b.getType() == MessageBytes.T_BYTES) {
+            ByteChunk bca = a.getByteChunk();
+            ByteChunk bcb = b.getByteChunk();
+            int len = bca.getLength();
+            if (len != bcb.getLength()) {
+                return false;
+            }
+            byte[] ba = bca.getBuffer();
+            byte[] bb = bcb.getBuffer();
+            int offa = bca.getStart();
+            int offb = bcb.getStart();
+            for (int i = 0; i < len; i++) {
+                if (Ascii.toLower(ba[offa + i]) != Ascii.toLower(bb[offb + i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.equalsIgnoreCase(b.toString());
+    }
+
+    /**
+     * Case insensitive hash of a name. Consistent with the case insensitive
+     * comparisons of {@link MessageBytes}, whatever the type of the name.
+     */
+    private static int hash(String name) {
+        int hash = 0;
+        int len = name.length();
+        for (int i = 0; i < len; i++) {
+            hash = 31 * hash + toLower(name.charAt(i));
+        }
+        return spread(hash);
+    }
+
+    private static int hash(MessageBytes name) {
+        int hash = 0;
+        switch (name.getType()) {
+        case MessageBytes.T_BYTES: {
+            ByteChunk bc = name.getByteChunk();
+            byte[] b = bc.getBuffer();
+            int end = bc.getEnd();
+            for (int i = bc.getStart(); i < end; i++) {
+                hash = 31 * hash + toLower((char) (b[i] & 0xff));
+            }
+            break;
+        }
+        case MessageBytes.T_CHARS: {
+            CharChunk cc = name.getCharChunk();
+            char[] c = cc.getBuffer();
+            int end = cc.getEnd();
+            for (int i = cc.getStart(); i < end; i++) {
+                hash = 31 * hash + toLower(c[i]);
+            }
+            break;
+        }
+        case MessageBytes.T_STR:
+            return hash(name.getString());
+        default:
+            // No name
+        }
+        return spread(hash);
+    }
+
+    private static int toLower(char c) {
+        if (c < 128) {
+            return Ascii.toLower(c);
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
     }
 
 }
@@ -451,12 +639,11 @@ class ValuesEnumerator implements Enumeration<String> {
 
     private void findNext() {
         next=null;
-        for(; pos< size; pos++ ) {
-            MessageBytes n1=headers.getName( pos );
-            if( n1.equalsIgnoreCase( name )) {
-                next=headers.getValue( pos );
-                break;
-            }
+        pos = pos < size ? headers.findHeader(name, pos) : -1;
+        if (pos >= 0 && pos < size) {
+            next=headers.getValue( pos );
+        } else {
+            pos = size;
         }
         pos++;
     }
@@ -19,7 +19,9 @@ package org.apache.tomcat.util.http;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -70,6 +72,28 @@ public final class Parameters {
      */
     private boolean parseFailed = false;
 
+    /**
+     * If <code>true</code>, the parameters are only located when they are
+     * processed and each one is decoded the first time it is looked up.
+     */
+    private boolean lazy = false;
+
+    /**
+     * The parameters that have been located but not decoded yet, in the
+     * order they were received. The entries are kept when the object is
+     * recycled.
+     */
+    private LazyParameter[] lazyParameters = new LazyParameter[0];
+    private int lazyCount = 0;
+    private int lazyPending = 0;
+
+    /**
+     * Hash index of the lazy parameters by name. Built the first time a
+     * parameter is looked up.
+     */
+    private LazyParameter[] lazyIndex = new LazyParameter[16];
+    private int lazyIndexed = 0;
+
     public Parameters() {
         // NO-OP
     }
@@ -100,7 +124,26 @@ public final class Parameters {
         }
     }
 
+    /**
+     * Enable or disable the lazy decoding of the parameters. When enabled,
+     * processing the parameters only locates them and the values of a
+     * parameter are decoded the first time that parameter is looked up.
+     * Applications that look up a few of the parameters of a large request
+     * avoid the cost of decoding the others.
+     *
+     * @param lazy <code>true</code> to decode the parameters lazily
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
     public boolean isParseFailed() {
+        // Decoding failures are only detected when parameters are decoded
+        decodeLazyParameters();
         return parseFailed;
     }
 
@@ -115,6 +158,17 @@ public final class Parameters {
         encoding=null;
         decodedQuery.recycle();
         parseFailed = false;
+        if (lazyCount > 0) {
+            for (int i = 0; i < lazyCount; i++) {
+                lazyParameters[i].recycle();
+            }
+            lazyCount = 0;
+            lazyPending = 0;
+        }
+        if (lazyIndexed > 0) {
+            Arrays.fill(lazyIndex, null);
+            lazyIndexed = 0;
+        }
     }
 
     // -------------------- Data access --------------------
@@ -123,6 +177,7 @@ public final class Parameters {
 
     public String[] getParameterValues(String name) {
         handleQueryParameters();
+        decodeLazyParameters(name);
         // no "facade"
         ArrayList<String> values = paramHashValues.get(name);
         if (values == null) {
@@ -133,11 +188,13 @@ public final class Parameters {
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        decodeLazyParameters();
         return Collections.enumeration(paramHashValues.keySet());
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
+        decodeLazyParameters(name);
         ArrayList<String> values = paramHashValues.get(name);
         if (values != null) {
             if(values.size() == 0) {
@@ -184,6 +241,9 @@ public final class Parameters {
             return;
         }
 
+        // Keep the values in the order they were received
+        decodeLazyParameters(key);
+
         parameterCount ++;
         if (limit > -1 && parameterCount > limit) {
             // Processing this parameter will push us over the limit. ISE is
@@ -339,6 +399,19 @@ public final class Parameters {
                 // invalid chunk - it's better to ignore
             }
 
+            if (lazy) {
+                parameterCount++;
+                if (limit > -1 && parameterCount > limit) {
+                    parseFailed = true;
+                    logMaxCountFail(sm.getString("parameters.maxCountFail",
+                            Integer.valueOf(limit)));
+                    break;
+                }
+                addLazyParameter(bytes, charset, nameStart, nameEnd,
+                        valueStart, valueEnd, decodeName, decodeValue);
+                continue;
+            }
+
             tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
             if (valueStart >= 0) {
                 tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
@@ -389,48 +462,14 @@ public final class Parameters {
                     // Hitting limit stops processing further params but does
                     // not cause request to fail.
                     parseFailed = true;
-                    UserDataHelper.Mode logMode = maxParamCountLog.getNextMode();
-                    if (logMode != null) {
-                        String message = ise.getMessage();
-                        switch (logMode) {
-                            case INFO_THEN_DEBUG:
-                                message += sm.getString(
-                                        "parameters.maxCountFail.fallToDebug");
-                                //$FALL-THROUGH$
-                            case INFO:
-                                log.info(message);
-                                break;
-                            case DEBUG:
-                                log.debug(message);
-                        }
-                    }
+                    logMaxCountFail(ise.getMessage());
                     break;
                 }
             } catch (IOException e) {
                 parseFailed = true;
                 decodeFailCount++;
                 if (decodeFailCount == 1 || log.isDebugEnabled()) {
-                    if (log.isDebugEnabled()) {
-                        log.debug(sm.getString("parameters.decodeFail.debug",
-                                origName.toString(), origValue.toString()), e);
-                    } else if (log.isInfoEnabled()) {
-                        UserDataHelper.Mode logMode = userDataLog.getNextMode();
-                        if (logMode != null) {
-                            String message = sm.getString(
-                                    "parameters.decodeFail.info",
-                                    tmpName.toString(), tmpValue.toString());
-                            switch (logMode) {
-                                case INFO_THEN_DEBUG:
-                                    message += sm.getString("parameters.fallToDebug");
-                                    //$FALL-THROUGH$
-                                case INFO:
-                                    log.info(message);
-                                    break;
-                                case DEBUG:
-                                    log.debug(message);
-                            }
-                        }
-                    }
+                    logDecodeFail(e);
                 }
             }
 
@@ -463,6 +502,288 @@ public final class Parameters {
         }
     }
 
+    private void logMaxCountFail(String message) {
+        UserDataHelper.Mode logMode = maxParamCountLog.getNextMode();
+        if (logMode != null) {
+            switch (logMode) {
+                case INFO_THEN_DEBUG:
+                    message += sm.getString(
+                            "parameters.maxCountFail.fallToDebug");
+                    //$FALL-THROUGH$
+                case INFO:
+                    log.info(message);
+                    break;
+                case DEBUG:
+                    log.debug(message);
+            }
+        }
+    }
+
+    /**
+     * Log a decoding failure. When debug logging is enabled origName and
+     * origValue hold copies of the name and value taken before decoding,
+     * otherwise tmpName and tmpValue are used.
+     */
+    private void logDecodeFail(IOException e) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("parameters.decodeFail.debug",
+                    origName.toString(), origValue.toString()), e);
+        } else if (log.isInfoEnabled()) {
+            UserDataHelper.Mode logMode = userDataLog.getNextMode();
+            if (logMode != null) {
+                String message = sm.getString(
+                        "parameters.decodeFail.info",
+                        tmpName.toString(), tmpValue.toString());
+                switch (logMode) {
+                    case INFO_THEN_DEBUG:
+                        message += sm.getString("parameters.fallToDebug");
+                        //$FALL-THROUGH$
+                    case INFO:
+                        log.info(message);
+                        break;
+                    case DEBUG:
+                        log.debug(message);
+                }
+            }
+        }
+    }
+
+    // -------------------- Lazy decoding --------------------
+
+    private void addLazyParameter(byte[] bytes, Charset charset,
+            int nameStart, int nameEnd, int valueStart, int valueEnd,
+            boolean decodeName, boolean decodeValue) {
+        if (lazyCount == lazyParameters.length) {
+            int size = Math.max(16, lazyCount * 2);
+            lazyParameters = Arrays.copyOf(lazyParameters, size);
+        }
+        LazyParameter lp = lazyParameters[lazyCount];
+        if (lp == null) {
+            lp = new LazyParameter();
+            lazyParameters[lazyCount] = lp;
+        }
+        lp.bytes = bytes;
+        lp.charset = charset;
+        lp.nameStart = nameStart;
+        lp.nameEnd = nameEnd;
+        lp.valueStart = valueStart;
+        lp.valueEnd = valueEnd;
+        lp.decodeName = decodeName;
+        lp.decodeValue = decodeValue;
+        lp.pending = true;
+        lazyCount++;
+        lazyPending++;
+    }
+
+    /**
+     * Decode the values of the lazy parameters with the given name.
+     */
+    private void decodeLazyParameters(String name) {
+        if (lazyPending == 0 || name == null) {
+            return;
+        }
+        if (lazyIndexed < lazyCount) {
+            indexLazyParameters();
+        }
+        int hash = hash(name);
+        LazyParameter lp = lazyIndex[hash & (lazyIndex.length - 1)];
+        while (lp != null) {
+            if (lp.pending && lp.hash == hash && lp.nameEquals(name)) {
+                decodeLazyParameter(lp, name);
+            }
+            lp = lp.nextInIndex;
+        }
+    }
+
+    /**
+     * Decode all the remaining lazy parameters.
+     */
+    private void decodeLazyParameters() {
+        for (int i = 0; i < lazyCount && lazyPending > 0; i++) {
+            LazyParameter lp = lazyParameters[i];
+            if (lp.pending) {
+                String name = decodeLazyName(lp);
+                if (name != null) {
+                    decodeLazyParameter(lp, name);
+                }
+            }
+        }
+    }
+
+    private void indexLazyParameters() {
+        if (lazyIndex.length < lazyCount * 2) {
+            int size = lazyIndex.length;
+            while (size < lazyCount * 2) {
+                size <<= 1;
+            }
+            lazyIndex = new LazyParameter[size];
+            lazyIndexed = 0;
+        }
+        int mask = lazyIndex.length - 1;
+        for (int i = lazyIndexed; i < lazyCount; i++) {
+            LazyParameter lp = lazyParameters[i];
+            lp.nextInIndex = null;
+            if (!lp.pending) {
+                continue;
+            }
+            if (!lp.decodeName && isAsciiCompatible(lp.charset) &&
+                    isAscii(lp.bytes, lp.nameStart, lp.nameEnd)) {
+                // The name can be compared without decoding it
+                int hash = 0;
+                for (int j = lp.nameStart; j < lp.nameEnd; j++) {
+                    hash = 31 * hash + lp.bytes[j];
+                }
+                lp.hash = spread(hash);
+            } else {
+                String name = decodeLazyName(lp);
+                if (name == null) {
+                    continue;
+                }
+                lp.hash = hash(name);
+            }
+            // Append so parameters with the same name stay in order
+            int slot = lp.hash & mask;
+            LazyParameter last = lazyIndex[slot];
+            if (last == null) {
+                lazyIndex[slot] = lp;
+            } else {
+                while (last.nextInIndex != null) {
+                    last = last.nextInIndex;
+                }
+                last.nextInIndex = lp;
+            }
+        }
+        lazyIndexed = lazyCount;
+    }
+
+    /**
+     * @return the decoded name or <code>null</code> if the name could not be
+     *         decoded, in which case the parameter is dropped
+     */
+    private String decodeLazyName(LazyParameter lp) {
+        if (lp.name != null) {
+            return lp.name;
+        }
+        tmpName.setBytes(lp.bytes, lp.nameStart, lp.nameEnd - lp.nameStart);
+        try {
+            if (lp.decodeName) {
+                if (log.isDebugEnabled()) {
+                    copyLazyParameter(lp);
+                }
+                urlDecode(tmpName);
+            }
+            tmpName.setCharset(lp.charset);
+            lp.name = tmpName.toString();
+        } catch (IOException e) {
+            parseFailed = true;
+            lp.pending = false;
+            lazyPending--;
+            tmpValue.setBytes(lp.bytes, 0, 0);
+            logDecodeFail(e);
+        }
+        tmpName.recycle();
+        tmpValue.recycle();
+        origName.recycle();
+        origValue.recycle();
+        return lp.name;
+    }
+
+    private void decodeLazyParameter(LazyParameter lp, String name) {
+        lp.pending = false;
+        lazyPending--;
+        String value;
+        if (lp.valueStart >= 0) {
+            tmpValue.setBytes(lp.bytes, lp.valueStart,
+                    lp.valueEnd - lp.valueStart);
+            try {
+                if (lp.decodeValue) {
+                    if (log.isDebugEnabled()) {
+                        copyLazyParameter(lp);
+                    }
+                    urlDecode(tmpValue);
+                }
+                tmpValue.setCharset(lp.charset);
+                value = tmpValue.toString();
+            } catch (IOException e) {
+                parseFailed = true;
+                tmpName.setBytes(lp.bytes, lp.nameStart,
+                        lp.nameEnd - lp.nameStart);
+                logDecodeFail(e);
+                value = null;
+            }
+            tmpName.recycle();
+            tmpValue.recycle();
+            origName.recycle();
+            origValue.recycle();
+            if (value == null) {
+                return;
+            }
+        } else {
+            value = "";
+        }
+        ArrayList<String> values = paramHashValues.get(name);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            paramHashValues.put(name, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Take copies of the name and the value of a lazy parameter before they
+     * are decoded so they can be logged if decoding fails. The name has
+     * already been decoded if its decoded form is known.
+     */
+    private void copyLazyParameter(LazyParameter lp) {
+        origName.recycle();
+        origValue.recycle();
+        try {
+            if (lp.name == null) {
+                origName.append(lp.bytes, lp.nameStart,
+                        lp.nameEnd - lp.nameStart);
+            } else {
+                byte[] name = lp.name.getBytes(lp.charset);
+                origName.append(name, 0, name.length);
+            }
+            if (lp.valueStart >= 0) {
+                origValue.append(lp.bytes, lp.valueStart,
+                        lp.valueEnd - lp.valueStart);
+            }
+        } catch (IOException ioe) {
+            // Should never happen...
+            log.error(sm.getString("parameters.copyFail"), ioe);
+        }
+    }
+
+    private static int hash(String name) {
+        int hash = 0;
+        int len = name.length();
+        for (int i = 0; i < len; i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        return spread(hash);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean isAscii(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        return charset == DEFAULT_CHARSET ||
+                StandardCharsets.UTF_8.equals(charset) ||
+                StandardCharsets.ISO_8859_1.equals(charset) ||
+                StandardCharsets.US_ASCII.equals(charset);
+    }
+
     private void urlDecode(ByteChunk bc)
         throws IOException {
         if( urlDec==null ) {
@@ -499,6 +820,7 @@ public final class Parameters {
      * Debug purpose
      */
     public String paramsAsString() {
+        decodeLazyParameters();
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
             sb.append(e.getKey()).append('=');
@@ -510,4 +832,52 @@ public final class Parameters {
         }
         return sb.toString();
     }
+
+
+    /**
+     * A parameter that has been located in the query string or the request
+     * body but not decoded yet.
+     */
+    private static final class LazyParameter {
+        private byte[] bytes;
+        private Charset charset;
+        private int nameStart;
+        private int nameEnd;
+        private int valueStart;
+        private int valueEnd;
+        private boolean decodeName;
+        private boolean decodeValue;
+        private boolean pending;
+        /**
+         * The decoded name. Only set when the name could not be compared
+         * with the bytes.
+         */
+        private String name;
+        private int hash;
+        private LazyParameter nextInIndex;
+
+        private boolean nameEquals(String s) {
+            if (name != null) {
+                return name.equals(s);
+            }
+            int len = nameEnd - nameStart;
+            if (s.length() != len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (bytes[nameStart + i] != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void recycle() {
+            bytes = null;
+            charset = null;
+            name = null;
+            nextInIndex = null;
+            pending = false;
+        }
+    }
 }
@@ -22,6 +22,8 @@ import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
@@ -1136,6 +1138,15 @@ public class AprEndpoint extends AbstractEndpoint {
 
         private volatile int addCount = 0;
 
+        /**
+         * The sockets in the poller that have a timeout, indexed by their
+         * deadline. Only used by the poller thread.
+         */
+        private TimeoutWheel<Long> timeouts;
+        private Map<Long,TimeoutWheel.Entry<Long>> timeoutEntries;
+        private final List<TimeoutWheel.Entry<Long>> expired =
+                new ArrayList<>();
+
         private boolean comet = true;
 
         protected volatile int keepAliveCount = 0;
@@ -1168,6 +1179,8 @@ public class AprEndpoint extends AbstractEndpoint {
             addSocketTimeout = new int[size];
             addSocketFlags = new int[size];
             addCount = 0;
+            timeouts = new TimeoutWheel<>(System.currentTimeMillis());
+            timeoutEntries = new HashMap<>();
         }
 
         /**
@@ -1294,17 +1307,20 @@ public class AprEndpoint extends AbstractEndpoint {
                         synchronized (this) {
                             int successCount = 0;
                             try {
+                                long now = System.currentTimeMillis();
                                 for (int i = (addCount - 1); i >= 0; i--) {
-                                    int timeout = addSocketTimeout[i];
-                                    if (timeout > 0) {
-                                        // Convert milliseconds to microseconds
-                                        timeout = timeout * 1000;
-                                    }
+                                    // Timeouts are tracked by the wheel
+                                    // rather than by maintaining the pollset
                                     int rv = Poll.addWithTimeout(
                                             connectionPollset, addSocket[i],
-                                            addSocketFlags[i], timeout);
+                                            addSocketFlags[i], -1);
                                     if (rv == Status.APR_SUCCESS) {
                                         successCount++;
+                                        int timeout = addSocketTimeout[i];
+                                        if (timeout > 0) {
+                                            scheduleTimeout(addSocket[i],
+                                                    now + timeout);
+                                        }
                                     } else {
                                         // Can't do anything: close the socket right away
                                         if (comet) {
@@ -1352,6 +1368,8 @@ public class AprEndpoint extends AbstractEndpoint {
             if (rv > 0) {
                 keepAliveCount -= rv;
                 for (int n = 0; n < rv; n++) {
+                    // The socket has been removed from the pollset
+                    cancelTimeout(desc[n*2+1]);
                     // Check for failed sockets and hand this socket off to a worker
                     if (((desc[n*2] & Poll.APR_POLLHUP) == Poll.APR_POLLHUP)
                             || ((desc[n*2] & Poll.APR_POLLERR) == Poll.APR_POLLERR)
@@ -1384,19 +1402,46 @@ public class AprEndpoint extends AbstractEndpoint {
             return false;
         }
 
+        private void scheduleTimeout(long socket, long deadline) {
+            Long key = Long.valueOf(socket);
+            TimeoutWheel.Entry<Long> entry = timeoutEntries.get(key);
+            if (entry == null) {
+                entry = new TimeoutWheel.Entry<>(key);
+                timeoutEntries.put(key, entry);
+            }
+            timeouts.schedule(entry, deadline);
+        }
+
+        private void cancelTimeout(long socket) {
+            if (timeoutEntries.isEmpty()) {
+                return;
+            }
+            TimeoutWheel.Entry<Long> entry =
+                    timeoutEntries.remove(Long.valueOf(socket));
+            if (entry != null) {
+                timeouts.cancel(entry);
+            }
+        }
+
         private void doTimeout(long pollset) {
-            int rv = Poll.maintain(pollset, desc, true);
-            if (rv > 0) {
-                keepAliveCount -= rv;
-                for (int n = 0; n < rv; n++) {
-                    // Close socket and clear pool
-                    if (comet) {
-                        processSocket(desc[n], SocketStatus.TIMEOUT);
-                    } else {
-                        destroySocket(desc[n]);
-                    }
+            // Only the sockets whose deadline has passed are visited
+            timeouts.expire(System.currentTimeMillis(), expired);
+            for (int i = 0; i < expired.size(); i++) {
+                Long socket = expired.get(i).getValue();
+                timeoutEntries.remove(socket);
+                if (Poll.remove(pollset, socket.longValue()) !=
+                        Status.APR_SUCCESS) {
+                    continue;
+                }
+                keepAliveCount--;
+                // Close socket and clear pool
+                if (comet) {
+                    processSocket(socket.longValue(), SocketStatus.TIMEOUT);
+                } else {
+                    destroySocket(socket.longValue());
                 }
             }
+            expired.clear();
         }
     }
 
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects statistics for the TLS handshakes completed by an endpoint. The
+ * time taken by a handshake is measured from the point the connection was
+ * accepted to the point the handshake completed.
+ * <p>
+ * This class is thread safe.
+ */
+public class HandshakeStatistics {
+
+    /**
+     * Upper bounds, in milliseconds, of all but the last bucket of the
+     * handshake time histogram. The last bucket holds any longer handshakes.
+     */
+    private static final long[] BUCKET_LIMITS =
+            new long[] {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong totalTime = new AtomicLong(0);
+    private final AtomicLongArray histogram =
+            new AtomicLongArray(BUCKET_LIMITS.length + 1);
+
+    // Handshakes completed in the current and the previous second
+    private volatile long currentSecond = 0;
+    private final AtomicLong currentCount = new AtomicLong(0);
+    private volatile long previousCount = 0;
+
+
+    /**
+     * Record a completed handshake.
+     *
+     * @param nanos The time the handshake took in nanoseconds
+     */
+    public void handshakeCompleted(long nanos) {
+        count.incrementAndGet();
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        totalTime.addAndGet(millis);
+
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS.length && millis > BUCKET_LIMITS[bucket]) {
+            bucket++;
+        }
+        histogram.incrementAndGet(bucket);
+
+        long second = System.currentTimeMillis() / 1000;
+        if (second != currentSecond) {
+            rollSecond(second);
+        }
+        currentCount.incrementAndGet();
+    }
+
+
+    private synchronized void rollSecond(long second) {
+        if (second == currentSecond) {
+            // Another thread got here first
+            return;
+        }
+        long completed = currentCount.getAndSet(0);
+        previousCount = (second == currentSecond + 1) ? completed : 0;
+        currentSecond = second;
+    }
+
+
+    /**
+     * @return The number of handshakes completed by the endpoint
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+
+    /**
+     * @return The number of handshakes completed in the last complete second
+     */
+    public long getRate() {
+        long second = System.currentTimeMillis() / 1000;
+        long current = currentSecond;
+        if (second == current) {
+            return previousCount;
+        } else if (second == current + 1) {
+            return currentCount.get();
+        } else {
+            return 0;
+        }
+    }
+
+
+    /**
+     * @return The average time in milliseconds taken by a handshake
+     */
+    public long getAverageTime() {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        return totalTime.get() / c;
+    }
+
+
+    /**
+     * @return The handshake time histogram with one entry per bucket in the
+     *         form <code>&lt;=[limit]ms=[count]</code> with a final entry
+     *         for longer handshakes in the form
+     *         <code>&gt;[limit]ms=[count]</code>
+     */
+    public String[] getTimeHistogram() {
+        String[] result = new String[BUCKET_LIMITS.length + 1];
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            result[i] = "<=" + BUCKET_LIMITS[i] + "ms=" + histogram.get(i);
+        }
+        result[BUCKET_LIMITS.length] =
+                ">" + BUCKET_LIMITS[BUCKET_LIMITS.length - 1] + "ms=" +
+                histogram.get(BUCKET_LIMITS.length);
+        return result;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tomcat.util.collections.SynchronizedStack;
+
+/**
+ * A pool of fixed size direct buffers. Rather than allocating each buffer
+ * separately, the pool allocates large direct buffers (slabs) and slices them
+ * into buffers of the configured size. Slabs are allocated on demand until the
+ * configured limit is reached. Once the limit is reached, or if a buffer larger
+ * than the configured size is requested, buffers are allocated individually
+ * and left to the garbage collector when they are released. Only buffers
+ * sliced from the slabs are ever returned to the pool.
+ * <p>
+ * This class is thread safe.
+ */
+public class NioBufferPool {
+
+    /**
+     * The maximum number of buffers sliced from each slab.
+     */
+    protected static final int BUFFERS_PER_SLAB = 32;
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final int buffersPerSlab;
+
+    private final SynchronizedStack<ByteBuffer> freeBuffers;
+
+    /*
+     * The buffers sliced from the slabs. ByteBuffer.equals() compares content
+     * so the buffers are tracked by identity.
+     */
+    private final Set<ByteBuffer> slabBuffers = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<ByteBuffer,Boolean>()));
+
+    private final AtomicInteger allocated = new AtomicInteger(0);
+    private final AtomicInteger free = new AtomicInteger(0);
+    private final AtomicInteger inUse = new AtomicInteger(0);
+
+
+    /**
+     * Create a pool.
+     *
+     * @param bufferSize    The size in bytes of the pooled buffers
+     * @param maxSize       The maximum number of bytes allocated for pooled
+     *                      buffers. -1 means unlimited. At least one buffer
+     *                      is always pooled.
+     */
+    public NioBufferPool(int bufferSize, long maxSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.bufferSize = bufferSize;
+        if (maxSize < 0) {
+            maxBuffers = -1;
+            buffersPerSlab = BUFFERS_PER_SLAB;
+        } else {
+            maxBuffers = (int) Math.max(1,
+                    Math.min(Integer.MAX_VALUE, maxSize / bufferSize));
+            buffersPerSlab = Math.min(BUFFERS_PER_SLAB, maxBuffers);
+        }
+        freeBuffers = new SynchronizedStack<>(
+                Math.min(SynchronizedStack.DEFAULT_SIZE, buffersPerSlab),
+                maxBuffers);
+    }
+
+
+    /**
+     * Obtain a cleared buffer with a capacity of at least the given size.
+     *
+     * @param size  The minimum size of the buffer in bytes
+     *
+     * @return the buffer. It must be passed to {@link #release(ByteBuffer)}
+     *         once it is no longer used.
+     */
+    public ByteBuffer allocate(int size) {
+        ByteBuffer result = null;
+        if (size <= bufferSize) {
+            result = pop();
+            if (result == null) {
+                result = allocateSlab();
+            }
+        }
+        if (result == null) {
+            result = ByteBuffer.allocateDirect(Math.max(size, bufferSize));
+        }
+        inUse.incrementAndGet();
+        result.clear();
+        return result;
+    }
+
+
+    /**
+     * Return a buffer obtained from {@link #allocate(int)} to the pool. The
+     * caller must not use the buffer after calling this method. Buffers that
+     * were not sliced from one of the slabs of this pool are dropped.
+     *
+     * @param buffer    The buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        inUse.decrementAndGet();
+        if (slabBuffers.contains(buffer) && freeBuffers.push(buffer)) {
+            free.incrementAndGet();
+        }
+    }
+
+
+    private ByteBuffer pop() {
+        ByteBuffer result = freeBuffers.pop();
+        if (result != null) {
+            free.decrementAndGet();
+        }
+        return result;
+    }
+
+
+    private synchronized ByteBuffer allocateSlab() {
+        // Another thread may have allocated a slab in the meantime
+        ByteBuffer result = pop();
+        if (result != null) {
+            return result;
+        }
+        int count = buffersPerSlab;
+        if (maxBuffers >= 0) {
+            count = Math.min(count, maxBuffers - allocated.get());
+            if (count <= 0) {
+                return null;
+            }
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect(bufferSize * count);
+        allocated.addAndGet(count);
+        for (int i = 0; i < count; i++) {
+            slab.limit((i + 1) * bufferSize);
+            slab.position(i * bufferSize);
+            ByteBuffer buffer = slab.slice();
+            slabBuffers.add(buffer);
+            if (result == null) {
+                result = buffer;
+            } else if (freeBuffers.push(buffer)) {
+                free.incrementAndGet();
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The size in bytes of the pooled buffers
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+
+    /**
+     * @return The number of buffers sliced from the slabs allocated so far
+     */
+    public int getAllocated() {
+        return allocated.get();
+    }
+
+
+    /**
+     * @return The number of buffers available in the pool
+     */
+    public int getFree() {
+        return free.get();
+    }
+
+
+    /**
+     * @return The number of buffers currently in use, including buffers that
+     *         were allocated individually
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+}
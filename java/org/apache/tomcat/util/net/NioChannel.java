@@ -63,6 +63,14 @@ public class NioChannel implements ByteChannel {
         this.sendFile = false;
     }
 
+    /**
+     * Free any pooled resources held by the channel. Called once the channel
+     * has been closed. The regular channel holds no pooled resources.
+     */
+    public void free() {
+        // NOOP
+    }
+
     public int getBufferSize() {
         if ( bufHandler == null ) return 0;
         int size = 0;
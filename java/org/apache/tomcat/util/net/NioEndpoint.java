@@ -20,10 +20,13 @@ package org.apache.tomcat.util.net;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketOption;
 import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.FileChannel;
@@ -32,10 +35,14 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,11 +57,12 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
-import org.apache.tomcat.util.collections.SynchronizedQueue;
+import org.apache.tomcat.util.collections.MpscQueue;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.jsse.NioX509KeyManager;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 /**
  * NIO tailored thread pool, providing the following services:
@@ -83,6 +91,12 @@ public class NioEndpoint extends AbstractEndpoint {
     public static final int OP_REGISTER = 0x100; //register interest op
     public static final int OP_CALLBACK = 0x200; //callback interest op
 
+    /**
+     * The maximum number of bytes of a file that will be encrypted and written
+     * by sendfile for a TLS connection each time the socket is writable.
+     */
+    private static final long SENDFILE_SECURE_WRITE_LIMIT = 64 * 1024;
+
     // ----------------------------------------------------------------- Fields
 
     protected NioSelectorPool selectorPool = new NioSelectorPool();
@@ -92,6 +106,17 @@ public class NioEndpoint extends AbstractEndpoint {
      */
     protected ServerSocketChannel serverSock = null;
 
+    /**
+     * Server sockets, one per acceptor and poller pair, if reusePort is
+     * enabled and supported. The first is also {@link #serverSock}.
+     */
+    protected ServerSocketChannel[] serverSocks = null;
+
+    /**
+     * The index of the next acceptor to be created.
+     */
+    protected int nextAcceptor = 0;
+
     /**
      * use send file
      */
@@ -152,6 +177,24 @@ public class NioEndpoint extends AbstractEndpoint {
             new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getBufferPoolSize());
 
+    /**
+     * Executor for the delegated tasks of the SSLEngine during TLS
+     * handshakes. Only created if handshakeTaskThreads is greater than zero.
+     */
+    protected ThreadPoolExecutor handshakeTaskExecutor = null;
+
+    /**
+     * Statistics for the TLS handshakes completed by this endpoint.
+     */
+    protected final HandshakeStatistics handshakeStatistics =
+            new HandshakeStatistics();
+
+    /**
+     * Pool for the network buffers of TLS connections. Only created if SSL is
+     * enabled and sslBufferPoolSize is not zero.
+     */
+    protected NioBufferPool sslBufferPool = null;
+
 
     // ------------------------------------------------------------- Properties
 
@@ -214,6 +257,51 @@ public class NioEndpoint extends AbstractEndpoint {
     protected long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
+
+
+    /**
+     * Bind a server socket for each poller, using SO_REUSEPORT, and pair an
+     * acceptor thread with each poller. Connections accepted by an acceptor
+     * are registered with its poller. Requires a JVM and an operating system
+     * that support SO_REUSEPORT. If not supported, a single server socket is
+     * used.
+     */
+    protected boolean reusePort = false;
+    public void setReusePort(boolean reusePort) { this.reusePort = reusePort; }
+    public boolean getReusePort() { return reusePort; }
+
+    /**
+     * One acceptor per poller if reusePort is in use.
+     */
+    @Override
+    public int getAcceptorThreadCount() {
+        ServerSocketChannel[] socks = serverSocks;
+        if (socks != null) {
+            return socks.length;
+        }
+        return super.getAcceptorThreadCount();
+    }
+
+
+    /**
+     * Number of threads used to run the delegated tasks of the SSLEngine,
+     * such as certificate validation and key exchange, during TLS handshakes.
+     * If zero, the tasks are run by the thread processing the socket.
+     */
+    protected int handshakeTaskThreads = 0;
+    public void setHandshakeTaskThreads(int handshakeTaskThreads) { this.handshakeTaskThreads = handshakeTaskThreads; }
+    public int getHandshakeTaskThreads() { return handshakeTaskThreads; }
+
+
+    /**
+     * Maximum number of delegated tasks waiting for a handshake task thread.
+     * Once the queue is full, tasks are run by the thread processing the
+     * socket.
+     */
+    protected int handshakeTaskQueueSize = 1024;
+    public void setHandshakeTaskQueueSize(int handshakeTaskQueueSize) { this.handshakeTaskQueueSize = handshakeTaskQueueSize; }
+    public int getHandshakeTaskQueueSize() { return handshakeTaskQueueSize; }
+
     /**
      * The socket poller.
      */
@@ -344,6 +432,110 @@ public class NioEndpoint extends AbstractEndpoint {
     }
 
 
+    /**
+     * Number of times an event added to a poller woke its selector.
+     */
+    public long getPollerWakeupCount() {
+        Poller[] pollers = this.pollers;
+        long sum = 0;
+        for (int i = 0; pollers != null && i < pollers.length; i++) {
+            if (pollers[i] != null) {
+                sum += pollers[i].getWakeupCount();
+            }
+        }
+        return sum;
+    }
+
+
+    /**
+     * Number of events added to a poller that did not need to wake its
+     * selector.
+     */
+    public long getPollerWakeupsAvoided() {
+        Poller[] pollers = this.pollers;
+        long sum = 0;
+        for (int i = 0; pollers != null && i < pollers.length; i++) {
+            if (pollers[i] != null) {
+                sum += pollers[i].getWakeupsAvoided();
+            }
+        }
+        return sum;
+    }
+
+
+    /**
+     * Number of TLS handshakes completed.
+     */
+    public long getHandshakeCount() {
+        return handshakeStatistics.getCount();
+    }
+
+
+    /**
+     * Number of TLS handshakes completed in the last complete second.
+     */
+    public long getHandshakeRate() {
+        return handshakeStatistics.getRate();
+    }
+
+
+    /**
+     * Average time in milliseconds from accepting a TLS connection to
+     * completing the handshake.
+     */
+    public long getHandshakeAverageTime() {
+        return handshakeStatistics.getAverageTime();
+    }
+
+
+    /**
+     * Histogram of the time from accepting a TLS connection to completing the
+     * handshake.
+     */
+    public String[] getHandshakeTimeHistogram() {
+        return handshakeStatistics.getTimeHistogram();
+    }
+
+
+    /**
+     * Number of delegated handshake tasks waiting for a handshake task thread.
+     */
+    public int getHandshakeTasksQueued() {
+        ThreadPoolExecutor executor = handshakeTaskExecutor;
+        if (executor == null) {
+            return 0;
+        }
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * Number of TLS network buffers allocated by the buffer pool.
+     */
+    public int getSslBufferPoolAllocated() {
+        NioBufferPool pool = sslBufferPool;
+        return pool == null ? 0 : pool.getAllocated();
+    }
+
+
+    /**
+     * Number of TLS network buffers available in the buffer pool.
+     */
+    public int getSslBufferPoolFree() {
+        NioBufferPool pool = sslBufferPool;
+        return pool == null ? 0 : pool.getFree();
+    }
+
+
+    /**
+     * Number of TLS network buffers in use by connections with data in flight.
+     */
+    public int getSslBufferPoolInUse() {
+        NioBufferPool pool = sslBufferPool;
+        return pool == null ? 0 : pool.getInUse();
+    }
+
+
     // ----------------------------------------------- Public Lifecycle Methods
 
 
@@ -353,13 +545,6 @@ public class NioEndpoint extends AbstractEndpoint {
     @Override
     public void bind() throws Exception {
 
-        serverSock = ServerSocketChannel.open();
-        socketProperties.setProperties(serverSock.socket());
-        InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
-        serverSock.socket().bind(addr,getBacklog());
-        serverSock.configureBlocking(true); //mimic APR behavior
-        serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
-
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
             // FIXME: Doesn't seem to work that well with multiple accept threads
@@ -369,6 +554,16 @@ public class NioEndpoint extends AbstractEndpoint {
             //minimum one poller thread
             pollerThreadCount = 1;
         }
+
+        InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
+        if (reusePort) {
+            serverSocks = bindReusePort(addr);
+        }
+        if (serverSocks != null) {
+            serverSock = serverSocks[0];
+        } else {
+            serverSock = bindServerSocket(addr, null);
+        }
         stopLatch = new CountDownLatch(pollerThreadCount);
 
         // Initialize SSL if needed
@@ -384,12 +579,93 @@ public class NioEndpoint extends AbstractEndpoint {
             if (sessionContext != null) {
                 sslUtil.configureSessionContext(sessionContext);
             }
+
+            if (socketProperties.getSslBufferPoolSize() != 0) {
+                int packetSize = sslContext.createSSLEngine().getSession()
+                        .getPacketBufferSize();
+                sslBufferPool = new NioBufferPool(packetSize,
+                        socketProperties.getSslBufferPoolSize());
+            }
         }
 
         if (oomParachute>0) reclaimParachute(true);
         selectorPool.open();
     }
 
+    private ServerSocketChannel bindServerSocket(InetSocketAddress addr,
+            SocketOption<Boolean> reusePortOption) throws IOException {
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        try {
+            if (reusePortOption != null) {
+                ssc.setOption(reusePortOption, Boolean.TRUE);
+            }
+            socketProperties.setProperties(ssc.socket());
+            ssc.socket().bind(addr,getBacklog());
+            ssc.configureBlocking(true); //mimic APR behavior
+            ssc.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        } catch (IOException | RuntimeException e) {
+            ssc.close();
+            throw e;
+        }
+        return ssc;
+    }
+
+    /**
+     * Bind a server socket per poller with SO_REUSEPORT enabled.
+     *
+     * @return the server sockets or <code>null</code> if SO_REUSEPORT is not
+     *         supported
+     */
+    private ServerSocketChannel[] bindReusePort(InetSocketAddress addr)
+            throws IOException {
+        SocketOption<Boolean> option = getReusePortOption();
+        if (option == null) {
+            log.warn(sm.getString("endpoint.nio.reusePortUnsupported"));
+            return null;
+        }
+        ServerSocketChannel[] result = new ServerSocketChannel[pollerThreadCount];
+        try {
+            result[0] = bindServerSocket(addr, option);
+            // The remaining sockets must use the port actually bound if an
+            // ephemeral port was requested
+            InetSocketAddress bound = new InetSocketAddress(addr.getAddress(),
+                    result[0].socket().getLocalPort());
+            for (int i = 1; i < result.length; i++) {
+                result[i] = bindServerSocket(bound, option);
+            }
+        } catch (UnsupportedOperationException e) {
+            log.warn(sm.getString("endpoint.nio.reusePortUnsupported"), e);
+            for (ServerSocketChannel ssc : result) {
+                if (ssc != null) {
+                    ssc.close();
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            for (ServerSocketChannel ssc : result) {
+                if (ssc != null) {
+                    ssc.close();
+                }
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * SO_REUSEPORT was added to {@link StandardSocketOptions} in Java 9.
+     */
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            Field field = StandardSocketOptions.class.getField("SO_REUSEPORT");
+            @SuppressWarnings("unchecked")
+            SocketOption<Boolean> option = (SocketOption<Boolean>) field.get(null);
+            return option;
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
     public KeyManager[] wrap(KeyManager[] managers) {
         if (managers==null) return null;
         KeyManager[] result = new KeyManager[managers.length];
@@ -419,7 +695,18 @@ public class NioEndpoint extends AbstractEndpoint {
                 createExecutor();
             }
 
+            if (isSSLEnabled() && handshakeTaskThreads > 0) {
+                TaskThreadFactory tf = new TaskThreadFactory(
+                        getName() + "-handshake-", getDaemon(),
+                        getThreadPriority());
+                handshakeTaskExecutor = new ThreadPoolExecutor(
+                        handshakeTaskThreads, handshakeTaskThreads, 60,
+                        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+                                handshakeTaskQueueSize), tf);
+            }
+
             initializeConnectionLatch();
+            nextAcceptor = 0;
 
             // Start poller threads
             pollers = new Poller[getPollerThreadCount()];
@@ -463,6 +750,10 @@ public class NioEndpoint extends AbstractEndpoint {
         nioChannels.clear();
         processorCache.clear();
         shutdownExecutor();
+        if (handshakeTaskExecutor != null) {
+            handshakeTaskExecutor.shutdownNow();
+            handshakeTaskExecutor = null;
+        }
 
     }
 
@@ -479,11 +770,20 @@ public class NioEndpoint extends AbstractEndpoint {
             stop();
         }
         // Close server socket
-        serverSock.socket().close();
-        serverSock.close();
+        if (serverSocks != null) {
+            for (ServerSocketChannel ssc : serverSocks) {
+                ssc.socket().close();
+                ssc.close();
+            }
+            serverSocks = null;
+        } else {
+            serverSock.socket().close();
+            serverSock.close();
+        }
         serverSock = null;
         sslContext = null;
         releaseCaches();
+        sslBufferPool = null;
         selectorPool.close();
         if (log.isDebugEnabled()) {
             log.debug("Destroy completed for "+new InetSocketAddress(getAddress(),getPort()));
@@ -522,7 +822,11 @@ public class NioEndpoint extends AbstractEndpoint {
 
     @Override
     protected AbstractEndpoint.Acceptor createAcceptor() {
-        return new Acceptor();
+        int index = nextAcceptor++;
+        if (serverSocks != null) {
+            return new Acceptor(serverSocks[index], pollers[index]);
+        }
+        return new Acceptor(serverSock, null);
     }
 
 
@@ -530,6 +834,17 @@ public class NioEndpoint extends AbstractEndpoint {
      * Process the specified connection.
      */
     protected boolean setSocketOptions(SocketChannel socket) {
+        return setSocketOptions(socket, null);
+    }
+
+    /**
+     * Process the specified connection.
+     *
+     * @param socket    The connection
+     * @param poller    The poller to register the connection with or
+     *                  <code>null</code> to use the next poller in turn
+     */
+    protected boolean setSocketOptions(SocketChannel socket, Poller poller) {
         // Process the connection
         try {
             //disable blocking, APR style, we are gonna be polling it
@@ -546,7 +861,9 @@ public class NioEndpoint extends AbstractEndpoint {
                     NioBufferHandler bufhandler = new NioBufferHandler(Math.max(appbufsize,socketProperties.getAppReadBufSize()),
                                                                        Math.max(appbufsize,socketProperties.getAppWriteBufSize()),
                                                                        socketProperties.getDirectBuffer());
-                    channel = new SecureNioChannel(socket, engine, bufhandler, selectorPool);
+                    channel = new SecureNioChannel(socket, engine, bufhandler,
+                            selectorPool, sslBufferPool);
+                    ((SecureNioChannel)channel).setTaskExecutor(handshakeTaskExecutor);
                 } else {
                     // normal tcp setup
                     NioBufferHandler bufhandler = new NioBufferHandler(socketProperties.getAppReadBufSize(),
@@ -560,11 +877,15 @@ public class NioEndpoint extends AbstractEndpoint {
                 if ( channel instanceof SecureNioChannel ) {
                     SSLEngine engine = createSSLEngine();
                     ((SecureNioChannel)channel).reset(engine);
+                    ((SecureNioChannel)channel).setTaskExecutor(handshakeTaskExecutor);
                 } else {
                     channel.reset();
                 }
             }
-            getPoller0().register(channel);
+            if (poller == null) {
+                poller = getPoller0();
+            }
+            poller.register(channel);
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             try {
@@ -652,6 +973,19 @@ public class NioEndpoint extends AbstractEndpoint {
      */
     protected class Acceptor extends AbstractEndpoint.Acceptor {
 
+        private final ServerSocketChannel serverSock;
+        private final Poller poller;
+
+        /**
+         * @param serverSock    The server socket to accept connections from
+         * @param poller        The poller for accepted connections or
+         *                      <code>null</code> to use the next poller in turn
+         */
+        public Acceptor(ServerSocketChannel serverSock, Poller poller) {
+            this.serverSock = serverSock;
+            this.poller = poller;
+        }
+
         @Override
         public void run() {
 
@@ -698,7 +1032,7 @@ public class NioEndpoint extends AbstractEndpoint {
                     // setSocketOptions() will add channel to the poller
                     // if successful
                     if (running && !paused) {
-                        if (!setSocketOptions(socket)) {
+                        if (!setSocketOptions(socket, poller)) {
                             countDownConnection();
                             closeSocket(socket);
                         }
@@ -787,6 +1121,7 @@ public class NioEndpoint extends AbstractEndpoint {
             if ( interestOps == OP_REGISTER ) {
                 try {
                     socket.getIOChannel().register(socket.getPoller().getSelector(), SelectionKey.OP_READ, key);
+                    socket.getPoller().scheduleTimeout(key, true);
                 } catch (Exception x) {
                     log.error("", x);
                 }
@@ -810,6 +1145,7 @@ public class NioEndpoint extends AbstractEndpoint {
                             att.interestOps(ops);
                             if (att.getCometNotify()) key.interestOps(0);
                             else key.interestOps(ops);
+                            socket.getPoller().scheduleTimeout(att, false);
                         } else {
                             cancel = true;
                         }
@@ -837,16 +1173,38 @@ public class NioEndpoint extends AbstractEndpoint {
     public class Poller implements Runnable {
 
         protected Selector selector;
-        protected final SynchronizedQueue<Runnable> events =
-                new SynchronizedQueue<>();
+        protected final MpscQueue<Runnable> events = new MpscQueue<>();
 
         protected volatile boolean close = false;
         protected long nextExpiration = 0;//optimize expiration handling
 
+        /**
+         * Set to -1 by the poller before it selects. Each added event
+         * increments it and only the event that takes it to 0 wakes the
+         * selector. Reset to 0 once the selector returns.
+         */
         protected AtomicLong wakeupCounter = new AtomicLong(0l);
 
+        // Only updated by the poller thread
+        protected volatile long wakeupCount = 0;
+        protected volatile long wakeupsAvoided = 0;
+
         protected volatile int keyCount = 0;
 
+        /**
+         * The sockets registered with this poller, indexed by the time at which
+         * their timeout must next be checked. Only used by the poller thread.
+         */
+        protected final TimeoutWheel<KeyAttachment> timeouts =
+                new TimeoutWheel<>(System.currentTimeMillis());
+        private final List<TimeoutWheel.Entry<KeyAttachment>> expired =
+                new ArrayList<>();
+        /**
+         * The sockets registered for a callback. Only used by the poller
+         * thread.
+         */
+        private final List<KeyAttachment> notifications = new ArrayList<>();
+
         public Poller() throws IOException {
             synchronized (Selector.class) {
                 // Selector.open() isn't thread safe
@@ -858,6 +1216,18 @@ public class NioEndpoint extends AbstractEndpoint {
 
         public int getKeyCount() { return keyCount; }
 
+        /**
+         * @return The number of times an added event woke the selector
+         */
+        public long getWakeupCount() { return wakeupCount; }
+
+        /**
+         * @return The number of added events that did not need to wake the
+         *         selector since the poller was not blocked in a select or
+         *         another event had already woken it
+         */
+        public long getWakeupsAvoided() { return wakeupsAvoided; }
+
         public Selector getSelector() { return selector;}
 
         /**
@@ -897,9 +1267,6 @@ public class NioEndpoint extends AbstractEndpoint {
             PollerEvent r = eventCache.pop();
             if ( r==null) r = new PollerEvent(socket,null,interestOps);
             else r.reset(socket,null,interestOps);
-            if ( (interestOps&OP_CALLBACK) == OP_CALLBACK ) {
-                nextExpiration = 0; //force the check for faster callback
-            }
             addEvent(r);
             if (close) {
                 processSocket(socket, SocketStatus.STOP, false);
@@ -986,6 +1353,9 @@ public class NioEndpoint extends AbstractEndpoint {
                                 "endpoint.debug.socketCloseFail"), e);
                     }
                 }
+                if (ka!=null) {
+                    ka.getSocket().free();
+                }
                 try {
                     if (ka != null && ka.getSendfileData() != null
                             && ka.getSendfileData().fchannel != null
@@ -1039,14 +1409,22 @@ public class NioEndpoint extends AbstractEndpoint {
                     }
                     try {
                         if ( !close ) {
-                            if (wakeupCounter.getAndSet(-1) > 0) {
+                            long pending = wakeupCounter.getAndSet(-1);
+                            if (pending > 0) {
                                 //if we are here, means we have other stuff to do
                                 //do a non blocking select
+                                wakeupsAvoided += pending;
                                 keyCount = selector.selectNow();
                             } else {
                                 keyCount = selector.select(selectorTimeout);
                             }
-                            wakeupCounter.set(0);
+                            //only the first event added during the select
+                            //woke the selector
+                            long added = wakeupCounter.getAndSet(0) + 1;
+                            if (added > 0) {
+                                wakeupCount++;
+                                wakeupsAvoided += added - 1;
+                            }
                         }
                         if (close) {
                             events();
@@ -1128,6 +1506,16 @@ public class NioEndpoint extends AbstractEndpoint {
                 } else if ( sk.isValid() && attachment != null ) {
                     attachment.access();//make sure we don't time out valid sockets
                     sk.attach(attachment);//cant remember why this is here
+                    TimeoutWheel.Entry<KeyAttachment> entry = attachment.timeoutEntry;
+                    if (entry != null) {
+                        // The socket may go async without being registered
+                        // again so check its timeout as often as before
+                        long recheck = attachment.getLastAccess() +
+                                socketProperties.getTimeoutInterval();
+                        if (!entry.isScheduled() || entry.getDeadline() > recheck) {
+                            timeouts.schedule(entry, recheck);
+                        }
+                    }
                     NioChannel channel = attachment.getChannel();
                     if (sk.isReadable() || sk.isWritable() ) {
                         if ( attachment.getSendfileData() != null ) {
@@ -1192,7 +1580,21 @@ public class NioEndpoint extends AbstractEndpoint {
             return result;
         }
 
-        public boolean processSendfile(SelectionKey sk, KeyAttachment attachment, boolean event) {
+        /**
+         * Write as much of the file as the socket will currently accept.
+         *
+         * @param sk                The key for the socket
+         * @param attachment        The attachment holding the sendfile data
+         * @param calledByProcessor <code>true</code> if called by the
+         *                          processor rather than the Poller. The
+         *                          processor is then responsible for
+         *                          continuing (keep-alive) or closing the
+         *                          connection unless the result is
+         *                          {@link SendfileState#PENDING}.
+         * @return The state of the sendfile once this write attempt completes
+         */
+        public SendfileState processSendfile(SelectionKey sk,
+                KeyAttachment attachment, boolean calledByProcessor) {
             NioChannel sc = null;
             try {
                 unreg(sk, attachment, sk.readyOps());
@@ -1206,8 +1608,10 @@ public class NioEndpoint extends AbstractEndpoint {
                 if ( sd.fchannel == null ) {
                     File f = new File(sd.fileName);
                     if ( !f.exists() ) {
-                        cancelledKey(sk,SocketStatus.ERROR);
-                        return false;
+                        if (!calledByProcessor) {
+                            cancelledKey(sk,SocketStatus.ERROR);
+                        }
+                        return SendfileState.ERROR;
                     }
                     @SuppressWarnings("resource") // Closed when channel is closed
                     FileInputStream fis = new FileInputStream(f);
@@ -1218,18 +1622,36 @@ public class NioEndpoint extends AbstractEndpoint {
                 sc = attachment.getChannel();
                 sc.setSendFile(true);
                 //ssl channel is slightly different
-                WritableByteChannel wc = ((sc instanceof SecureNioChannel)?sc:sc.getIOChannel());
+                boolean secure = sc instanceof SecureNioChannel;
+                WritableByteChannel wc = (secure ? sc : sc.getIOChannel());
 
                 //we still have data in the buffer
+                boolean blocked = false;
                 if (sc.getOutboundRemaining()>0) {
                     if (sc.flushOutbound()) {
                         attachment.access();
                     }
-                } else {
-                    long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
+                    blocked = sc.getOutboundRemaining() > 0;
+                }
+
+                // Keep writing until the socket will accept no more. For TLS
+                // the data has to be encrypted on this thread so limit the
+                // amount written in one go to be fair to the other sockets
+                // handled by this Poller.
+                long secureLimit = SENDFILE_SECURE_WRITE_LIMIT;
+                while (!blocked && sd.length > 0) {
+                    long count = sd.length;
+                    if (secure) {
+                        if (secureLimit <= 0) {
+                            break;
+                        }
+                        count = Math.min(count, secureLimit);
+                    }
+                    long written = sd.fchannel.transferTo(sd.pos,count,wc);
                     if ( written > 0 ) {
                         sd.pos += written;
                         sd.length -= written;
+                        secureLimit -= written;
                         attachment.access();
                     } else {
                         // Unusual not to be able to transfer any bytes
@@ -1239,7 +1661,9 @@ public class NioEndpoint extends AbstractEndpoint {
                                     "send more data than was available");
                         }
                     }
+                    blocked = written < count || sc.getOutboundRemaining() > 0;
                 }
+
                 if ( sd.length <= 0 && sc.getOutboundRemaining()<=0) {
                     if (log.isDebugEnabled()) {
                         log.debug("Send file complete for: "+sd.fileName);
@@ -1249,44 +1673,48 @@ public class NioEndpoint extends AbstractEndpoint {
                         sd.fchannel.close();
                     } catch (Exception ignore) {
                     }
-                    if ( sd.keepAlive ) {
+                    // When called by the processor, the processor continues
+                    // with the keep-alive loop (or closes the connection)
+                    if (!calledByProcessor) {
+                        if ( sd.keepAlive ) {
                             if (log.isDebugEnabled()) {
                                 log.debug("Connection is keep alive, registering back for OP_READ");
                             }
-                            if (event) {
-                                this.add(attachment.getChannel(),SelectionKey.OP_READ);
-                            } else {
-                                reg(sk,attachment,SelectionKey.OP_READ);
+                            reg(sk,attachment,SelectionKey.OP_READ);
+                        } else {
+                            if (log.isDebugEnabled()) {
+                                log.debug("Send file connection is being closed");
                             }
-                    } else {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Send file connection is being closed");
+                            cancelledKey(sk,SocketStatus.STOP);
                         }
-                        cancelledKey(sk,SocketStatus.STOP);
-                        return false;
                     }
+                    return SendfileState.DONE;
                 } else {
                     if (log.isDebugEnabled()) {
                         log.debug("OP_WRITE for sendfile: " + sd.fileName);
                     }
-                    if (event) {
+                    if (calledByProcessor) {
                         add(attachment.getChannel(),SelectionKey.OP_WRITE);
                     } else {
                         reg(sk,attachment,SelectionKey.OP_WRITE);
                     }
+                    return SendfileState.PENDING;
                 }
             }catch ( IOException x ) {
                 if ( log.isDebugEnabled() ) log.debug("Unable to complete sendfile request:", x);
-                cancelledKey(sk,SocketStatus.ERROR);
-                return false;
+                if (!calledByProcessor) {
+                    cancelledKey(sk,SocketStatus.ERROR);
+                }
+                return SendfileState.ERROR;
             }catch ( Throwable t ) {
                 log.error("",t);
-                cancelledKey(sk, SocketStatus.ERROR);
-                return false;
+                if (!calledByProcessor) {
+                    cancelledKey(sk, SocketStatus.ERROR);
+                }
+                return SendfileState.ERROR;
             }finally {
                 if (sc!=null) sc.setSendFile(false);
             }
-            return true;
         }
 
         protected void unreg(SelectionKey sk, KeyAttachment attachment, int readyOps) {
@@ -1300,7 +1728,55 @@ public class NioEndpoint extends AbstractEndpoint {
             attachment.setCometOps(intops);
         }
 
+        /**
+         * Schedule the check of the timeout of a socket that has just been
+         * registered with the poller or registered for a new event. A socket
+         * that is already scheduled is only moved if its new deadline is
+         * earlier. Must be called by the poller thread.
+         *
+         * @param ka        The socket
+         * @param register  <code>true</code> if the socket has just been
+         *                  registered with the poller
+         */
+        protected void scheduleTimeout(KeyAttachment ka, boolean register) {
+            TimeoutWheel.Entry<KeyAttachment> entry = ka.timeoutEntry;
+            if (register || entry == null) {
+                // Attachments are recycled and the entry used by the previous
+                // connection may still be in the wheel of another poller
+                entry = new TimeoutWheel.Entry<>(ka);
+                ka.timeoutEntry = entry;
+            }
+            if (ka.getCometNotify()) {
+                notifications.add(ka);
+            }
+            long deadline;
+            if (ka.getTimeout() > 0) {
+                deadline = ka.getLastAccess() + ka.getTimeout() + 1;
+            } else {
+                deadline = System.currentTimeMillis() +
+                        socketProperties.getTimeoutInterval();
+            }
+            if (!entry.isScheduled() || deadline < entry.getDeadline()) {
+                timeouts.schedule(entry, deadline);
+            }
+        }
+
         protected void timeout(int keyCount, boolean hasEvents) {
+            // Callbacks are not delayed
+            if (notifications.size() > 0 && !close) {
+                for (int i = 0; i < notifications.size(); i++) {
+                    KeyAttachment ka = notifications.get(i);
+                    SelectionKey key = getKey(ka);
+                    if (key != null && ka.getCometNotify()) {
+                        try {
+                            processCometNotify(key, ka);
+                        } catch (CancelledKeyException ckx) {
+                            cancelledKey(key, SocketStatus.ERROR);
+                        }
+                    }
+                }
+                notifications.clear();
+            }
             long now = System.currentTimeMillis();
             // This method is called on every loop of the Poller. Don't process
             // timeouts on every loop of the Poller since that would create too
@@ -1312,71 +1788,150 @@ public class NioEndpoint extends AbstractEndpoint {
             if (nextExpiration > 0 && (keyCount > 0 || hasEvents) && (now < nextExpiration) && !close) {
                 return;
             }
-            //timeout
-            Set<SelectionKey> keys = selector.keys();
             int keycount = 0;
-            for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
-                SelectionKey key = iter.next();
-                keycount++;
-                try {
-                    KeyAttachment ka = (KeyAttachment) key.attachment();
-                    if ( ka == null ) {
-                        cancelledKey(key, SocketStatus.ERROR); //we don't support any keys without attachments
-                    } else if ( ka.getError() ) {
-                        cancelledKey(key, SocketStatus.ERROR);//TODO this is not yet being used
-                    } else if (ka.getCometNotify() ) {
-                        ka.setCometNotify(false);
-                        int ops = ka.interestOps() & ~OP_CALLBACK;
-                        reg(key,ka,0);//avoid multiple calls, this gets re-registered after invocation
-                        ka.interestOps(ops);
-                        if (!processSocket(ka.getChannel(), SocketStatus.OPEN_READ, true)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT, true);
-                    } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
-                              (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-                        //only timeout sockets that we are waiting for a read from
-                        long delta = now - ka.getLastAccess();
-                        long timeout = ka.getTimeout();
-                        boolean isTimedout = timeout > 0 && delta > timeout;
-                        if ( close ) {
-                            key.interestOps(0);
-                            ka.interestOps(0); //avoid duplicate stop calls
-                            processKey(key,ka);
-                        } else if (isTimedout) {
-                            key.interestOps(0);
-                            ka.interestOps(0); //avoid duplicate timeout calls
-                            cancelledKey(key, SocketStatus.TIMEOUT);
-                        }
-                    } else if (ka.isAsync() || ka.getComet()) {
-                        if (close) {
+            if (close) {
+                // Stop every socket that is waiting for an event
+                Set<SelectionKey> keys = selector.keys();
+                for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
+                    SelectionKey key = iter.next();
+                    keycount++;
+                    try {
+                        KeyAttachment ka = (KeyAttachment) key.attachment();
+                        if ( ka == null ) {
+                            cancelledKey(key, SocketStatus.ERROR); //we don't support any keys without attachments
+                        } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
+                                (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE ||
+                                ka.isAsync() || ka.getComet()) {
                             key.interestOps(0);
                             ka.interestOps(0); //avoid duplicate stop calls
                             processKey(key,ka);
-                        } else if (!ka.isAsync() || ka.getTimeout() > 0) {
-                            // Async requests with a timeout of 0 or less never timeout
-                            long delta = now - ka.getLastAccess();
-                            long timeout = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
-                            boolean isTimedout = delta > timeout;
-                            if (isTimedout) {
-                                // Prevent subsequent timeouts if the timeout event takes a while to process
-                                ka.access(Long.MAX_VALUE);
-                                processSocket(ka.getChannel(), SocketStatus.TIMEOUT, true);
-                            }
                         }
-                    }//end if
-                }catch ( CancelledKeyException ckx ) {
-                    cancelledKey(key, SocketStatus.ERROR);
+                    }catch ( CancelledKeyException ckx ) {
+                        cancelledKey(key, SocketStatus.ERROR);
+                    }
+                }//for
+            } else {
+                // Only the sockets whose deadline has passed are checked
+                timeouts.expire(now, expired);
+                keycount = expired.size();
+                for (int i = 0; i < keycount; i++) {
+                    processTimeout(expired.get(i), now);
                 }
-            }//for
+                expired.clear();
+            }
             long prevExp = nextExpiration; //for logging purposes only
             nextExpiration = System.currentTimeMillis() +
                     socketProperties.getTimeoutInterval();
             if (log.isTraceEnabled()) {
                 log.trace("timeout completed: keys processed=" + keycount +
+                        "; keys scheduled=" + timeouts.size() +
                         "; now=" + now + "; nextExpiration=" + prevExp +
                         "; keyCount=" + keyCount + "; hasEvents=" + hasEvents +
                         "; eval=" + ((now < prevExp) && (keyCount>0 || hasEvents) && (!close) ));
             }
 
         }
+
+        /**
+         * Check the timeout of a socket whose entry expired and schedule the
+         * next check if the socket is still registered with the poller.
+         */
+        private void processTimeout(TimeoutWheel.Entry<KeyAttachment> entry,
+                long now) {
+            KeyAttachment ka = entry.getValue();
+            if (ka.timeoutEntry != entry) {
+                // The attachment has been recycled
+                return;
+            }
+            SelectionKey key = getKey(ka);
+            if (key == null) {
+                return;
+            }
+            long next;
+            try {
+                next = checkTimeout(key, ka, now);
+            } catch (CancelledKeyException ckx) {
+                cancelledKey(key, SocketStatus.ERROR);
+                return;
+            }
+            if (next > 0) {
+                timeouts.schedule(entry, next);
+            }
+        }
+
+        /**
+         * @return the key of the socket if it is still registered with this
+         *         poller, otherwise <code>null</code>
+         */
+        private SelectionKey getKey(KeyAttachment ka) {
+            NioChannel channel = ka.getSocket();
+            if (channel == null) {
+                return null;
+            }
+            SelectionKey key = channel.getIOChannel().keyFor(selector);
+            if (key == null || !key.isValid() || key.attachment() != ka) {
+                // The socket has been closed
+                return null;
+            }
+            return key;
+        }
+
+        private void processCometNotify(SelectionKey key, KeyAttachment ka) {
+            ka.setCometNotify(false);
+            int ops = ka.interestOps() & ~OP_CALLBACK;
+            reg(key,ka,0);//avoid multiple calls, this gets re-registered after invocation
+            ka.interestOps(ops);
+            if (!processSocket(ka.getChannel(), SocketStatus.OPEN_READ, true)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT, true);
+        }
+
+        /**
+         * Check the timeout of a socket.
+         *
+         * @return the time at which the timeout of the socket must next be
+         *         checked or -1 if it no longer needs to be checked until the
+         *         socket is registered for an event again
+         */
+        protected long checkTimeout(SelectionKey key, KeyAttachment ka, long now) {
+            long recheck = now + socketProperties.getTimeoutInterval();
+            if ( ka.getError() ) {
+                cancelledKey(key, SocketStatus.ERROR);//TODO this is not yet being used
+                return -1;
+            } else if (ka.getCometNotify() ) {
+                processCometNotify(key, ka);
+            } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
+                      (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                //only timeout sockets that we are waiting for a read from
+                long timeout = ka.getTimeout();
+                if (timeout <= 0) {
+                    return -1;
+                }
+                long lastAccess = ka.getLastAccess();
+                if (now - lastAccess > timeout) {
+                    key.interestOps(0);
+                    ka.interestOps(0); //avoid duplicate timeout calls
+                    cancelledKey(key, SocketStatus.TIMEOUT);
+                    return -1;
+                } else if (lastAccess <= now) {
+                    return lastAccess + timeout + 1;
+                }
+            } else if (ka.isAsync() || ka.getComet()) {
+                if (!ka.isAsync() || ka.getTimeout() > 0) {
+                    // Async requests with a timeout of 0 or less never timeout
+                    long lastAccess = ka.getLastAccess();
+                    long timeout = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
+                    boolean isTimedout = now - lastAccess > timeout;
+                    if (isTimedout) {
+                        // Prevent subsequent timeouts if the timeout event takes a while to process
+                        ka.access(Long.MAX_VALUE);
+                        processSocket(ka.getChannel(), SocketStatus.TIMEOUT, true);
+                    } else if (lastAccess <= now && timeout > 0) {
+                        return lastAccess + timeout + 1;
+                    }
+                }
+            }//end if
+            // The socket is being processed
+            return recheck;
+        }
     }
 
 // ----------------------------------------------------- Key Attachment Class
@@ -1386,6 +1941,12 @@ public class NioEndpoint extends AbstractEndpoint {
             super(channel);
         }
 
+        /**
+         * The entry tracking the timeout of the socket in the wheel of its
+         * poller. Only used by the poller threads.
+         */
+        protected volatile TimeoutWheel.Entry<KeyAttachment> timeoutEntry;
+
         public void reset(Poller poller, NioChannel channel, long soTimeout) {
             this.socket = channel;
             this.poller = poller;
@@ -1548,6 +2109,7 @@ public class NioEndpoint extends AbstractEndpoint {
                 try {
                     key = socket.getIOChannel().keyFor(socket.getPoller().getSelector());
                     int handshake = -1;
+                    boolean handshaking = !socket.isHandshakeComplete();
 
                     try {
                         if (key!=null) handshake = socket.handshake(key.isReadable(), key.isWritable());
@@ -1558,6 +2120,10 @@ public class NioEndpoint extends AbstractEndpoint {
                         handshake = -1;
                     }
                     if ( handshake == 0 ) {
+                        if (handshaking && socket instanceof SecureNioChannel) {
+                            handshakeStatistics.handshakeCompleted(System.nanoTime() -
+                                    ((SecureNioChannel) socket).getHandshakeStartTime());
+                        }
                         SocketState state = SocketState.OPEN;
                         // Process the request from this socket
                         // Suppress null warnings for key in this block since
@@ -1606,6 +2172,9 @@ public class NioEndpoint extends AbstractEndpoint {
                             keyCache.push(ka);
                         }
                         ka = null;
+                    } else if (handshake == SecureNioChannel.HANDSHAKE_TASKS_PENDING) {
+                        // The channel adds itself back to the poller once the
+                        // delegated tasks have completed
                     } else {
                         final SelectionKey fk = key;
                         final int intops = handshake;
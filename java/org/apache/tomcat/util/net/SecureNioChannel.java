@@ -23,6 +23,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -38,6 +40,13 @@ import javax.net.ssl.SSLEngineResult.Status;
 
 public class SecureNioChannel extends NioChannel  {
 
+    /**
+     * Returned by {@link #handshake(boolean, boolean)} when the delegated
+     * tasks of the SSLEngine have been passed to the task executor. The
+     * channel adds itself back to its poller once the tasks have completed.
+     */
+    public static final int HANDSHAKE_TASKS_PENDING = -2;
+
     protected ByteBuffer netInBuffer;
     protected ByteBuffer netOutBuffer;
 
@@ -51,15 +60,41 @@ public class SecureNioChannel extends NioChannel  {
 
     protected NioSelectorPool pool;
 
+    /**
+     * Executor for the delegated tasks of the SSLEngine. If
+     * <code>null</code> the tasks are run by the thread performing the
+     * handshake.
+     */
+    protected Executor taskExecutor = null;
+    protected volatile boolean tasksPending = false;
+    protected long handshakeStartTime;
+
+    /**
+     * Pool for the network buffers. If <code>null</code> the network buffers
+     * are allocated when the channel is created and held for the lifetime of
+     * the channel. Otherwise they are taken from the pool when needed and
+     * returned by {@link #releaseNetBuffers()} and {@link #free()}.
+     */
+    protected final NioBufferPool bufferPool;
+
     public SecureNioChannel(SocketChannel channel, SSLEngine engine,
                             ApplicationBufferHandler bufHandler, NioSelectorPool pool) throws IOException {
+        this(channel, engine, bufHandler, pool, null);
+    }
+
+    public SecureNioChannel(SocketChannel channel, SSLEngine engine,
+                            ApplicationBufferHandler bufHandler, NioSelectorPool pool,
+                            NioBufferPool bufferPool) throws IOException {
         super(channel,bufHandler);
         this.sslEngine = engine;
+        this.bufferPool = bufferPool;
         int appBufSize = sslEngine.getSession().getApplicationBufferSize();
-        int netBufSize = sslEngine.getSession().getPacketBufferSize();
-        //allocate network buffers - TODO, add in optional direct non-direct buffers
-        if ( netInBuffer == null ) netInBuffer = ByteBuffer.allocateDirect(netBufSize);
-        if ( netOutBuffer == null ) netOutBuffer = ByteBuffer.allocateDirect(netBufSize);
+        if (bufferPool == null) {
+            //allocate network buffers - TODO, add in optional direct non-direct buffers
+            int netBufSize = sslEngine.getSession().getPacketBufferSize();
+            netInBuffer = ByteBuffer.allocateDirect(netBufSize);
+            netOutBuffer = ByteBuffer.allocateDirect(netBufSize);
+        }
 
         //selector pool for blocking operations
         this.pool = pool;
@@ -78,13 +113,19 @@ public class SecureNioChannel extends NioChannel  {
     @Override
     public void reset() throws IOException {
         super.reset();
-        netOutBuffer.position(0);
-        netOutBuffer.limit(0);
-        netInBuffer.position(0);
-        netInBuffer.limit(0);
+        if (netOutBuffer != null) {
+            netOutBuffer.position(0);
+            netOutBuffer.limit(0);
+        }
+        if (netInBuffer != null) {
+            netInBuffer.position(0);
+            netInBuffer.limit(0);
+        }
         handshakeComplete = false;
         closed = false;
         closing = false;
+        tasksPending = false;
+        handshakeStartTime = System.nanoTime();
         //initiate handshake
         sslEngine.beginHandshake();
         handshakeStatus = sslEngine.getHandshakeStatus();
@@ -99,6 +140,76 @@ public class SecureNioChannel extends NioChannel  {
     }
 
 
+    /**
+     * Returns the network buffers to the buffer pool if they do not contain
+     * any data. Called once the connection is idle so idle connections do not
+     * hold any network buffers. Has no effect if the channel does not use a
+     * buffer pool or the handshake has not completed.
+     */
+    public synchronized void releaseNetBuffers() {
+        if (bufferPool == null || !handshakeComplete || closing) {
+            return;
+        }
+        //the input buffer is always left compacted, ready for the next read
+        if (netInBuffer != null && netInBuffer.position() == 0) {
+            bufferPool.release(netInBuffer);
+            netInBuffer = null;
+        }
+        if (netOutBuffer != null && !netOutBuffer.hasRemaining()) {
+            bufferPool.release(netOutBuffer);
+            netOutBuffer = null;
+        }
+    }
+
+    /**
+     * Returns the network buffers to the buffer pool regardless of their
+     * content. Called once the channel has been closed. The channel is marked
+     * as closed so any further I/O fails rather than taking new buffers from
+     * the pool that would never be returned.
+     */
+    @Override
+    public synchronized void free() {
+        closing = true;
+        closed = true;
+        if (bufferPool == null) {
+            return;
+        }
+        if (netInBuffer != null) {
+            bufferPool.release(netInBuffer);
+            netInBuffer = null;
+        }
+        if (netOutBuffer != null) {
+            bufferPool.release(netOutBuffer);
+            netOutBuffer = null;
+        }
+    }
+
+    /**
+     * Ensures the network input buffer is available. A buffer taken from the
+     * pool is empty and ready to be read into.
+     */
+    protected void acquireNetInBuffer() throws IOException {
+        if (netInBuffer == null) {
+            if (closed) throw new IOException("Channel is closed.");
+            netInBuffer = bufferPool.allocate(
+                    sslEngine.getSession().getPacketBufferSize());
+        }
+    }
+
+    /**
+     * Ensures the network output buffer is available. A buffer taken from the
+     * pool is empty and ready to be flushed.
+     */
+    protected void acquireNetOutBuffer() throws IOException {
+        if (netOutBuffer == null) {
+            if (closed) throw new IOException("Channel is closed.");
+            netOutBuffer = bufferPool.allocate(
+                    sslEngine.getSession().getPacketBufferSize());
+            netOutBuffer.limit(0);
+        }
+    }
+
+
 //===========================================================================================
 //                  NIO SSL METHODS
 //===========================================================================================
@@ -115,6 +226,9 @@ public class SecureNioChannel extends NioChannel  {
     @Override
     public boolean flush(boolean block, Selector s, long timeout)
             throws IOException {
+        if (netOutBuffer == null) {
+            return true;
+        }
         if (!block) {
             flush(netOutBuffer);
         } else {
@@ -140,20 +254,27 @@ public class SecureNioChannel extends NioChannel  {
     }
 
     /**
-     * Performs SSL handshake, non blocking, but performs NEED_TASK on the same thread.<br>
-     * Hence, you should never call this method using your Acceptor thread, as you would slow down
-     * your system significantly.<br>
+     * Performs SSL handshake, non blocking. NEED_TASK is performed on the same thread unless a task executor has
+     * been set. Hence, without a task executor, you should never call this method using your Acceptor thread, as you
+     * would slow down your system significantly.<br>
      * The return for this operation is 0 if the handshake is complete and a positive value if it is not complete.
      * In the event of a positive value coming back, reregister the selection key for the return values interestOps.
+     * If {@link #HANDSHAKE_TASKS_PENDING} is returned the channel will add itself to its poller once the delegated
+     * tasks have completed and must not be reregistered by the caller.
      * @param read boolean - true if the underlying channel is readable
      * @param write boolean - true if the underlying channel is writable
-     * @return int - 0 if hand shake is complete, otherwise it returns a SelectionKey interestOps value
+     * @return int - 0 if hand shake is complete, {@link #HANDSHAKE_TASKS_PENDING} if delegated tasks are running,
+     *         otherwise it returns a SelectionKey interestOps value
      * @throws IOException
      */
     @Override
     public int handshake(boolean read, boolean write) throws IOException {
         if ( handshakeComplete ) return 0; //we have done our initial handshake
 
+        if ( tasksPending ) return HANDSHAKE_TASKS_PENDING; //wait for the task executor
+
+        acquireNetInBuffer();
+        acquireNetOutBuffer();
         if (!flush(netOutBuffer)) return SelectionKey.OP_WRITE; //we still have data to write
 
         SSLEngineResult handshake = null;
@@ -174,8 +295,8 @@ public class SecureNioChannel extends NioChannel  {
                     //perform the wrap function
                     handshake = handshakeWrap(write);
                     if ( handshake.getStatus() == Status.OK ){
-                        if (handshakeStatus == HandshakeStatus.NEED_TASK)
-                            handshakeStatus = tasks();
+                        if (handshakeStatus == HandshakeStatus.NEED_TASK && dispatchTasks())
+                            return HANDSHAKE_TASKS_PENDING;
                     } else {
                         //wrap should always work with our buffers
                         throw new IOException("Unexpected status:" + handshake.getStatus() + " during handshake WRAP.");
@@ -192,8 +313,8 @@ public class SecureNioChannel extends NioChannel  {
                     //perform the unwrap function
                     handshake = handshakeUnwrap(read);
                     if ( handshake.getStatus() == Status.OK ) {
-                        if (handshakeStatus == HandshakeStatus.NEED_TASK)
-                            handshakeStatus = tasks();
+                        if (handshakeStatus == HandshakeStatus.NEED_TASK && dispatchTasks())
+                            return HANDSHAKE_TASKS_PENDING;
                     } else if ( handshake.getStatus() == Status.BUFFER_UNDERFLOW ){
                         //read more data, reregister for OP_READ
                         return SelectionKey.OP_READ;
@@ -203,7 +324,7 @@ public class SecureNioChannel extends NioChannel  {
                     break;
                 }
                 case NEED_TASK: {
-                    handshakeStatus = tasks();
+                    if (dispatchTasks()) return HANDSHAKE_TASKS_PENDING;
                     break;
                 }
                 default: throw new IllegalStateException("Invalid handshake status:"+handshakeStatus);
@@ -225,8 +346,8 @@ public class SecureNioChannel extends NioChannel  {
     @SuppressWarnings("null") // key cannot be null
     public void rehandshake(long timeout) throws IOException {
         //validate the network buffers are empty
-        if (netInBuffer.position() > 0 && netInBuffer.position()<netInBuffer.limit()) throw new IOException("Network input buffer still contains data. Handshake will fail.");
-        if (netOutBuffer.position() > 0 && netOutBuffer.position()<netOutBuffer.limit()) throw new IOException("Network output buffer still contains data. Handshake will fail.");
+        if (netInBuffer != null && netInBuffer.position() > 0 && netInBuffer.position()<netInBuffer.limit()) throw new IOException("Network input buffer still contains data. Handshake will fail.");
+        if (netOutBuffer != null && netOutBuffer.position() > 0 && netOutBuffer.position()<netOutBuffer.limit()) throw new IOException("Network output buffer still contains data. Handshake will fail.");
         if (getBufHandler().getReadBuffer().position()>0 && getBufHandler().getReadBuffer().position()<getBufHandler().getReadBuffer().limit()) throw new IOException("Application input buffer still contains data. Data would have been lost.");
         if (getBufHandler().getWriteBuffer().position()>0 && getBufHandler().getWriteBuffer().position()<getBufHandler().getWriteBuffer().limit()) throw new IOException("Application output buffer still contains data. Data would have been lost.");
         reset();
@@ -235,6 +356,9 @@ public class SecureNioChannel extends NioChannel  {
         boolean handshaking = true;
         Selector selector = null;
         SelectionKey key = null;
+        //this is a blocking handshake so run any tasks on this thread
+        Executor executor = taskExecutor;
+        taskExecutor = null;
         try {
             while (handshaking) {
                 int hsStatus = this.handshake(isReadable, isWriteable);
@@ -269,6 +393,7 @@ public class SecureNioChannel extends NioChannel  {
             IOException x = new IOException(cx);
             throw x;
         } finally {
+            taskExecutor = executor;
             if (key!=null) try {key.cancel();} catch (Exception ignore) {}
             if (selector!=null) try {selector.close();} catch (Exception ignore) {}
         }
@@ -288,6 +413,27 @@ public class SecureNioChannel extends NioChannel  {
         return sslEngine.getHandshakeStatus();
     }
 
+    /**
+     * Runs the delegated tasks needed to continue the handshake, using the
+     * task executor if one has been set. If the executor rejects the tasks,
+     * they are run on the current thread.
+     * @return boolean - true if the tasks have been passed to the executor,
+     *         false if they have been run and the handshake status updated
+     */
+    protected boolean dispatchTasks() {
+        if (taskExecutor != null) {
+            tasksPending = true;
+            try {
+                taskExecutor.execute(new DelegatedTasks());
+                return true;
+            } catch (RejectedExecutionException x) {
+                tasksPending = false;
+            }
+        }
+        handshakeStatus = tasks();
+        return false;
+    }
+
     /**
      * Performs the WRAP function
      * @param doWrite boolean
@@ -339,8 +485,10 @@ public class SecureNioChannel extends NioChannel  {
             //read in the status
             handshakeStatus = result.getHandshakeStatus();
             if ( result.getStatus() == SSLEngineResult.Status.OK &&
-                 result.getHandshakeStatus() == HandshakeStatus.NEED_TASK ) {
-                //execute tasks if we need to
+                 result.getHandshakeStatus() == HandshakeStatus.NEED_TASK &&
+                 taskExecutor == null ) {
+                //execute tasks if we need to, otherwise leave them to
+                //handshake() to pass to the executor
                 handshakeStatus = tasks();
             }
             //perform another unwrap?
@@ -367,6 +515,7 @@ public class SecureNioChannel extends NioChannel  {
         if (closing) return;
         closing = true;
         sslEngine.closeOutbound();
+        acquireNetOutBuffer();
 
         if (!flush(netOutBuffer)) {
             throw new IOException("Remaining data in the network buffer, can't send SSL close message, force a close with close(true) instead");
@@ -424,6 +573,7 @@ public class SecureNioChannel extends NioChannel  {
         //did we finish our handshake?
         if (!handshakeComplete) throw new IllegalStateException("Handshake incomplete, you must complete handshake before reading data.");
 
+        acquireNetInBuffer();
         //read from the network
         int netread = sc.read(netInBuffer);
         //did we reach EOF? if so send EOF up one layer.
@@ -486,6 +636,7 @@ public class SecureNioChannel extends NioChannel  {
             //the number of bytes written
             int written = 0;
 
+            acquireNetOutBuffer();
             if (!flush(netOutBuffer)) {
                 //we haven't emptied out the buffer yet
                 return written;
@@ -515,11 +666,14 @@ public class SecureNioChannel extends NioChannel  {
 
     @Override
     public int getOutboundRemaining() {
-        return netOutBuffer.remaining();
+        return netOutBuffer == null ? 0 : netOutBuffer.remaining();
     }
 
     @Override
     public boolean flushOutbound() throws IOException {
+        if (netOutBuffer == null) {
+            return false;
+        }
         int remaining = netOutBuffer.remaining();
         flush(netOutBuffer);
         int remaining2= netOutBuffer.remaining();
@@ -527,6 +681,44 @@ public class SecureNioChannel extends NioChannel  {
     }
 
 
+    /**
+     * Runs the delegated tasks on the task executor and then adds the
+     * channel back to its poller so the handshake can continue.
+     */
+    protected class DelegatedTasks implements Runnable {
+        //the connection the tasks were dispatched for, since the channel may
+        //be closed and recycled for another connection while they run
+        private final SocketChannel socket = sc;
+        private final Object attachment = getAttachment(false);
+
+        @Override
+        public void run() {
+            try {
+                handshakeStatus = tasks();
+            } finally {
+                tasksPending = false;
+                //the network buffer may still hold data to write, and the
+                //channel is almost always writable, so this resumes the
+                //handshake without waiting for more data from the client
+                if (isSameConnection()) {
+                    getPoller().add(SecureNioChannel.this, SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        private boolean isSameConnection() {
+            if (closing || closed || sc != socket || !socket.isOpen()) {
+                return false;
+            }
+            if (attachment instanceof SocketWrapper<?> &&
+                    ((SocketWrapper<?>) attachment).getSocket() != SecureNioChannel.this) {
+                return false;
+            }
+            return getAttachment(false) == attachment;
+        }
+    }
+
+
     /**
      * Callback interface to be able to expand buffers
      * when buffer overflow exceptions happen
@@ -556,6 +748,22 @@ public class SecureNioChannel extends NioChannel  {
         return sslEngine;
     }
 
+    public Executor getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    public void setTaskExecutor(Executor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * @return The value of {@link System#nanoTime()} when the current
+     *         handshake started
+     */
+    public long getHandshakeStartTime() {
+        return handshakeStartTime;
+    }
+
     public ByteBuffer getEmptyBuf() {
         return emptyBuf;
     }
@@ -101,6 +101,16 @@ public class SocketProperties {
      */
     protected int bufferPoolSize = 1024*1024*100;
 
+    /**
+     * Size in bytes of the pool of direct buffers shared by the network
+     * buffers of TLS connections. Connections only hold network buffers
+     * while data is in flight.
+     * -1 means unlimited, 0 means no pool, every connection holds its own
+     * network buffers
+     * Default value is 0 (no pool)
+     */
+    protected int sslBufferPoolSize = 0;
+
     /**
      * TCP_NO_DELAY option. JVM default used if not set.
      */
@@ -275,6 +285,10 @@ public class SocketProperties {
         return bufferPoolSize;
     }
 
+    public int getSslBufferPoolSize() {
+        return sslBufferPoolSize;
+    }
+
     public int getEventCache() {
         return eventCache;
     }
@@ -364,6 +378,10 @@ public class SocketProperties {
         this.bufferPoolSize = bufferPoolSize;
     }
 
+    public void setSslBufferPoolSize(int sslBufferPoolSize) {
+        this.sslBufferPoolSize = sslBufferPoolSize;
+    }
+
     public void setEventCache(int eventCache) {
         this.eventCache = eventCache;
     }
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.List;
+
+/**
+ * A hashed timing wheel used by the pollers to track socket timeouts. Each
+ * entry is hashed into the slot of the tick in which its deadline falls so
+ * scheduling, cancelling and moving an entry are constant time operations and
+ * expiring entries only visits the slots of the ticks that elapsed since the
+ * previous call. Deadlines further away than one revolution of the wheel stay
+ * in their slot until the revolution in which they fall.
+ * <p>
+ * This class is not thread safe. It is meant to be used by a single poller
+ * thread.
+ *
+ * @param <T> The type of the values tracked by the wheel
+ */
+public class TimeoutWheel<T> {
+
+    /**
+     * The default duration of a tick in milliseconds.
+     */
+    public static final long DEFAULT_TICK = 100;
+
+    /**
+     * The default number of slots of the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+
+    private final long tick;
+    private final int mask;
+    private final Entry<T>[] wheel;
+
+    /**
+     * The next tick to process. All the slots of the ticks before this one
+     * have been expired.
+     */
+    private long currentTick;
+    private int size = 0;
+
+
+    /**
+     * Create a wheel using the default tick and size.
+     *
+     * @param now   The current time in milliseconds
+     */
+    public TimeoutWheel(long now) {
+        this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE, now);
+    }
+
+
+    /**
+     * Create a wheel.
+     *
+     * @param tick      The duration of a tick in milliseconds
+     * @param wheelSize The number of slots. Rounded up to a power of two.
+     * @param now       The current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public TimeoutWheel(long tick, int wheelSize, long now) {
+        if (tick <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int slots = Integer.highestOneBit(wheelSize);
+        if (slots < wheelSize) {
+            slots <<= 1;
+        }
+        this.tick = tick;
+        this.mask = slots - 1;
+        this.wheel = (Entry<T>[]) new Entry<?>[slots];
+        this.currentTick = now / tick;
+    }
+
+
+    /**
+     * Schedule an entry. An entry that is already scheduled is moved to its
+     * new deadline. A deadline in the past expires the entry on the next call
+     * to {@link #expire(long, List)} that covers a new tick.
+     *
+     * @param entry     The entry to schedule
+     * @param deadline  The time in milliseconds at which the entry expires
+     */
+    public void schedule(Entry<T> entry, long deadline) {
+        if (entry.slot >= 0) {
+            unlink(entry);
+        }
+        entry.deadline = deadline;
+        // Round up so the slot is never processed before the deadline
+        long t = deadline / tick;
+        if (t * tick < deadline) {
+            t++;
+        }
+        if (t < currentTick) {
+            t = currentTick;
+        }
+        int slot = (int) (t & mask);
+        Entry<T> head = wheel[slot];
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        wheel[slot] = entry;
+        size++;
+    }
+
+
+    /**
+     * Remove an entry from the wheel. Does nothing if the entry is not
+     * scheduled.
+     *
+     * @param entry The entry to cancel
+     */
+    public void cancel(Entry<T> entry) {
+        if (entry.slot >= 0) {
+            unlink(entry);
+        }
+    }
+
+
+    /**
+     * Remove the entries whose deadline has passed from the wheel.
+     *
+     * @param now       The current time in milliseconds
+     * @param expired   The list to which the expired entries are added
+     */
+    public void expire(long now, List<Entry<T>> expired) {
+        long nowTick = now / tick;
+        if (nowTick < currentTick) {
+            return;
+        }
+        long ticks = Math.min(nowTick - currentTick + 1, mask + 1);
+        for (long i = 0; i < ticks; i++) {
+            Entry<T> entry = wheel[(int) ((currentTick + i) & mask)];
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                if (entry.deadline <= now) {
+                    unlink(entry);
+                    expired.add(entry);
+                }
+                entry = next;
+            }
+        }
+        currentTick = nowTick + 1;
+    }
+
+
+    /**
+     * @return The number of scheduled entries
+     */
+    public int size() {
+        return size;
+    }
+
+
+    private void unlink(Entry<T> entry) {
+        if (entry.prev == null) {
+            wheel[entry.slot] = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.slot = -1;
+        size--;
+    }
+
+
+    // ---------------------------------------------------- Entry Inner Class
+
+
+    /**
+     * A value tracked by the wheel. An entry belongs to at most one wheel.
+     *
+     * @param <T> The type of the value
+     */
+    public static class Entry<T> {
+
+        private final T value;
+        private long deadline;
+        private int slot = -1;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        public Entry(T value) {
+            this.value = value;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return The deadline the entry was last scheduled with
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+}
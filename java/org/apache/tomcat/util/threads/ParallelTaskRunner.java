@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.tomcat.util.ExceptionUtils;
+
+/**
+ * Runs a list of independent tasks using an executor that may also be running
+ * the calling thread.
+ * <p>
+ * The calling thread always takes part in running the tasks and will run all
+ * of them itself if no other thread becomes available. This makes it safe to
+ * use, for example, a container's start/stop executor from a thread that is
+ * itself starting a child of that container: waiting for the executor to run
+ * the tasks could otherwise deadlock if the executor has no idle threads.
+ */
+public class ParallelTaskRunner {
+
+    private ParallelTaskRunner() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    /**
+     * Run all of the given tasks and wait for them to complete.
+     *
+     * @param executor      The executor to use for additional threads. If
+     *                      <code>null</code> all tasks are run by the calling
+     *                      thread.
+     * @param parallelism   The maximum number of threads (including the calling
+     *                      thread) that may run tasks concurrently
+     * @param tasks         The tasks to run
+     *
+     * @throws InterruptedException if the calling thread is interrupted whilst
+     *                              waiting for tasks being run by other threads
+     *                              to complete
+     */
+    public static void run(ExecutorService executor, int parallelism,
+            List<? extends Runnable> tasks) throws InterruptedException {
+
+        Worker worker = new Worker(tasks);
+
+        int helpers = Math.min(parallelism, tasks.size()) - 1;
+        if (executor != null) {
+            try {
+                for (int i = 0; i < helpers; i++) {
+                    executor.execute(worker);
+                }
+            } catch (RejectedExecutionException e) {
+                // The calling thread will run the tasks
+            }
+        }
+
+        worker.run();
+        worker.await();
+    }
+
+
+    private static class Worker implements Runnable {
+
+        private final List<? extends Runnable> tasks;
+        private final AtomicInteger next = new AtomicInteger(0);
+        private final CountDownLatch completed;
+        private final AtomicReference<Throwable> failure =
+                new AtomicReference<>();
+
+        public Worker(List<? extends Runnable> tasks) {
+            this.tasks = tasks;
+            this.completed = new CountDownLatch(tasks.size());
+        }
+
+        @Override
+        public void run() {
+            int index;
+            while ((index = next.getAndIncrement()) < tasks.size()) {
+                try {
+                    tasks.get(index).run();
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    failure.compareAndSet(null, t);
+                } finally {
+                    completed.countDown();
+                }
+            }
+        }
+
+        public void await() throws InterruptedException {
+            completed.await();
+            Throwable t = failure.get();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.xml.processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A persistent index of the class files in JARs that have class level
+ * annotations. When a JAR has not changed since it was last scanned, only the
+ * class files listed in the index need to be parsed when processing the JAR
+ * for annotations. A JAR is considered to be unchanged if its size and last
+ * modified time are unchanged.
+ * <p>
+ * The index only records class level annotations so it can not be used when
+ * a JAR also needs to be scanned for classes that extend or implement a type
+ * listed in a {@link javax.servlet.annotation.HandlesTypes} annotation.
+ * <p>
+ * Only the JARs that were looked up or added since the index was loaded are
+ * written back when the index is saved so JARs that have been removed from the
+ * web application are also removed from the index.
+ */
+public class AnnotationScanIndex {
+
+    private static final Log log = LogFactory.getLog(AnnotationScanIndex.class);
+
+    /**
+     * The string resources for this package.
+     */
+    protected static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    private static final int VERSION = 1;
+
+    private static final String[] NO_ENTRIES = new String[0];
+
+    private final File file;
+
+    private final Map<String,Entry> loaded = new ConcurrentHashMap<>();
+    private final Map<String,Entry> current = new ConcurrentHashMap<>();
+
+
+    /**
+     * Create an index that is stored in the given file. Any existing content
+     * is loaded from the file.
+     *
+     * @param file  The file that holds the index
+     */
+    public AnnotationScanIndex(File file) {
+        this.file = file;
+        load();
+    }
+
+
+    /**
+     * Obtain the names of the class file entries that have class level
+     * annotations for the given JAR.
+     *
+     * @param jarFile   The JAR
+     * @return  The names of the entries or <code>null</code> if the JAR is not
+     *          in the index or has changed since it was indexed
+     */
+    public String[] getAnnotatedEntries(File jarFile) {
+        String key = jarFile.getAbsolutePath();
+        Entry entry = loaded.get(key);
+        if (entry == null || entry.size != jarFile.length() ||
+                entry.lastModified != jarFile.lastModified()) {
+            return null;
+        }
+        current.put(key, entry);
+        return entry.annotatedEntries;
+    }
+
+
+    /**
+     * Record the names of the class file entries that have class level
+     * annotations for the given JAR.
+     *
+     * @param jarFile           The JAR
+     * @param annotatedEntries  The names of the entries
+     */
+    public void setAnnotatedEntries(File jarFile, String[] annotatedEntries) {
+        current.put(jarFile.getAbsolutePath(), new Entry(jarFile.length(),
+                jarFile.lastModified(), annotatedEntries));
+    }
+
+
+    /**
+     * Write the index to the file it was loaded from.
+     */
+    public void save() {
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            dos.writeInt(VERSION);
+            dos.writeInt(current.size());
+            for (Map.Entry<String,Entry> mapEntry : current.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                dos.writeUTF(mapEntry.getKey());
+                dos.writeLong(entry.size);
+                dos.writeLong(entry.lastModified);
+                dos.writeInt(entry.annotatedEntries.length);
+                for (String annotatedEntry : entry.annotatedEntries) {
+                    dos.writeUTF(annotatedEntry);
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString("annotationScanIndex.saveFail", file), ioe);
+            if (!tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+            return;
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            log.warn(sm.getString("annotationScanIndex.saveFail", file));
+        }
+    }
+
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        // Every string takes at least two bytes. Larger counts can only come
+        // from a damaged index.
+        long maxCount = file.length() / 2;
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != VERSION) {
+                return;
+            }
+            int count = readCount(dis, maxCount);
+            for (int i = 0; i < count; i++) {
+                String key = dis.readUTF();
+                long size = dis.readLong();
+                long lastModified = dis.readLong();
+                int entryCount = readCount(dis, maxCount);
+                String[] annotatedEntries;
+                if (entryCount == 0) {
+                    annotatedEntries = NO_ENTRIES;
+                } else {
+                    annotatedEntries = new String[entryCount];
+                    for (int j = 0; j < entryCount; j++) {
+                        annotatedEntries[j] = dis.readUTF();
+                    }
+                }
+                loaded.put(key, new Entry(size, lastModified, annotatedEntries));
+            }
+        } catch (IOException ioe) {
+            // Treat a damaged index as empty. Every JAR will be scanned.
+            loaded.clear();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("annotationScanIndex.loadFail", file),
+                        ioe);
+            }
+        }
+    }
+
+
+    private static int readCount(DataInputStream dis, long maxCount)
+            throws IOException {
+        int count = dis.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException(sm.getString(
+                    "annotationScanIndex.invalidCount", Integer.valueOf(count)));
+        }
+        return count;
+    }
+
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String[] annotatedEntries;
+
+        public Entry(long size, long lastModified, String[] annotatedEntries) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.annotatedEntries = annotatedEntries;
+        }
+    }
+}
@@ -4,13 +4,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import javax.servlet.annotation.HandlesTypes;
 
@@ -28,6 +31,7 @@ import org.apache.tomcat.util.bcel.classfile.JavaClass;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.scan.Jar;
 import org.apache.tomcat.util.scan.JarFactory;
+import org.apache.tomcat.util.threads.ParallelTaskRunner;
 import org.apache.tomcat.util.xml.FilterDef;
 import org.apache.tomcat.util.xml.FilterMap;
 import org.apache.tomcat.util.xml.ServletDef;
@@ -70,6 +74,26 @@ public class AnnotationsProcessor {
         ClassParser parser = new ClassParser(is, null);
         JavaClass clazz = parser.parse();
 
+        processAnnotationsClass(clazz, fragment, handlesTypesProcessor,
+                handlesTypesOnly);
+    }
+
+    /**
+     * Processes the given parsed class for annotations and stores the result
+     * in the given <code>WebXml</code>. This allows class files to be parsed
+     * concurrently while their annotations are still processed in a
+     * predictable order.
+     *
+     * @param clazz The parsed class
+     * @param fragment Representation of web application deployment descriptor where
+     *        the annotations data will be stored
+     * @param handlesTypesProcessor Processor that will check for {@link HandlesTypes}
+     * @param handlesTypesOnly Specifies whether the metadata is complete
+     */
+    public static void processAnnotationsClass(JavaClass clazz,
+            WebXml fragment, IHandlesTypesProcessor handlesTypesProcessor,
+            boolean handlesTypesOnly) {
+
         if (handlesTypesProcessor != null) {
             handlesTypesProcessor.checkHandlesTypes(clazz);
         }
@@ -419,17 +443,60 @@ public class AnnotationsProcessor {
      */
     public static void processAnnotations(Set<WebXml> fragments,
             IHandlesTypesProcessor handlesTypesProcessor, boolean handlesTypesOnly) {
-        for(WebXml fragment : fragments) {
-            WebXml annotations = new WebXml();
-            // no impact on distributable
-            annotations.setDistributable(true);
-            URL url = fragment.getURL();
-            processAnnotationsUrl(url, annotations, handlesTypesProcessor,
-                    (handlesTypesOnly || fragment.isMetadataComplete()));
-            Set<WebXml> set = new HashSet<>();
-            set.add(annotations);
-            // Merge annotations into fragment - fragment takes priority
-            fragment.merge(set);
+        processAnnotations(fragments, handlesTypesProcessor, handlesTypesOnly,
+                null, 1, null);
+    }
+
+
+    /**
+     * Processes the given <code>Set</code> with fragments for annotations and
+     * stores the result in the corresponding <code>WebXml</code>. Each
+     * fragment is processed independently so the fragments may be processed
+     * concurrently. The <code>IHandlesTypesProcessor</code> must therefore be
+     * thread safe if more than one thread is used.
+     *
+     * @param fragments The fragments to process
+     * @param handlesTypesProcessor Processor that will check for {@link HandlesTypes}
+     * @param handlesTypesOnly Specifies whether the metadata is complete
+     * @param executor The executor that provides the additional threads used
+     *        to process fragments or <code>null</code> to process all
+     *        fragments in the current thread
+     * @param parallelism The maximum number of fragments to process
+     *        concurrently
+     * @param index The index of annotated classes in JARs or <code>null</code>
+     *        if every class in every JAR must be scanned
+     */
+    public static void processAnnotations(Set<WebXml> fragments,
+            final IHandlesTypesProcessor handlesTypesProcessor,
+            final boolean handlesTypesOnly, ExecutorService executor,
+            int parallelism, final AnnotationScanIndex index) {
+
+        List<Runnable> tasks = new ArrayList<>(fragments.size());
+        for (final WebXml fragment : fragments) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    WebXml annotations = new WebXml();
+                    // no impact on distributable
+                    annotations.setDistributable(true);
+                    URL url = fragment.getURL();
+                    processAnnotationsUrl(url, annotations, handlesTypesProcessor,
+                            (handlesTypesOnly || fragment.isMetadataComplete()),
+                            index);
+                    Set<WebXml> set = new HashSet<>();
+                    set.add(annotations);
+                    // Merge annotations into fragment - fragment takes priority
+                    fragment.merge(set);
+                }
+            });
+        }
+
+        try {
+            ParallelTaskRunner.run(executor, parallelism, tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    sm.getString("annotationsProcessor.interrupted"), e);
         }
     }
 
@@ -445,14 +512,17 @@ public class AnnotationsProcessor {
      *        the annotations data will be stored
      * @param handlesTypesProcessor Processor that will check for {@link HandlesTypes}
      * @param handlesTypesOnly Specifies whether the metadata is complete
+     * @param index The index of annotated classes in JARs or <code>null</code>
      */
     protected static void processAnnotationsUrl(URL url, WebXml fragment,
-            IHandlesTypesProcessor handlesTypesProcessor, boolean handlesTypesOnly) {
+            IHandlesTypesProcessor handlesTypesProcessor, boolean handlesTypesOnly,
+            AnnotationScanIndex index) {
         if (url == null) {
             // Nothing to do.
             return;
         } else if ("jar".equals(url.getProtocol())) {
-            processAnnotationsJar(url, fragment, handlesTypesProcessor, handlesTypesOnly);
+            processAnnotationsJar(url, fragment, handlesTypesProcessor,
+                    handlesTypesOnly, index);
         } else if ("file".equals(url.getProtocol())) {
             try {
                 processAnnotationsFile(
@@ -479,16 +549,48 @@ public class AnnotationsProcessor {
      *        the annotations data will be stored
      * @param handlesTypesProcessor Processor that will check for {@link HandlesTypes}
      * @param handlesTypesOnly Specifies whether the metadata is complete
+     * @param index The index of annotated classes in JARs or <code>null</code>
+     *        if every class in the JAR must be scanned
      */
     protected static void processAnnotationsJar(URL url, WebXml fragment,
-            IHandlesTypesProcessor handlesTypesProcessor, boolean handlesTypesOnly) {
+            IHandlesTypesProcessor handlesTypesProcessor, boolean handlesTypesOnly,
+            AnnotationScanIndex index) {
 
         Jar jar = null;
         InputStream is;
 
+        File jarFile = null;
+        List<String> annotatedEntries = null;
+        if (index != null) {
+            jarFile = getJarFile(url);
+        }
+
         try {
             jar = JarFactory.newInstance(url);
 
+            if (jarFile != null) {
+                String[] entryNames = index.getAnnotatedEntries(jarFile);
+                if (entryNames != null) {
+                    // The JAR is unchanged. Only the classes that have
+                    // annotations need to be processed.
+                    for (String entryName : entryNames) {
+                        try (InputStream entryStream =
+                                jar.getInputStream(entryName)) {
+                            if (entryStream != null) {
+                                processAnnotationsStream(entryStream, fragment,
+                                        handlesTypesProcessor, handlesTypesOnly);
+                            }
+                        } catch (IOException | ClassFormatException e) {
+                            log.error(sm.getString(
+                                    "annotationsProcessor.inputStreamJar",
+                                    entryName, url), e);
+                        }
+                    }
+                    return;
+                }
+                annotatedEntries = new ArrayList<>();
+            }
+
             jar.nextEntry();
             String entryName = jar.getEntryName();
             while (entryName != null) {
@@ -496,8 +598,13 @@ public class AnnotationsProcessor {
                     is = null;
                     try {
                         is = jar.getEntryInputStream();
-                        processAnnotationsStream(
-                                is, fragment, handlesTypesProcessor, handlesTypesOnly);
+                        JavaClass clazz = new ClassParser(is, null).parse();
+                        processAnnotationsClass(clazz, fragment,
+                                handlesTypesProcessor, handlesTypesOnly);
+                        if (annotatedEntries != null &&
+                                clazz.getAnnotationEntries().length > 0) {
+                            annotatedEntries.add(entryName);
+                        }
                     } catch (IOException e) {
                         log.error(sm.getString("annotationsProcessor.inputStreamJar",
                                 entryName, url),e);
@@ -517,6 +624,10 @@ public class AnnotationsProcessor {
                 jar.nextEntry();
                 entryName = jar.getEntryName();
             }
+            if (annotatedEntries != null) {
+                index.setAnnotatedEntries(jarFile, annotatedEntries.toArray(
+                        new String[annotatedEntries.size()]));
+            }
         } catch (IOException e) {
             log.error(sm.getString("annotationsProcessor.jarFile", url), e);
         } finally {
@@ -527,6 +638,28 @@ public class AnnotationsProcessor {
     }
 
 
+    /*
+     * Obtain the file for a URL of the form jar:file:...!/ so the index can
+     * check whether the JAR has changed. Returns null for any other form of
+     * URL.
+     */
+    private static File getJarFile(URL url) {
+        String path = url.getFile();
+        if (!path.startsWith("file:") || !path.endsWith("!/")) {
+            return null;
+        }
+        try {
+            File file = new File(new URI(path.substring(0, path.length() - 2)));
+            if (file.isFile()) {
+                return file;
+            }
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            // Not a simple file URL - don't use the index
+        }
+        return null;
+    }
+
+
     /**
      * Processes the given <code>File</code> for annotations and stores the
      * result in the corresponding <code>WebXml</code>. During this operation
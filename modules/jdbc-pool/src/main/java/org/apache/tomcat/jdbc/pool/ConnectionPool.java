@@ -16,6 +16,7 @@
  */
 package org.apache.tomcat.jdbc.pool;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
@@ -47,7 +48,8 @@ import org.apache.juli.logging.LogFactory;
 /**
  * Implementation of simple connection pool.
  * The ConnectionPool uses a {@link PoolProperties} object for storing all the meta information about the connection pool.
- * As the underlying implementation, the connection pool uses {@link java.util.concurrent.BlockingQueue} to store active and idle connections.
+ * As the underlying implementation, the connection pool uses {@link java.util.concurrent.BlockingQueue} to store idle connections
+ * and a lock free {@link ConnectionSlots} set to track active connections.
  * A custom implementation of a fair {@link FairBlockingQueue} blocking queue is provided with the connection pool itself.
  * @author Filip Hanik
  * @version 1.0
@@ -86,15 +88,29 @@ public class ConnectionPool {
 
     /**
      * Contains all the connections that are in use
-     * TODO - this shouldn't be a blocking queue, simply a list to hold our objects
      */
-    private BlockingQueue<PooledConnection> busy;
+    private ConnectionSlots busy;
 
     /**
-     * Contains all the idle connections
+     * Contains all the idle connections. A connection that was claimed by the
+     * thread that last used it keeps its entry until the entry is polled and
+     * skipped, see {@link PoolConfiguration#getUseThreadAffinity()}.
      */
     private BlockingQueue<PooledConnection> idle;
 
+    /**
+     * The number of idle connections, since the size of the idle queue may
+     * include connections that are in use
+     */
+    private AtomicInteger idleCount = new AtomicInteger(0);
+
+    /**
+     * The connection last returned by the current thread. Weakly referenced
+     * so that threads don't keep connections of a closed pool reachable.
+     */
+    private final ThreadLocal<WeakReference<PooledConnection>> lastReturned =
+            new ThreadLocal<>();
+
     /**
      * The thread that is responsible for checking abandoned and idle threads
      */
@@ -254,7 +270,7 @@ public class ConnectionPool {
      * @return int - number of established connections not being used
      */
     public int getIdle() {
-        return idle.size();
+        return idleCount.get();
     }
 
     /**
@@ -316,6 +332,13 @@ public class ConnectionPool {
             }
         }
 
+        if (getPoolProperties().getUseStaticProxy() &&
+                handler instanceof ProxyConnection && con.getXAConnection() == null) {
+            //no interceptors, the chain can be called directly
+            return new StaticProxyConnection((ProxyConnection) handler,
+                    getPoolProperties().getUseDisposableConnectionFacade());
+        }
+
         try {
             getProxyConstructor(con.getXAConnection() != null);
             //create the proxy
@@ -370,32 +393,18 @@ public class ConnectionPool {
         }
 
         /* release all idle connections */
-        BlockingQueue<PooledConnection> pool = (idle.size()>0)?idle:(force?busy:idle);
-        while (pool.size()>0) {
-            try {
-                //retrieve the next connection
-                PooledConnection con = pool.poll(1000, TimeUnit.MILLISECONDS);
-                //close it and retrieve the next one, if one is available
-                while (con != null) {
-                    //close the connection
-                    if (pool==idle)
-                        release(con);
-                    else
-                        abandon(con);
-                    if (pool.size()>0) {
-                        con = pool.poll(1000, TimeUnit.MILLISECONDS);
-                    } else {
-                        break;
-                    }
-                } //while
-            } catch (InterruptedException ex) {
-                if (getPoolProperties().getPropagateInterruptState()) {
-                    Thread.currentThread().interrupt();
-                } else {
-                    Thread.interrupted();
-                }
+        PooledConnection con = idle.poll();
+        while (con != null) {
+            if (claimQueued(con))
+                release(con);
+            con = idle.poll();
+        }
+        /* and the active ones if asked to */
+        if (force) {
+            for (PooledConnection active : busy) {
+                if (busy.remove(active))
+                    abandon(active);
             }
-            if (pool.size()==0 && force && pool!=busy) pool = busy;
         }
         if (this.getPoolProperties().isJmxEnabled()) this.jmxPool = null;
         PoolProperties.InterceptorDefinition[] proxies = getPoolProperties().getJdbcInterceptorsAsArray();
@@ -439,9 +448,7 @@ public class ConnectionPool {
             properties.setMaxIdle(properties.getMinIdle());
         }
 
-        //make space for 10 extra in case we flow over a bit
-        busy = new ArrayBlockingQueue<>(properties.getMaxActive(),false);
-        //busy = new FairBlockingQueue<PooledConnection>();
+        busy = new ConnectionSlots(properties.getMaxActive());
         //make space for 10 extra in case we flow over a bit
         if (properties.isFairQueue()) {
             idle = new FairBlockingQueue<>();
@@ -587,8 +594,84 @@ public class ConnectionPool {
         // we could have threads stuck in idle.poll(timeout) that will never be
         // notified
         if (waitcount.get() > 0) {
-            idle.offer(create(true));
+            makeIdle(create(true));
+        }
+    }
+
+    /**
+     * Claims an idle connection and removes it from the idle count.
+     * @param con the connection to claim
+     * @return true if the connection was idle and now belongs to the caller
+     */
+    private boolean claim(PooledConnection con) {
+        if (con.claim()) {
+            idleCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Claims a connection whose entry has just been taken from the idle queue.
+     * @param con the connection to claim
+     * @return false if the connection is in use, typically because it has been
+     *         reclaimed by the thread that last used it
+     */
+    private boolean claimQueued(PooledConnection con) {
+        con.dequeue();
+        return claim(con);
+    }
+
+    /**
+     * Polls the idle queue, skipping the entries of connections that are in
+     * use, until an idle connection is found.
+     * @return an idle connection that has been claimed or null if there is none
+     */
+    private PooledConnection pollIdle() {
+        PooledConnection con = idle.poll();
+        while (con != null && !claimQueued(con)) {
+            con = idle.poll();
+        }
+        return con;
+    }
+
+    /**
+     * Claims the connection last returned by the current thread if no other
+     * thread has taken it since. This avoids the shared idle queue when the
+     * same thread repeatedly borrows and returns a connection. The entry of
+     * the connection stays in the idle queue and is skipped once polled so
+     * idle connections can always be taken by other threads.
+     * @return the connection last returned by the current thread, claimed, or
+     *         null if it is not available
+     */
+    private PooledConnection claimLastReturned() {
+        WeakReference<PooledConnection> ref = lastReturned.get();
+        if (ref == null) {
+            return null;
+        }
+        PooledConnection con = ref.get();
+        if (con != null && claim(con)) {
+            return con;
+        }
+        return null;
+    }
+
+    /**
+     * Makes a claimed connection available to other threads, adding it to the
+     * idle queue unless it still has an entry there.
+     * @param con the connection
+     * @return false if the connection could not be added to the idle queue, in
+     *         which case it is claimed again and should be released
+     */
+    private boolean makeIdle(PooledConnection con) {
+        idleCount.incrementAndGet();
+        con.unclaim();
+        if (con.enqueue() && !idle.offer(con)) {
+            con.dequeue();
+            //unless another thread has reclaimed it in the meantime
+            return !claim(con);
         }
+        return true;
     }
 
     /**
@@ -606,8 +689,15 @@ public class ConnectionPool {
 
         //get the current time stamp
         long now = System.currentTimeMillis();
+        PooledConnection con = null;
+        //see if the connection last used by this thread is still idle
+        if (getPoolProperties().getUseThreadAffinity() && waitcount.get() == 0) {
+            con = claimLastReturned();
+        }
         //see if there is one available immediately
-        PooledConnection con = idle.poll();
+        if (con == null) {
+            con = pollIdle();
+        }
 
         while (true) {
             if (con!=null) {
@@ -644,6 +734,12 @@ public class ConnectionPool {
             try {
                 //retrieve an existing connection
                 con = idle.poll(timetowait, TimeUnit.MILLISECONDS);
+                if (con != null && !claimQueued(con)) {
+                    //the connection has been reclaimed by the thread that
+                    //last used it, try again
+                    con = null;
+                    continue;
+                }
             } catch (InterruptedException ex) {
                 if (getPoolProperties().getPropagateInterruptState()) {
                     Thread.currentThread().interrupt();
@@ -671,7 +767,7 @@ public class ConnectionPool {
                     }
                     throw new PoolExhaustedException("[" + Thread.currentThread().getName()+"] " +
                         "Timeout: Pool empty. Unable to fetch a connection in " + (maxWait / 1000) +
-                        " seconds, none available[size:"+size.get() +"; busy:"+busy.size()+"; idle:"+idle.size()+"; lastwait:"+timetowait+"].");
+                        " seconds, none available[size:"+size.get() +"; busy:"+busy.size()+"; idle:"+getIdle()+"; lastwait:"+timetowait+"].");
                 } else {
                     //no timeout, lets try again
                     continue;
@@ -690,6 +786,8 @@ public class ConnectionPool {
     protected PooledConnection createConnection(long now, PooledConnection notUsed, String username, String password) throws SQLException {
         //no connections where available we'll create one
         PooledConnection con = create(false);
+        //the new connection is handed straight to the caller
+        con.claim();
         if (username!=null) con.getAttributes().put(PooledConnection.PROP_USER, username);
         if (password!=null) con.getAttributes().put(PooledConnection.PROP_PASSWORD, password);
         boolean error = false;
@@ -703,7 +801,7 @@ public class ConnectionPool {
                 if (getPoolProperties().isLogAbandoned()) {
                     con.setStackTrace(getThreadDump());
                 }
-                if (!busy.offer(con)) {
+                if (!busy.add(con)) {
                     log.debug("Connection doesn't fit into busy array, connection will not be traceable.");
                 }
                 return con;
@@ -778,7 +876,7 @@ public class ConnectionPool {
                         //set the stack trace for this pool
                         con.setStackTrace(getThreadDump());
                     }
-                    if (!busy.offer(con)) {
+                    if (!busy.add(con)) {
                         log.debug("Connection doesn't fit into busy array, connection will not be traceable.");
                     }
                     return con;
@@ -798,7 +896,7 @@ public class ConnectionPool {
                         //set the stack trace for this pool
                         con.setStackTrace(getThreadDump());
                     }
-                    if (!busy.offer(con)) {
+                    if (!busy.add(con)) {
                         log.debug("Connection doesn't fit into busy array, connection will not be traceable.");
                     }
                     return con;
@@ -894,11 +992,16 @@ public class ConnectionPool {
                     if (!shouldClose(con,PooledConnection.VALIDATE_RETURN)) {
                         con.setStackTrace(null);
                         con.setTimestamp(System.currentTimeMillis());
-                        if (((idle.size()>=poolProperties.getMaxIdle()) && !poolProperties.isPoolSweeperEnabled()) || (!idle.offer(con))) {
+                        if (((getIdle()>=poolProperties.getMaxIdle()) && !poolProperties.isPoolSweeperEnabled()) || (!makeIdle(con))) {
                             if (log.isDebugEnabled()) {
-                                log.debug("Connection ["+con+"] will be closed and not returned to the pool, idle["+idle.size()+"]>=maxIdle["+poolProperties.getMaxIdle()+"] idle.offer failed.");
+                                log.debug("Connection ["+con+"] will be closed and not returned to the pool, idle["+getIdle()+"]>=maxIdle["+poolProperties.getMaxIdle()+"] idle.offer failed.");
                             }
                             release(con);
+                        } else if (poolProperties.getUseThreadAffinity()) {
+                            WeakReference<PooledConnection> ref = lastReturned.get();
+                            if (ref == null || ref.get() != con) {
+                                lastReturned.set(new WeakReference<>(con));
+                            }
                         }
                     } else {
                         if (log.isDebugEnabled()) {
@@ -946,7 +1049,7 @@ public class ConnectionPool {
                     con.lock();
                     //the con has been returned to the pool
                     //ignore it
-                    if (idle.contains(con))
+                    if (!con.isBorrowed())
                         continue;
                     long time = con.getTimestamp();
                     long now = System.currentTimeMillis();
@@ -986,14 +1089,14 @@ public class ConnectionPool {
             if (idle.size()==0) return;
             long now = System.currentTimeMillis();
             Iterator<PooledConnection> unlocked = idle.iterator();
-            while ( (ignoreMinSize || (idle.size()>=getPoolProperties().getMinIdle())) && unlocked.hasNext()) {
+            while ( (ignoreMinSize || (getIdle()>=getPoolProperties().getMinIdle())) && unlocked.hasNext()) {
                 PooledConnection con = unlocked.next();
+                //the con been taken out, we can't clean it up
+                if (!claim(con))
+                    continue;
                 boolean setToNull = false;
                 try {
                     con.lock();
-                    //the con been taken out, we can't clean it up
-                    if (busy.contains(con))
-                        continue;
                     long time = con.getTimestamp();
                     if (shouldReleaseIdle(now, con, time)) {
                         release(con);
@@ -1004,8 +1107,8 @@ public class ConnectionPool {
                     } //end if
                 } finally {
                     con.unlock();
-                    if (setToNull)
-                        con = null;
+                    if (!setToNull && !makeIdle(con))
+                        release(con);
                 }
             } //while
         } catch (ConcurrentModificationException e) {
@@ -1031,17 +1134,21 @@ public class ConnectionPool {
             Iterator<PooledConnection> unlocked = idle.iterator();
             while (unlocked.hasNext()) {
                 PooledConnection con = unlocked.next();
+                //the con been taken out, we can't clean it up
+                if (!claim(con))
+                    continue;
+                boolean released = false;
                 try {
                     con.lock();
-                    //the con been taken out, we can't clean it up
-                    if (busy.contains(con))
-                        continue;
                     if (!con.validate(PooledConnection.VALIDATE_IDLE)) {
                         idle.remove(con);
                         release(con);
+                        released = true;
                     }
                 } finally {
                     con.unlock();
+                    if (!released && !makeIdle(con))
+                        release(con);
                 }
             } //while
         } catch (ConcurrentModificationException e) {
@@ -1217,7 +1324,12 @@ public class ConnectionPool {
                 if (result!=null) return result;
                 if (configured.compareAndSet(false, true)) {
                     try {
-                        pc = borrowConnection(System.currentTimeMillis(),pc, null, null);
+                        if (claimQueued(pc)) {
+                            pc = borrowConnection(System.currentTimeMillis(),pc, null, null);
+                        } else {
+                            //reclaimed by the thread that last used it
+                            pc = borrowConnection(-1, null, null);
+                        }
                         result = ConnectionPool.this.setupConnection(pc);
                     } catch (SQLException x) {
                         cause = x;
@@ -1343,8 +1455,7 @@ public class ConnectionPool {
                 try {
                     if (pool.getPoolProperties().isRemoveAbandoned())
                         pool.checkAbandoned();
-                    if (pool.getPoolProperties().getMinIdle() < pool.idle
-                            .size())
+                    if (pool.getPoolProperties().getMinIdle() < pool.getIdle())
                         pool.checkIdle();
                     if (pool.getPoolProperties().isTestWhileIdle())
                         pool.testAllIdle();
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.pool;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size, lock free set of the connections that are in use.
+ * <br/>
+ * Every connection records the index of the slot it was last stored in so a
+ * connection is removed with a single compare and set and is usually added
+ * back to the same slot, without scanning. Iterating is weakly consistent: it
+ * never fails because of concurrent changes but may or may not see the
+ * connections added or removed while it runs.
+ */
+public class ConnectionSlots implements Iterable<PooledConnection> {
+
+    private final AtomicReferenceArray<PooledConnection> slots;
+
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Creates a new set.
+     * @param capacity the maximum number of connections the set can hold
+     */
+    public ConnectionSlots(int capacity) {
+        slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Adds a connection to the first free slot, starting with the slot the
+     * connection was last stored in.
+     * @param con the connection, which must not be in the set already
+     * @return false if all the slots are in use
+     */
+    public boolean add(PooledConnection con) {
+        int capacity = slots.length();
+        if (capacity == 0) {
+            return false;
+        }
+        int start = con.getSlot();
+        if (start < 0 || start >= capacity) {
+            // Spread new connections to keep the scans short
+            start = ThreadLocalRandom.current().nextInt(capacity);
+        }
+        int index = start;
+        do {
+            if (slots.get(index) == null &&
+                    slots.compareAndSet(index, null, con)) {
+                con.setSlot(index);
+                size.incrementAndGet();
+                return true;
+            }
+            index++;
+            if (index == capacity) {
+                index = 0;
+            }
+        } while (index != start);
+        return false;
+    }
+
+    /**
+     * Removes a connection.
+     * @param con the connection
+     * @return true if the connection was in the set
+     */
+    public boolean remove(PooledConnection con) {
+        int index = con.getSlot();
+        if (index >= 0 && index < slots.length() &&
+                slots.compareAndSet(index, con, null)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param con the connection
+     * @return true if the connection is in the set
+     */
+    public boolean contains(PooledConnection con) {
+        int index = con.getSlot();
+        return index >= 0 && index < slots.length() && slots.get(index) == con;
+    }
+
+    /**
+     * @return the number of connections in the set
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the connections. Connections
+     * are removed with {@link #remove(PooledConnection)}.
+     * @return an iterator over the connections in the set
+     */
+    @Override
+    public Iterator<PooledConnection> iterator() {
+        return new Iterator<PooledConnection>() {
+            private int index = 0;
+            private PooledConnection next = advance();
+
+            private PooledConnection advance() {
+                while (index < slots.length()) {
+                    PooledConnection con = slots.get(index++);
+                    if (con != null) {
+                        return con;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public PooledConnection next() {
+                PooledConnection con = next;
+                if (con == null) {
+                    throw new NoSuchElementException();
+                }
+                next = advance();
+                return con;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
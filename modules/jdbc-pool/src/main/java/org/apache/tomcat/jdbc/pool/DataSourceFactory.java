@@ -122,6 +122,10 @@ public class DataSourceFactory implements ObjectFactory {
 
     protected static final String PROP_PROPAGATEINTERRUPTSTATE = "propagateInterruptState";
 
+    protected static final String PROP_USETHREADAFFINITY = "useThreadAffinity";
+
+    protected static final String PROP_USESTATICPROXY = "useStaticProxy";
+
     public static final int UNKNOWN_TRANSACTIONISOLATION = -1;
 
     public static final String OBJECT_NAME = "object_name";
@@ -175,7 +179,9 @@ public class DataSourceFactory implements ObjectFactory {
         PROP_ROLLBACKONRETURN,
         PROP_USEDISPOSABLECONNECTIONFACADE,
         PROP_LOGVALIDATIONERRORS,
-        PROP_PROPAGATEINTERRUPTSTATE
+        PROP_PROPAGATEINTERRUPTSTATE,
+        PROP_USETHREADAFFINITY,
+        PROP_USESTATICPROXY
     };
 
     // -------------------------------------------------- ObjectFactory Methods
@@ -514,6 +520,16 @@ public class DataSourceFactory implements ObjectFactory {
             poolProperties.setPropagateInterruptState(Boolean.parseBoolean(value));
         }
 
+        value = properties.getProperty(PROP_USETHREADAFFINITY);
+        if (value != null) {
+            poolProperties.setUseThreadAffinity(Boolean.parseBoolean(value));
+        }
+
+        value = properties.getProperty(PROP_USESTATICPROXY);
+        if (value != null) {
+            poolProperties.setUseStaticProxy(Boolean.parseBoolean(value));
+        }
+
         return poolProperties;
     }
 
@@ -25,11 +25,14 @@ import java.util.Properties;
 import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
 import javax.sql.XAConnection;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.jdbc.pool.PoolProperties.InterceptorDefinition;
+import org.apache.tomcat.jdbc.pool.interceptor.StatementCache;
 
 /**
  *
@@ -692,6 +695,19 @@ public class DataSourceProxy implements PoolConfiguration {
         }
     }
 
+    /**
+     * @return the statement cache statistics per SQL text, or <code>null</code>
+     *         if the pool does not use a statement cache
+     * @throws OpenDataException if the statistics can't be converted
+     */
+    public CompositeData[] getStatementCacheStatistics() throws OpenDataException {
+        try {
+            return StatementCache.getStatisticsCD(createPool());
+        }catch (SQLException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
     /**
      * @return the current size of the pool
      */
@@ -1298,6 +1314,38 @@ public class DataSourceProxy implements PoolConfiguration {
         getPoolProperties().setPropagateInterruptState(propagateInterruptState);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseThreadAffinity() {
+        return getPoolProperties().getUseThreadAffinity();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseThreadAffinity(boolean useThreadAffinity) {
+        getPoolProperties().setUseThreadAffinity(useThreadAffinity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseStaticProxy() {
+        return getPoolProperties().getUseStaticProxy();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseStaticProxy(boolean useStaticProxy) {
+        getPoolProperties().setUseStaticProxy(useStaticProxy);
+    }
+
     public void purge()  {
         try {
             createPool().purge();
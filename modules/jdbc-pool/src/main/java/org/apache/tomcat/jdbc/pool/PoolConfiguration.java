@@ -864,4 +864,40 @@ public interface PoolConfiguration {
      */
     public void setPropagateInterruptState(boolean propagateInterruptState);
 
+    /**
+     * Returns true if a thread first tries to reclaim the connection it last
+     * returned before using the shared idle queue.
+     * @return true if thread affinity is enabled
+     */
+    public boolean getUseThreadAffinity();
+
+    /**
+     * Configure the pool to let a thread reclaim the connection it last
+     * returned, if no other thread has taken it since, without going through
+     * the shared idle queue. The connection remains available to other
+     * threads while it is idle. Set to false if connections must be handed
+     * out strictly in the order of the idle queue.
+     * @param useThreadAffinity set to true to enable thread affinity
+     */
+    public void setUseThreadAffinity(boolean useThreadAffinity);
+
+    /**
+     * Returns true if connections are handed out as instances of a concrete
+     * class rather than of a {@link java.lang.reflect.Proxy} when no
+     * interceptors are configured.
+     * @return true if static proxies are used
+     */
+    public boolean getUseStaticProxy();
+
+    /**
+     * Configure the pool to hand out connections as instances of a concrete
+     * class that calls the JDBC connection directly, instead of going
+     * through a {@link java.lang.reflect.Proxy} and reflection for every
+     * call. This only applies when no JDBC interceptors are configured and
+     * the connection is not an XA connection, otherwise a dynamic proxy is
+     * still used.
+     * @param useStaticProxy set to true to use static proxies
+     */
+    public void setUseStaticProxy(boolean useStaticProxy);
+
 }
@@ -92,6 +92,8 @@ public class PoolProperties implements PoolConfiguration, Cloneable, Serializabl
     private volatile boolean useDisposableConnectionFacade = true;
     private volatile boolean logValidationErrors = false;
     private volatile boolean propagateInterruptState = false;
+    private volatile boolean useThreadAffinity = false;
+    private volatile boolean useStaticProxy = false;
 
 
     /**
@@ -1252,6 +1254,38 @@ public class PoolProperties implements PoolConfiguration, Cloneable, Serializabl
         this.propagateInterruptState = propagateInterruptState;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseThreadAffinity() {
+        return useThreadAffinity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseThreadAffinity(boolean useThreadAffinity) {
+        this.useThreadAffinity = useThreadAffinity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseStaticProxy() {
+        return useStaticProxy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseStaticProxy(boolean useStaticProxy) {
+        this.useStaticProxy = useStaticProxy;
+    }
+
     @Override
     protected Object clone() throws CloneNotSupportedException {
         // TODO Auto-generated method stub
@@ -115,6 +115,25 @@ public class PooledConnection {
 
     private AtomicBoolean released = new AtomicBoolean(false);
 
+    /**
+     * Set while the connection is in use or being checked by the pool cleaner.
+     * An idle connection can be reached both through the idle queue and
+     * through the last thread that used it, so it must be claimed by setting
+     * this flag before it is handed out.
+     */
+    private final AtomicBoolean borrowed = new AtomicBoolean(false);
+
+    /**
+     * Set while the connection has an entry in the idle queue
+     */
+    private final AtomicBoolean queued = new AtomicBoolean(false);
+
+    /**
+     * The index of the slot of {@link ConnectionSlots} the connection was last
+     * stored in
+     */
+    private volatile int slot = -1;
+
     private volatile boolean suspect = false;
 
     private java.sql.Driver driver = null;
@@ -679,6 +698,54 @@ public class PooledConnection {
         return released.get();
     }
 
+    /**
+     * Claims an idle connection.
+     * @return true if the connection was idle and now belongs to the caller
+     */
+    boolean claim() {
+        return borrowed.compareAndSet(false, true);
+    }
+
+    /**
+     * Makes a claimed connection available to other threads again.
+     */
+    void unclaim() {
+        borrowed.set(false);
+    }
+
+    /**
+     * Returns true if the connection is in use or being checked by the pool
+     * cleaner.
+     * @return true if the connection has been claimed
+     */
+    public boolean isBorrowed() {
+        return borrowed.get();
+    }
+
+    /**
+     * Records that the connection is about to be added to the idle queue.
+     * @return false if the connection already has an entry in the idle queue
+     */
+    boolean enqueue() {
+        return queued.compareAndSet(false, true);
+    }
+
+    /**
+     * Records that the entry of the connection has been taken from the idle
+     * queue.
+     */
+    void dequeue() {
+        queued.set(false);
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+
     public HashMap<Object,Object> getAttributes() {
         return attributes;
     }
@@ -95,10 +95,7 @@ public class ProxyConnection extends JdbcInterceptor {
             return Boolean.valueOf(isClosed());
         }
         if (compare(CLOSE_VAL,method)) {
-            if (connection==null) return null; //noop for already closed.
-            PooledConnection poolc = this.connection;
-            this.connection = null;
-            pool.returnConnection(poolc);
+            returnConnection();
             return null;
         } else if (compare(TOSTRING_VAL,method)) {
             return this.toString();
@@ -137,6 +134,16 @@ public class ProxyConnection extends JdbcInterceptor {
         }
     }
 
+    /**
+     * Returns the connection to the pool. May be called multiple times.
+     */
+    protected void returnConnection() {
+        if (connection==null) return; //noop for already closed.
+        PooledConnection poolc = this.connection;
+        this.connection = null;
+        pool.returnConnection(poolc);
+    }
+
     public boolean isClosed() {
         return connection==null || connection.isDiscarded();
     }
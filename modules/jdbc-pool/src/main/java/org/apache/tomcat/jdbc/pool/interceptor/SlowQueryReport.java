@@ -17,11 +17,11 @@
 package org.apache.tomcat.jdbc.pool.interceptor;
 
 import java.text.SimpleDateFormat;
-import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.CompositeType;
@@ -49,15 +49,35 @@ public class SlowQueryReport extends AbstractQueryReport  {
      */
     protected static ConcurrentHashMap<String,ConcurrentHashMap<String,QueryStats>> perPoolStats =
         new ConcurrentHashMap<>();
+    /**
+     * the order in which the query stats of a pool are considered for eviction
+     */
+    protected static ConcurrentHashMap<String,ConcurrentLinkedQueue<QueryStats>> perPoolEvictionQueues =
+        new ConcurrentHashMap<>();
     /**
      * the queries that are used for this interceptor.
      */
     protected volatile ConcurrentHashMap<String,QueryStats> queries = null;
+    /**
+     * the eviction queue of the queries
+     */
+    protected volatile ConcurrentLinkedQueue<QueryStats> evictionQueue = null;
     /**
      * Maximum number of queries we will be storing
      */
     protected int  maxQueries= 1000; //don't store more than this amount of queries
 
+    /**
+     * Flag to enable logging of slow queries
+     */
+    protected boolean logSlow = true;
+
+    /**
+     * Flag to replace the literals of queries with '?' before they are used to
+     * group the stats
+     */
+    protected boolean normalize = false;
+
     /**
      * Returns the query stats for a given pool
      * @param poolname - the name of the pool we want to retrieve stats for
@@ -78,6 +98,22 @@ public class SlowQueryReport extends AbstractQueryReport  {
         this.maxQueries = maxQueries;
     }
 
+    public boolean isLogSlow() {
+        return logSlow;
+    }
+
+    public void setLogSlow(boolean logSlow) {
+        this.logSlow = logSlow;
+    }
+
+    public boolean isNormalize() {
+        return normalize;
+    }
+
+    public void setNormalize(boolean normalize) {
+        this.normalize = normalize;
+    }
+
 
     @Override
     protected String reportFailedQuery(String query, Object[] args, String name, long start, Throwable t) {
@@ -100,7 +136,7 @@ public class SlowQueryReport extends AbstractQueryReport  {
         if (this.maxQueries > 0 ) {
             QueryStats qs = this.getQueryStats(sql);
             qs.add(delta, start);
-            if (log.isWarnEnabled()) {
+            if (logSlow && log.isWarnEnabled()) {
                 log.warn("Slow Query Report SQL="+sql+"; time="+delta+" ms;");
             }
         }
@@ -138,14 +174,14 @@ public class SlowQueryReport extends AbstractQueryReport  {
         queries = SlowQueryReport.perPoolStats.get(pool.getName());
         if (queries==null) {
             //create the map to hold our stats
-            //however TODO we need to improve the eviction
-            //selection
             queries = new ConcurrentHashMap<>();
             if (perPoolStats.putIfAbsent(pool.getName(), queries)!=null) {
                 //there already was one
                 queries = SlowQueryReport.perPoolStats.get(pool.getName());
             }
         }
+        perPoolEvictionQueues.putIfAbsent(pool.getName(), new ConcurrentLinkedQueue<QueryStats>());
+        evictionQueue = perPoolEvictionQueues.get(pool.getName());
     }
 
     /**
@@ -154,19 +190,28 @@ public class SlowQueryReport extends AbstractQueryReport  {
     @Override
     public void poolClosed(ConnectionPool pool) {
         perPoolStats.remove(pool.getName());
+        perPoolEvictionQueues.remove(pool.getName());
         super.poolClosed(pool);
     }
 
     protected QueryStats getQueryStats(String sql) {
         if (sql==null) sql = "";
+        if (normalize) sql = normalize(sql);
         ConcurrentHashMap<String,QueryStats> queries = SlowQueryReport.this.queries;
         if (queries==null) return null;
         QueryStats qs = queries.get(sql);
-        if (qs == null) {
+        if (qs != null) {
+            qs.referenced = true;
+        } else {
             qs = new QueryStats(sql);
-            if (queries.putIfAbsent(sql,qs)!=null) {
-                qs = queries.get(sql);
+            QueryStats existing = queries.putIfAbsent(sql,qs);
+            if (existing!=null) {
+                qs = existing;
             } else {
+                ConcurrentLinkedQueue<QueryStats> evictionQueue = this.evictionQueue;
+                if (evictionQueue!=null) {
+                    evictionQueue.offer(qs);
+                }
                 //we added a new element, see if we need to remove the oldest
                 if (queries.size() > maxQueries) {
                     removeOldest(queries);
@@ -177,26 +222,125 @@ public class SlowQueryReport extends AbstractQueryReport  {
     }
 
     /**
-     * TODO - implement a better algorithm
+     * Removes queries until no more than maxQueries are left. The queries are
+     * taken in the order they were added, but a query that has been used
+     * again since it was added or last considered gets a second chance and is
+     * moved to the end of the queue.
      * @param queries
      */
     protected void removeOldest(ConcurrentHashMap<String,QueryStats> queries) {
-        Iterator<String> it = queries.keySet().iterator();
-        while (queries.size()>maxQueries && it.hasNext()) {
-            String sql = it.next();
-            it.remove();
-            if (log.isDebugEnabled()) log.debug("Removing slow query, capacity reached:"+sql);
+        ConcurrentLinkedQueue<QueryStats> evictionQueue = this.evictionQueue;
+        if (evictionQueue==null) return;
+        //bound the work done by a single call
+        int chances = maxQueries;
+        while (queries.size()>maxQueries) {
+            QueryStats qs = evictionQueue.poll();
+            if (qs==null) {
+                break;
+            }
+            if (chances>0 && qs.clearReferenced()) {
+                chances--;
+                evictionQueue.offer(qs);
+            } else if (queries.remove(qs.getQuery(), qs)) {
+                if (log.isDebugEnabled()) log.debug("Removing slow query, capacity reached:"+qs.getQuery());
+            }
+        }
+    }
+
+    /**
+     * Replaces the string and numeric literals of a query with '?', collapses
+     * a list of literals to a single '?' and white space to a single space, so
+     * that executions of the same statement with different values share their
+     * stats.
+     * @param sql the query
+     * @return the normalized query
+     */
+    public static String normalize(String sql) {
+        int len = sql.length();
+        StringBuilder buf = new StringBuilder(len);
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                //skip the string literal, '' is an escaped quote
+                i++;
+                while (i < len) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < len && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                appendParameter(buf);
+            } else if (c == '"') {
+                //quoted identifiers are kept
+                int end = sql.indexOf('"', i + 1);
+                end = end < 0 ? len : end + 1;
+                buf.append(sql, i, end);
+                i = end;
+            } else if (Character.isDigit(c) && !isIdentifierEnd(buf)) {
+                i++;
+                while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                appendParameter(buf);
+            } else if (Character.isWhitespace(c)) {
+                while (i < len && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (buf.length() > 0 && i < len) {
+                    buf.append(' ');
+                }
+            } else {
+                buf.append(c);
+                i++;
+            }
         }
+        return buf.toString();
+    }
+
+    private static boolean isIdentifierEnd(StringBuilder buf) {
+        if (buf.length() == 0) {
+            return false;
+        }
+        char c = buf.charAt(buf.length() - 1);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static void appendParameter(StringBuilder buf) {
+        //turn "?, ?" into "?"
+        int end = buf.length();
+        while (end > 0 && buf.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end > 0 && buf.charAt(end - 1) == ',') {
+            int start = end - 1;
+            while (start > 0 && buf.charAt(start - 1) == ' ') {
+                start--;
+            }
+            if (start > 0 && buf.charAt(start - 1) == '?') {
+                buf.setLength(start);
+                return;
+            }
+        }
+        buf.append('?');
     }
 
 
     @Override
     public void reset(ConnectionPool parent, PooledConnection con) {
         super.reset(parent, con);
-        if (parent!=null)
+        if (parent!=null) {
             queries = SlowQueryReport.perPoolStats.get(parent.getName());
-        else
+            evictionQueue = SlowQueryReport.perPoolEvictionQueues.get(parent.getName());
+        } else {
             queries = null;
+            evictionQueue = null;
+        }
     }
 
 
@@ -213,6 +357,14 @@ public class SlowQueryReport extends AbstractQueryReport  {
         if (p2!=null) {
             setMaxQueries(Integer.parseInt(p2.getValue()));
         }
+        InterceptorProperty p3 = properties.get("logSlow");
+        if (p3!=null) {
+            setLogSlow(Boolean.parseBoolean(p3.getValue()));
+        }
+        InterceptorProperty p4 = properties.get("normalize");
+        if (p4!=null) {
+            setNormalize(Boolean.parseBoolean(p4.getValue()));
+        }
     }
 
 
@@ -233,7 +385,11 @@ public class SlowQueryReport extends AbstractQueryReport  {
             "failures",
             "prepareCount",
             "prepareTime",
-            "lastInvocation"
+            "lastInvocation",
+            "p50InvocationTime",
+            "p90InvocationTime",
+            "p99InvocationTime",
+            "p999InvocationTime"
         };
 
         static final  String[] FIELD_DESCRIPTIONS = new String[] {
@@ -247,7 +403,11 @@ public class SlowQueryReport extends AbstractQueryReport  {
             "The number of failures for this query",
             "The number of times this query was prepared (prepareStatement/prepareCall)",
             "The total number of milliseconds spent preparing this query",
-            "The date and time of the last invocation"
+            "The date and time of the last invocation",
+            "The median time for this query in milliseconds",
+            "The 90th percentile of the time for this query in milliseconds",
+            "The 99th percentile of the time for this query in milliseconds",
+            "The 99.9th percentile of the time for this query in milliseconds"
         };
 
         static final OpenType<?>[] FIELD_TYPES = new OpenType[] {
@@ -261,9 +421,25 @@ public class SlowQueryReport extends AbstractQueryReport  {
             SimpleType.LONG,
             SimpleType.INTEGER,
             SimpleType.LONG,
+            SimpleType.LONG,
+            SimpleType.LONG,
+            SimpleType.LONG,
+            SimpleType.LONG,
             SimpleType.LONG
         };
 
+        /*
+         * The invocation times are counted in a histogram of fixed size. Times
+         * below SUB_BUCKETS milliseconds have a bucket each, every following
+         * power of two is split in SUB_BUCKETS buckets, so a percentile is
+         * accurate within 1/SUB_BUCKETS (12.5%) of its value. Times above
+         * 2^MAX_EXPONENT milliseconds share the last bucket.
+         */
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
         private final String query;
         private volatile int nrOfInvocations;
         private volatile long maxInvocationTime = Long.MIN_VALUE;
@@ -275,6 +451,8 @@ public class SlowQueryReport extends AbstractQueryReport  {
         private volatile int prepareCount;
         private volatile long prepareTime;
         private volatile long lastInvocation = 0;
+        private final long[] histogram = new long[BUCKET_COUNT];
+        private volatile boolean referenced = false;
 
         public static String[] getFieldNames() {
             return FIELD_NAMES;
@@ -315,6 +493,14 @@ public class SlowQueryReport extends AbstractQueryReport  {
             buf.append(prepareCount);
             buf.append(", prepareTime:");
             buf.append(prepareTime);
+            buf.append(", p50InvocationTime:");
+            buf.append(getPercentile(0.5));
+            buf.append(", p90InvocationTime:");
+            buf.append(getPercentile(0.9));
+            buf.append(", p99InvocationTime:");
+            buf.append(getPercentile(0.99));
+            buf.append(", p999InvocationTime:");
+            buf.append(getPercentile(0.999));
             buf.append("]");
             return buf.toString();
         }
@@ -331,7 +517,11 @@ public class SlowQueryReport extends AbstractQueryReport  {
                     Long.valueOf(failures),
                     Integer.valueOf(prepareCount),
                     Long.valueOf(prepareTime),
-                    Long.valueOf(lastInvocation)
+                    Long.valueOf(lastInvocation),
+                    Long.valueOf(getPercentile(0.5)),
+                    Long.valueOf(getPercentile(0.9)),
+                    Long.valueOf(getPercentile(0.99)),
+                    Long.valueOf(getPercentile(0.999))
             };
             return new CompositeDataSupport(type,FIELD_NAMES,values);
         }
@@ -359,6 +549,65 @@ public class SlowQueryReport extends AbstractQueryReport  {
             nrOfInvocations++;
             totalInvocationTime+=invocationTime;
             lastInvocation = now;
+            histogram[getBucket(invocationTime)]++;
+        }
+
+        /**
+         * Returns an upper bound of the invocation time that the given
+         * fraction of the invocations did not exceed.
+         * @param fraction the fraction, for example 0.99 for the 99th
+         *        percentile
+         * @return the percentile in milliseconds, or 0 if the query has not
+         *         been invoked
+         */
+        public long getPercentile(double fraction) {
+            long total = 0;
+            for (long count : histogram) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += histogram[i];
+                if (seen >= target) {
+                    return Math.min(getBucketLimit(i), maxInvocationTime);
+                }
+            }
+            return maxInvocationTime;
+        }
+
+        private static int getBucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return value < 0 ? 0 : (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT) {
+                return BUCKET_COUNT - 1;
+            }
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long getBucketLimit(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        /**
+         * Clears the flag that is set when the stats are looked up again.
+         * @return true if the query has been used since the last call
+         */
+        boolean clearReferenced() {
+            boolean result = referenced;
+            referenced = false;
+            return result;
         }
 
         public void failure(long invocationTime, long now) {
@@ -21,6 +21,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.InstanceAlreadyExistsException;
@@ -224,6 +225,10 @@ public class SlowQueryReportJmx extends SlowQueryReport implements NotificationE
             Iterator<String> it = queries.keySet().iterator();
             while (it.hasNext()) it.remove();
         }
+        ConcurrentLinkedQueue<QueryStats> evictionQueue = perPoolEvictionQueues.get(poolName);
+        if (evictionQueue!=null) {
+            evictionQueue.clear();
+        }
     }
 
     /**
@@ -250,6 +255,41 @@ public class SlowQueryReportJmx extends SlowQueryReport implements NotificationE
         return result;
     }
 
+    /**
+     * JMX operation - returns all the queries we have collected as comma
+     * separated values, with a header line holding the field names.
+     * @return - the slow query report as CSV.
+     */
+    @Override
+    public String getSlowQueriesCSV() throws OpenDataException {
+        StringBuilder buf = new StringBuilder();
+        String[] names = QueryStats.getFieldNames();
+        for (int i=0; i<names.length; i++) {
+            if (i>0) buf.append(',');
+            buf.append(names[i]);
+        }
+        buf.append('\n');
+        ConcurrentHashMap<String,QueryStats> queries = perPoolStats.get(poolName);
+        if (queries!=null) {
+            for (QueryStats qs : queries.values()) {
+                CompositeData data = qs.getCompositeData(getCompositeType());
+                for (int i=0; i<names.length; i++) {
+                    if (i>0) buf.append(',');
+                    Object value = data.get(names[i]);
+                    if (value instanceof String) {
+                        buf.append('"');
+                        buf.append(((String)value).replace("\"", "\"\""));
+                        buf.append('"');
+                    } else {
+                        buf.append(value);
+                    }
+                }
+                buf.append('\n');
+            }
+        }
+        return buf.toString();
+    }
+
     protected void deregisterJmx() {
         try {
             if (mbeans.remove(poolName)!=null) {
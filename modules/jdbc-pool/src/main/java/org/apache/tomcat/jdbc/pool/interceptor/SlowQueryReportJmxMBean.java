@@ -20,4 +20,6 @@ import javax.management.openmbean.OpenDataException;
 
 public interface SlowQueryReportJmxMBean {
     public CompositeData[] getSlowQueriesCD() throws OpenDataException;
+
+    public String getSlowQueriesCSV() throws OpenDataException;
 }
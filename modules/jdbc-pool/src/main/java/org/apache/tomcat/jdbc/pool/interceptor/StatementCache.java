@@ -18,16 +18,42 @@ package org.apache.tomcat.jdbc.pool.interceptor;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.sql.Connection;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.jdbc.pool.ConnectionPool;
 import org.apache.tomcat.jdbc.pool.PoolProperties.InterceptorProperty;
 import org.apache.tomcat.jdbc.pool.PooledConnection;
 
+/**
+ * Caches prepared statements per connection. The cache of a connection is
+ * ordered by use; when the pool wide limit of cached statements is reached,
+ * the least recently used statement of the connection is closed to make room.
+ * Cache hits, misses and evictions are counted per SQL text for the pool and
+ * are exposed through the pool MBean.
+ */
 public class StatementCache extends StatementDecoratorInterceptor {
+    private static final Log log = LogFactory.getLog(StatementCache.class);
+
     protected static final String[] ALL_TYPES = new String[] {PREPARE_STATEMENT,PREPARE_CALL};
     protected static final String[] CALLABLE_TYPE = new String[] {PREPARE_CALL};
     protected static final String[] PREPARED_TYPE = new String[] {PREPARE_STATEMENT};
@@ -39,6 +65,8 @@ public class StatementCache extends StatementDecoratorInterceptor {
     private boolean cachePrepared = true;
     private boolean cacheCallable = false;
     private int maxCacheSize = 50;
+    private int maxStatistics = 1000;
+    private int warmup = 0;
     private PooledConnection pcon;
     private String[] types;
 
@@ -55,6 +83,14 @@ public class StatementCache extends StatementDecoratorInterceptor {
         return maxCacheSize;
     }
 
+    public int getMaxStatistics() {
+        return maxStatistics;
+    }
+
+    public int getWarmup() {
+        return warmup;
+    }
+
     public String[] getTypes() {
         return types;
     }
@@ -72,6 +108,10 @@ public class StatementCache extends StatementDecoratorInterceptor {
         if (p!=null) cacheCallable = p.getValueAsBoolean(cacheCallable);
         p = properties.get("max");
         if (p!=null) maxCacheSize = p.getValueAsInt(maxCacheSize);
+        p = properties.get("maxStatistics");
+        if (p!=null) maxStatistics = p.getValueAsInt(maxStatistics);
+        p = properties.get("warmup");
+        if (p!=null) warmup = p.getValueAsInt(warmup);
         if (cachePrepared && cacheCallable) {
             this.types = ALL_TYPES;
         } else if (cachePrepared) {
@@ -89,49 +129,116 @@ public class StatementCache extends StatementDecoratorInterceptor {
     private static ConcurrentHashMap<ConnectionPool,AtomicInteger> cacheSizeMap =
         new ConcurrentHashMap<>();
 
+    private static ConcurrentHashMap<ConnectionPool,ConcurrentHashMap<String,StatementStats>> statisticsMap =
+        new ConcurrentHashMap<>();
+
     private AtomicInteger cacheSize;
 
+    private ConcurrentHashMap<String,StatementStats> statistics;
+
     @Override
     public void poolStarted(ConnectionPool pool) {
         cacheSizeMap.putIfAbsent(pool, new AtomicInteger(0));
+        statisticsMap.putIfAbsent(pool, new ConcurrentHashMap<String,StatementStats>());
         super.poolStarted(pool);
     }
 
     @Override
     public void poolClosed(ConnectionPool pool) {
         cacheSizeMap.remove(pool);
+        statisticsMap.remove(pool);
         super.poolClosed(pool);
     }
     /*end the cache size*/
 
+    /*begin the statistics*/
+    /**
+     * Returns the cache statistics of a pool.
+     * @param pool the pool
+     * @return the statistics per SQL text, or <code>null</code> if the pool
+     *         does not use a statement cache
+     */
+    public static Map<String,StatementStats> getStatistics(ConnectionPool pool) {
+        return statisticsMap.get(pool);
+    }
+
+    /**
+     * Returns the cache statistics of a pool as composite data.
+     * @param pool the pool
+     * @return the statistics per SQL text, or <code>null</code> if the pool
+     *         does not use a statement cache
+     * @throws OpenDataException if the composite data can't be created
+     */
+    public static CompositeData[] getStatisticsCD(ConnectionPool pool) throws OpenDataException {
+        Map<String,StatementStats> stats = getStatistics(pool);
+        if (stats==null) {
+            return null;
+        }
+        List<CompositeData> result = new ArrayList<>(stats.size());
+        for (StatementStats ss : stats.values()) {
+            result.add(ss.getCompositeData(StatementStats.getCompositeType()));
+        }
+        return result.toArray(new CompositeData[result.size()]);
+    }
+
+    protected StatementStats getStatementStats(String sql, boolean callable) {
+        if (statistics==null) {
+            return null;
+        }
+        StatementStats stats = statistics.get(sql);
+        if (stats==null && statistics.size()<maxStatistics) {
+            stats = new StatementStats(sql, callable);
+            StatementStats existing = statistics.putIfAbsent(sql, stats);
+            if (existing!=null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+    /*end the statistics*/
+
     /*begin the actual statement cache*/
+    private boolean warmupPending = false;
+
     @Override
     public void reset(ConnectionPool parent, PooledConnection con) {
         super.reset(parent, con);
         if (parent==null) {
             cacheSize = null;
+            statistics = null;
             this.pcon = null;
         } else {
             cacheSize = cacheSizeMap.get(parent);
+            statistics = statisticsMap.get(parent);
             this.pcon = con;
             if (!pcon.getAttributes().containsKey(STATEMENT_CACHE_ATTR)) {
-                ConcurrentHashMap<String,CachedStatement> cache =
-                        new ConcurrentHashMap<>();
+                //statements move to the end of the map when they are closed
+                //so the first statement is the least recently used one
+                LinkedHashMap<String,CachedStatement> cache =
+                        new LinkedHashMap<>();
                 pcon.getAttributes().put(STATEMENT_CACHE_ATTR,cache);
+                warmupPending = warmup>0;
             }
         }
     }
 
     @Override
     public void disconnected(ConnectionPool parent, PooledConnection con, boolean finalizing) {
-        ConcurrentHashMap<String,CachedStatement> statements =
-            (ConcurrentHashMap<String,CachedStatement>)con.getAttributes().get(STATEMENT_CACHE_ATTR);
+        @SuppressWarnings("unchecked")
+        Map<String,CachedStatement> statements =
+            (Map<String,CachedStatement>)con.getAttributes().get(STATEMENT_CACHE_ATTR);
 
         if (statements!=null) {
-            for (Map.Entry<String, CachedStatement> p : statements.entrySet()) {
-                closeStatement(p.getValue());
+            List<CachedStatement> closing;
+            synchronized (statements) {
+                closing = new ArrayList<>(statements.values());
+            }
+            for (CachedStatement st : closing) {
+                closeStatement(st);
+            }
+            synchronized (statements) {
+                statements.clear();
             }
-            statements.clear();
         }
 
         super.disconnected(parent, con, finalizing);
@@ -164,12 +271,20 @@ public class StatementCache extends StatementDecoratorInterceptor {
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         boolean process = process(this.types, method, false);
         if (process && args.length>0 && args[0] instanceof String) {
-            CachedStatement statement = isCached((String)args[0]);
+            if (warmupPending) {
+                warmupPending = false;
+                warmup(proxy);
+            }
+            String sql = (String)args[0];
+            CachedStatement statement = isCached(sql);
+            StatementStats stats = getStatementStats(sql, compare(PREPARE_CALL, method));
             if (statement!=null) {
+                if (stats!=null) stats.hit();
                 //remove it from the cache since it is used
                 removeStatement(statement);
                 return statement.getActualProxy();
             } else {
+                if (stats!=null) stats.miss();
                 return super.invoke(proxy, method, args);
             }
         } else {
@@ -177,43 +292,141 @@ public class StatementCache extends StatementDecoratorInterceptor {
         }
     }
 
+    /**
+     * Prepares and caches the statements of the pool with the most cache hits
+     * on a new connection.
+     * @param proxy the connection proxy
+     */
+    protected void warmup(Object proxy) {
+        if (statistics==null) {
+            return;
+        }
+        List<StatementStats> hot = new ArrayList<>(statistics.values());
+        Collections.sort(hot, new Comparator<StatementStats>() {
+            @Override
+            public int compare(StatementStats s1, StatementStats s2) {
+                return Long.compare(s2.getHits(), s1.getHits());
+            }
+        });
+        int count = 0;
+        for (StatementStats stats : hot) {
+            if (count>=warmup || stats.getHits()==0 || cacheSize.get()>=maxCacheSize) {
+                break;
+            }
+            Method method = stats.isCallable() ? PREPARE_CALL_METHOD : PREPARE_STATEMENT_METHOD;
+            if (method==null || !process(this.types, method, false) || isCached(stats.getSql())!=null) {
+                continue;
+            }
+            try {
+                //closing the new statement puts it in the cache
+                Object statement = super.invoke(proxy, method, new Object[] {stats.getSql()});
+                ((Statement)statement).close();
+                count++;
+            } catch (Throwable t) {
+                if (t instanceof ThreadDeath) {
+                    throw (ThreadDeath) t;
+                }
+                if (t instanceof VirtualMachineError) {
+                    throw (VirtualMachineError) t;
+                }
+                log.warn("Unable to prepare statement ["+stats.getSql()+"] for the statement cache.", t);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String,CachedStatement> getCache() {
+        return (Map<String,CachedStatement>)pcon.getAttributes().get(STATEMENT_CACHE_ATTR);
+    }
+
     public CachedStatement isCached(String sql) {
-        ConcurrentHashMap<String,CachedStatement> cache =
-            (ConcurrentHashMap<String,CachedStatement>)pcon.getAttributes().get(STATEMENT_CACHE_ATTR);
-        return cache.get(sql);
+        Map<String,CachedStatement> cache = getCache();
+        synchronized (cache) {
+            return cache.get(sql);
+        }
+    }
+
+    /**
+     * @return true if a statement can be cached without exceeding the pool
+     *         wide limit, possibly by evicting a statement of this connection
+     */
+    protected boolean isCacheable() {
+        if (cacheSize.get()<maxCacheSize) {
+            return true;
+        }
+        Map<String,CachedStatement> cache = getCache();
+        synchronized (cache) {
+            return !cache.isEmpty();
+        }
     }
 
     public boolean cacheStatement(CachedStatement proxy) {
-        ConcurrentHashMap<String,CachedStatement> cache =
-            (ConcurrentHashMap<String,CachedStatement>)pcon.getAttributes().get(STATEMENT_CACHE_ATTR);
+        Map<String,CachedStatement> cache = getCache();
+        CachedStatement evicted = null;
         if (proxy.getSql()==null) {
             return false;
-        } else if (cache.containsKey(proxy.getSql())) {
-            return false;
-        } else if (cacheSize.get()>=maxCacheSize) {
+        }
+        synchronized (cache) {
+            if (cache.containsKey(proxy.getSql())) {
+                return false;
+            } else if (!reserve()) {
+                //the pool is full, reuse the place of the least recently used
+                //statement of this connection
+                Iterator<CachedStatement> it = cache.values().iterator();
+                if (!it.hasNext()) {
+                    return false;
+                }
+                evicted = it.next();
+                it.remove();
+            }
+            //cache the statement
+            cache.put(proxy.getSql(), proxy);
+        }
+        if (evicted!=null) {
+            StatementStats stats = statistics==null ? null : statistics.get(evicted.getSql());
+            if (stats!=null) stats.evict();
+            closeStatement(evicted);
+        }
+        return true;
+    }
+
+    private boolean reserve() {
+        if (cacheSize.get()>=maxCacheSize) {
             return false;
         } else if (cacheSize.incrementAndGet()>maxCacheSize) {
             cacheSize.decrementAndGet();
             return false;
         } else {
-            //cache the statement
-            cache.put(proxy.getSql(), proxy);
             return true;
         }
     }
 
     public boolean removeStatement(CachedStatement proxy) {
-        ConcurrentHashMap<String,CachedStatement> cache =
-            (ConcurrentHashMap<String,CachedStatement>)pcon.getAttributes().get(STATEMENT_CACHE_ATTR);
-        if (cache.remove(proxy.getSql()) != null) {
+        Map<String,CachedStatement> cache = getCache();
+        boolean removed;
+        synchronized (cache) {
+            //only remove the statement itself, not another one with the same SQL
+            removed = cache.get(proxy.getSql())==proxy && cache.remove(proxy.getSql())!=null;
+        }
+        if (removed) {
             cacheSize.decrementAndGet();
-            return true;
-        } else {
-            return false;
         }
+        return removed;
     }
     /*end the actual statement cache*/
 
+    private static final Method PREPARE_STATEMENT_METHOD = getPrepareMethod(PREPARE_STATEMENT);
+    private static final Method PREPARE_CALL_METHOD = getPrepareMethod(PREPARE_CALL);
+
+    private static Method getPrepareMethod(String name) {
+        try {
+            return Connection.class.getMethod(name, String.class);
+        } catch (NoSuchMethodException x) {
+            log.warn("Unable to find method Connection."+name+"(String)", x);
+            return null;
+        }
+    }
+
 
     protected class CachedStatement extends StatementDecoratorInterceptor.StatementProxy<Statement> {
         boolean cached = false;
@@ -225,7 +438,7 @@ public class StatementCache extends StatementDecoratorInterceptor {
         public void closeInvoked() {
             //should we cache it
             boolean shouldClose = true;
-            if (cacheSize.get() < maxCacheSize) {
+            if (isCacheable()) {
                 //cache a proxy so that we don't reuse the facade
                 CachedStatement proxy = new CachedStatement(getDelegate(),getSql());
                 try {
@@ -257,6 +470,102 @@ public class StatementCache extends StatementDecoratorInterceptor {
 
     }
 
-}
+    /**
+     * Cache statistics of a single SQL text.
+     */
+    public static class StatementStats {
+        static final String[] FIELD_NAMES = new String[] {
+            "sql",
+            "hits",
+            "misses",
+            "evictions"
+        };
+
+        static final String[] FIELD_DESCRIPTIONS = new String[] {
+            "The SQL text",
+            "The number of times the statement was taken from the cache",
+            "The number of times the statement was prepared because it was not cached",
+            "The number of times the statement was closed to make room for another one"
+        };
+
+        static final OpenType<?>[] FIELD_TYPES = new OpenType<?>[] {
+            SimpleType.STRING,
+            SimpleType.LONG,
+            SimpleType.LONG,
+            SimpleType.LONG
+        };
+
+        private static CompositeType STATEMENT_STATS_TYPE;
+
+        private final String sql;
+        private final boolean callable;
+        private final AtomicLong hits = new AtomicLong(0);
+        private final AtomicLong misses = new AtomicLong(0);
+        private final AtomicLong evictions = new AtomicLong(0);
+
+        public StatementStats(String sql, boolean callable) {
+            this.sql = sql;
+            this.callable = callable;
+        }
 
+        public static CompositeType getCompositeType() throws OpenDataException {
+            if (STATEMENT_STATS_TYPE==null) {
+                STATEMENT_STATS_TYPE = new CompositeType(
+                        StatementStats.class.getName(),
+                        "Composite data type for statement cache statistics",
+                        FIELD_NAMES,
+                        FIELD_DESCRIPTIONS,
+                        FIELD_TYPES);
+            }
+            return STATEMENT_STATS_TYPE;
+        }
 
+        public String getSql() {
+            return sql;
+        }
+
+        public boolean isCallable() {
+            return callable;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        public void hit() {
+            hits.incrementAndGet();
+        }
+
+        public void miss() {
+            misses.incrementAndGet();
+        }
+
+        public void evict() {
+            evictions.incrementAndGet();
+        }
+
+        public CompositeDataSupport getCompositeData(final CompositeType type) throws OpenDataException {
+            Object[] values = new Object[] {
+                    sql,
+                    Long.valueOf(hits.get()),
+                    Long.valueOf(misses.get()),
+                    Long.valueOf(evictions.get())
+            };
+            return new CompositeDataSupport(type,FIELD_NAMES,values);
+        }
+
+        @Override
+        public String toString() {
+            return "StatementStats[sql:"+sql+", hits:"+hits+", misses:"+misses+", evictions:"+evictions+"]";
+        }
+    }
+
+}
@@ -25,6 +25,8 @@ import javax.management.MBeanNotificationInfo;
 import javax.management.Notification;
 import javax.management.NotificationBroadcasterSupport;
 import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -32,6 +34,7 @@ import org.apache.tomcat.jdbc.pool.PoolConfiguration;
 import org.apache.tomcat.jdbc.pool.PoolProperties.InterceptorDefinition;
 import org.apache.tomcat.jdbc.pool.PoolUtilities;
 import org.apache.tomcat.jdbc.pool.Validator;
+import org.apache.tomcat.jdbc.pool.interceptor.StatementCache;
 
 public class ConnectionPool extends NotificationBroadcasterSupport implements ConnectionPoolMBean  {
     /**
@@ -166,6 +169,11 @@ public class ConnectionPool extends NotificationBroadcasterSupport implements Co
         return pool.getWaitCount();
     }
 
+    @Override
+    public CompositeData[] getStatementCacheStatistics() throws OpenDataException {
+        return StatementCache.getStatisticsCD(pool);
+    }
+
     //=================================================================
     //       POOL OPERATIONS
     //=================================================================
@@ -829,6 +837,38 @@ public class ConnectionPool extends NotificationBroadcasterSupport implements Co
         getPoolProperties().setPropagateInterruptState(propagateInterruptState);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseThreadAffinity() {
+        return getPoolProperties().getUseThreadAffinity();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseThreadAffinity(boolean useThreadAffinity) {
+        getPoolProperties().setUseThreadAffinity(useThreadAffinity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseStaticProxy() {
+        return getPoolProperties().getUseStaticProxy();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseStaticProxy(boolean useStaticProxy) {
+        getPoolProperties().setUseStaticProxy(useStaticProxy);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -15,6 +15,9 @@
  */
 package org.apache.tomcat.jdbc.pool.jmx;
 
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+
 import org.apache.tomcat.jdbc.pool.PoolConfiguration;
 
 public interface ConnectionPoolMBean extends PoolConfiguration  {
@@ -35,6 +38,16 @@ public interface ConnectionPoolMBean extends PoolConfiguration  {
 
     public int getWaitCount();
 
+    /**
+     * Returns the hits, misses and evictions of the
+     * {@link org.apache.tomcat.jdbc.pool.interceptor.StatementCache} per SQL
+     * text.
+     * @return the statistics, or <code>null</code> if the pool does not use a
+     *         statement cache
+     * @throws OpenDataException if the statistics can't be converted
+     */
+    public CompositeData[] getStatementCacheStatistics() throws OpenDataException;
+
     //=================================================================
     //       POOL OPERATIONS
     //=================================================================
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+import org.apache.tomcat.jdbc.pool.StaticProxyConnection;
+import org.apache.tomcat.jdbc.test.driver.Driver;
+
+public class StaticProxyTest extends DefaultTestCase {
+
+    public StaticProxyTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public org.apache.tomcat.jdbc.pool.DataSource createDefaultDataSource() {
+        org.apache.tomcat.jdbc.pool.DataSource ds = super.createDefaultDataSource();
+        ds.getPoolProperties().setDriverClassName(Driver.class.getName());
+        ds.getPoolProperties().setUrl(Driver.url);
+        ds.getPoolProperties().setInitialSize(0);
+        ds.getPoolProperties().setMaxIdle(1);
+        ds.getPoolProperties().setMinIdle(1);
+        ds.getPoolProperties().setMaxActive(1);
+        ds.getPoolProperties().setUseStaticProxy(true);
+        return ds;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Driver.reset();
+        super.tearDown();
+    }
+
+    public void testStaticProxy() throws Exception {
+        Connection con = datasource.getConnection();
+        assertTrue(con instanceof StaticProxyConnection);
+        assertTrue(con instanceof javax.sql.PooledConnection);
+        Connection delegate = ((javax.sql.PooledConnection) con).getConnection();
+        assertTrue(delegate instanceof org.apache.tomcat.jdbc.test.driver.Connection);
+        assertNotNull(con.unwrap(PooledConnection.class));
+        assertTrue(con.isWrapperFor(org.apache.tomcat.jdbc.test.driver.Connection.class));
+        Statement st = con.createStatement();
+        assertNotNull(st);
+        assertFalse(Proxy.isProxyClass(st.getClass()));
+        st.close();
+        assertEquals(1, datasource.getActive());
+        con.close();
+        assertEquals(0, datasource.getActive());
+        assertEquals(1, datasource.getIdle());
+    }
+
+    public void testClosed() throws Exception {
+        Connection con1 = datasource.getConnection();
+        con1.close();
+        assertTrue(con1.isClosed());
+        assertFalse(con1.isValid(0));
+        // Closing again is a no-op
+        con1.close();
+        assertEquals(1, datasource.getIdle());
+
+        // The same pooled connection is handed out again
+        Connection con2 = datasource.getConnection();
+        assertNotSame(con1, con2);
+        assertTrue(con1.isClosed());
+        assertFalse(con2.isClosed());
+        try {
+            con1.createStatement();
+            fail("A closed connection must not be usable");
+        } catch (SQLException x) {
+            // Expected
+        }
+        con1.close();
+        assertEquals(1, datasource.getActive());
+        con2.close();
+        assertEquals(0, datasource.getActive());
+    }
+
+    public void testNotDisposable() throws Exception {
+        datasource.getPoolProperties().setUseDisposableConnectionFacade(false);
+        Connection con = datasource.getConnection();
+        assertTrue(con instanceof StaticProxyConnection);
+        con.close();
+        assertTrue(con.isClosed());
+        try {
+            con.createStatement();
+            fail("A closed connection must not be usable");
+        } catch (SQLException x) {
+            // Expected
+        }
+        con.close();
+        assertEquals(1, datasource.getIdle());
+    }
+
+    public void testInterceptorsUseDynamicProxy() throws Exception {
+        datasource.getPoolProperties().setJdbcInterceptors("ConnectionState");
+        Connection con = datasource.getConnection();
+        assertTrue(Proxy.isProxyClass(con.getClass()));
+        con.close();
+    }
+}
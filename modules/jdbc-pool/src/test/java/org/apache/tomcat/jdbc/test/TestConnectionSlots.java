@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.ConnectionSlots;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+import org.apache.tomcat.jdbc.test.driver.Driver;
+
+public class TestConnectionSlots extends TestCase {
+    protected ConnectionPool pool = null;
+    protected ConnectionSlots slots = null;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PoolProperties p = new PoolProperties();
+        p.setDriverClassName(Driver.class.getName());
+        p.setUrl(Driver.url);
+        p.setInitialSize(0);
+        p.setMinIdle(0);
+        p.setJmxEnabled(false);
+        p.setTimeBetweenEvictionRunsMillis(0);
+        this.pool = new ConnectionPool(p);
+        this.slots = new ConnectionSlots(3);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.pool = null;
+        this.slots = null;
+        super.tearDown();
+    }
+
+    private PooledConnection create() {
+        return new PooledConnection(pool.getPoolProperties(), pool);
+    }
+
+    public void testAddRemove() throws Exception {
+        PooledConnection a = create();
+        PooledConnection b = create();
+        PooledConnection c = create();
+        PooledConnection d = create();
+        assertTrue(slots.add(a));
+        assertTrue(slots.add(b));
+        assertTrue(slots.add(c));
+        assertEquals(3, slots.size());
+        assertFalse("The set should be full", slots.add(d));
+        assertFalse(slots.contains(d));
+        assertFalse(slots.remove(d));
+
+        assertTrue(slots.remove(b));
+        assertFalse("A connection is only removed once", slots.remove(b));
+        assertFalse(slots.contains(b));
+        assertEquals(2, slots.size());
+
+        assertTrue(slots.add(d));
+        assertTrue(slots.contains(d));
+        assertFalse("The slot of b has been reused", slots.remove(b));
+        assertEquals(3, slots.size());
+    }
+
+    public void testIterator() throws Exception {
+        PooledConnection a = create();
+        PooledConnection b = create();
+        assertFalse(slots.iterator().hasNext());
+        slots.add(a);
+        slots.add(b);
+        Set<PooledConnection> seen = new HashSet<>();
+        Iterator<PooledConnection> it = slots.iterator();
+        while (it.hasNext()) {
+            PooledConnection con = it.next();
+            // Removing while iterating is allowed
+            assertTrue(slots.remove(con));
+            seen.add(con);
+        }
+        assertEquals(2, seen.size());
+        assertTrue(seen.contains(a));
+        assertTrue(seen.contains(b));
+        assertEquals(0, slots.size());
+    }
+
+    public void testConcurrent() throws Exception {
+        final int threads = 3;
+        final int iterations = 100000;
+        final boolean[] failed = new boolean[1];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final PooledConnection con = create();
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < iterations; j++) {
+                        if (!slots.add(con) || !slots.remove(con)) {
+                            failed[0] = true;
+                            return;
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertFalse(failed[0]);
+        assertEquals(0, slots.size());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Map;
+
+import org.apache.tomcat.jdbc.pool.interceptor.SlowQueryReport;
+import org.apache.tomcat.jdbc.pool.interceptor.SlowQueryReport.QueryStats;
+import org.apache.tomcat.jdbc.test.driver.Driver;
+
+public class TestSlowQueryReportStats extends DefaultTestCase {
+
+    public TestSlowQueryReportStats(String name) {
+        super(name);
+    }
+
+    @Override
+    public org.apache.tomcat.jdbc.pool.DataSource createDefaultDataSource() {
+        org.apache.tomcat.jdbc.pool.DataSource ds = super.createDefaultDataSource();
+        ds.getPoolProperties().setDriverClassName(Driver.class.getName());
+        ds.getPoolProperties().setUrl(Driver.url);
+        ds.getPoolProperties().setInitialSize(1);
+        ds.getPoolProperties().setMinIdle(1);
+        ds.getPoolProperties().setMaxIdle(1);
+        ds.getPoolProperties().setMaxActive(1);
+        return ds;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Driver.reset();
+        super.tearDown();
+    }
+
+    public void testPercentiles() throws Exception {
+        QueryStats stats = new QueryStats("select 1");
+        assertEquals(0, stats.getPercentile(0.5));
+        for (int i=1; i<=1000; i++) {
+            stats.add(i, System.currentTimeMillis());
+        }
+        assertWithin(500, stats.getPercentile(0.5));
+        assertWithin(900, stats.getPercentile(0.9));
+        assertWithin(990, stats.getPercentile(0.99));
+        assertEquals(1000, stats.getPercentile(0.999));
+        assertEquals(1000, stats.getPercentile(1));
+
+        // Small times are exact
+        stats = new QueryStats("select 2");
+        for (int i=0; i<100; i++) {
+            stats.add(i%4, System.currentTimeMillis());
+        }
+        assertEquals(1, stats.getPercentile(0.5));
+        assertEquals(3, stats.getPercentile(0.99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about "+expected+" but was "+actual,
+                actual>=expected && actual<=expected+expected/8);
+    }
+
+    public void testNormalize() throws Exception {
+        assertEquals("select * from t1 where a = ? and b = ?",
+                SlowQueryReport.normalize("select *  from t1\n where a = 'x''y' and b = 42"));
+        assertEquals("select * from t where id in (?) and c = -?",
+                SlowQueryReport.normalize("select * from t where id in (1, 2,3) and c = -1.5"));
+        assertEquals("select \"col 1\" from t where x = ?",
+                SlowQueryReport.normalize(" select \"col 1\" from t where x = ? "));
+    }
+
+    public void testNormalizedStatsAndEviction() throws Exception {
+        datasource.setJdbcInterceptors(SlowQueryReport.class.getName()+
+                "(threshold=-1,logSlow=false,normalize=true,maxQueries=2)");
+        Connection con = datasource.getConnection();
+        for (int i=0; i<5; i++) {
+            Statement st = con.createStatement();
+            st.executeQuery("select * from a where id = "+i);
+            st.close();
+        }
+        Map<String,QueryStats> map = SlowQueryReport.getPoolStats(datasource.getPool().getName());
+        assertEquals(1, map.size());
+        assertEquals(5, map.get("select * from a where id = ?").getNrOfInvocations());
+
+        Statement st = con.createStatement();
+        st.executeQuery("select * from b");
+        st.executeQuery("select * from c");
+        st.close();
+        // The query that was used again since it was added is kept
+        assertEquals(2, map.size());
+        assertTrue(map.containsKey("select * from a where id = ?"));
+        assertTrue(map.containsKey("select * from c"));
+        con.close();
+    }
+}
@@ -18,8 +18,10 @@ package org.apache.tomcat.jdbc.test;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.util.Map;
 
 import org.apache.tomcat.jdbc.pool.interceptor.StatementCache;
+import org.apache.tomcat.jdbc.pool.interceptor.StatementCache.StatementStats;
 
 public class TestStatementCache extends DefaultTestCase {
 
@@ -39,8 +41,12 @@ public class TestStatementCache extends DefaultTestCase {
 
 
     private void config(boolean cachePrepared, boolean cacheCallable, int max) {
+        config(cachePrepared, cacheCallable, max, 0);
+    }
+
+    private void config(boolean cachePrepared, boolean cacheCallable, int max, int warmup) {
         datasource.getPoolProperties().setJdbcInterceptors(TestStatementCacheInterceptor.class.getName()+
-                "(prepared="+cachePrepared+",callable="+cacheCallable+",max="+max+")");
+                "(prepared="+cachePrepared+",callable="+cacheCallable+",max="+max+",warmup="+warmup+")");
     }
 
     public void testIsCacheEnabled() throws Exception {
@@ -125,6 +131,53 @@ public class TestStatementCache extends DefaultTestCase {
         con2.close();
     }
 
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        init();
+        config(true,false,2);
+        Connection con = datasource.getConnection();
+        con.prepareStatement("select 1").close();
+        con.prepareStatement("select 2").close();
+        assertEquals(2,interceptor.getCacheSize().get());
+        // Use select 1 so that select 2 is the least recently used statement
+        con.prepareStatement("select 1").close();
+        con.prepareStatement("select 3").close();
+        assertEquals(2,interceptor.getCacheSize().get());
+        assertNotNull(interceptor.isCached("select 1"));
+        assertNull(interceptor.isCached("select 2"));
+        assertNotNull(interceptor.isCached("select 3"));
+
+        Map<String,StatementStats> stats = StatementCache.getStatistics(datasource.getPool());
+        assertEquals(1,stats.get("select 1").getHits());
+        assertEquals(1,stats.get("select 1").getMisses());
+        assertEquals(0,stats.get("select 2").getHits());
+        assertEquals(1,stats.get("select 2").getEvictions());
+        assertEquals(1,stats.get("select 3").getMisses());
+        con.close();
+    }
+
+    public void testWarmup() throws Exception {
+        init();
+        config(true,false,100,1);
+        Connection con1 = datasource.getConnection();
+        for (int i=0; i<3; i++) {
+            con1.prepareStatement("select 1").close();
+            con1.prepareStatement("select 2").close();
+        }
+        con1.prepareStatement("select 1").close();
+        Map<String,StatementStats> stats = StatementCache.getStatistics(datasource.getPool());
+        assertEquals(3,stats.get("select 1").getHits());
+        assertEquals(2,stats.get("select 2").getHits());
+
+        // A new connection prepares the statement with the most hits
+        Connection con2 = datasource.getConnection();
+        con2.prepareStatement("select 3").close();
+        assertNotNull(interceptor.isCached("select 1"));
+        assertNull(interceptor.isCached("select 2"));
+        con2.prepareStatement("select 1").close();
+        assertEquals(4,stats.get("select 1").getHits());
+        con1.close();
+        con2.close();
+    }
 
     public static class TestStatementCacheInterceptor extends StatementCache {
         public TestStatementCacheInterceptor() {
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.test;
+
+import java.sql.Connection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.PooledConnection;
+
+import org.apache.tomcat.jdbc.test.driver.Driver;
+
+public class ThreadAffinityTest extends DefaultTestCase {
+
+    private static final int POOL_SIZE = 3;
+
+    public ThreadAffinityTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public org.apache.tomcat.jdbc.pool.DataSource createDefaultDataSource() {
+        org.apache.tomcat.jdbc.pool.DataSource ds = super.createDefaultDataSource();
+        ds.getPoolProperties().setDriverClassName(Driver.class.getName());
+        ds.getPoolProperties().setUrl(Driver.url);
+        ds.getPoolProperties().setInitialSize(POOL_SIZE);
+        ds.getPoolProperties().setMaxIdle(POOL_SIZE);
+        ds.getPoolProperties().setMinIdle(POOL_SIZE);
+        ds.getPoolProperties().setMaxActive(POOL_SIZE);
+        ds.getPoolProperties().setMaxWait(5000);
+        ds.getPoolProperties().setUseThreadAffinity(true);
+        return ds;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Driver.reset();
+        super.tearDown();
+    }
+
+    private static Object unwrap(Connection con) throws Exception {
+        return ((PooledConnection) con).getConnection();
+    }
+
+    public void testReclaim() throws Exception {
+        Connection con = datasource.getConnection();
+        Object first = unwrap(con);
+        con.close();
+        for (int i = 0; i < 5; i++) {
+            con = datasource.getConnection();
+            assertSame(first, unwrap(con));
+            assertEquals(1, datasource.getActive());
+            assertEquals(POOL_SIZE - 1, datasource.getIdle());
+            con.close();
+            assertEquals(0, datasource.getActive());
+            assertEquals(POOL_SIZE, datasource.getIdle());
+        }
+        assertEquals(POOL_SIZE, datasource.getSize());
+    }
+
+    public void testOtherThreadTakesIdleConnection() throws Exception {
+        final AtomicReference<Object> returned = new AtomicReference<>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Connection con = datasource.getConnection();
+                    returned.set(unwrap(con));
+                    con.close();
+                } catch (Exception x) {
+                    x.printStackTrace();
+                }
+            }
+        };
+        t.start();
+        t.join();
+        assertNotNull(returned.get());
+
+        // The connection returned by the other thread is not stranded
+        Set<Object> seen = new HashSet<>();
+        Connection[] cons = new Connection[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            cons[i] = datasource.getConnection();
+            seen.add(unwrap(cons[i]));
+        }
+        assertTrue(seen.contains(returned.get()));
+        assertEquals(POOL_SIZE, seen.size());
+        assertEquals(POOL_SIZE, datasource.getActive());
+        assertEquals(0, datasource.getIdle());
+        assertEquals(POOL_SIZE, datasource.getSize());
+
+        for (Connection con : cons) {
+            con.close();
+        }
+        assertEquals(POOL_SIZE, datasource.getIdle());
+    }
+
+    public void testConcurrentBorrow() throws Exception {
+        final int threads = 10;
+        final int iterations = 2000;
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < iterations; j++) {
+                            Connection con = datasource.getConnection();
+                            con.close();
+                        }
+                    } catch (Exception x) {
+                        failure.compareAndSet(null, x);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(failure.get());
+        assertEquals(0, datasource.getActive());
+        assertEquals(datasource.getSize(), datasource.getIdle());
+        assertTrue(datasource.getSize() <= POOL_SIZE);
+    }
+}
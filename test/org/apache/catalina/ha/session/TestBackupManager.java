@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.core.StandardContext;
+
+public class TestBackupManager {
+
+    @Test
+    public void testPromotedSessionExpires() throws Exception {
+        BackupManager mgr = new BackupManager();
+        mgr.setContext(new StandardContext());
+
+        // A backup copy of a session arrives through the replicated map
+        // rather than through add()
+        DeltaSession session = new DeltaSession(null);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(1, false);
+        session.setId("backup-1", false);
+        session.setPrimarySession(false);
+        session.setManager(mgr);
+
+        // The primary node fails and this node takes over the session
+        mgr.objectMadePrimary(session.getIdInternal(), session);
+        Assert.assertTrue(session.isPrimarySession());
+
+        Thread.sleep(2100);
+        mgr.processExpires();
+
+        Assert.assertEquals(1, mgr.getExpiredSessions());
+        Assert.assertFalse(session.isValid());
+    }
+}
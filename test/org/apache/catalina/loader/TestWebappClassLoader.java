@@ -0,0 +1,87 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.webresources.StandardRoot;
+
+public class TestWebappClassLoader extends TomcatBaseTest {
+
+    @Test
+    public void testJarLookups() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        File appDir = new File("test/webapp-3.0");
+        StandardContext ctx =
+            (StandardContext)tomcat.addContext("",  appDir.getAbsolutePath());
+
+        WebappLoader loader = new WebappLoader();
+        loader.setContext(ctx);
+        ctx.setLoader(loader);
+
+        ctx.setResources(new StandardRoot(ctx));
+        ctx.resourcesStart();
+
+        File f1 = new File("test/webapp-3.0-fragments/WEB-INF/lib");
+        ctx.getResources().createWebResourceSet(
+                WebResourceRoot.ResourceSetType.POST, f1.getAbsolutePath(),
+                "/WEB-INF/lib", "");
+
+        loader.start();
+        try {
+            WebappClassLoader cl = (WebappClassLoader) loader.getClassLoader();
+
+            // Only in the second JAR
+            URL url = cl.findResource("META-INF/resources/resourceF.jsp");
+            assertNotNull(url);
+            assertTrue(url.toString().contains("resources2.jar"));
+
+            // In both JARs
+            List<URL> urls = Collections.list(
+                    cl.findResources("META-INF/resources/resourceB.jsp"));
+            assertEquals(2, urls.size());
+
+            // Directory entries
+            assertNotNull(cl.findResource("META-INF/resources/folder/"));
+
+            // Package is present but the resource is not
+            assertNull(cl.findResource("META-INF/resources/missing.jsp"));
+
+            // Package is not present in any JAR
+            assertNull(cl.findResource("org/example/Missing.class"));
+            assertEquals(0, Collections.list(
+                    cl.findResources("org/example/Missing.class")).size());
+        } finally {
+            loader.stop();
+            ctx.setLoader(null);
+        }
+    }
+}
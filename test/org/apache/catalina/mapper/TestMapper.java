@@ -19,6 +19,7 @@ package org.apache.catalina.mapper;
 import java.util.HashMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
@@ -196,6 +197,172 @@ public class TestMapper extends LoggingBaseTest {
         assertTrue(mappingData.redirectPath.isNull());
     }
 
+    @Test
+    public void testMapHost() throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        MessageBytes uri = MessageBytes.newInstance();
+
+        // Host names are not case sensitive
+        set(host, "IOWEJOIEJFOIEW_Alias");
+        set(uri, "/foo");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("blah7", mappingData.host.getName());
+        assertEquals("context1", mappingData.context.getName());
+
+        // Unknown hosts use the default host
+        mappingData.recycle();
+        set(host, "unknown");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("blah3", mappingData.host.getName());
+        assertNull(mappingData.context);
+
+        // Removing the host removes its aliases
+        mapper.removeHost("iowejoiejfoiew");
+        mappingData.recycle();
+        set(host, "iowejoiejfoiew_alias");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("blah3", mappingData.host.getName());
+
+        mapper.addHostAlias("ylwrehirkuewh", "newalias");
+        mappingData.recycle();
+        set(host, "newAlias");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("blah3", mappingData.host.getName());
+    }
+
+    @Test
+    public void testMapNoHosts() throws Exception {
+        Mapper emptyMapper = new Mapper();
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        MessageBytes uri = MessageBytes.newInstance();
+
+        set(host, "localhost");
+        set(uri, "/foo");
+        emptyMapper.map(host, uri, null, mappingData);
+        assertNull(mappingData.host);
+        assertNull(mappingData.context);
+    }
+
+    @Test
+    public void testMapContext() throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        set(host, "iowejoiejfoiew");
+        MessageBytes uri = MessageBytes.newInstance();
+
+        // Only whole path segments match
+        set(uri, "/foobar/bla");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("context0", mappingData.context.getName());
+        assertEquals("", mappingData.contextPath.toString());
+
+        mappingData.recycle();
+        set(uri, "/foo/bar/blaa");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("context2", mappingData.context.getName());
+
+        mappingData.recycle();
+        set(uri, "/foo/bar/bla");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("context3", mappingData.context.getName());
+
+        // Contexts added later are visible to the alias
+        Host blah7 = createHost("blah7");
+        mapper.addContextVersion("iowejoiejfoiew", blah7, "/foo/baz",
+                "0", createContext("context4"), new String[0], null);
+        MessageBytes alias = MessageBytes.newInstance();
+        set(alias, "iowejoiejfoiew_alias");
+        mappingData.recycle();
+        set(uri, "/foo/baz/x");
+        mapper.map(alias, uri, null, mappingData);
+        assertEquals("context4", mappingData.context.getName());
+
+        // Removing a nested context keeps the others
+        mapper.removeContextVersion(createContext("context2"),
+                "iowejoiejfoiew", "/foo/bar", "0");
+        mappingData.recycle();
+        set(uri, "/foo/bar/blah");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("context1", mappingData.context.getName());
+
+        mappingData.recycle();
+        set(uri, "/foo/bar/bla/x");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("context3", mappingData.context.getName());
+
+        // Without a ROOT context nothing is mapped
+        mapper.removeContextVersion(createContext("context0"),
+                "iowejoiejfoiew", "", "0");
+        mappingData.recycle();
+        set(uri, "/other");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("blah7", mappingData.host.getName());
+        assertNull(mappingData.context);
+    }
+
+    @Test
+    public void testMappingCache() throws Exception {
+        mapper.setMappingCacheSize(2);
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        set(host, "iowejoiejfoiew");
+        MessageBytes uri = MessageBytes.newInstance();
+
+        for (int i = 0; i < 2; i++) {
+            mappingData.recycle();
+            set(uri, "/foo/bar/blah/bobou/foo");
+            mapper.map(host, uri, null, mappingData);
+            assertEquals("blah7", mappingData.host.getName());
+            assertEquals("context2", mappingData.context.getName());
+            assertEquals("wrapper5", mappingData.wrapper.getName());
+            assertEquals("/foo/bar", mappingData.contextPath.toString());
+            assertEquals("/blah/bobou", mappingData.wrapperPath.toString());
+            assertEquals("/foo", mappingData.pathInfo.toString());
+            assertTrue(mappingData.redirectPath.isNull());
+
+            mappingData.recycle();
+            set(uri, "/foo/bar");
+            mapper.map(host, uri, null, mappingData);
+            assertEquals("context2", mappingData.context.getName());
+            assertNull(mappingData.wrapper);
+            assertEquals("/foo/bar/", mappingData.redirectPath.toString());
+        }
+
+        // Fill the cache beyond its size
+        for (int i = 0; i < 4; i++) {
+            mappingData.recycle();
+            set(uri, "/foo/bar/" + i + ".jsp");
+            mapper.map(host, uri, null, mappingData);
+            assertEquals("wrapper3", mappingData.wrapper.getName());
+            assertEquals("/" + i + ".jsp", mappingData.wrapperPath.toString());
+            assertTrue(mappingData.pathInfo.isNull());
+        }
+
+        // Updates of the mapper are visible straight away
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "0", "/3.jsp",
+                createWrapper("wrapper8"), false, false);
+        mappingData.recycle();
+        set(uri, "/foo/bar/3.jsp");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("wrapper8", mappingData.wrapper.getName());
+
+        mapper.removeContextVersion(createContext("context2"),
+                "iowejoiejfoiew", "/foo/bar", "0");
+        mappingData.recycle();
+        set(uri, "/foo/bar/3.jsp");
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("context1", mappingData.context.getName());
+        assertNull(mappingData.wrapper);
+    }
+
+    private static void set(MessageBytes mb, String value) {
+        // Drop the chars of the previous value
+        mb.recycle();
+        mb.setString(value);
+    }
+
     @Test
     public void testPerformance() throws Exception {
         // Takes ~1s on markt's laptop. If this takes more than 4s something
@@ -16,22 +16,33 @@
  */
 package org.apache.catalina.servlets;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -39,6 +50,8 @@ import org.junit.Test;
 
 import static org.apache.catalina.startup.SimpleHttpClient.CRLF;
 
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
@@ -287,12 +300,191 @@ public class TestDefaultServlet extends TomcatBaseTest {
         assertTrue(client.isResponse404());
     }
 
+    /**
+     * Test serving of a precompressed .gz sibling of a resource.
+     */
+    @Test
+    public void testPrecompressed() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "MyApp");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        byte[] plain = createCompressableContent();
+        writeFile(new File(appDir, "app.css"), plain);
+        byte[] gzip = gzip(plain);
+        writeFile(new File(appDir, "app.css.gz"), gzip);
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("/MyApp", appDir.getAbsolutePath());
+        Wrapper w = Tomcat.addServlet(ctx, "default", new DefaultServlet());
+        w.addInitParameter("precompressed", "true");
+        ctx.addServletMapping("/", "default");
+        ctx.addMimeMapping("css", "text/css");
+        tomcat.start();
+
+        String url = "http://localhost:" + getPort() + "/MyApp/app.css";
+        ByteChunk res = new ByteChunk();
+        Map<String, List<String>> resHead = new HashMap<>();
+
+        // Client that accepts gzip gets the .gz file
+        int rc = getUrl(url, res, acceptEncoding("gzip, deflate"), resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertArrayEquals(gzip, toBytes(res));
+        assertEquals("gzip", getHeader(resHead, "Content-Encoding"));
+        assertEquals("accept-encoding", getHeader(resHead, "Vary"));
+        assertTrue(getHeader(resHead, "Content-Type").startsWith("text/css"));
+
+        // Client that refuses gzip gets the original file
+        resHead.clear();
+        rc = getUrl(url, res, acceptEncoding("gzip;q=0, identity"), resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertArrayEquals(plain, toBytes(res));
+        assertNull(getHeader(resHead, "Content-Encoding"));
+        assertEquals("accept-encoding", getHeader(resHead, "Vary"));
+    }
+
+    /**
+     * Test serving of a compressed representation held in the resource cache,
+     * including conditional and range requests against that representation.
+     */
+    @Test
+    public void testCacheCompressed() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "MyApp");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        byte[] plain = createCompressableContent();
+        writeFile(new File(appDir, "app.js"), plain);
+        writeFile(new File(appDir, "app.png"), plain);
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("/MyApp", appDir.getAbsolutePath());
+        Wrapper w = Tomcat.addServlet(ctx, "default", new DefaultServlet());
+        w.addInitParameter("cacheCompressed", "true");
+        ctx.addServletMapping("/", "default");
+        ctx.addMimeMapping("js", "application/javascript");
+        ctx.addMimeMapping("png", "image/png");
+        tomcat.start();
+
+        String url = "http://localhost:" + getPort() + "/MyApp/app.js";
+        ByteChunk res = new ByteChunk();
+        Map<String, List<String>> resHead = new HashMap<>();
+
+        int rc = getUrl(url, res, acceptEncoding("gzip"), resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals("gzip", getHeader(resHead, "Content-Encoding"));
+        assertEquals("accept-encoding", getHeader(resHead, "Vary"));
+        byte[] gzip = toBytes(res);
+        assertArrayEquals(plain, gunzip(gzip));
+        String gzipETag = getHeader(resHead, "ETag");
+
+        resHead.clear();
+        rc = getUrl(url, res, null, resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertArrayEquals(plain, toBytes(res));
+        assertNull(getHeader(resHead, "Content-Encoding"));
+        assertFalse(gzipETag.equals(getHeader(resHead, "ETag")));
+
+        // The compressed representation has its own validator
+        Map<String, List<String>> reqHead = acceptEncoding("gzip");
+        reqHead.put("If-None-Match", Collections.singletonList(gzipETag));
+        resHead.clear();
+        rc = getUrl(url, res, reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, rc);
+
+        // Ranges apply to the compressed representation
+        reqHead = acceptEncoding("gzip");
+        reqHead.put("Range", Collections.singletonList("bytes=0-9"));
+        resHead.clear();
+        rc = getUrl(url, res, reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        assertEquals("bytes 0-9/" + gzip.length,
+                getHeader(resHead, "Content-Range"));
+        assertArrayEquals(Arrays.copyOf(gzip, 10), toBytes(res));
+
+        // Types that are not compressable are never compressed
+        resHead.clear();
+        rc = getUrl("http://localhost:" + getPort() + "/MyApp/app.png", res,
+                acceptEncoding("gzip"), resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertArrayEquals(plain, toBytes(res));
+        assertNull(getHeader(resHead, "Content-Encoding"));
+        assertNull(getHeader(resHead, "Vary"));
+    }
+
+    private static byte[] createCompressableContent() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("Line ");
+            sb.append(i);
+            sb.append(" of some very compressable content\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeFile(File file, byte[] content)
+            throws IOException {
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzos = new GZIPOutputStream(baos)) {
+            gzos.write(content);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] content) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPInputStream gzis = new GZIPInputStream(
+                new ByteArrayInputStream(content))) {
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = gzis.read(buf)) > 0) {
+                baos.write(buf, 0, n);
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] toBytes(ByteChunk bc) {
+        return Arrays.copyOfRange(bc.getBuffer(), bc.getStart(), bc.getEnd());
+    }
+
+    private static Map<String, List<String>> acceptEncoding(String value) {
+        Map<String, List<String>> reqHead = new HashMap<>();
+        reqHead.put("Accept-Encoding", Collections.singletonList(value));
+        return reqHead;
+    }
+
+    private static String getHeader(Map<String, List<String>> resHead,
+            String name) {
+        for (Map.Entry<String, List<String>> entry : resHead.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
     public static int getUrl(String path, ByteChunk out,
             Map<String, List<String>> resHead) throws IOException {
         out.recycle();
         return TomcatBaseTest.getUrl(path, out, resHead);
     }
 
+    public static int getUrl(String path, ByteChunk out,
+            Map<String, List<String>> reqHead,
+            Map<String, List<String>> resHead) throws IOException {
+        out.recycle();
+        return TomcatBaseTest.getUrl(path, out, reqHead, resHead);
+    }
+
     private static class TestCustomErrorClient extends SimpleHttpClient {
 
         public TestCustomErrorClient(int port) {
@@ -78,14 +78,6 @@ public class Benchmarks {
             // Ignore - this is expected
         }
         mgr.generateSessionId();
-        while (mgr.sessionCreationTiming.size() <
-                ManagerBase.TIMING_STATS_CACHE_SIZE) {
-            mgr.sessionCreationTiming.add(null);
-        }
-        while (mgr.sessionExpirationTiming.size() <
-                ManagerBase.TIMING_STATS_CACHE_SIZE) {
-            mgr.sessionExpirationTiming.add(null);
-        }
 
 
         Thread[] threads = new Thread[threadCount];
@@ -175,14 +167,6 @@ public class Benchmarks {
         }
         mgr.setContext(new StandardContext());
         mgr.generateSessionId();
-        while (mgr.sessionCreationTiming.size() <
-                ManagerBase.TIMING_STATS_CACHE_SIZE) {
-            mgr.sessionCreationTiming.add(null);
-        }
-        while (mgr.sessionExpirationTiming.size() <
-                ManagerBase.TIMING_STATS_CACHE_SIZE) {
-            mgr.sessionExpirationTiming.add(null);
-        }
 
         Thread[] threads = new Thread[threadCount];
 
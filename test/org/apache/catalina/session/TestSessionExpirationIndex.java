@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+
+public class TestSessionExpirationIndex {
+
+    @Test
+    public void testPollDue() {
+        SessionExpirationIndex index = new SessionExpirationIndex(1000);
+        long now = System.currentTimeMillis();
+
+        Session s1 = new StandardSession(null);
+        Session s2 = new StandardSession(null);
+        index.schedule(s1, now + 5000);
+        index.schedule(s2, now + 60000);
+        Assert.assertEquals(2, index.size());
+
+        Assert.assertEquals(0, index.pollDue(now).size());
+
+        List<Session> due = index.pollDue(now + 10000);
+        Assert.assertEquals(1, due.size());
+        Assert.assertSame(s1, due.get(0));
+        Assert.assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testReschedule() {
+        SessionExpirationIndex index = new SessionExpirationIndex(1000);
+        long now = System.currentTimeMillis();
+
+        Session s1 = new StandardSession(null);
+        index.schedule(s1, now + 5000);
+        index.schedule(s1, now + 60000);
+        Assert.assertEquals(1, index.size());
+
+        Assert.assertEquals(0, index.pollDue(now + 10000).size());
+        Assert.assertEquals(1, index.pollDue(now + 70000).size());
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRemove() {
+        SessionExpirationIndex index = new SessionExpirationIndex(1000);
+        long now = System.currentTimeMillis();
+
+        Session s1 = new StandardSession(null);
+        index.schedule(s1, now + 5000);
+        index.remove(s1);
+
+        Assert.assertEquals(0, index.size());
+        Assert.assertEquals(0, index.pollDue(now + 10000).size());
+    }
+
+    @Test
+    public void testPastExpiryDueAtNextTick() {
+        SessionExpirationIndex index = new SessionExpirationIndex(1000);
+        long now = System.currentTimeMillis();
+
+        Session s1 = new StandardSession(null);
+        index.schedule(s1, now - 5000);
+
+        Assert.assertEquals(1, index.pollDue(now + 2000).size());
+    }
+
+    @Test
+    public void testManagerExpiresOnlyDueSessions() throws Exception {
+        StandardManager mgr = new StandardManager();
+        try {
+            mgr.startInternal();
+        } catch (LifecycleException e) {
+            // Ignore - this is expected
+        }
+        mgr.setContext(new StandardContext());
+
+        Session expired = mgr.createSession(null);
+        Session active = mgr.createSession(null);
+        Session eternal = mgr.createSession(null);
+        Assert.assertEquals(3, mgr.expirationIndex.size());
+
+        eternal.setMaxInactiveInterval(-1);
+        Assert.assertEquals(2, mgr.expirationIndex.size());
+
+        // Make the session look as if it was last used an hour ago
+        expired.setCreationTime(System.currentTimeMillis() - 3600 * 1000);
+        expired.setMaxInactiveInterval(60);
+
+        // Sessions past their expiry time are checked from the next tick
+        Assert.assertEquals(1,
+                mgr.expireDueSessions(System.currentTimeMillis() + 2000));
+
+        Assert.assertEquals(2, mgr.getActiveSessions());
+        Assert.assertFalse(expired.isValid());
+        Assert.assertTrue(active.isValid());
+        Assert.assertTrue(eternal.isValid());
+        Assert.assertEquals(1, mgr.expirationIndex.size());
+        Assert.assertEquals(1, mgr.getExpiredSessions());
+    }
+}
@@ -16,15 +16,34 @@
  */
 package org.apache.catalina.valves;
 
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.junit.Assert;
 import org.junit.Test;
 
-public class TestAccessLogValve {
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.startup.ExpandWar;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.valves.AccessLogValve.AccessLogElement;
+import org.apache.catalina.valves.AccessLogValve.ByteAccessLogElement;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+public class TestAccessLogValve extends TomcatBaseTest {
 
     // Note that there is a similar test:
     // org.apache.juli.TestDateFormatCache.testBug54044()
@@ -91,4 +110,216 @@ public class TestAccessLogValve {
     private String generateExpected(SimpleDateFormat sdf, long secs) {
         return sdf.format(new Date(secs * 1000));
     }
+
+    @Test
+    public void testAsyncWrite() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                "testAsyncWrite");
+        ExpandWar.delete(dir);
+
+        StandardEngine engine = new StandardEngine();
+        engine.setName("testAsyncWrite");
+        final AccessLogValve valve = new AccessLogValve();
+        valve.setContainer(engine);
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setRotatable(false);
+        valve.setAsyncWrite(true);
+        valve.setQueueSize(16);
+        valve.setOverflowPolicy("block");
+        valve.setPattern("common");
+
+        final int threadCount = 4;
+        final int messageCount = 5000;
+
+        valve.start();
+        try {
+            Thread[] threads = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                final String name = "t" + t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        CharArrayWriter message = new CharArrayWriter();
+                        for (int i = 0; i < messageCount; i++) {
+                            message.reset();
+                            message.append(name).append(' ').append(
+                                    Integer.toString(i));
+                            valve.log(message);
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            valve.stop();
+        }
+
+        Assert.assertEquals(0, valve.getDroppedLines());
+        Assert.assertEquals(0, valve.getQueueDepth());
+
+        List<String> lines = Files.readAllLines(
+                new File(dir, "access_log.").toPath(),
+                StandardCharsets.ISO_8859_1);
+        Assert.assertEquals(threadCount * messageCount, lines.size());
+
+        // Messages from each thread must be written in order
+        int[] next = new int[threadCount];
+        for (String line : lines) {
+            int t = line.charAt(1) - '0';
+            Assert.assertEquals("t" + t + " " + next[t], line);
+            next[t]++;
+        }
+
+        ExpandWar.delete(dir);
+    }
+
+    @Test
+    public void testOverflowPolicy() {
+        AccessLogValve valve = new AccessLogValve();
+        Assert.assertEquals("block", valve.getOverflowPolicy());
+        valve.setOverflowPolicy("COUNT");
+        Assert.assertEquals("count", valve.getOverflowPolicy());
+        valve.setOverflowPolicy("invalid");
+        Assert.assertEquals("count", valve.getOverflowPolicy());
+    }
+
+    @Test
+    public void testByteElementsMatchCharElements() {
+        AccessLogValve valve = new AccessLogValve();
+        valve.setPattern("%h %a %l %u %t \"%r\" %s %m %U %q %H %p %D %T %S " +
+                "%{User-Agent}i %{X-Multi}i %{X-None}i %{attr}r %{none}r " +
+                "%{begin:msec}t %{sec}t %{end:msec_frac}t " +
+                "%{yyyy-MM-dd HH:mm:ss.SSS}t [\u00e9\u20ac]");
+
+        org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+        setBytes(coyoteRequest.method(), "GET");
+        setBytes(coyoteRequest.requestURI(), "/path/caf\u00e9");
+        setBytes(coyoteRequest.queryString(), "a=b&c=d");
+        coyoteRequest.protocol().setString("HTTP/1.1");
+        coyoteRequest.setServerPort(8080);
+        coyoteRequest.setAttribute("attr", Integer.valueOf(42));
+        setBytes(coyoteRequest.getMimeHeaders().addValue("User-Agent"),
+                "Tester/1.0");
+        setBytes(coyoteRequest.getMimeHeaders().addValue("X-Multi"), "one");
+        coyoteRequest.getMimeHeaders().addValue("x-multi").setString("two");
+        Request request = new Request();
+        request.setCoyoteRequest(coyoteRequest);
+        request.setRemoteAddr("192.168.0.1");
+        request.setRemoteHost("client.example.org");
+
+        Response response = new Response() {
+            @Override
+            public int getStatus() {
+                return 404;
+            }
+        };
+
+        Date date = new Date(1234567890123L);
+        for (AccessLogElement element : valve.logElements) {
+            Assert.assertTrue(element.getClass().getName(),
+                    element instanceof ByteAccessLogElement);
+            CharArrayWriter chars = new CharArrayWriter();
+            element.addElement(chars, date, request, response, 1234);
+            ByteChunk bytes = new ByteChunk(16);
+            ((ByteAccessLogElement) element).addElement(
+                    bytes, date, request, response, 1234);
+            String expected = new String(chars.toString().getBytes(
+                    B2CConverter.ISO_8859_1), B2CConverter.ISO_8859_1);
+            Assert.assertEquals(element.getClass().getName(), expected,
+                    new String(bytes.getBuffer(), bytes.getStart(),
+                            bytes.getLength(), B2CConverter.ISO_8859_1));
+        }
+    }
+
+    private static void setBytes(MessageBytes mb, String value) {
+        byte[] bytes = value.getBytes(B2CConverter.ISO_8859_1);
+        mb.setBytes(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testBytePlanSync() throws Exception {
+        doTestBytePlan(false);
+    }
+
+    @Test
+    public void testBytePlanAsync() throws Exception {
+        doTestBytePlan(true);
+    }
+
+    @Test
+    public void testOverriddenLogMethod() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/hello", "hello");
+
+        File dir = new File(getTemporaryDirectory(), "access-override");
+        ExpandWar.delete(dir);
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        AccessLogValve valve = new AccessLogValve() {
+            @Override
+            public void log(CharArrayWriter message) {
+                messages.add(message.toString());
+            }
+        };
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setAsyncWrite(true);
+        valve.setPattern("%m %U %s");
+        tomcat.getHost().getPipeline().addValve(valve);
+
+        tomcat.start();
+        // Every message must be passed to the overridden method
+        Assert.assertNull(valve.byteLogElements);
+
+        getUrl("http://localhost:" + getPort() + "/hello");
+
+        // The request is logged after the response has been sent
+        int count = 0;
+        while (messages.size() < 1 && count < 100) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals("GET /hello 200", messages.get(0));
+    }
+
+    private void doTestBytePlan(boolean asyncWrite) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/hello", "hello");
+
+        File dir = new File(getTemporaryDirectory(), "access-" + asyncWrite);
+        ExpandWar.delete(dir);
+        AccessLogValve valve = new AccessLogValve();
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setRotatable(false);
+        valve.setBuffered(false);
+        valve.setAsyncWrite(asyncWrite);
+        valve.setPattern("%m %U%q %H %s %{X-Test}i");
+        tomcat.getHost().getPipeline().addValve(valve);
+
+        tomcat.start();
+        Assert.assertNotNull(valve.byteLogElements);
+
+        getUrl("http://localhost:" + getPort() + "/hello?a=b");
+        getUrl("http://localhost:" + getPort() + "/missing");
+
+        // The request is logged after the response has been sent
+        File log = new File(dir, "access_log.");
+        List<String> lines = Files.readAllLines(
+                log.toPath(), StandardCharsets.ISO_8859_1);
+        int count = 0;
+        while (lines.size() < 2 && count < 100) {
+            Thread.sleep(100);
+            lines = Files.readAllLines(log.toPath(), StandardCharsets.ISO_8859_1);
+            count++;
+        }
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("GET /hello?a=b HTTP/1.1 200 -", lines.get(0));
+        Assert.assertEquals("GET /missing HTTP/1.1 404 -", lines.get(1));
+    }
 }
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.WebResource;
+
+public class TestCache {
+
+    @Test
+    public void testHit() {
+        Cache cache = new Cache(new TesterRoot());
+
+        WebResource r1 = cache.getResource("/a");
+        WebResource r2 = cache.getResource("/a");
+
+        Assert.assertSame(r1, r2);
+        Assert.assertEquals(2, cache.getLookupCount());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testColdEntriesRejectedWhenFull() {
+        Cache cache = new Cache(new TesterRoot());
+        // 1k is room for two (empty) entries
+        cache.setMaxSize(1);
+
+        // Make two entries popular
+        for (int i = 0; i < 5; i++) {
+            cache.getResource("/hot1");
+            cache.getResource("/hot2");
+        }
+
+        // A scan of cold entries should not displace them
+        for (int i = 0; i < 100; i++) {
+            cache.getResource("/cold" + i);
+        }
+
+        Assert.assertEquals(0, cache.getEvictionCount());
+        Assert.assertEquals(100, cache.getAdmissionRejectedCount());
+
+        long hits = cache.getHitCount();
+        cache.getResource("/hot1");
+        cache.getResource("/hot2");
+        Assert.assertEquals(hits + 2, cache.getHitCount());
+    }
+
+    @Test
+    public void testPopularEntryAdmitted() {
+        Cache cache = new Cache(new TesterRoot());
+        cache.setMaxSize(1);
+
+        cache.getResource("/old1");
+        cache.getResource("/old2");
+
+        // Rejected the first couple of times but admitted once it is requested
+        // more often than the current entries
+        for (int i = 0; i < 5; i++) {
+            cache.getResource("/new");
+        }
+
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        long hits = cache.getHitCount();
+        cache.getResource("/new");
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+        Assert.assertTrue(cache.getSize() <= cache.getMaxSize());
+    }
+
+    @Test
+    public void testBackgroundProcess() {
+        TesterRoot root = new TesterRoot();
+        Cache cache = new Cache(root);
+        cache.setMaxSize(10);
+
+        for (int i = 0; i < 20; i++) {
+            cache.getResource("/r" + i);
+        }
+        Assert.assertEquals(0, cache.getEvictionCount());
+
+        cache.setMaxSize(5);
+        cache.backgroundProcess();
+        Assert.assertTrue(cache.getSize() <= 5 * 9 / 10);
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testMappedContent() throws IOException {
+        byte[] data = createData();
+        File file = createFile(data);
+
+        Cache cache = new Cache(new TesterRoot(file));
+        // Content is too large for the heap so it must be mapped
+        cache.setMaxObjectSize(0);
+        cache.setMappedMaxSize(8);
+
+        WebResource r1 = cache.getResource("/mapped1");
+        Assert.assertEquals(4, cache.getMappedSize());
+        // Only the metadata counts against the heap budget
+        Assert.assertEquals(0, cache.getSize());
+
+        ByteBuffer content = r1.getContentBuffer();
+        Assert.assertNotNull(content);
+        Assert.assertEquals(data.length, content.remaining());
+        Assert.assertEquals((byte) 100, content.get(100));
+        r1.releaseContentBuffer(content);
+        Assert.assertArrayEquals(data, r1.getContent());
+
+        byte[] read = new byte[data.length];
+        try (InputStream is = r1.getInputStream()) {
+            int pos = 0;
+            int n;
+            while ((n = is.read(read, pos, read.length - pos)) > 0) {
+                pos += n;
+            }
+        }
+        Assert.assertArrayEquals(data, read);
+
+        // Exceeding the mapped budget evicts the least recently used entry
+        cache.getResource("/mapped2");
+        cache.getResource("/mapped1");
+        cache.getResource("/mapped3");
+        Assert.assertEquals(8, cache.getMappedSize());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        long hits = cache.getHitCount();
+        cache.getResource("/mapped1");
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testMappedContentReleasedWhenUnused() throws IOException {
+        byte[] data = createData();
+        File file = createFile(data);
+
+        Cache cache = new Cache(new TesterRoot(file));
+        cache.setMaxObjectSize(0);
+        cache.setMappedMaxSize(4);
+
+        WebResource r1 = cache.getResource("/mapped1");
+        ByteBuffer content = r1.getContentBuffer();
+        InputStream is = r1.getInputStream();
+
+        // Evict the entry whilst its content is in use
+        cache.getResource("/mapped2");
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(4, cache.getMappedSize());
+
+        // Content that is in use remains mapped
+        Assert.assertEquals((byte) 100, content.get(100));
+        Assert.assertEquals(data[0] & 0xFF, is.read());
+        r1.releaseContentBuffer(content);
+        is.close();
+        try {
+            is.read();
+            Assert.fail();
+        } catch (IOException expected) {
+            // Expected
+        }
+
+        // Once released, the evicted entry no longer provides its content
+        // from the mapping
+        Assert.assertNull(r1.getContentBuffer());
+        Assert.assertArrayEquals(data, r1.getContent());
+
+        WebResource r2 = cache.getResource("/mapped2");
+        cache.clear();
+        Assert.assertEquals(0, cache.getMappedSize());
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertNull(r2.getContentBuffer());
+    }
+
+    private static byte[] createData() {
+        byte[] data = new byte[4096];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private static File createFile(byte[] data) throws IOException {
+        File file = File.createTempFile("mapped", ".bin");
+        file.deleteOnExit();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(data);
+        }
+        return file;
+    }
+
+
+    private static class TesterRoot extends StandardRoot {
+
+        private final File file;
+
+        public TesterRoot() {
+            this(null);
+        }
+
+        public TesterRoot(File file) {
+            super(new org.apache.catalina.core.TesterContext());
+            this.file = file;
+        }
+
+        @Override
+        protected WebResource getResourceInternal(String path) {
+            if (file != null) {
+                return new FileResource(this, file, path);
+            }
+            return new EmptyResource(this, path);
+        }
+    }
+}
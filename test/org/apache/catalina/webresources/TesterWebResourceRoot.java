@@ -105,6 +105,11 @@ public class TesterWebResourceRoot implements WebResourceRoot {
         return new EmptyResource(this, path);
     }
 
+    @Override
+    public WebResource getCompressedResource(String path, String encoding) {
+        return null;
+    }
+
     @Override
     public WebResource[] getResources(String path) {
         return null;
@@ -231,6 +236,16 @@ public class TesterWebResourceRoot implements WebResourceRoot {
         return 0;
     }
 
+    @Override
+    public void setCacheMappedMaxSize(long cacheMappedMaxSize) {
+        // NO-OP
+    }
+
+    @Override
+    public long getCacheMappedMaxSize() {
+        return 0;
+    }
+
     @Override
     public void addPreResources(WebResourceSet webResourceSet) {
         resources.add(webResourceSet);
@@ -203,6 +203,107 @@ public class TestInternalInputBuffer extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testRequestLine() {
+        doTestRequestLine(new String[] {
+                "POST /test?a=b HTTP/1.0" + SimpleHttpClient.CRLF +
+                "Host: localhost" + SimpleHttpClient.CRLF +
+                "Content-Length: 0" + SimpleHttpClient.CRLF +
+                SimpleHttpClient.CRLF },
+                "POST HTTP/1.0 a=b localhost");
+    }
+
+
+    @Test
+    public void testRequestLineSplit() {
+        // Prevent the methods and protocols from being recognised in one go
+        doTestRequestLine(new String[] {
+                "GE",
+                "T /test?a=b HTTP/1.",
+                "1" + SimpleHttpClient.CRLF + "Ho",
+                "st: localhost" + SimpleHttpClient.CRLF +
+                "Connection: close" + SimpleHttpClient.CRLF +
+                SimpleHttpClient.CRLF },
+                "GET HTTP/1.1 a=b localhost");
+    }
+
+
+    @Test
+    public void testRequestLineOtherMethod() {
+        doTestRequestLine(new String[] {
+                "PUT\t/test  HTTP/1.1\n" +
+                "HOST: localhost\n" +
+                "Content-Length: 0\n" +
+                "Connection: close\n\n" },
+                "PUT HTTP/1.1 null localhost");
+    }
+
+
+    private void doTestRequestLine(String[] request, String expected) {
+        RequestLineClient client = new RequestLineClient(request);
+
+        client.doRequest();
+        assertTrue(client.isResponse200());
+        assertEquals(expected, client.getResponseBody());
+    }
+
+
+    private class RequestLineClient extends SimpleHttpClient {
+
+        private final String[] request;
+
+        public RequestLineClient(String[] request) {
+            this.request = request;
+        }
+
+        private Exception doRequest() {
+
+            Tomcat tomcat = getTomcatInstance();
+
+            Context root = tomcat.addContext("", TEMP_DIR);
+            Tomcat.addServlet(root, "RequestLine", new RequestLineServlet());
+            root.addServletMapping("/test", "RequestLine");
+
+            try {
+                tomcat.start();
+                setPort(tomcat.getConnector().getLocalPort());
+
+                // Open connection
+                connect();
+
+                setRequestPause(100);
+                setRequest(request);
+                processRequest(); // blocks until response has been read
+
+                // Close the connection
+                disconnect();
+            } catch (Exception e) {
+                return e;
+            }
+            return null;
+        }
+
+        @Override
+        public boolean isResponseBodyOK() {
+            return true;
+        }
+    }
+
+
+    private static class RequestLineServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.getWriter().print(req.getMethod() + " " + req.getProtocol() +
+                    " " + req.getQueryString() + " " + req.getHeader("host"));
+        }
+    }
+
+
     private void doTestBug51557Char(char s) {
         Bug51557Client client =
             new Bug51557Client("X-Bug" + s + "51557", "invalid");
@@ -17,7 +17,10 @@
 
 package org.apache.tomcat.util.buf;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
@@ -136,4 +139,34 @@ public class TestByteChunk {
                 'e' }));
         assertEquals(-1, ByteChunk.findBytes(bytes, 2, 5, new byte[] { 'w' }));
     }
+
+    @Test
+    public void testAppendByteBuffer() throws IOException {
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        ByteChunk bc = new ByteChunk(64);
+        bc.setLimit(64);
+        bc.setByteOutputChannel(new ByteChunk.ByteOutputChannel() {
+            @Override
+            public void realWriteBytes(byte[] cbuf, int off, int len) {
+                sink.write(cbuf, off, len);
+            }
+        });
+
+        bc.append((byte) 1);
+        ByteBuffer from = ByteBuffer.wrap(bytes);
+        bc.append(from);
+        bc.flushBuffer();
+
+        assertEquals(0, from.remaining());
+        byte[] result = sink.toByteArray();
+        assertEquals(bytes.length + 1, result.length);
+        assertEquals(1, result[0]);
+        assertTrue(Arrays.equals(bytes,
+                Arrays.copyOfRange(result, 1, result.length)));
+    }
 }
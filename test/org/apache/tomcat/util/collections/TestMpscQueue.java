@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMpscQueue {
+
+    @Test
+    public void testPollEmpty() {
+        MpscQueue<Object> queue = new MpscQueue<>();
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testOfferPollOrder() {
+        MpscQueue<Integer> queue = new MpscQueue<>();
+
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 100; i++) {
+                queue.offer(Integer.valueOf(i));
+            }
+            Assert.assertFalse(queue.isEmpty());
+
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(Integer.valueOf(i), queue.poll());
+            }
+            Assert.assertNull(queue.poll());
+            Assert.assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testOfferNull() {
+        new MpscQueue<>().offer(null);
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final MpscQueue<Integer> queue = new MpscQueue<>();
+        final int producers = 4;
+        final int perProducer = 20000;
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer(Integer.valueOf(base + i));
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        // Values from each producer must arrive in order and exactly once
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            Integer value = queue.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = value.intValue() / perProducer;
+            Assert.assertEquals(next[producer], value.intValue() % perProducer);
+            next[producer]++;
+            received++;
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMpscRingBuffer {
+
+    @Test
+    public void testPollEmpty() {
+        MpscRingBuffer<Object> queue = new MpscRingBuffer<>(4);
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testCapacity() {
+        Assert.assertEquals(1, new MpscRingBuffer<>(1).capacity());
+        Assert.assertEquals(8, new MpscRingBuffer<>(5).capacity());
+        Assert.assertEquals(8, new MpscRingBuffer<>(8).capacity());
+    }
+
+    @Test
+    public void testOfferPollOrderWithWrap() {
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(4);
+
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 4; i++) {
+                Assert.assertTrue(queue.offer(Integer.valueOf(i)));
+            }
+            Assert.assertEquals(4, queue.size());
+            Assert.assertFalse(queue.offer(Integer.valueOf(4)));
+
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(Integer.valueOf(i), queue.poll());
+            }
+            Assert.assertNull(queue.poll());
+            Assert.assertEquals(0, queue.size());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(64);
+        final int producers = 4;
+        final int perProducer = 20000;
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        Integer value = Integer.valueOf(base + i);
+                        while (!queue.offer(value)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        // Values from each producer must arrive in order and exactly once
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            Integer value = queue.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = value.intValue() / perProducer;
+            Assert.assertEquals(next[producer], value.intValue() % perProducer);
+            next[producer]++;
+            received++;
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(queue.poll());
+    }
+}
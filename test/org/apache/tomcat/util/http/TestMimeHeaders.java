@@ -19,6 +19,7 @@ package org.apache.tomcat.util.http;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.SocketException;
+import java.util.Enumeration;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
@@ -26,8 +27,10 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServlet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
@@ -153,6 +156,90 @@ public class TestMimeHeaders extends TomcatBaseTest {
         runHeadersTest(true, tomcat, 300, -1);
     }
 
+    @Test
+    public void testLookupIgnoresCase() {
+        MimeHeaders mh = new MimeHeaders();
+        addBytes(mh, "Content-Type", "text/plain");
+        mh.addValue("X-Custom").setString("a");
+        addBytes(mh, "HOST", "localhost");
+
+        assertEquals("text/plain", mh.getHeader("content-type"));
+        assertEquals("a", mh.getHeader("x-CUSTOM"));
+        assertEquals("localhost", mh.getHeader("Host"));
+        assertNull(mh.getHeader("Content-Length"));
+        assertEquals(2, mh.findHeader("host", 0));
+        assertEquals(-1, mh.findHeader("host", 3));
+
+        // Headers added after a look up
+        addBytes(mh, "content-LENGTH", "10");
+        assertEquals("10", mh.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testDuplicates() {
+        MimeHeaders mh = new MimeHeaders();
+        addBytes(mh, "Accept", "a");
+        addBytes(mh, "Host", "localhost");
+        assertEquals("a", mh.getUniqueValue("accept").toString());
+
+        addBytes(mh, "ACCEPT", "b");
+        mh.addValue("accept").setString("c");
+        assertEquals("a", mh.getHeader("Accept"));
+        assertEquals(0, mh.findHeader("accept", 0));
+        assertEquals(2, mh.findHeader("accept", 1));
+        assertEquals(3, mh.findHeader("accept", 3));
+
+        Enumeration<String> values = mh.values("Accept");
+        assertEquals("a", values.nextElement());
+        assertEquals("b", values.nextElement());
+        assertEquals("c", values.nextElement());
+        assertFalse(values.hasMoreElements());
+
+        try {
+            mh.getUniqueValue("Accept");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRemoveAndRecycle() {
+        MimeHeaders mh = new MimeHeaders();
+        for (int i = 0; i < 20; i++) {
+            addBytes(mh, "Name" + i, "v" + i);
+        }
+        addBytes(mh, "name3", "w3");
+        assertEquals("v19", mh.getHeader("NAME19"));
+
+        mh.removeHeader("Name3");
+        assertNull(mh.getHeader("name3"));
+        assertEquals(19, mh.size());
+        for (int i = 0; i < 20; i++) {
+            if (i != 3) {
+                assertEquals("v" + i, mh.getHeader("name" + i));
+            }
+        }
+
+        mh.setValue("Name5").setString("x");
+        assertEquals("x", mh.getHeader("name5"));
+        mh.setValue("Name20").setString("y");
+        assertEquals("y", mh.getHeader("name20"));
+
+        mh.recycle();
+        assertNull(mh.getHeader("name5"));
+        addBytes(mh, "Name5", "z");
+        assertEquals("z", mh.getHeader("name5"));
+        assertEquals(0, mh.findHeader("NAME5", 0));
+    }
+
+    private static void addBytes(MimeHeaders mh, String name, String value) {
+        byte[] b = (" " + name + value).getBytes();
+        mh.addValue(b, 1, name.length());
+        mh.getValue(mh.size() - 1).setBytes(b, 1 + name.length(),
+                value.length());
+    }
+
     private static final class HeaderCountLogValve extends TesterAccessLogValve {
         public volatile int arraySize = -1;
 
@@ -18,7 +18,11 @@ package org.apache.tomcat.util.http;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -29,6 +33,8 @@ import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import org.apache.tomcat.util.buf.MessageBytes;
+
 public class TestParameters {
 
     private static final Parameter SIMPLE =
@@ -44,6 +50,8 @@ public class TestParameters {
     private static final Parameter UTF8 =
             new Parameter("\ufb6b\ufb6a\ufb72", "\uffee\uffeb\uffe2");
 
+    private boolean lazy = false;
+
     @Test
     public void testProcessParametersByteArrayIntInt() {
         doTestProcessParametersByteArrayIntInt(-1, SIMPLE);
@@ -75,6 +83,84 @@ public class TestParameters {
                 SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
     }
 
+    @Test
+    public void testProcessParametersByteArrayIntIntLazy() {
+        lazy = true;
+        testProcessParametersByteArrayIntInt();
+    }
+
+    @Test
+    public void testLazyDecoding() {
+        Parameters p = new Parameters();
+        p.setLazy(true);
+        p.setEncoding("UTF-8");
+        p.setQueryStringEncoding("UTF-8");
+
+        MessageBytes query = MessageBytes.newInstance();
+        query.setString("a=1&b=x+y&%C3%A9=%C3%A8&a=2");
+        p.setQuery(query);
+        p.handleQueryParameters();
+        byte[] body = "a=3&c&b=%41".getBytes();
+        p.processParameters(body, 0, body.length);
+
+        assertEquals("x y", p.getParameter("b"));
+        assertArrayEquals(new String[] {"1", "2", "3"},
+                p.getParameterValues("a"));
+        assertEquals("\u00e8", p.getParameter("\u00e9"));
+        assertEquals("", p.getParameter("c"));
+        assertNull(p.getParameter("d"));
+
+        // Added values follow the received ones
+        p.addParameter("b", "z");
+        assertArrayEquals(new String[] {"x y", "A", "z"},
+                p.getParameterValues("b"));
+
+        Set<String> names = new HashSet<>(
+                Collections.list(p.getParameterNames()));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "\u00e9")),
+                names);
+        assertFalse(p.isParseFailed());
+
+        // Nothing is kept once recycled
+        p.recycle();
+        query.recycle();
+        assertNull(p.getParameter("a"));
+        body = "a=4".getBytes();
+        p.processParameters(body, 0, body.length);
+        assertEquals("4", p.getParameter("a"));
+    }
+
+    @Test
+    public void testLazyDecodingNullName() {
+        Parameters p = new Parameters();
+        p.setLazy(true);
+        p.setEncoding("UTF-8");
+
+        byte[] body = "a=1".getBytes();
+        p.processParameters(body, 0, body.length);
+
+        assertNull(p.getParameter(null));
+        assertNull(p.getParameterValues(null));
+        assertEquals("1", p.getParameter("a"));
+    }
+
+    @Test
+    public void testLazyDecodingFailure() {
+        Parameters p = new Parameters();
+        p.setLazy(true);
+        p.setEncoding("UTF-8");
+
+        byte[] body = "a=%XY&b=1&c%=2".getBytes();
+        p.processParameters(body, 0, body.length);
+
+        // Failures are only detected when the parameter is decoded
+        assertEquals("1", p.getParameter("b"));
+        assertNull(p.getParameter("a"));
+        assertTrue(p.isParseFailed());
+        assertEquals(Collections.singletonList("b"),
+                Collections.list(p.getParameterNames()));
+    }
+
     // Make sure the inner Parameter class behaves correctly
     @Test
     public void testInternal() {
@@ -105,6 +191,7 @@ public class TestParameters {
         byte[] data = input.toString().getBytes();
 
         Parameters p = new Parameters();
+        p.setLazy(lazy);
         p.setEncoding("UTF-8");
         p.setLimit(limit);
 
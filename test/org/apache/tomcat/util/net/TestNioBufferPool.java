@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestNioBufferPool {
+
+    private static final int SIZE = 1024;
+
+    @Test
+    public void testSlabAllocation() {
+        NioBufferPool pool = new NioBufferPool(SIZE, -1);
+
+        ByteBuffer b1 = pool.allocate(SIZE);
+        assertTrue(b1.isDirect());
+        assertEquals(SIZE, b1.capacity());
+        assertEquals(0, b1.position());
+        assertEquals(SIZE, b1.limit());
+        assertEquals(NioBufferPool.BUFFERS_PER_SLAB, pool.getAllocated());
+        assertEquals(NioBufferPool.BUFFERS_PER_SLAB - 1, pool.getFree());
+        assertEquals(1, pool.getInUse());
+
+        ByteBuffer b2 = pool.allocate(SIZE);
+        assertNotSame(b1, b2);
+        assertEquals(NioBufferPool.BUFFERS_PER_SLAB, pool.getAllocated());
+        assertEquals(2, pool.getInUse());
+
+        // Buffers sliced from the same slab must not overlap
+        b1.put(0, (byte) 1);
+        b2.put(0, (byte) 2);
+        assertEquals(1, b1.get(0));
+
+        b1.position(10);
+        pool.release(b1);
+        assertEquals(1, pool.getInUse());
+        assertEquals(NioBufferPool.BUFFERS_PER_SLAB - 1, pool.getFree());
+
+        // Released buffers are reused and are cleared
+        ByteBuffer b3 = pool.allocate(SIZE);
+        assertSame(b1, b3);
+        assertEquals(0, b3.position());
+        assertEquals(SIZE, b3.limit());
+    }
+
+
+    @Test
+    public void testLimit() {
+        NioBufferPool pool = new NioBufferPool(SIZE, 2 * SIZE);
+
+        ByteBuffer b1 = pool.allocate(SIZE);
+        ByteBuffer b2 = pool.allocate(SIZE);
+        assertEquals(2, pool.getAllocated());
+        assertEquals(0, pool.getFree());
+
+        // Pool exhausted
+        ByteBuffer b3 = pool.allocate(SIZE);
+        assertEquals(SIZE, b3.capacity());
+        assertEquals(2, pool.getAllocated());
+        assertEquals(3, pool.getInUse());
+
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        assertEquals(2, pool.getFree());
+        assertEquals(0, pool.getInUse());
+    }
+
+
+    @Test
+    public void testLargeBuffer() {
+        NioBufferPool pool = new NioBufferPool(SIZE, -1);
+
+        ByteBuffer b1 = pool.allocate(2 * SIZE);
+        assertEquals(2 * SIZE, b1.capacity());
+        assertEquals(0, pool.getAllocated());
+        assertEquals(1, pool.getInUse());
+
+        // Not returned to the pool
+        pool.release(b1);
+        assertEquals(0, pool.getFree());
+        assertEquals(0, pool.getInUse());
+    }
+
+
+    @Test
+    public void testForeignBuffer() {
+        NioBufferPool pool = new NioBufferPool(SIZE, -1);
+        ByteBuffer b1 = pool.allocate(SIZE);
+        int free = pool.getFree();
+
+        // Buffers of the right size that were not sliced from a slab are not
+        // returned to the pool
+        pool.release(ByteBuffer.allocateDirect(SIZE));
+        pool.release(ByteBuffer.allocate(SIZE));
+        assertEquals(free, pool.getFree());
+
+        pool.release(b1);
+        assertEquals(free + 1, pool.getFree());
+    }
+}
@@ -30,13 +30,16 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
+import org.apache.catalina.Context;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
 import org.apache.tomcat.util.buf.ByteChunk;
 
 /**
@@ -81,6 +84,76 @@ public class TestSsl extends TomcatBaseTest {
         assertTrue(res.toString().indexOf("<h1>Hello World!</h1>") > 0);
     }
 
+    @Test
+    public void testHandshakeTaskThreads() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        if (!tomcat.getConnector().getProtocolHandlerClassName().equals(
+                Http11NioProtocol.class.getName())) {
+            // Handshake task threads are only used by the NIO connector
+            return;
+        }
+
+        TesterSupport.configureClientSsl();
+
+        Context ctx =
+            tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+
+        TesterSupport.initSsl(tomcat);
+        tomcat.getConnector().setProperty("handshakeTaskThreads", "2");
+
+        tomcat.start();
+        ByteChunk res = getUrl("https://localhost:" + getPort() + "/");
+        assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+
+        NioEndpoint endpoint = ((Http11NioProtocol) tomcat.getConnector()
+                .getProtocolHandler()).getEndpoint();
+        assertTrue(endpoint.handshakeTaskExecutor.getCompletedTaskCount() > 0);
+        assertTrue(endpoint.getHandshakeCount() > 0);
+    }
+
+    @Test
+    public void testSslBufferPool() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        if (!tomcat.getConnector().getProtocolHandlerClassName().equals(
+                Http11NioProtocol.class.getName())) {
+            // The SSL buffer pool is only used by the NIO connector
+            return;
+        }
+
+        TesterSupport.configureClientSsl();
+
+        Context ctx =
+            tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+
+        TesterSupport.initSsl(tomcat);
+        tomcat.getConnector().setProperty("socket.sslBufferPoolSize",
+                Integer.toString(1024 * 1024));
+
+        tomcat.start();
+        for (int i = 0; i < 3; i++) {
+            ByteChunk res = getUrl("https://localhost:" + getPort() + "/");
+            assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        NioEndpoint endpoint = ((Http11NioProtocol) tomcat.getConnector()
+                .getProtocolHandler()).getEndpoint();
+        assertTrue(endpoint.getSslBufferPoolAllocated() > 0);
+
+        // The connection returns its buffers once it is idle
+        int count = 0;
+        while (endpoint.getSslBufferPoolInUse() > 0 && count < 50) {
+            Thread.sleep(100);
+            count++;
+        }
+        assertEquals(0, endpoint.getSslBufferPoolInUse());
+        assertEquals(endpoint.getSslBufferPoolAllocated(),
+                endpoint.getSslBufferPoolFree());
+    }
+
 
     boolean handshakeDone = false;
 
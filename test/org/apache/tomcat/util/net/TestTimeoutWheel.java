@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestTimeoutWheel {
+
+    private static final long START = 1000000;
+
+    private final List<TimeoutWheel.Entry<String>> expired = new ArrayList<>();
+
+
+    @Test
+    public void testExpire() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<>(100, 8, START);
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<>("a");
+        TimeoutWheel.Entry<String> b = new TimeoutWheel.Entry<>("b");
+        wheel.schedule(a, START + 250);
+        wheel.schedule(b, START + 500);
+        assertTrue(a.isScheduled());
+        assertEquals(2, wheel.size());
+
+        wheel.expire(START + 249, expired);
+        assertTrue(expired.isEmpty());
+
+        wheel.expire(START + 300, expired);
+        assertEquals(1, expired.size());
+        assertSame(a, expired.get(0));
+        assertFalse(a.isScheduled());
+        assertEquals(1, wheel.size());
+        expired.clear();
+
+        wheel.expire(START + 10000, expired);
+        assertEquals(1, expired.size());
+        assertSame(b, expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+
+    @Test
+    public void testDeadlineWithinTick() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<>(100, 8, START);
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<>("a");
+        wheel.schedule(a, START + 150);
+
+        // The slot of the deadline must not be visited before the deadline
+        wheel.expire(START + 120, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(START + 200, expired);
+        assertEquals(1, expired.size());
+    }
+
+
+    @Test
+    public void testMultipleRevolutions() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<>(100, 8, START);
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<>("a");
+        // Two and a half revolutions
+        wheel.schedule(a, START + 2000);
+
+        for (long now = START; now < START + 2000; now += 50) {
+            wheel.expire(now, expired);
+            assertTrue(expired.isEmpty());
+        }
+        wheel.expire(START + 2000, expired);
+        assertEquals(1, expired.size());
+    }
+
+
+    @Test
+    public void testReschedule() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<>(100, 8, START);
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<>("a");
+        TimeoutWheel.Entry<String> b = new TimeoutWheel.Entry<>("b");
+        wheel.schedule(a, START + 200);
+        wheel.schedule(b, START + 200);
+        wheel.schedule(a, START + 600);
+        assertEquals(2, wheel.size());
+        assertEquals(START + 600, a.getDeadline());
+
+        wheel.expire(START + 300, expired);
+        assertEquals(1, expired.size());
+        assertSame(b, expired.get(0));
+        expired.clear();
+
+        wheel.cancel(a);
+        assertFalse(a.isScheduled());
+        assertEquals(0, wheel.size());
+        wheel.expire(START + 1000, expired);
+        assertTrue(expired.isEmpty());
+    }
+
+
+    @Test
+    public void testPastDeadline() {
+        TimeoutWheel<String> wheel = new TimeoutWheel<>(100, 8, START);
+        wheel.expire(START + 500, expired);
+
+        TimeoutWheel.Entry<String> a = new TimeoutWheel.Entry<>("a");
+        wheel.schedule(a, 0);
+        wheel.expire(START + 500, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(START + 600, expired);
+        assertEquals(1, expired.size());
+    }
+}
@@ -21,15 +21,18 @@ import java.io.File;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import org.apache.catalina.Context;
 import org.apache.catalina.connector.Connector;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.jni.Address;
@@ -38,6 +41,7 @@ import org.apache.tomcat.jni.Library;
 import org.apache.tomcat.jni.OS;
 import org.apache.tomcat.jni.Pool;
 import org.apache.tomcat.jni.Socket;
+import org.apache.tomcat.util.buf.ByteChunk;
 
 /**
  * Test case for the Endpoint implementations. The testing framework will ensure
@@ -203,4 +207,46 @@ public class TestXxxEndpoint extends TomcatBaseTest {
         assertNull(e);
         tomcat.getConnector().start();
     }
+
+    @Test
+    public void testReusePort() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector c = tomcat.getConnector();
+        if (!c.getProtocolHandlerClassName().equals(
+                Http11NioProtocol.class.getName())) {
+            // Only the NIO connector supports reusePort
+            return;
+        }
+        c.setProperty("bindOnInit", "false");
+        c.setProperty("reusePort", "true");
+        c.setProperty("pollerThreadCount", "2");
+
+        Context ctx =
+            tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+
+        tomcat.start();
+
+        NioEndpoint endpoint =
+                ((Http11NioProtocol) c.getProtocolHandler()).getEndpoint();
+        if (endpoint.serverSocks != null) {
+            // SO_REUSEPORT is supported
+            assertEquals(2, endpoint.getAcceptorThreadCount());
+            assertEquals(getPort(),
+                    endpoint.serverSocks[1].socket().getLocalPort());
+        }
+
+        for (int i = 0; i < 10; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        // All the server sockets must be closed on stop
+        int port = getPort();
+        tomcat.getConnector().stop();
+        ServerSocket s = new ServerSocket(port, 100,
+                InetAddress.getByName("localhost"));
+        s.close();
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestParallelTaskRunner {
+
+    @Test
+    public void testNoExecutor() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        ParallelTaskRunner.run(null, 4, createTasks(count, 100));
+        Assert.assertEquals(100, count.get());
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AtomicInteger count = new AtomicInteger();
+            ParallelTaskRunner.run(executor, 4, createTasks(count, 1000));
+            Assert.assertEquals(1000, count.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCallerUsesOnlyExecutorThread() throws Exception {
+        // The caller occupies the only thread so it must run every task
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AtomicInteger count = new AtomicInteger();
+            Future<Void> f = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    ParallelTaskRunner.run(executor, 4, createTasks(count, 100));
+                    return null;
+                }
+            });
+            f.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(100, count.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testFailure() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        ParallelTaskRunner.run(null, 1, tasks);
+    }
+
+
+    private static List<Runnable> createTasks(final AtomicInteger count,
+            int size) {
+        List<Runnable> tasks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            });
+        }
+        return tasks;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.xml.processor;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestAnnotationScanIndex {
+
+    private static final long TIME = 1000000000000L;
+
+    private File dir;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("annotationScanIndex", "");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        indexFile = new File(dir, "annotations.idx");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File jar1 = createJar("a.jar", 10);
+        File jar2 = createJar("b.jar", 20);
+
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        Assert.assertNull(index.getAnnotatedEntries(jar1));
+        index.setAnnotatedEntries(jar1,
+                new String[] {"a/A.class", "a/B.class"});
+        index.setAnnotatedEntries(jar2, new String[0]);
+        index.save();
+        Assert.assertTrue(indexFile.isFile());
+
+        index = new AnnotationScanIndex(indexFile);
+        Assert.assertArrayEquals(new String[] {"a/A.class", "a/B.class"},
+                index.getAnnotatedEntries(jar1));
+        Assert.assertArrayEquals(new String[0],
+                index.getAnnotatedEntries(jar2));
+    }
+
+    @Test
+    public void testChangedJar() throws IOException {
+        File jar1 = createJar("a.jar", 10);
+        File jar2 = createJar("b.jar", 20);
+        saveIndex(jar1, jar2);
+
+        // Same size, different time
+        Assert.assertTrue(jar1.setLastModified(TIME + 2000));
+        // Same time, different size
+        createJar("b.jar", 21);
+
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        Assert.assertNull(index.getAnnotatedEntries(jar1));
+        Assert.assertNull(index.getAnnotatedEntries(jar2));
+    }
+
+    @Test
+    public void testAddedJar() throws IOException {
+        File jar1 = createJar("a.jar", 10);
+        saveIndex(jar1);
+
+        File jar2 = createJar("b.jar", 20);
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        Assert.assertNotNull(index.getAnnotatedEntries(jar1));
+        Assert.assertNull(index.getAnnotatedEntries(jar2));
+        index.setAnnotatedEntries(jar2, new String[] {"b/B.class"});
+        index.save();
+
+        index = new AnnotationScanIndex(indexFile);
+        Assert.assertNotNull(index.getAnnotatedEntries(jar1));
+        Assert.assertArrayEquals(new String[] {"b/B.class"},
+                index.getAnnotatedEntries(jar2));
+    }
+
+    @Test
+    public void testRemovedJar() throws IOException {
+        File jar1 = createJar("a.jar", 10);
+        File jar2 = createJar("b.jar", 20);
+        saveIndex(jar1, jar2);
+
+        // Only jar1 is still part of the web application
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        Assert.assertNotNull(index.getAnnotatedEntries(jar1));
+        index.save();
+
+        index = new AnnotationScanIndex(indexFile);
+        Assert.assertNotNull(index.getAnnotatedEntries(jar1));
+        Assert.assertNull(index.getAnnotatedEntries(jar2));
+    }
+
+    @Test
+    public void testTruncatedIndex() throws IOException {
+        File jar1 = createJar("a.jar", 10);
+        File jar2 = createJar("b.jar", 20);
+        saveIndex(jar1, jar2);
+
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        // Nothing is used from a damaged index so every JAR is scanned
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        Assert.assertNull(index.getAnnotatedEntries(jar1));
+        Assert.assertNull(index.getAnnotatedEntries(jar2));
+
+        // The index is rebuilt by the scan
+        index.setAnnotatedEntries(jar1, new String[] {"a/A.class"});
+        index.save();
+        index = new AnnotationScanIndex(indexFile);
+        Assert.assertArrayEquals(new String[] {"a/A.class"},
+                index.getAnnotatedEntries(jar1));
+    }
+
+    @Test
+    public void testCorruptIndex() throws IOException {
+        File jar1 = createJar("a.jar", 10);
+
+        // Valid version followed by a negative JAR count
+        writeIndex(1, -1);
+        Assert.assertNull(
+                new AnnotationScanIndex(indexFile).getAnnotatedEntries(jar1));
+
+        // A count far larger than the file
+        writeIndex(1, Integer.MAX_VALUE);
+        Assert.assertNull(
+                new AnnotationScanIndex(indexFile).getAnnotatedEntries(jar1));
+
+        // A negative number of entries for a JAR
+        try (DataOutputStream dos =
+                new DataOutputStream(new FileOutputStream(indexFile))) {
+            dos.writeInt(1);
+            dos.writeInt(1);
+            dos.writeUTF(jar1.getAbsolutePath());
+            dos.writeLong(jar1.length());
+            dos.writeLong(jar1.lastModified());
+            dos.writeInt(-1);
+        }
+        Assert.assertNull(
+                new AnnotationScanIndex(indexFile).getAnnotatedEntries(jar1));
+
+        // Unknown version
+        writeIndex(Integer.MAX_VALUE, 0);
+        Assert.assertNull(
+                new AnnotationScanIndex(indexFile).getAnnotatedEntries(jar1));
+
+        // Not an index at all
+        try (FileOutputStream fos = new FileOutputStream(indexFile)) {
+            fos.write(new byte[] {1, 2, 3});
+        }
+        Assert.assertNull(
+                new AnnotationScanIndex(indexFile).getAnnotatedEntries(jar1));
+    }
+
+    private File createJar(String name, int size) throws IOException {
+        // The index only looks at the size and the last modified time
+        File jar = new File(dir, name);
+        try (FileOutputStream fos = new FileOutputStream(jar)) {
+            fos.write(new byte[size]);
+        }
+        Assert.assertTrue(jar.setLastModified(TIME));
+        return jar;
+    }
+
+    private void saveIndex(File... jars) {
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        for (File jar : jars) {
+            index.setAnnotatedEntries(jar, new String[] {"x/X.class"});
+        }
+        index.save();
+    }
+
+    private void writeIndex(int version, int count) throws IOException {
+        try (DataOutputStream dos =
+                new DataOutputStream(new FileOutputStream(indexFile))) {
+            dos.writeInt(version);
+            dos.writeInt(count);
+        }
+    }
+}